@@ -54,8 +54,8 @@ public class Aggregate extends Operator {
         
         try {
             child.open();
-            while (child.hasNext())
-                agg.mergeTupleIntoGroup(child.next());
+            for (TupleBatch b = child.nextBatch(); b != null; b = child.nextBatch())
+                agg.mergeBatchIntoGroup(b);
         } catch (Exception e) {}
 
         this.iter = agg.iterator();
@@ -76,6 +76,17 @@ public interface Aggregator extends Serializable {
      */
     public void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merges the selected rows of a batch into the aggregate, as
+     * mergeTupleIntoGroup does for each of them.
+     *
+     * @param b the batch with an aggregate field and a group-by field
+     */
+    public default void mergeBatchIntoGroup(TupleBatch b) {
+        for (int k = 0; k < b.numSelected(); k++)
+            mergeTupleIntoGroup(b.tuple(b.row(k)));
+    }
+
     /**
      * Create a DbIterator over group aggregate results.
      * @see simpledb.TupleIterator for a possible helper
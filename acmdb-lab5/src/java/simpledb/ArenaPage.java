@@ -0,0 +1,21 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A Page that can keep its data in a frame of a {@link PageArena}, or in a
+ * read-only view of its memory-mapped file, instead of on the heap.
+ */
+interface ArenaPage extends Page {
+
+    /** @return the arena frame or mapped view this page reads from, or null if none */
+    ByteBuffer getFrame();
+
+    /**
+     * Moves the contents of this page to the heap so that its frame can be
+     * reused. The page stays fully usable afterwards.
+     *
+     * @return the frame the page used, or null if it had none
+     */
+    ByteBuffer detachFrame();
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.io.*;
 import java.util.*;
+import java.nio.ByteBuffer;
 import java.nio.channels.FileChannel;
 
 import simpledb.Predicate.Op;
@@ -22,6 +23,7 @@ import simpledb.Predicate.Op;
 public class BTreeFile implements DbFile {
 
 	private final File f;
+	private final PageFile io;
 	private final TupleDesc td;
 	private final int tableid ;
 	private int keyField;
@@ -36,6 +38,7 @@ public class BTreeFile implements DbFile {
 	 */
 	public BTreeFile(File f, int key, TupleDesc td) {
 		this.f = f;
+		this.io = new PageFile(f);
 		this.tableid = f.getAbsoluteFile().hashCode();
 		this.keyField = key;
 		this.td = td;
@@ -70,6 +73,25 @@ public class BTreeFile implements DbFile {
 		return td;
 	}
 
+	/**
+	 * Returns true if leaf pages are read from a memory mapping of the file
+	 */
+	public boolean isMapped() {
+		return io.isMapped();
+	}
+
+	/**
+	 * Switch memory-mapped reads on or off. A mapped BTreeFile reads its leaf
+	 * pages as views of the mapping, without copying them; a view is copied
+	 * when its page is first changed. Writes still go through the BufferPool
+	 * and the log as usual.
+	 * 
+	 * @param mapped - true to map the file
+	 */
+	public void setMapped(boolean mapped) {
+		io.setMapped(mapped);
+	}
+
 	/**
 	 * Read a page from the file on disk. This should not be called directly
 	 * but should be called from the BufferPool via getPage()
@@ -79,39 +101,25 @@ public class BTreeFile implements DbFile {
 	 */
 	public Page readPage(PageId pid) {
 		BTreePageId id = (BTreePageId) pid;
-		BufferedInputStream bis = null;
 
 		try {
-			bis = new BufferedInputStream(new FileInputStream(f));
 			if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 				byte pageBuf[] = new byte[BTreeRootPtrPage.getPageSize()];
-				int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BTreeRootPtrPage.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
-				}
+				read(pageBuf, 0);
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				BTreeRootPtrPage p = new BTreeRootPtrPage(id, pageBuf);
 				return p;
 			}
 			else {
-				byte pageBuf[] = new byte[BufferPool.getPageSize()];
-				if (bis.skip(BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) != 
-						BTreeRootPtrPage.getPageSize() + (id.pageNumber()-1) * BufferPool.getPageSize()) {
-					throw new IllegalArgumentException(
-							"Unable to seek to correct place in BTreeFile");
-				}
-				int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-				if (retval == -1) {
-					throw new IllegalArgumentException("Read past end of table");
-				}
-				if (retval < BufferPool.getPageSize()) {
-					throw new IllegalArgumentException("Unable to read "
-							+ BufferPool.getPageSize() + " bytes from BTreeFile");
+				if(id.pgcateg() == BTreePageId.LEAF) {
+					ByteBuffer view = io.view(offset(id), BufferPool.getPageSize());
+					if (view != null) {
+						Debug.log(1, "BTreeFile.readPage: mapped page %d", id.pageNumber());
+						return new BTreeLeafPage(id, view, keyField);
+					}
 				}
+				byte pageBuf[] = new byte[BufferPool.getPageSize()];
+				read(pageBuf, offset(id));
 				Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
 				if(id.pgcateg() == BTreePageId.INTERNAL) {
 					BTreeInternalPage p = new BTreeInternalPage(id, pageBuf, keyField);
@@ -128,14 +136,54 @@ public class BTreeFile implements DbFile {
 			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
-		} finally {
-			// Close the file on success or error
-			try {
-				if (bis != null)
-					bis.close();
-			} catch (IOException ioe) {
-				// Ignore failures closing the file
-			}
+		}
+	}
+
+	/**
+	 * Read a whole page from the given offset, failing if the file ends before it
+	 */
+	private void read(byte[] pageBuf, long offset) throws IOException {
+		if (offset >= io.length()) {
+			throw new IllegalArgumentException("Read past end of table");
+		}
+		if (io.read(pageBuf, offset) < pageBuf.length) {
+			throw new IllegalArgumentException("Unable to read "
+					+ pageBuf.length + " bytes from BTreeFile");
+		}
+	}
+
+	/**
+	 * Returns the offset of a page other than the root pointer page in the file
+	 */
+	private static long offset(BTreePageId id) {
+		return BTreeRootPtrPage.getPageSize() + (long) (id.pageNumber()-1) * BufferPool.getPageSize();
+	}
+
+	/**
+	 * Read a leaf page from disk straight into a PageArena frame, or as a
+	 * view of the mapped file if it is mapped. Other pages are few and hot,
+	 * and are read onto the heap as usual.
+	 * 
+	 * @param pid - the id of the page to read from disk
+	 * @param frame - a free frame of the BufferPool's arena
+	 * @return the page
+	 */
+	public Page readPage(PageId pid, ByteBuffer frame) {
+		BTreePageId id = (BTreePageId) pid;
+		if(id.pgcateg() != BTreePageId.LEAF)
+			return readPage(pid);
+
+		try {
+			long offset = offset(id);
+			if (offset + BufferPool.getPageSize() > io.length())
+				throw new IllegalArgumentException("Read past end of table");
+			if (io.isMapped())
+				return readPage(pid);
+			io.read(frame, offset);
+			Debug.log(1, "BTreeFile.readPage: read page %d", id.pageNumber());
+			return new BTreeLeafPage(id, frame, keyField);
+		} catch (IOException e) {
+			throw new RuntimeException(e);
 		}
 	}
 
@@ -148,25 +196,47 @@ public class BTreeFile implements DbFile {
 	public void writePage(Page page) throws IOException {
 		BTreePageId id = (BTreePageId) page.getId();
 		
-		byte[] data = page.getPageData();
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
-			rf.write(data);
-			rf.close();
+			io.write(page, 0);
 		}
 		else {
-			rf.seek(BTreeRootPtrPage.getPageSize() + (page.getId().pageNumber()-1) * BufferPool.getPageSize());
-			rf.write(data);
-			rf.close();
+			io.write(page, offset(id));
 		}
 	}
+
+	/**
+	 * Write a run of adjacent pages to disk with a single gathering write.
+	 * The root pointer page, page 0, is followed directly by page 1 in the
+	 * file, so it can start a run too.
+	 * 
+	 * @param pages - the pages to write, in page order
+	 */
+	public void writePages(List<Page> pages) throws IOException {
+		if (pages.size() == 1) {
+			writePage(pages.get(0));
+			return;
+		}
+		BTreePageId first = (BTreePageId) pages.get(0).getId();
+		io.write(pages, first.pgcateg() == BTreePageId.ROOT_PTR ? 0 : offset(first));
+	}
+
+
+	// see DbFile.java for javadocs
+	public void force() throws IOException {
+		io.force();
+	}
+
+	// see DbFile.java for javadocs
+	public void close() {
+		io.close();
+	}
 	
 	/**
 	 * Returns the number of pages in this BTreeFile.
 	 */
 	public int numPages() {
 		// we only ever write full pages
-		return (int) ((f.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
+		return (int) ((io.length() - BTreeRootPtrPage.getPageSize())/ BufferPool.getPageSize());
 	}
 
 	/**
@@ -971,15 +1041,12 @@ public class BTreeFile implements DbFile {
 	 */
 	BTreeRootPtrPage getRootPtrPage(TransactionId tid, HashMap<PageId, Page> dirtypages) throws DbException, IOException, TransactionAbortedException {
 		synchronized(this) {
-			if(f.length() == 0) {
+			if(io.length() == 0) {
 				// create the root pointer page and the root page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
 				byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-				bw.write(emptyRootPtrData);
-				bw.write(emptyLeafData);
-				bw.close();
+				io.write(emptyRootPtrData, 0);
+				io.write(emptyLeafData, emptyRootPtrData.length);
 			}
 		}
 
@@ -1035,11 +1102,8 @@ public class BTreeFile implements DbFile {
 		if(headerId == null) {		
 			synchronized(this) {
 				// create the new page
-				BufferedOutputStream bw = new BufferedOutputStream(
-						new FileOutputStream(f, true));
 				byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-				bw.write(emptyData);
-				bw.close();
+				io.append(emptyData);
 				emptyPageNo = numPages();
 			}
 		}
@@ -1070,10 +1134,7 @@ public class BTreeFile implements DbFile {
 		BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 		
 		// write empty page to disk
-		RandomAccessFile rf = new RandomAccessFile(f, "rw");
-		rf.seek(BTreeRootPtrPage.getPageSize() + (emptyPageNo-1) * BufferPool.getPageSize());
-		rf.write(BTreePage.createEmptyPageData());
-		rf.close();
+		io.write(BTreePage.createEmptyPageData(), offset(newPageId));
 		
 		// make sure the page is not in the buffer pool	or in the local cache		
 		Database.getBufferPool().discardPage(newPageId);
@@ -1224,10 +1285,25 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
-		curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+		curp = pin(f.findLeafPage(tid, root, Permissions.READ_ONLY, null).getId());
 		it = curp.iterator();
 	}
 
+	/**
+	 * Pin the given leaf page, releasing the pin on the current one
+	 */
+	private BTreeLeafPage pin(BTreePageId pid) throws DbException, TransactionAbortedException {
+		unpin();
+		return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	private void unpin() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+			curp = null;
+		}
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples or
 	 * from the next page by following the right sibling pointer.
@@ -1242,11 +1318,10 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 		while (it == null && curp != null) {
 			BTreePageId nextp = curp.getRightSiblingId();
 			if(nextp == null) {
-				curp = null;
+				unpin();
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = pin(nextp);
 				it = curp.iterator();
 				if (!it.hasNext())
 					it = null;
@@ -1272,7 +1347,7 @@ class BTreeFileIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
-		curp = null;
+		unpin();
 	}
 }
 
@@ -1309,16 +1384,33 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
 				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
 		BTreePageId root = rootPtr.getRootId();
+		BTreeLeafPage leaf;
 		if(ipred.getOp() == Op.EQUALS || ipred.getOp() == Op.GREATER_THAN 
 				|| ipred.getOp() == Op.GREATER_THAN_OR_EQ) {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
+			leaf = f.findLeafPage(tid, root, Permissions.READ_ONLY, ipred.getField());
 		}
 		else {
-			curp = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
+			leaf = f.findLeafPage(tid, root, Permissions.READ_ONLY, null);
 		}
+		curp = pin(leaf.getId());
 		it = curp.iterator();
 	}
 
+	/**
+	 * Pin the given leaf page, releasing the pin on the current one
+	 */
+	private BTreeLeafPage pin(BTreePageId pid) throws DbException, TransactionAbortedException {
+		unpin();
+		return (BTreeLeafPage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY);
+	}
+
+	private void unpin() {
+		if (curp != null) {
+			Database.getBufferPool().unpinPage(tid, curp.getId());
+			curp = null;
+		}
+	}
+
 	/**
 	 * Read the next tuple either from the current page if it has more tuples matching
 	 * the predicate or from the next page by following the right sibling pointer.
@@ -1338,12 +1430,16 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 				else if(ipred.getOp() == Op.LESS_THAN || ipred.getOp() == Op.LESS_THAN_OR_EQ) {
 					// if the predicate was not satisfied and the operation is less than, we have
 					// hit the end
+					unpin();
+					it = null;
 					return null;
 				}
 				else if(ipred.getOp() == Op.EQUALS && 
 						t.getField(f.keyField()).compare(Op.GREATER_THAN, ipred.getField())) {
 					// if the tuple is now greater than the field passed in and the operation
 					// is equals, we have reached the end
+					unpin();
+					it = null;
 					return null;
 				}
 			}
@@ -1351,11 +1447,12 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 			BTreePageId nextp = curp.getRightSiblingId();
 			// if there are no more pages to the right, end the iteration
 			if(nextp == null) {
+				unpin();
+				it = null;
 				return null;
 			}
 			else {
-				curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
-						nextp, Permissions.READ_ONLY);
+				curp = pin(nextp);
 				it = curp.iterator();
 			}
 		}
@@ -1377,5 +1474,6 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 	public void close() {
 		super.close();
 		it = null;
+		unpin();
 	}
 }
@@ -209,7 +209,7 @@ public class BTreeFileEncoder {
 		DbFileIterator it = Database.getCatalog().getDatabaseFile(heapf.getId()).iterator(tid);
 		it.open();
 		while (it.hasNext()) {
-			Tuple tup = it.next();
+			Tuple tup = it.next().materialize();
 			tuples.add(tup);
 		}
 		it.close();
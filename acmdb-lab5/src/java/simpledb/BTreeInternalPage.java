@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 import simpledb.Predicate.Op;
 
@@ -61,6 +62,10 @@ public class BTreeInternalPage extends BTreePage {
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
 	 * 
+	 * <p>
+	 * data becomes the before-image of the page, so the caller must not
+	 * change it afterwards.
+	 * 
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
 	 * @param key - the field which the index is keyed on
@@ -108,7 +113,7 @@ public class BTreeInternalPage extends BTreePage {
 		}
 		dis.close();
 
-		setBeforeImage();
+		oldData = data;
 	}
 
 	/** 
@@ -140,12 +145,7 @@ public class BTreeInternalPage extends BTreePage {
         -- used by recovery */
 	public BTreeInternalPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeInternalPage(pid,oldDataRef,keyField);
+			return new BTreeInternalPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -154,13 +154,6 @@ public class BTreeInternalPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
-	}
-
 	/**
 	 * Read keys from the source file.
 	 */
@@ -232,105 +225,38 @@ public class BTreeInternalPage extends BTreePage {
 	 * @return A byte array correspond to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent pointer
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// write out the child page category
-		try {
-			dos.writeByte((byte) childCategory);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the keys
-		// start from 1 because the first key slot is not used
-		// since a node with m keys has m+1 pointers
-		for (int i=1; i<keys.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getFieldType(keyField).getLen(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				keys[i].serialize(dos);
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-
-		}
-
-		// create the child pointers
-		for (int i=0; i<children.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<INDEX_SIZE; j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			try {
-				dos.writeInt(children[i]);
-
-			} catch (IOException e) {
-				e.printStackTrace();
-			}
-		}
+		byte[] data = new byte[BufferPool.getPageSize()];
+		getPageData(ByteBuffer.wrap(data));
+		return data;
+	}
 
-		// padding
-		int zerolen = BufferPool.getPageSize() - (INDEX_SIZE + 1 + header.length + 
-				td.getFieldType(keyField).getLen() * (keys.length - 1) + INDEX_SIZE * children.length); 
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+	public void getPageData(ByteBuffer dst) {
+		int start = dst.position();
+		int keySize = td.getFieldType(keyField).getLen();
+		PageArena.clear(dst, start, BufferPool.getPageSize());
 
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		// the parent pointer and the child page category
+		dst.putInt(start, parent);
+		dst.put(start + INDEX_SIZE, (byte) childCategory);
 
-		return baos.toByteArray();
+		int offset = start + INDEX_SIZE + 1;
+		for (int i=0; i<header.length; i++)
+			dst.put(offset + i, header[i]);
+		offset += header.length;
+
+		// the keys; the first key slot is not used, since a node with m
+		// keys has m+1 pointers
+		for (int i=1; i<keys.length; i++)
+			if (isSlotUsed(i))
+				keys[i].serialize(dst, offset + (i - 1) * keySize);
+		offset += (keys.length - 1) * keySize;
+
+		// the child pointers
+		for (int i=0; i<children.length; i++)
+			if (isSlotUsed(i))
+				dst.putInt(offset + i * INDEX_SIZE, children[i]);
+
+		dst.position(start + BufferPool.getPageSize());
 	}
 
 	/**
@@ -352,6 +278,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to delete entry on invalid page or table");
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to delete null entry.");
+		beforeChange();
 		if(deleteRightChild) {
 			markSlotUsed(rid.tupleno(), false); 
 		}
@@ -409,6 +336,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("tried to update entry on invalid page or table");
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to update null entry.");
+		beforeChange();
 		
 		for(int i = rid.tupleno() + 1; i < numSlots; i++) {
 			if(isSlotUsed(i)) {
@@ -446,6 +374,7 @@ public class BTreeInternalPage extends BTreePage {
 
 		if(e.getLeftChild().getTableId() != pid.getTableId() || e.getRightChild().getTableId() != pid.getTableId())
 			throw new DbException("table id mismatch in insertEntry");
+		beforeChange();
 
 		if(childCategory == 0) {
 			if(e.getLeftChild().pgcateg() != e.getRightChild().pgcateg())
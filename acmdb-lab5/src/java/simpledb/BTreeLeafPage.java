@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of BTreeLeafPage stores data for one page of a BTreeFile and 
@@ -11,7 +12,7 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class BTreeLeafPage extends BTreePage {
+public class BTreeLeafPage extends BTreePage implements ArenaPage {
 	private final byte header[];
 	private final Tuple tuples[];
 	private final int numSlots;
@@ -19,6 +20,9 @@ public class BTreeLeafPage extends BTreePage {
 	private int leftSibling; // leaf node or 0
 	private int rightSibling; // leaf node or 0
 
+	// as in HeapPage: the frame tuples are decoded from, null if on the heap
+	private volatile ByteBuffer buf;
+
 	public void checkRep(int fieldid, Field lowerBound, Field upperBound, boolean checkoccupancy, int depth) {
 		Field prev = lowerBound;
 		assert(this.getId().pgcateg() == BTreePageId.LEAF);
@@ -57,6 +61,10 @@ public class BTreeLeafPage extends BTreePage {
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
 	 * 
+	 * <p>
+	 * data becomes the before-image of the page, so the caller must not
+	 * change it afterwards.
+	 * 
 	 * @param id - the id of this page
 	 * @param data - the raw data of this page
 	 * @param key - the field which the index is keyed on
@@ -103,7 +111,31 @@ public class BTreeLeafPage extends BTreePage {
 		}
 		dis.close();
 
-		setBeforeImage();
+		oldData = data;
+	}
+
+	/**
+	 * Create a BTreeLeafPage that reads its tuples directly from frame,
+	 * which holds the page in the same format as the byte array constructor
+	 * takes. The before-image is only copied out of the frame when the page
+	 * is first modified. A read-only frame, i.e. a view of a mapped file, is
+	 * copied to the heap at that point too.
+	 * 
+	 * @param id - the id of this page
+	 * @param frame - the PageArena frame or mapped view holding the page
+	 * @param key - the field which the index is keyed on
+	 */
+	public BTreeLeafPage(BTreePageId id, ByteBuffer frame, int key) throws IOException {
+		super(id, key);
+		this.numSlots = getMaxTuples();
+		this.parent = frame.getInt(0);
+		this.leftSibling = frame.getInt(INDEX_SIZE);
+		this.rightSibling = frame.getInt(2 * INDEX_SIZE);
+		this.header = new byte[getHeaderSize()];
+		for (int i=0; i<header.length; i++)
+			header[i] = frame.get(3 * INDEX_SIZE + i);
+		this.tuples = null;
+		this.buf = frame;
 	}
 
 	/** 
@@ -132,12 +164,7 @@ public class BTreeLeafPage extends BTreePage {
         -- used by recovery */
 	public BTreeLeafPage getBeforeImage(){
 		try {
-			byte[] oldDataRef = null;
-			synchronized(oldDataLock)
-			{
-				oldDataRef = oldData;
-			}
-			return new BTreeLeafPage(pid,oldDataRef,keyField);
+			return new BTreeLeafPage(pid,getBeforeImageData(),keyField);
 		} catch (IOException e) {
 			e.printStackTrace();
 			//should never happen -- we parsed it OK before!
@@ -146,11 +173,42 @@ public class BTreeLeafPage extends BTreePage {
 		return null;
 	}
 
-	public void setBeforeImage() {
-		synchronized(oldDataLock)
-		{
-			oldData = getPageData().clone();
-		}
+	/**
+	 * Also moves a page that is a read-only view of its mapped file to the
+	 * heap, where it can be changed.
+	 */
+	@Override
+	protected void beforeChange() {
+		super.beforeChange();
+		if (buf != null && buf.isReadOnly())
+			buf = ByteBuffer.wrap(PageArena.copy(buf));
+	}
+
+	public ByteBuffer getFrame() {
+		ByteBuffer b = buf;
+		return b != null && b.isDirect() ? b : null;
+	}
+
+	public synchronized ByteBuffer detachFrame() {
+		ByteBuffer frame = getFrame();
+		if (frame != null)
+			buf = ByteBuffer.wrap(PageArena.copy(frame));
+		return frame;
+	}
+
+	/** @return the offset of slot i in the page data */
+	private int slotOffset(int i) {
+		return 3 * INDEX_SIZE + header.length + i * td.getSize();
+	}
+
+	/** @return the key of the tuple in slot i, which must be in use */
+	private Field getKey(int i) {
+		if (tuples != null)
+			return tuples[i].getField(keyField);
+		int offset = slotOffset(i);
+		for (int j=0; j<keyField; j++)
+			offset += td.getFieldType(j).getLen();
+		return td.getFieldType(keyField).parse(buf, offset);
 	}
 
 	/**
@@ -199,84 +257,32 @@ public class BTreeLeafPage extends BTreePage {
 	 * @return A byte array corresponding to the bytes of this page.
 	 */
 	public byte[] getPageData() {
-		int len = BufferPool.getPageSize();
-		ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-		DataOutputStream dos = new DataOutputStream(baos);
-
-		// write out the parent and sibling pointers
-		try {
-			dos.writeInt(parent);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(leftSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-		try {
-			dos.writeInt(rightSibling);
-
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
-
-		// create the header of the page
-		for (int i=0; i<header.length; i++) {
-			try {
-				dos.writeByte(header[i]);
-			} catch (IOException e) {
-				// this really shouldn't happen
-				e.printStackTrace();
-			}
-		}
-
-		// create the tuples
-		for (int i=0; i<tuples.length; i++) {
-
-			// empty slot
-			if (!isSlotUsed(i)) {
-				for (int j=0; j<td.getSize(); j++) {
-					try {
-						dos.writeByte(0);
-					} catch (IOException e) {
-						e.printStackTrace();
-					}
-
-				}
-				continue;
-			}
-
-			// non-empty slot
-			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
-				try {
-					f.serialize(dos);
-
-				} catch (IOException e) {
-					e.printStackTrace();
-				}
-			}
-		}
-
-		// padding
-		int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length + 3 * INDEX_SIZE); //- numSlots * td.getSize();
-		byte[] zeroes = new byte[zerolen];
-		try {
-			dos.write(zeroes, 0, zerolen);
-		} catch (IOException e) {
-			e.printStackTrace();
-		}
+		byte[] data = new byte[BufferPool.getPageSize()];
+		getPageData(ByteBuffer.wrap(data));
+		return data;
+	}
 
-		try {
-			dos.flush();
-		} catch (IOException e) {
-			e.printStackTrace();
+	public void getPageData(ByteBuffer dst) {
+		int start = dst.position();
+		int len = BufferPool.getPageSize();
+		if (buf != null) {
+			ByteBuffer src = buf.duplicate();
+			src.clear();
+			dst.put(src);
+		} else {
+			PageArena.clear(dst, start, len);
+			for (int i=0; i<header.length; i++)
+				dst.put(start + 3 * INDEX_SIZE + i, header[i]);
+			for (int i=0; i<tuples.length; i++)
+				if (isSlotUsed(i))
+					PageArena.writeTuple(dst, start + slotOffset(i), tuples[i]);
+			dst.position(start + len);
 		}
 
-		return baos.toByteArray();
+		// the parent and sibling pointers
+		dst.putInt(start, parent);
+		dst.putInt(start + INDEX_SIZE, leftSibling);
+		dst.putInt(start + 2 * INDEX_SIZE, rightSibling);
 	}
 
 	/**
@@ -286,7 +292,7 @@ public class BTreeLeafPage extends BTreePage {
 	 *         already empty.
 	 * @param t The tuple to delete
 	 */
-	public void deleteTuple(Tuple t) throws DbException {
+	public synchronized void deleteTuple(Tuple t) throws DbException {
 		RecordId rid = t.getRecordId();
 		if(rid == null)
 			throw new DbException("tried to delete tuple with null rid");
@@ -294,6 +300,9 @@ public class BTreeLeafPage extends BTreePage {
 			throw new DbException("tried to delete tuple on invalid page or table");
 		if (!isSlotUsed(rid.tupleno()))
 			throw new DbException("tried to delete null tuple.");
+		beforeChange();
+		if (tuples == null)
+			PageArena.clear(buf, slotOffset(rid.tupleno()), td.getSize());
 		markSlotUsed(rid.tupleno(), false);
 		t.setRecordId(null);
 	}
@@ -306,7 +315,7 @@ public class BTreeLeafPage extends BTreePage {
 	 *         is mismatch.
 	 * @param t The tuple to add.
 	 */
-	public void insertTuple(Tuple t) throws DbException {
+	public synchronized void insertTuple(Tuple t) throws DbException {
 		if (!t.getTupleDesc().equals(td))
 			throw new DbException("type mismatch, in addTuple");
 
@@ -321,13 +330,14 @@ public class BTreeLeafPage extends BTreePage {
 
 		if (emptySlot == -1)
 			throw new DbException("called addTuple on page with no empty slots.");
+		beforeChange();
 
 		// find the last key less than or equal to the key being inserted
 		int lessOrEqKey = -1;
 		Field key = t.getField(keyField);
 		for (int i=0; i<numSlots; i++) {
 			if(isSlotUsed(i)) {
-				if(tuples[i].getField(keyField).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
+				if(getKey(i).compare(Predicate.Op.LESS_THAN_OR_EQ, key))
 					lessOrEqKey = i;
 				else
 					break;	
@@ -355,7 +365,10 @@ public class BTreeLeafPage extends BTreePage {
 		Debug.log(1, "BTreeLeafPage.insertTuple: new tuple, tableId = %d pageId = %d slotId = %d", pid.getTableId(), pid.pageNumber(), goodSlot);
 		RecordId rid = new RecordId(pid, goodSlot);
 		t.setRecordId(rid);
-		tuples[goodSlot] = t;
+		if (tuples != null)
+			tuples[goodSlot] = t;
+		else
+			PageArena.writeTuple(buf, slotOffset(goodSlot), t);
 	}
 
 	/**
@@ -365,9 +378,16 @@ public class BTreeLeafPage extends BTreePage {
 	private void moveRecord(int from, int to) {
 		if(!isSlotUsed(to) && isSlotUsed(from)) {
 			markSlotUsed(to, true);
-			RecordId rid = new RecordId(pid, to);
-			tuples[to] = tuples[from];
-			tuples[to].setRecordId(rid);
+			if (tuples != null) {
+				RecordId rid = new RecordId(pid, to);
+				tuples[to] = tuples[from];
+				tuples[to].setRecordId(rid);
+			} else {
+				int src = slotOffset(from), dst = slotOffset(to);
+				for (int i=0; i<td.getSize(); i++)
+					buf.put(dst + i, buf.get(src + i));
+				PageArena.clear(buf, src, td.getSize());
+			}
 			markSlotUsed(from, false);
 		}
 	}
@@ -400,6 +420,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setLeftSiblingId(BTreePageId id) throws DbException {
+		beforeChange();
 		if(id == null) {
 			leftSibling = 0;
 		}
@@ -420,6 +441,7 @@ public class BTreeLeafPage extends BTreePage {
 	 * @throws DbException if the id is not valid
 	 */
 	public void setRightSiblingId(BTreePageId id) throws DbException {
+		beforeChange();
 		if(id == null) {
 			rightSibling = 0;
 		}
@@ -473,6 +495,8 @@ public class BTreeLeafPage extends BTreePage {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		if (buf != null)
+			buf.put(3 * INDEX_SIZE + headerbyte, header[headerbyte]);
 	}
 
 	/**
@@ -491,6 +515,17 @@ public class BTreeLeafPage extends BTreePage {
 		return new BTreeLeafPageReverseIterator(this);
 	}
 
+	/** Decodes the tuple in slot i of a frame page. */
+	private Tuple readTuple(int i) {
+		ByteBuffer b;
+		Tuple t;
+		do {
+			b = buf;
+			t = PageArena.readTuple(b, slotOffset(i), td, new RecordId(pid, i));
+		} while (b != buf); // detached while decoding, read the heap copy
+		return t;
+	}
+
 	/**
 	 * protected method used by the iterator to get the ith tuple out of this page
 	 * @param i - the index of the tuple
@@ -499,7 +534,7 @@ public class BTreeLeafPage extends BTreePage {
 	 */
 	Tuple getTuple(int i) throws NoSuchElementException {
 
-		if (i >= tuples.length)
+		if (i >= numSlots)
 			throw new NoSuchElementException();
 
 		try {
@@ -509,6 +544,8 @@ public class BTreeLeafPage extends BTreePage {
 			}
 
 			Debug.log(1, "BTreeLeafPage.getTuple: returning tuple %d", i);
+			if (tuples == null)
+				return readTuple(i);
 			return tuples[i];
 
 		} catch (ArrayIndexOutOfBoundsException e) {
@@ -24,6 +24,7 @@ public abstract class BTreePage implements Page {
 	protected final int keyField;
 
 	protected int parent; // parent is always internal node or 0 for root node
+	// the before-image, or null if the page has not changed since it was set
 	protected byte[] oldData;
 	protected final Byte oldDataLock=new Byte((byte)0);
 
@@ -64,6 +65,43 @@ public abstract class BTreePage implements Page {
 		return pid;
 	}
 
+	/**
+	 * The before-image is captured lazily: a page read from disk keeps the
+	 * array it was read from, and a page whose before-image was set keeps
+	 * nothing until {@link #beforeChange} copies it out ahead of its next
+	 * change. Read-only pages therefore never serialize themselves.
+	 */
+	public void setBeforeImage() {
+		synchronized(oldDataLock)
+		{
+			oldData = null;
+		}
+	}
+
+	/**
+	 * @return the data of the before-image of this page
+	 */
+	protected byte[] getBeforeImageData() {
+		synchronized(oldDataLock)
+		{
+			// a page that has not changed is its own before-image
+			return oldData != null ? oldData : getPageData();
+		}
+	}
+
+	/**
+	 * Captures the before-image of this page ahead of its first change
+	 * since the before-image was set. Every method that changes the page
+	 * must call this first.
+	 */
+	protected void beforeChange() {
+		synchronized(oldDataLock)
+		{
+			if (oldData == null)
+				oldData = getPageData();
+		}
+	}
+
 	/**
 	 * Static method to generate a byte array corresponding to an empty
 	 * BTreePage.
@@ -104,6 +142,7 @@ public abstract class BTreePage implements Page {
 		if(id.pgcateg() != BTreePageId.INTERNAL && id.pgcateg() != BTreePageId.ROOT_PTR) {
 			throw new DbException("parent must be an internal node or root pointer");
 		}
+		beforeChange();
 		if(id.pgcateg() == BTreePageId.ROOT_PTR) {
 			parent = 0;
 		}
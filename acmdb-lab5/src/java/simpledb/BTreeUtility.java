@@ -146,8 +146,7 @@ public class BTreeUtility {
 		generateRandomTuples(columns, rows, maxValue, columnSpecification, tuples);
 		
 		// Convert the tuples list to a B+ tree file
-		File hFile = File.createTempFile("table", ".dat");
-		hFile.deleteOnExit();
+		File hFile = HeapFile.createTempFile("table");
 
 		File bFile = File.createTempFile("table_index", ".dat");
 		bFile.deleteOnExit();
@@ -402,8 +401,7 @@ public class BTreeUtility {
 		}
 
 		// Convert the tuples list to a B+ tree file
-		File hFile = File.createTempFile("table", ".dat");
-		hFile.deleteOnExit();
+		File hFile = HeapFile.createTempFile("table");
 
 		File bFile = File.createTempFile("table_index", ".dat");
 		bFile.deleteOnExit();
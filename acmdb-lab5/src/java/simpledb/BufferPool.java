@@ -1,8 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -25,22 +33,245 @@ public class BufferPool {
     other classes. BufferPool should use the numPages argument to the
     constructor instead. */
     public static final int DEFAULT_PAGES = 50;
+
+    /** Default limit on the number of pages a scan prefetches ahead. */
+    public static final int DEFAULT_READ_AHEAD = 32;
+
+    /** Default limit on the number of adjacent pages read or written with one call. */
+    public static final int DEFAULT_IO_PAGES = 16;
+
+    /** Background threads that serve prefetch requests. */
+    private static final int READ_AHEAD_THREADS = 4;
+
+    /** Default number of pages per second the page cleaner writes. */
+    public static final int DEFAULT_CLEANER_RATE = 1000;
+
+    /** The page cleaner wakes up this often, in milliseconds. */
+    private static final int CLEANER_TICK = 10;
+
+    /** Orders pages by file, then by page number. */
+    private static final Comparator<PageId> FILE_ORDER =
+        Comparator.comparingInt(PageId::getTableId).thenComparingInt(PageId::pageNumber);
     
-    private final HashMap<PageId, Page> pageMap;    
+    /*
+     * Cache hits only read pageMap and never take the BufferPool monitor.
+     * Misses register a future in loadingMap so that concurrent requests for
+     * the same page wait for a single readPage call, and only installing the
+     * loaded frame (which may evict) is serialized on the monitor.
+     */
+    private final ConcurrentHashMap<PageId, Page> pageMap;
+    private final ConcurrentHashMap<PageId, CompletableFuture<Page>> loadingMap;
+    /*
+     * The page LSNs of committed changes that are not on disk yet (NO FORCE):
+     * the log offset of the last update record of each such page. The log
+     * must be forced through it before the page is written.
+     */
+    private final ConcurrentHashMap<PageId, Long> pageLsns;
+    /*
+     * Pin counts of the frames operators are still reading, by the
+     * transaction that pinned them. A page is pinned while it has an entry;
+     * eviction passes pinned pages over. Each inner map is only read and
+     * updated inside compute calls on its page's entry.
+     */
+    private final ConcurrentHashMap<PageId, Map<TransactionId, Integer>> pins;
+    /*
+     * The tables each transaction is bulk loading without logging: the
+     * pages it appends to them go to disk without being logged, and the log
+     * only has to be forced through the BULK_LOAD record first.
+     */
+    private final ConcurrentHashMap<TransactionId, Map<Integer, BulkLoad>> bulkLoads;
+
+    private static class BulkLoad {
+        final long lsn;        // of the BULK_LOAD record
+        final int firstPage;   // pages before it are logged as usual
+
+        BulkLoad(long lsn, int firstPage) {
+            this.lsn = lsn;
+            this.firstPage = firstPage;
+        }
+    }
     private final TransactionManager mgr;
+    private final ReplacementPolicy policy;
     private final int maxPage;
+    private final PageArena arena;
+
+    private final LongAdder hits;
+    private final LongAdder misses;
+    private final LongAdder readAheads;
+
+    private final ThreadPoolExecutor readAheadExecutor;
+    private volatile int maxReadAhead;
+    private volatile int maxIoPages;
+    private volatile boolean force;
+
+    /*
+     * The page cleaner writes committed pages back in the background, so
+     * that eviction finds clean victims. It runs while there is work and
+     * exits when every committed change is on disk; commit restarts it.
+     */
+    private final ThreadPoolExecutor cleanerExecutor;
+    private final AtomicBoolean cleanerRunning;
+    private final TransactionId cleanerTid;
+    private final Set<PageId> cleaned;
+    private volatile int cleanerRate;
+    private final LongAdder pagesCleaned;
+    private final LongAdder cleanerFailures;
+    private final LongAdder foregroundWrites;
+    private final LongAdder foregroundWritesAvoided;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * Creates a BufferPool that caches up to numPages pages, evicting with
+     * the CLOCK policy.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
+        this(numPages, new ClockPolicy(numPages));
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and uses the
+     * given policy to choose which page to evict.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param policy the replacement policy, sized for numPages pages
+     */
+    public BufferPool(int numPages, ReplacementPolicy policy) {
+        this(numPages, policy, null);
+    }
+
+    /**
+     * Creates a BufferPool whose pages live off the Java heap in the frames
+     * of the given arena, one page per frame, evicting with the CLOCK policy.
+     * Size the arena in bytes, e.g. <code>new PageArena(4L &lt;&lt; 30)</code>.
+     *
+     * @param arena the frames to cache pages in
+     */
+    public BufferPool(PageArena arena) {
+        this(arena, new ClockPolicy(arena.numFrames()));
+    }
+
+    /**
+     * Creates an off-heap BufferPool like {@link #BufferPool(PageArena)}
+     * that uses the given policy to choose which page to evict.
+     *
+     * @param arena the frames to cache pages in
+     * @param policy the replacement policy, sized for arena.numFrames() pages
+     */
+    public BufferPool(PageArena arena, ReplacementPolicy policy) {
+        this(arena.numFrames(), policy, arena);
+    }
+
+    private BufferPool(int numPages, ReplacementPolicy policy, PageArena arena) {
         maxPage = numPages;
-        pageMap = new HashMap<>();                
-        mgr = new TransactionManager();        
+        this.arena = arena;
+        pageMap = new ConcurrentHashMap<>();
+        loadingMap = new ConcurrentHashMap<>();
+        pageLsns = new ConcurrentHashMap<>();
+        pins = new ConcurrentHashMap<>();
+        bulkLoads = new ConcurrentHashMap<>();
+        mgr = new TransactionManager();
+        this.policy = policy;
+        hits = new LongAdder();
+        misses = new LongAdder();
+        readAheads = new LongAdder();
+
+        // idle threads exit, so an unused or replaced pool leaves none behind
+        readAheadExecutor = new ThreadPoolExecutor(READ_AHEAD_THREADS, READ_AHEAD_THREADS,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "BufferPool read-ahead");
+                    t.setDaemon(true);
+                    return t;
+                });
+        readAheadExecutor.allowCoreThreadTimeOut(true);
+        maxReadAhead = DEFAULT_READ_AHEAD;
+        maxIoPages = DEFAULT_IO_PAGES;
+
+        cleanerExecutor = new ThreadPoolExecutor(1, 1,
+                1, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+                    Thread t = new Thread(r, "BufferPool page cleaner");
+                    t.setDaemon(true);
+                    return t;
+                });
+        cleanerExecutor.allowCoreThreadTimeOut(true);
+        cleanerRunning = new AtomicBoolean();
+        cleanerTid = new TransactionId();
+        cleaned = ConcurrentHashMap.newKeySet();
+        cleanerRate = DEFAULT_CLEANER_RATE;
+        pagesCleaned = new LongAdder();
+        cleanerFailures = new LongAdder();
+        foregroundWrites = new LongAdder();
+        foregroundWritesAvoided = new LongAdder();
     }
     
+    /** @return the maximum number of pages this buffer pool caches */
+    public int getMaxPages() {
+        return maxPage;
+    }
+
+    /** @return the most pages a scan may prefetch ahead of itself */
+    public int getMaxReadAhead() {
+        return maxReadAhead;
+    }
+
+    /**
+     * Limits how far ahead sequential scans prefetch.
+     *
+     * @param pages the largest read-ahead window, 0 to disable read-ahead
+     */
+    public void setMaxReadAhead(int pages) {
+        maxReadAhead = Math.max(0, pages);
+    }
+
+    /** @return the most adjacent pages read or written with a single call */
+    public int getMaxIoPages() {
+        return maxIoPages;
+    }
+
+    /**
+     * Limits how many adjacent pages are coalesced into one read, when a
+     * sequential scan misses or prefetches, or into one write, when pages
+     * are flushed.
+     *
+     * @param pages the most pages per call, 1 to do I/O one page at a time
+     */
+    public void setMaxIoPages(int pages) {
+        maxIoPages = Math.max(1, pages);
+    }
+
+    /** @return true if commit writes a transaction's pages to disk */
+    public boolean isForce() {
+        return force;
+    }
+
+    /**
+     * Chooses what commit does with the pages a transaction dirtied. By
+     * default (NO FORCE) it only logs their after-images and forces the
+     * log; the pages reach disk later, when evicted or at a checkpoint.
+     * With force set, commit also writes them out before it returns.
+     *
+     * @param force true to write a transaction's pages at commit
+     */
+    public void setForce(boolean force) {
+        this.force = force;
+    }
+
+    /** @return the number of pages per second the page cleaner writes */
+    public int getCleanerRate() {
+        return cleanerRate;
+    }
+
+    /**
+     * Sets how fast the background page cleaner writes committed pages
+     * back to disk.
+     *
+     * @param pagesPerSecond the cleaner's write rate, 0 to disable it
+     */
+    public void setCleanerRate(int pagesPerSecond) {
+        cleanerRate = Math.max(0, pagesPerSecond);
+        wakeCleaner();
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -73,33 +304,444 @@ public class BufferPool {
      * @param perm the requested permissions on the page
      */
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return getPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Retrieve the specified page with the associated permissions, like
+     * {@link #getPage(TransactionId, PageId, Permissions)}, with a use-once
+     * hint from a sequential scan. A hit is not recorded as an access, and
+     * on a miss the page is loaded into a frame recycled from the ring.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring of frames, or null for a normal access
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
         throws TransactionAbortedException, DbException {
         mgr.acquire(tid, pid, perm);
 
-        synchronized (this)
-        {
-            // mgr.acquire(tid, pid, perm);
+        Page page = pageMap.get(pid);
+        if (page != null) {
+            hits.increment();
+            if (ring == null)
+                policy.recordAccess(pid);
+            return page;
+        }
+        misses.increment();
+        return loadPage(pid, ring);
+    }
+
+    /**
+     * Retrieves a page like {@link #getPage(TransactionId, PageId, Permissions)}
+     * and pins its frame, so that the page stays cached until every pin on
+     * it is released with {@link #unpinPage}. Operators pin the page they
+     * are reading and unpin it when they move on; pins a transaction still
+     * holds are released when it completes.
+     *
+     * @param tid the ID of the transaction requesting the page
+     * @param pid the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param ring the scan's ring of frames, or null for a normal access
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm, ScanRing ring)
+        throws TransactionAbortedException, DbException {
+        // pinned before the lookup, so that the page cannot be evicted
+        // between being found and being returned
+        pins.compute(pid, (k, counts) -> {
+            if (counts == null)
+                counts = new HashMap<TransactionId, Integer>();
+            counts.merge(tid, 1, Integer::sum);
+            return counts;
+        });
+        try {
+            return getPage(tid, pid, perm, ring);
+        } catch (TransactionAbortedException | DbException | RuntimeException e) {
+            unpinPage(tid, pid);
+            throw e;
+        }
+    }
+
+    /**
+     * Retrieves and pins a page, like
+     * {@link #pinPage(TransactionId, PageId, Permissions, ScanRing)} without
+     * a ring.
+     */
+    public Page pinPage(TransactionId tid, PageId pid, Permissions perm)
+        throws TransactionAbortedException, DbException {
+        return pinPage(tid, pid, perm, null);
+    }
+
+    /**
+     * Releases one pin tid holds on a page. The page can be evicted again
+     * once no pins are left on it.
+     *
+     * @param tid the transaction that pinned the page
+     * @param pid the ID of the pinned page
+     */
+    public void unpinPage(TransactionId tid, PageId pid) {
+        pins.computeIfPresent(pid, (k, counts) -> {
+            counts.computeIfPresent(tid, (t, n) -> n > 1 ? n - 1 : null);
+            return counts.isEmpty() ? null : counts;
+        });
+    }
+
+    /** @return the number of pins all transactions hold on a page */
+    public int getPinCount(PageId pid) {
+        int[] total = new int[1];
+        pins.computeIfPresent(pid, (k, counts) -> {
+            for (int n : counts.values())
+                total[0] += n;
+            return counts;
+        });
+        return total[0];
+    }
+
+    /** Releases every pin tid still holds. */
+    private void unpinAll(TransactionId tid) {
+        for (PageId pid : pins.keySet())
+            pins.computeIfPresent(pid, (k, counts) -> {
+                counts.remove(tid);
+                return counts.isEmpty() ? null : counts;
+            });
+    }
+
+    /**
+     * Reads a page that is not in the cache and installs it, evicting if
+     * the pool is full. If another thread is already loading the same page,
+     * waits for and returns its result instead of reading the page again.
+     *
+     * @param pid the ID of the page to load
+     * @param ring the use-once ring of the requesting scan, or null
+     */
+    private Page loadPage(PageId pid, ScanRing ring) throws DbException {
+        CompletableFuture<Page> future = new CompletableFuture<>();
+        CompletableFuture<Page> running = loadingMap.putIfAbsent(pid, future);
+        if (running != null)
+            return awaitLoad(running);
 
-            Page page;
-            if (!pageMap.containsKey(pid)) {
-                page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
-                while (pageMap.size() >= maxPage)
-                    evictPage();
-                pageMap.put(pid, page);                                
+        try {
+            Page page = pageMap.get(pid);
+            if (page == null) {
+                Page read = readPage(pid);
+                if (read == null)
+                    throw new DbException("unable to read page " + pid.pageNumber());
+                page = installPage(read, ring);
+                if (page != read)
+                    releaseFrame(read);
             }
-            else            
-                page = pageMap.get(pid);                            
+            future.complete(page);
             return page;
+        } catch (DbException | RuntimeException e) {
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            loadingMap.remove(pid, future);
+        }
+    }
+
+    /**
+     * Reads a page from its file, into a frame of the arena if this pool
+     * has one with a frame to spare. Frames the file did not use go back
+     * to the arena.
+     */
+    private Page readPage(PageId pid) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        ByteBuffer frame = arena == null ? null : arena.allocate();
+        if (frame == null)
+            return file.readPage(pid);
+
+        Page page = null;
+        try {
+            page = file.readPage(pid, frame);
+            return page;
+        } finally {
+            if (!(page instanceof ArenaPage) || ((ArenaPage) page).getFrame() != frame)
+                arena.release(frame);
+        }
+    }
+
+    /**
+     * Hands the frame of a page that is leaving the pool back to the arena.
+     * The page itself moves to the heap, so callers still holding it can
+     * keep reading it. A page read from a mapped file moves to the heap
+     * too, so that later writes to the file do not change it underneath
+     * them; its read-only view is not an arena frame and is just dropped.
+     */
+    private void releaseFrame(Page page) {
+        if (page instanceof ArenaPage) {
+            ByteBuffer frame = ((ArenaPage) page).detachFrame();
+            if (frame != null && !frame.isReadOnly())
+                arena.release(frame);
+        }
+    }
+
+    /**
+     * Starts loading a page on a background thread so that a later getPage
+     * finds it cached. No lock is taken: the page is only read into the
+     * pool the same way a miss would read it, and the transaction that
+     * eventually calls getPage still acquires its lock then. Pages another
+     * transaction has write-locked are skipped, since a rollback may be
+     * about to rewrite them on disk. Failures are ignored, since the page
+     * will simply be read again on demand.
+     *
+     * @param pid the ID of the page to load
+     * @param ring the use-once ring of the scan that will read the page, or null
+     * @return false if the page is already cached or being loaded
+     */
+    public boolean prefetch(PageId pid, ScanRing ring) {
+        if (pageMap.containsKey(pid) || loadingMap.containsKey(pid))
+            return false;
+        readAheadExecutor.execute(() -> {
+            if (pageMap.containsKey(pid) || mgr.isWriteLocked(pid))
+                return;
+            try {
+                loadPage(pid, ring);
+                readAheads.increment();
+            } catch (DbException | RuntimeException e) {
+                // the scan reads the page itself
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Like {@link #prefetch(PageId, ScanRing)}, for a run of pages that are
+     * adjacent in one file, in page order: the pages are read with a
+     * single {@link DbFile#readPages} call.
+     *
+     * @param pids the IDs of the pages to load
+     * @param ring the use-once ring of the scan that will read the pages, or null
+     * @return false if every page is already cached or being loaded
+     */
+    public boolean prefetch(PageId[] pids, ScanRing ring) {
+        if (pids.length == 1)
+            return prefetch(pids[0], ring);
+        if (Arrays.stream(pids).allMatch(this::isCached))
+            return false;
+        readAheadExecutor.execute(() -> {
+            try {
+                readAheads.add(loadPages(pids, ring));
+            } catch (DbException | RuntimeException e) {
+                // the scan reads the pages itself
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Loads a run of pages that are adjacent in one file for a sequential
+     * scan that is about to miss on the first of them, with a single read.
+     * The first page counts as a miss and the others as read ahead. Like
+     * prefetching, this takes no lock; the scan's getPage calls do.
+     *
+     * @param pids the IDs of the pages to load, starting with the one the scan needs
+     * @param ring the use-once ring of the scan, or null
+     */
+    void loadExtent(PageId[] pids, ScanRing ring) throws DbException {
+        int loaded = loadPages(pids, ring);
+        if (loaded > 0) {
+            misses.increment();
+            readAheads.add(loaded - 1);
+        }
+    }
+
+    /** @return true if the page is cached or being loaded */
+    boolean isCached(PageId pid) {
+        return pageMap.containsKey(pid) || loadingMap.containsKey(pid);
+    }
+
+    /**
+     * Reads a run of pages that are adjacent in one file with a single
+     * {@link DbFile#readPages} call and installs them, registering each in
+     * loadingMap as {@link #loadPage} does. The run is cut down to start at
+     * its first page that is not cached, being loaded or write-locked and
+     * to end before the next page that is; the rest is left alone.
+     *
+     * @return the number of pages read
+     */
+    private int loadPages(PageId[] pids, ScanRing ring) throws DbException {
+        int start = 0;
+        while (start < pids.length && (isCached(pids[start]) || mgr.isWriteLocked(pids[start])))
+            start++;
+        ArrayList<CompletableFuture<Page>> futures = new ArrayList<>();
+        for (int i = start; i < pids.length; i++) {
+            if (pageMap.containsKey(pids[i]) || mgr.isWriteLocked(pids[i]))
+                break;
+            CompletableFuture<Page> future = new CompletableFuture<>();
+            if (loadingMap.putIfAbsent(pids[i], future) != null)
+                break;
+            futures.add(future);
+        }
+        if (futures.isEmpty())
+            return 0;
+
+        PageId[] run = Arrays.copyOfRange(pids, start, start + futures.size());
+        Page[] pages = null;
+        int installed = 0;
+        try {
+            pages = readPages(run);
+            for (; installed < run.length; installed++) {
+                Page read = pages[installed];
+                if (read == null)
+                    throw new DbException("unable to read page " + run[installed].pageNumber());
+                Page page = installPage(read, ring);
+                if (page != read)
+                    releaseFrame(read);
+                futures.get(installed).complete(page);
+            }
+            return run.length;
+        } catch (DbException | RuntimeException e) {
+            for (int i = installed; i < run.length; i++) {
+                futures.get(i).completeExceptionally(e);
+                if (pages != null && pages[i] != null)
+                    releaseFrame(pages[i]);
+            }
+            throw e;
+        } finally {
+            for (int i = 0; i < run.length; i++)
+                loadingMap.remove(run[i], futures.get(i));
+        }
+    }
+
+    /**
+     * Reads a run of adjacent pages from their file, into frames of the
+     * arena if this pool has enough to spare, as {@link #readPage} does
+     * for a single page.
+     */
+    private Page[] readPages(PageId[] pids) {
+        DbFile file = Database.getCatalog().getDatabaseFile(pids[0].getTableId());
+        ByteBuffer[] frames = null;
+        if (arena != null) {
+            frames = new ByteBuffer[pids.length];
+            for (int i = 0; i < frames.length; i++)
+                if ((frames[i] = arena.allocate()) == null) {
+                    for (int j = 0; j < i; j++)
+                        arena.release(frames[j]);
+                    frames = null;
+                    break;
+                }
+        }
+        if (frames == null)
+            return file.readPages(pids, null);
+
+        Page[] pages = null;
+        try {
+            pages = file.readPages(pids, frames);
+            return pages;
+        } finally {
+            for (int i = 0; i < frames.length; i++) {
+                Page page = pages == null ? null : pages[i];
+                if (!(page instanceof ArenaPage) || ((ArenaPage) page).getFrame() != frames[i])
+                    arena.release(frames[i]);
+            }
+        }
+    }
+
+    private Page awaitLoad(CompletableFuture<Page> running) throws DbException {
+        try {
+            return running.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted while waiting for page load");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof DbException)
+                throw (DbException) e.getCause();
+            if (e.getCause() instanceof RuntimeException)
+                throw (RuntimeException) e.getCause();
+            throw new DbException(e.getCause().toString());
         }
     }
 
+    /**
+     * Adds a freshly read page to the pool unless a version of it was cached
+     * in the meantime (e.g. by updatePage), in which case that one wins.
+     * A page loaded through a full ring replaces the ring's oldest page if
+     * that one matches its copy on disk.
+     */
+    private synchronized Page installPage(Page page, ScanRing ring) throws DbException {
+        Page cached = pageMap.get(page.getId());
+        if (cached != null)
+            return cached;
+        if (ring != null)
+            while (ring.isFull()) {
+                PageId old = ring.poll();
+                Page oldPage = pageMap.get(old);
+                if (oldPage != null && isClean(old, oldPage) && !pins.containsKey(old)) {
+                    discardPage(old);
+                    break;
+                }
+            }
+        while (pageMap.size() >= maxPage)
+            evictPage();
+        pageMap.put(page.getId(), page);
+        policy.recordInsert(page.getId());
+        if (ring != null)
+            ring.add(page.getId());
+        return page;
+    }
+
+    /** @return the number of getPage calls served from the cache */
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    /** @return the number of getPage calls that had to read the page */
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    /** @return the number of pages loaded by {@link #prefetch} */
+    public long getReadAheadCount() {
+        return readAheads.sum();
+    }
+
+    /** @return the number of pages the page cleaner and checkpoints wrote back */
+    public long getPagesCleanedCount() {
+        return pagesCleaned.sum();
+    }
+
+    /** @return the number of times the page cleaner stopped on an error */
+    public long getCleanerFailureCount() {
+        return cleanerFailures.sum();
+    }
+
+    /** @return the number of evictions that had to write their victim first */
+    public long getForegroundWriteCount() {
+        return foregroundWrites.sum();
+    }
+
+    /**
+     * @return the number of evictions whose victim would have needed a write
+     * had the page cleaner not written it already
+     */
+    public long getForegroundWritesAvoidedCount() {
+        return foregroundWritesAvoided.sum();
+    }
+
+    /** Resets the hit, miss, read-ahead, write and cleaner failure counters, e.g. after warming the cache. */
+    public void resetStats() {
+        hits.reset();
+        misses.reset();
+        readAheads.reset();
+        pagesCleaned.reset();
+        cleanerFailures.reset();
+        foregroundWrites.reset();
+        foregroundWritesAvoided.reset();
+    }
+
     public synchronized void updatePage(TransactionId tid, Page page) 
         throws TransactionAbortedException, DbException {
         if (!pageMap.containsKey(page.getId()))
             while (pageMap.size() >= maxPage)
                 evictPage();            
         page.markDirty(true, tid);
-        pageMap.put(page.getId(), page);
+        Page old = pageMap.put(page.getId(), page);
+        if (old != null && old != page)
+            releaseFrame(old);
+        policy.recordInsert(page.getId());
     }
 
     /**
@@ -115,6 +757,69 @@ public class BufferPool {
         mgr.release(tid, pid);
     }
 
+    /**
+     * Locks a whole table for tid, blocking until the lock is granted. Bulk
+     * loads take the write lock; scans, inserts and deletes of heap files
+     * take the read lock, which they share with each other. Page locks are
+     * taken as usual under either.
+     *
+     * @param tid the ID of the transaction requesting the lock
+     * @param tableId the table to lock
+     * @param perm READ_WRITE for the exclusive lock
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+        throws TransactionAbortedException {
+        mgr.acquire(tid, tableLockId(tableId), perm);
+    }
+
+    /** @return the ID the lock of a whole table is kept under, which names no page */
+    static PageId tableLockId(int tableId) {
+        return new HeapPageId(tableId, -1);
+    }
+
+    /**
+     * Registers a bulk load of a table that holds no tuples by tid, which
+     * holds the table's write lock. The pages tid appends to the table from
+     * then on are not logged: a BULK_LOAD record is logged instead, the
+     * pages go to the file directly or are written at commit, the file is
+     * forced before tid commits, and an abort or recovery cuts the table
+     * back to the pages it had.
+     *
+     * @param tid the loading transaction
+     * @param file the table being loaded
+     * @param firstPage the number of pages of the table, all of them empty
+     */
+    public void bulkLoad(TransactionId tid, DbFile file, int firstPage) throws IOException {
+        long lsn = Database.getLogFile().logBulkLoad(tid, file.getId(), firstPage);
+        bulkLoads.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+            .putIfAbsent(file.getId(), new BulkLoad(lsn, firstPage));
+    }
+
+    /**
+     * @return the first page of the table that tid appends to without
+     *         logging (see {@link #bulkLoad}), or -1 if it does not
+     */
+    public int bulkLoadStart(TransactionId tid, int tableId) {
+        BulkLoad load = bulkLoad(tid, tableId);
+        return load == null ? -1 : load.firstPage;
+    }
+
+    /** @return the bulk load tid does not log the given page for, or null */
+    private BulkLoad bulkLoad(TransactionId tid, PageId pid) {
+        BulkLoad load = bulkLoad(tid, pid.getTableId());
+        return load != null && pid.pageNumber() >= load.firstPage ? load : null;
+    }
+
+    private BulkLoad bulkLoad(TransactionId tid, int tableId) {
+        Map<Integer, BulkLoad> loads = bulkLoads.get(tid);
+        return loads == null ? null : loads.get(tableId);
+    }
+
+    /** Return true if the specified transaction has a lock on the specified page */
+    public boolean holdsLock(TransactionId tid, PageId p) {
+        return mgr.holdsLock(tid, p);
+    }
+
     /**
      * Release all locks associated with a given transaction.
      *
@@ -127,17 +832,80 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * Commit logs the after-image of every page the transaction dirtied,
+     * then a COMMIT record, and forces the log; the pages themselves stay
+     * cached and are only written when evicted, flushed or checkpointed,
+     * unless {@link #setForce} asks for them to be written now. Abort puts
+     * the committed version of each dirtied page back and has the log roll
+     * back the pages that were stolen, i.e. written out before the abort.
      *
      * @param tid the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
      */
     public synchronized void transactionComplete(TransactionId tid, boolean commit)
         throws IOException {
-        if (commit) flushPages(tid);
-        else if (mgr.holdsLock(tid))
-            for (PageId pid : mgr.getDirtyPages(tid))
-                discardPage(pid);        
+        LogFile log = Database.getLogFile();
+        Set<PageId> dirty = mgr.holdsLock(tid)
+            ? mgr.getDirtyPages(tid) : Collections.<PageId>emptySet();
+        Map<Integer, BulkLoad> loads = bulkLoads.get(tid);
+        if (commit) {
+            ArrayList<PageId> written = new ArrayList<PageId>();
+            ArrayList<Page> unlogged = new ArrayList<Page>();
+            for (PageId pid : dirty) {
+                Page page = pageMap.get(pid);
+                if (page == null || !tid.equals(page.isDirty()))
+                    continue;
+                if (bulkLoad(tid, pid) != null) {
+                    unlogged.add(page);
+                    continue;
+                }
+                pageLsns.put(pid, log.logWrite(tid, page.getBeforeImage(), page));
+                cleaned.remove(pid);
+                page.setBeforeImage();
+                page.markDirty(false, null);
+                written.add(pid);
+            }
+            if (force)
+                flushPages(written);
+            if (loads != null) {
+                // the pages of tables loaded without logging must be on
+                // disk before the commit record
+                writePages(unlogged, -1);
+                for (Page page : unlogged) {
+                    pageLsns.remove(page.getId());
+                    cleaned.remove(page.getId());
+                    page.setBeforeImage();
+                    page.markDirty(false, null);
+                }
+                for (int tableId : loads.keySet())
+                    Database.getCatalog().getDatabaseFile(tableId).force();
+            }
+            if (!written.isEmpty() || log.isActive(tid))
+                log.logCommit(tid);
+            if (!force && !written.isEmpty())
+                wakeCleaner();
+        } else {
+            // pages may have been changed in place before they were marked
+            // dirty, so every write-locked page is reverted
+            for (PageId pid : dirty) {
+                Page page = pageMap.get(pid);
+                if (page == null)
+                    continue;
+                if (pageLsns.containsKey(pid)) {
+                    // the committed version is not on disk yet
+                    pageMap.put(pid, page.getBeforeImage());
+                    releaseFrame(page);
+                } else {
+                    discardPage(pid);
+                }
+            }
+            if (log.isActive(tid))
+                log.logAbort(tid);
+        }
+        bulkLoads.remove(tid);
 
+        unpinAll(tid);
         mgr.release(tid);
     }
 
@@ -165,6 +933,27 @@ public class BufferPool {
         }
     }
 
+    /**
+     * Adds a batch of tuples to the specified table on behalf of
+     * transaction tid, through {@link DbFile#insertTuples}. Heap files
+     * append the tuples a page at a time, in extents of up to maxIoPages
+     * pages, under the table's write lock; see {@link #bulkLoad} for when
+     * those pages are not logged. The pages the file hands back are
+     * cached as dirty pages like {@link #insertTuple} does.
+     *
+     * @param tid the transaction adding the tuples
+     * @param tableId the table to add the tuples to
+     * @param tuples the tuples to add
+     */
+    public void insertTuples(TransactionId tid, int tableId, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> list = Database.getCatalog().getDatabaseFile(tableId).insertTuples(tid, tuples);
+        synchronized (this) {
+            for (Page page : list)
+                updatePage(tid, page);
+        }
+    }
+
     /**
      * Remove the specified tuple from the buffer pool.
      * Will acquire a write lock on the page the tuple is removed from and any
@@ -188,13 +977,11 @@ public class BufferPool {
     }
 
     /**
-     * Flush all dirty pages to disk.
-     * NB: Be careful using this routine -- it writes dirty data to disk so will
-     *     break simpledb if running in NO STEAL mode.
+     * Flush all dirty pages to disk. Uncommitted changes are logged first
+     * so that they can be rolled back (see {@link #flushPage}).
      */
     public synchronized void flushAllPages() throws IOException {
-        for (PageId pid : pageMap.keySet()) 
-            flushPage(pid);
+        flushPages(pageMap.keySet());
     }
 
     /** Remove the specific page id from the buffer pool.
@@ -206,41 +993,297 @@ public class BufferPool {
         are removed from the cache so they can be reused safely
     */
     public synchronized void discardPage(PageId pid) {
-        pageMap.remove(pid);               
+        Page page = pageMap.remove(pid);
+        pageLsns.remove(pid);
+        cleaned.remove(pid);
+        policy.recordRemove(pid);
+        if (page != null)
+            releaseFrame(page);
+    }
+
+    /**
+     * Drops the cached pages of a table from a page on, e.g. when a bulk
+     * load is rolled back.
+     *
+     * @param tableId the table whose pages to drop
+     * @param firstPage the first page to drop
+     */
+    synchronized void discardPages(int tableId, int firstPage) {
+        for (PageId pid : new ArrayList<PageId>(pageMap.keySet()))
+            if (pid.getTableId() == tableId && pid.pageNumber() >= firstPage)
+                discardPage(pid);
+    }
+
+    /**
+     * Logs the before- and after-images of a page with uncommitted changes
+     * before it is stolen, unless its dirtier appended it in a bulk load
+     * without logging; the log then only needs to be forced through the
+     * BULK_LOAD record.
+     *
+     * @return the LSN the log must be forced through before the write
+     */
+    private long logSteal(TransactionId dirtier, Page page) throws IOException {
+        BulkLoad load = bulkLoad(dirtier, page.getId());
+        if (load != null)
+            return load.lsn;
+        return Database.getLogFile().logWrite(dirtier, page.getBeforeImage(), page);
     }
 
     /**
-     * Flushes a certain page to disk
+     * Flushes a certain page to disk, following the write-ahead rule: the
+     * log is forced through the last update of the page first. A page with
+     * uncommitted changes is stolen; its before- and after-images are
+     * logged first so that an abort or recovery can undo the write.
+     *
      * @param pid an ID indicating the page to flush
      */
     private synchronized  void flushPage(PageId pid) throws IOException {
-        if (pageMap.containsKey(pid)) {
+        Page page = pageMap.get(pid);
+        if (page == null)
+            return;
+        TransactionId dirtier = page.isDirty();
+        Long lsn = pageLsns.get(pid);
+        if (dirtier != null)
+            lsn = logSteal(dirtier, page);
+        if (lsn == null)
+            return;
+        Database.getLogFile().force(lsn);
+        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+        pageLsns.remove(pid);
+    }
+
+    /**
+     * Flushes several pages like {@link #flushPage}, but forces the log
+     * once for all of them and writes them with {@link #writePages}.
+     *
+     * @param pids the IDs of the pages to flush
+     */
+    private synchronized void flushPages(Collection<PageId> pids) throws IOException {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        long lsn = -1;
+        for (PageId pid : pids) {
+            Page page = pageMap.get(pid);
+            if (page == null)
+                continue;
+            TransactionId dirtier = page.isDirty();
+            Long pageLsn = pageLsns.get(pid);
+            if (dirtier != null)
+                pageLsn = logSteal(dirtier, page);
+            if (pageLsn == null)
+                continue;
+            pages.add(page);
+            lsn = Math.max(lsn, pageLsn);
+        }
+        writePages(pages, lsn);
+        for (Page page : pages)
+            pageLsns.remove(page.getId());
+    }
+
+    /**
+     * Writes pages in file and page order, after forcing the log through
+     * lsn, the highest LSN among them. Runs of adjacent pages of a file, of
+     * up to maxIoPages pages, go out with a single {@link DbFile#writePages}
+     * call.
+     */
+    private void writePages(List<Page> pages, long lsn) throws IOException {
+        if (pages.isEmpty())
+            return;
+        Database.getLogFile().force(lsn);
+        pages.sort(Comparator.comparing(Page::getId, FILE_ORDER));
+        int start = 0;
+        for (int i = 1; i <= pages.size(); i++) {
+            if (i < pages.size() && i - start < maxIoPages
+                    && adjacent(pages.get(i - 1).getId(), pages.get(i).getId()))
+                continue;
+            List<Page> run = pages.subList(start, i);
+            DbFile file = Database.getCatalog().getDatabaseFile(run.get(0).getId().getTableId());
+            if (run.size() == 1)
+                file.writePage(run.get(0));
+            else
+                file.writePages(run);
+            start = i;
+        }
+    }
+
+    /** @return true if b is the page that follows a in the same file */
+    private static boolean adjacent(PageId a, PageId b) {
+        return a.getTableId() == b.getTableId() && a.pageNumber() + 1 == b.pageNumber();
+    }
+
+    /**
+     * Writes the committed contents of every cached page whose committed
+     * changes have not reached disk yet, leaving uncommitted changes out.
+     * Used by checkpoints and when the pool is replaced, much like a clean
+     * shutdown.
+     */
+    synchronized void flushCommittedPages() throws IOException {
+        ArrayList<Page> pages = new ArrayList<Page>();
+        HashMap<PageId, Long> lsns = new HashMap<PageId, Long>();
+        long lsn = -1;
+        for (Map.Entry<PageId, Long> e : pageLsns.entrySet()) {
+            PageId pid = e.getKey();
+            Page page = pageMap.get(pid);
+            if (page == null)
+                continue;
+            // a write-locked page may be changing in place, but its
+            // before-image is the version its last commit left
+            if (page.isDirty() != null || mgr.isWriteLocked(pid))
+                page = page.getBeforeImage();
+            pages.add(page);
+            lsns.put(pid, e.getValue());
+            lsn = Math.max(lsn, e.getValue());
+        }
+        writePages(pages, lsn);
+        for (Map.Entry<PageId, Long> e : lsns.entrySet())
+            pageLsns.remove(e.getKey(), e.getValue());
+    }
+
+    /**
+     * Writes back every page with committed changes that no transaction is
+     * updating, in file and page order, without holding the BufferPool
+     * monitor. Checkpoints call this first, so that the part they run with
+     * the monitor held only has the few pages committed meanwhile to write.
+     */
+    void cleanPages() throws IOException {
+        for (PageId pid : cleanOrder())
+            cleanPage(pid);
+    }
+
+    /** @return the pages whose committed changes are not on disk, by file and page number */
+    private List<PageId> cleanOrder() {
+        ArrayList<PageId> pids = new ArrayList<PageId>(pageLsns.keySet());
+        pids.sort(FILE_ORDER);
+        return pids;
+    }
+
+    /**
+     * Writes one page whose committed changes are not on disk yet. The
+     * cleaner takes a read lock on the page, if it can do so without
+     * waiting, so that no transaction changes the page while it is written.
+     * The log is forced through the page's LSN first.
+     *
+     * @return true if the page was written
+     */
+    private boolean cleanPage(PageId pid) throws IOException {
+        Long lsn = pageLsns.get(pid);
+        if (lsn == null || !mgr.tryAcquire(cleanerTid, pid, Permissions.READ_ONLY))
+            return false;
+        try {
             Page page = pageMap.get(pid);
-            if (page.isDirty() != null)
-                Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            if (page == null || page.isDirty() != null || !lsn.equals(pageLsns.get(pid)))
+                return false;
+            Database.getLogFile().force(lsn);
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(page);
+            if (pageLsns.remove(pid, lsn)) {
+                cleaned.add(pid);
+                pagesCleaned.increment();
+            }
+            return true;
+        } finally {
+            mgr.release(cleanerTid, pid);
+        }
+    }
+
+    /**
+     * Starts the page cleaner unless it is disabled, running or idle, or
+     * this pool is no longer the database's.
+     */
+    private void wakeCleaner() {
+        if (cleanerRate > 0 && !pageLsns.isEmpty() && Database.getBufferPool() == this
+                && cleanerRunning.compareAndSet(false, true))
+            cleanerExecutor.execute(this::runCleaner);
+    }
+
+    /**
+     * The page cleaner: every tick, writes the share of the configured rate
+     * that is due, sweeping the pages in file and page order and carrying
+     * on after the last page it wrote. Pages that transactions are changing
+     * are skipped and retried on the next sweep.
+     */
+    private void runCleaner() {
+        PageId last = null;
+        long budget = 0;
+        try {
+            while (cleanerRate > 0 && !pageLsns.isEmpty() && Database.getBufferPool() == this) {
+                budget = Math.min(budget + Math.max(1, cleanerRate * CLEANER_TICK / 1000), cleanerRate);
+                List<PageId> order = cleanOrder();
+                int start = 0;
+                if (last != null)
+                    while (start < order.size() && !after(order.get(start), last))
+                        start++;
+                for (int i = 0; i < order.size() && budget > 0; i++) {
+                    PageId pid = order.get((start + i) % order.size());
+                    if (cleanPage(pid)) {
+                        last = pid;
+                        budget--;
+                    }
+                }
+                Thread.sleep(CLEANER_TICK);
+            }
+        } catch (IOException | RuntimeException e) {
+            // eviction and checkpoints still write the pages; the next
+            // commit starts the cleaner again. A pool that was replaced
+            // meanwhile may fail to find its tables and just stops.
+            if (Database.getBufferPool() == this) {
+                cleanerFailures.increment();
+                Debug.log("page cleaner stopped: %s", e);
+            }
+            cleanerRunning.set(false);
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            cleanerRunning.set(false);
+            return;
         }
+        cleanerRunning.set(false);
+        // a commit may have come in just before the flag was cleared
+        wakeCleaner();
+    }
+
+    /** @return true if a comes after b in file and page order */
+    private static boolean after(PageId a, PageId b) {
+        if (a.getTableId() != b.getTableId())
+            return a.getTableId() > b.getTableId();
+        return a.pageNumber() > b.pageNumber();
     }
 
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
         if (mgr.holdsLock(tid))
-            for (PageId pid : mgr.getDirtyPages(tid))
-                flushPage(pid);
+            flushPages(mgr.getDirtyPages(tid));
+    }
+
+    /** @return true if the page is cached exactly as it is on disk */
+    private boolean isClean(PageId pid, Page page) {
+        return page.isDirty() == null && !pageLsns.containsKey(pid);
     }
 
     /**
      * Discards a page from the buffer pool.
-     * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * The victim is chosen by the replacement policy among the pages that
+     * are not pinned, clean pages first. If there are none, a page with
+     * changes is flushed first, even if they are not committed yet (STEAL).
      */
     private synchronized  void evictPage() throws DbException {
-        for (PageId pid : pageMap.keySet())
-            if (pageMap.get(pid).isDirty() == null) {
-                discardPage(pid);
-                return;
+        PageId victim = policy.chooseVictim(pid -> {
+            Page page = pageMap.get(pid);
+            return page == null || (isClean(pid, page) && !pins.containsKey(pid));
+        });
+        if (victim == null) {
+            victim = policy.chooseVictim(pid -> !pins.containsKey(pid));
+            if (victim == null)
+                throw new DbException("every page in the buffer pool is pinned");
+            try {
+                flushPage(victim);
+            } catch (IOException e) {
+                throw new DbException("unable to flush page " + victim.pageNumber() + ": " + e.getMessage());
             }
-
-        throw new DbException("");
+            foregroundWrites.increment();
+        } else if (cleaned.contains(victim)) {
+            foregroundWritesAvoided.increment();
+        }
+        discardPage(victim);
     }
 
 }
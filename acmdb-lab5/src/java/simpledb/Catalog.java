@@ -45,6 +45,7 @@ public class Catalog {
     /**
      * Add a new table to the catalog.
      * This table's contents are stored in the specified DbFile.
+     * A table it replaces has its file closed, unless it is the same file.
      * @param file the contents of the table to add;  file.getId() is the identfier of
      *    this file/tupledesc param for the calls getTupleDesc and getFile
      * @param name the name of the table -- may be an empty string.  May not be null.  If a name
@@ -56,12 +57,18 @@ public class Catalog {
         TableInfo info = new TableInfo(file, name, pkeyField);
 
         if (idMap.containsKey(name)) 
-            infoMap.remove(idMap.get(name));
+            close(infoMap.remove(idMap.get(name)), file);
 
-        infoMap.put(id, info);
+        close(infoMap.put(id, info), file);
         idMap.put(name, id);
     }
 
+    /** Closes the file of a table that was dropped, unless it is kept. */
+    private static void close(TableInfo dropped, DbFile kept) {
+        if (dropped != null && dropped.dbFile != kept)
+            dropped.dbFile.close();
+    }
+
     public void addTable(DbFile file, String name) {
         addTable(file, name, "");
     }
@@ -126,14 +133,23 @@ public class Catalog {
         return infoMap.get(id).name;
     }
     
-    /** Delete all tables from the catalog */
+    /** Delete all tables from the catalog, closing their files */
     public void clear() {
+        for (TableInfo info : infoMap.values())
+            info.dbFile.close();
         infoMap.clear();
         idMap.clear();
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes one table as
+     * <pre>
+     *     name (field type [pk], field type, ...) [format]
+     * </pre>
+     * where the optional format is the page format of the table's file:
+     * none for a HeapFile, "slotted" for a {@link SlottedHeapFile}, "pax"
+     * for a {@link PaxHeapFile} or "dict" for a {@link DictHeapFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -147,6 +163,7 @@ public class Catalog {
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
                 String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String format = line.substring(line.indexOf(")") + 1).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<String>();
                 ArrayList<Type> types = new ArrayList<Type>();
@@ -174,7 +191,21 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                File dataFile = new File(baseFolder+"/"+name + ".dat");
+                HeapFile tabHf;
+                if (format.isEmpty())
+                    tabHf = new HeapFile(dataFile, t);
+                else if (format.toLowerCase().equals("slotted"))
+                    tabHf = new SlottedHeapFile(dataFile, t);
+                else if (format.toLowerCase().equals("pax"))
+                    tabHf = new PaxHeapFile(dataFile, t);
+                else if (format.toLowerCase().equals("dict"))
+                    tabHf = new DictHeapFile(dataFile, t);
+                else {
+                    System.out.println("Unknown table format " + format);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
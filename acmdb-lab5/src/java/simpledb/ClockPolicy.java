@@ -0,0 +1,93 @@
+package simpledb;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * ClockPolicy chooses which page the BufferPool evicts using the CLOCK
+ * (second chance) algorithm. It is the default ReplacementPolicy.
+ * <p>
+ * Every cached page occupies a frame with a reference bit that is set
+ * whenever the page is accessed. To find a victim, a hand sweeps the frames
+ * in a circle, clearing set bits and stopping at the first frame whose bit
+ * was already clear. Pages that are touched repeatedly, such as B+ tree root
+ * and internal pages, keep getting their bit set again and survive, while
+ * pages a scan touched once are evicted on the next sweep. Each frame is
+ * passed at most twice per victim, so selection is O(1) amortized.
+ * <p>
+ * recordAccess runs on every BufferPool hit without any lock; it only
+ * sets a bit, so a racing sweep at worst gives a page one extra chance.
+ */
+public class ClockPolicy implements ReplacementPolicy {
+
+    private final PageId[] frames;
+    private final boolean[] referenced;
+    private final ConcurrentHashMap<PageId, Integer> slotOf;
+    private final ArrayDeque<Integer> freeSlots;
+    private int hand;
+
+    /**
+     * Creates a policy that manages up to numFrames pages.
+     *
+     * @param numFrames the capacity of the BufferPool
+     */
+    public ClockPolicy(int numFrames) {
+        frames = new PageId[numFrames];
+        referenced = new boolean[numFrames];
+        slotOf = new ConcurrentHashMap<>();
+        freeSlots = new ArrayDeque<>();
+        for (int i = 0; i < numFrames; i++)
+            freeSlots.add(i);
+        hand = 0;
+    }
+
+    public void recordAccess(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot != null)
+            referenced[slot] = true;
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        Integer slot = slotOf.get(pid);
+        if (slot == null) {
+            slot = freeSlots.poll();
+            if (slot == null)
+                throw new IllegalStateException("no free frame for page " + pid.pageNumber());
+            frames[slot] = pid;
+            slotOf.put(pid, slot);
+        }
+        referenced[slot] = true;
+    }
+
+    public synchronized void recordRemove(PageId pid) {
+        Integer slot = slotOf.remove(pid);
+        if (slot != null) {
+            frames[slot] = null;
+            referenced[slot] = false;
+            freeSlots.add(slot);
+        }
+    }
+
+    /**
+     * Sweeps the clock hand to the next page that has not been referenced
+     * since the hand last passed it and that canEvict accepts.
+     */
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        for (int step = 0; step < 2 * frames.length; step++) {
+            int slot = hand;
+            hand = (hand + 1) % frames.length;
+
+            PageId pid = frames[slot];
+            if (pid == null)
+                continue;
+            if (referenced[slot]) {
+                referenced[slot] = false;
+                continue;
+            }
+            if (canEvict.test(pid))
+                return pid;
+        }
+        return null;
+    }
+}
@@ -0,0 +1,130 @@
+package simpledb;
+
+/**
+ * A Tuple that keeps its int fields as ints rather than IntField objects.
+ * Operators that build tuples out of other tuples, such as joins and
+ * HeapPage's {@link Tuple#materialize}, copy int fields with
+ * {@link Tuple#getInt} into one int[] per tuple, so producing a tuple
+ * allocates no field objects for them; an IntField is made only when one is
+ * asked for with getField, and is then kept. Fields of any other type are
+ * held as their Field, as by Tuple; a string is usually shared with the
+ * tuple it was copied from.
+ * <p>
+ * Unlike a Tuple, an int field that has not been set reads as 0 rather than
+ * null, so CompactTuples are only made by code that sets every field.
+ */
+final class CompactTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] ints;
+    // the field objects of the tuple; null for an int field not yet boxed
+    private final Field[] fields;
+
+    CompactTuple(TupleDesc td) {
+        super(td, null);
+        ints = new int[td.numFields()];
+        fields = new Field[td.numFields()];
+    }
+
+    /**
+     * @return a CompactTuple with the schema, record id and fields of t
+     */
+    static CompactTuple copyOf(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        CompactTuple c = new CompactTuple(td);
+        c.setRecordId(t.getRecordId());
+        c.copy(0, t, td);
+        return c;
+    }
+
+    /**
+     * @param td the schema of the result, TupleDesc.merge of the schemas of
+     *           t1 and t2
+     * @return a tuple with the fields of t1 followed by those of t2, as a
+     *         join outputs
+     */
+    static CompactTuple concat(TupleDesc td, Tuple t1, Tuple t2) {
+        CompactTuple c = new CompactTuple(td);
+        TupleDesc td1 = t1.getTupleDesc();
+        c.copy(0, t1, td1);
+        c.copy(td1.numFields(), t2, t2.getTupleDesc());
+        return c;
+    }
+
+    /**
+     * @return a tuple with the fields of row of b followed by those of t;
+     *         see {@link #concat(TupleDesc, Tuple, Tuple)}
+     */
+    static CompactTuple concat(TupleDesc td, TupleBatch b, int row, Tuple t) {
+        CompactTuple c = new CompactTuple(td);
+        int n = b.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++) {
+            int[] column = b.ints(i);
+            if (column != null)
+                c.ints[i] = column[row];
+            else
+                c.fields[i] = b.fields(i)[row];
+        }
+        c.copy(n, t, t.getTupleDesc());
+        return c;
+    }
+
+    /** Copies the fields of t, whose schema is td, to fields start on. */
+    private void copy(int start, Tuple t, TupleDesc td) {
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[start + i] = t.getInt(i);
+            else
+                fields[start + i] = t.getField(i);
+        }
+    }
+
+    private boolean isInt(int i) {
+        return getTupleDesc().getFieldType(i) == Type.INT_TYPE;
+    }
+
+    @Override
+    public Field getField(int i) {
+        Field f = fields[i];
+        if (f == null && isInt(i))
+            fields[i] = f = new IntField(ints[i]);
+        return f;
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        fields[i] = f;
+        if (f != null && isInt(i))
+            ints[i] = ((IntField) f).getValue();
+    }
+
+    @Override
+    public int getInt(int i) {
+        return ints[i];
+    }
+
+    /** Sets int field i to v. */
+    void setInt(int i, int v) {
+        ints[i] = v;
+        fields[i] = null;
+    }
+
+    @Override
+    public boolean compareField(int i, Predicate.Op op, Field value) {
+        if (value instanceof IntField && isInt(i))
+            return IntField.compare(ints[i], op, ((IntField) value).getValue());
+        return getField(i).compare(op, value);
+    }
+
+    @Override
+    Tuple project(TupleDesc td, int[] fields) {
+        CompactTuple t = new CompactTuple(td);
+        t.setRecordId(getRecordId());
+        for (int i = 0; i < fields.length; i++) {
+            t.ints[i] = ints[fields[i]];
+            t.fields[i] = this.fields[fields[i]];
+        }
+        return t;
+    }
+}
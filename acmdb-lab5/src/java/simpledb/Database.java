@@ -55,11 +55,26 @@ public class Database {
      * return it
      */
     public static BufferPool resetBufferPool(int pages) {
+        return resetBufferPool(new BufferPool(pages));
+    }
+
+    /**
+     * Method used for testing -- install the given buffer pool, e.g. one
+     * with a non-default replacement policy, and return it
+     */
+    public static BufferPool resetBufferPool(BufferPool pool) {
+        // committed pages the old pool has not written yet exist only in the
+        // log, so write them out first, as a shutdown would
+        try {
+            _instance.get()._bufferpool.flushCommittedPages();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         java.lang.reflect.Field bufferPoolF=null;
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
-            bufferPoolF.set(_instance.get(), new BufferPool(pages));
+            bufferPoolF.set(_instance.get(), pool);
         } catch (NoSuchFieldException e) {
             e.printStackTrace();
         } catch (SecurityException e) {
@@ -75,7 +90,8 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        Database old = _instance.getAndSet(new Database());
+        old._catalog.clear();
     }
 
 }
@@ -3,6 +3,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * The interface for database files on disk. Each table is represented by a
@@ -19,6 +20,35 @@ public interface DbFile {
      */
     public Page readPage(PageId id);
 
+    /**
+     * Read the specified page from disk into frame, a free frame of the
+     * BufferPool's {@link PageArena}. Files whose pages can decode their
+     * tuples straight from a frame return such a page; the default ignores
+     * the frame and returns {@link #readPage(PageId)}.
+     *
+     * @throws IllegalArgumentException if the page does not exist in this file.
+     */
+    public default Page readPage(PageId id, ByteBuffer frame) {
+        return readPage(id);
+    }
+
+    /**
+     * Read a run of pages that are adjacent in this file, in page order,
+     * from disk. frames is null, or holds one free frame of the
+     * BufferPool's {@link PageArena} per page, used as by
+     * {@link #readPage(PageId, ByteBuffer)}. Files that can read the run
+     * with a single call do so; the default reads the pages one by one.
+     *
+     * @return the pages, in the order of ids
+     * @throws IllegalArgumentException if a page does not exist in this file.
+     */
+    public default Page[] readPages(PageId[] ids, ByteBuffer[] frames) {
+        Page[] pages = new Page[ids.length];
+        for (int i = 0; i < ids.length; i++)
+            pages[i] = frames == null ? readPage(ids[i]) : readPage(ids[i], frames[i]);
+        return pages;
+    }
+
     /**
      * Push the specified page to disk.
      *
@@ -28,6 +58,38 @@ public interface DbFile {
      */
     public void writePage(Page p) throws IOException;
 
+    /**
+     * Push a run of pages that are adjacent in this file, in page order, to
+     * disk. Files that can write the run with a single call do so; the
+     * default writes the pages one by one.
+     *
+     * @param pages the pages to write
+     * @throws IOException if the write fails
+     */
+    public default void writePages(List<Page> pages) throws IOException {
+        for (Page p : pages)
+            writePage(p);
+    }
+
+    /**
+     * Forces the pages written to this file so far to the storage device.
+     * The BufferPool calls this before committing a transaction whose
+     * writes to the file were not logged; the default does nothing.
+     *
+     * @throws IOException if the file cannot be forced
+     */
+    public default void force() throws IOException {
+    }
+
+    /**
+     * Releases the resources the file holds open, such as file descriptors,
+     * when its table is dropped from the catalog. The file may still be
+     * used afterwards and opens them again if it needs them; the default
+     * does nothing.
+     */
+    public default void close() {
+    }
+
     /**
      * Inserts the specified tuple to the file on behalf of transaction.
      * This method will acquire a lock on the affected pages of the file, and
@@ -43,6 +105,36 @@ public interface DbFile {
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException;
 
+    /**
+     * Inserts a batch of tuples to the file on behalf of transaction, like
+     * {@link #insertTuple} does for each of them. Files that can append
+     * whole pages without going through the BufferPool one tuple at a time
+     * do so; the default inserts the tuples one by one, handing the pages
+     * each insert modified to the BufferPool right away, as
+     * {@link BufferPool#insertTuple} does, so that the next insert sees
+     * them. The pages returned are kept in memory until the batch is done,
+     * so callers bound the memory this takes by the size of their batches.
+     *
+     * @param tid The transaction performing the update
+     * @param tuples The tuples to add. Each is updated to reflect that it
+     *          is now stored in this file.
+     * @return An ArrayList containing the pages that were modified and are
+     *          to be cached as dirty pages of tid
+     * @throws DbException if a tuple cannot be added
+     * @throws IOException if the needed file can't be read/written
+     */
+    public default ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+        throws DbException, IOException, TransactionAbortedException {
+        LinkedHashMap<PageId, Page> modified = new LinkedHashMap<PageId, Page>();
+        while (tuples.hasNext()) {
+            for (Page p : insertTuple(tid, tuples.next())) {
+                Database.getBufferPool().updatePage(tid, p);
+                modified.put(p.getId(), p);
+            }
+        }
+        return new ArrayList<Page>(modified.values());
+    }
+
     /**
      * Removes the specified tuple from the file on behalf of the specified
      * transaction.
@@ -27,6 +27,17 @@ public interface DbFileIterator{
     public Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the following tuples to b until it is full or there are no
+     * more; with columns, only fields columns[0], columns[1], ... of them.
+     * Files whose pages can be decoded into a batch directly override this.
+     */
+    public default void fill(TupleBatch b, int[] columns)
+        throws DbException, TransactionAbortedException {
+        while (!b.isFull() && hasNext())
+            b.add(next(), columns);
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
@@ -34,6 +34,25 @@ public interface DbIterator extends Serializable{
    */
   public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns the next tuples from the operator as a batch of up to
+   * TupleBatch.DEFAULT_SIZE rows, for consumers that run a batch at a time.
+   * A consumer uses either nextBatch or hasNext/next between an open or
+   * rewind and the following one, not both. The batch is only valid until
+   * the next call; see {@link TupleBatch}.
+   * <p>
+   * The default fills a new batch through hasNext and next, so that any
+   * iterator can feed a batch consumer; operators that can work a batch at
+   * a time override it.
+   *
+   * @return a batch with at least one selected row, or null if there are
+   *         no more tuples.
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  public default TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+    return new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE).fill(this);
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * A HeapFile whose string fields are dictionary-encoded: its pages are
+ * DictHeapPages, which store the code of each string in the table's
+ * {@link StringDictionary}. Meant for tables whose strings repeat, e.g. the
+ * names of venues. Filters, joins and group-bys on an encoded field get
+ * one shared field per string, compared by code, instead of a new String
+ * and StringField per tuple read.
+ * <p>
+ * The dictionary is kept next to the file, in a file with a ".dict"
+ * suffix. It is forced before every insert or update returns, so the
+ * strings a committed page uses are always on disk.
+ * <p>
+ * The file cannot be read as a HeapFile nor the other way round; a table
+ * chooses its format in the catalog (see {@link Catalog#loadSchema}). An
+ * existing table is converted by inserting its tuples into an empty
+ * DictHeapFile with {@link #insertTuples}.
+ *
+ * @see DictHeapPage
+ */
+public class DictHeapFile extends HeapFile {
+
+    private final StringDictionary dict;
+
+    public DictHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        this.dict = new StringDictionary(new File(f.getPath() + ".dict"));
+    }
+
+    /** @return the dictionary of the string fields of this table */
+    public StringDictionary getDictionary() {
+        return dict;
+    }
+
+    @Override
+    protected HeapFilePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new DictHeapPage(pid, data);
+    }
+
+    @Override
+    protected HeapFilePage newPage(HeapPageId pid, ByteBuffer frame) {
+        return new DictHeapPage(pid, frame);
+    }
+
+    @Override
+    public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pages = super.insertTuple(tid, t);
+        dict.force();
+        return pages;
+    }
+
+    @Override
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        ArrayList<Page> pages = super.insertTuples(tid, tuples);
+        dict.force();
+        return pages;
+    }
+
+    /** Closes the dictionary too. */
+    @Override
+    public void close() {
+        super.close();
+        dict.close();
+    }
+
+    @Override
+    public ArrayList<Page> updateTuple(TransactionId tid, Tuple t)
+            throws DbException, TransactionAbortedException {
+        ArrayList<Page> pages = super.updateTuple(tid, t);
+        try {
+            dict.force();
+        } catch (IOException e) {
+            throw new DbException("cannot force dictionary: " + e.getMessage());
+        }
+        return pages;
+    }
+}
@@ -0,0 +1,101 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A page of a DictHeapFile. It has the layout of a HeapPage, a header
+ * bitmap and then the tuples one after the other, but a string field is
+ * stored as its 4-byte code in the table's {@link StringDictionary} instead
+ * of Type.STRING_LEN + 4 bytes, so tuples are smaller and a page has more
+ * slots.
+ * <p>
+ * Reading an encoded string returns the dictionary's field for its code,
+ * without decoding or allocating anything; comparisons with a field of the
+ * same dictionary compare codes. Writing a string adds it to the
+ * dictionary if it is new.
+ *
+ * @see DictHeapFile
+ */
+public class DictHeapPage extends HeapPage {
+
+    private final StringDictionary dict;
+    // the offset of each field in a tuple, and the size of a tuple at the end
+    private final int[] offsets;
+
+    /**
+     * Create a DictHeapPage from a set of bytes of data read from disk, in
+     * the format described above. The table must be a DictHeapFile in the
+     * catalog.
+     */
+    public DictHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        this.dict = dictionary(id);
+        this.offsets = offsets(td);
+    }
+
+    /** Create a DictHeapPage that reads its tuples directly from frame. */
+    public DictHeapPage(HeapPageId id, ByteBuffer frame) {
+        super(id, frame);
+        this.dict = dictionary(id);
+        this.offsets = offsets(td);
+    }
+
+    private static StringDictionary dictionary(HeapPageId id) {
+        return ((DictHeapFile) Database.getCatalog().getDatabaseFile(id.getTableId())).getDictionary();
+    }
+
+    private static int[] offsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields() + 1];
+        for (int i = 0; i < td.numFields(); i++)
+            offsets[i + 1] = offsets[i] + (td.getFieldType(i) == Type.STRING_TYPE ? 4 : td.getFieldType(i).getLen());
+        return offsets;
+    }
+
+    @Override
+    int slotSize() {
+        return offsets(td)[td.numFields()];
+    }
+
+    @Override
+    int fieldOffset(int slot, int i) {
+        return header.length + slot * offsets[td.numFields()] + offsets[i];
+    }
+
+    @Override
+    int fieldLength(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    @Override
+    Field parseField(ByteBuffer b, int offset, int i) {
+        if (td.getFieldType(i) == Type.STRING_TYPE)
+            return dict.field(b.getInt(offset));
+        return super.parseField(b, offset, i);
+    }
+
+    @Override
+    boolean compareField(ByteBuffer b, int offset, int i, Predicate.Op op, Field value) {
+        if (td.getFieldType(i) == Type.STRING_TYPE)
+            return dict.field(b.getInt(offset)).compare(op, value);
+        return super.compareField(b, offset, i, op, value);
+    }
+
+    @Override
+    void writeField(ByteBuffer b, int offset, int i, Field f) {
+        if (td.getFieldType(i) == Type.STRING_TYPE)
+            b.putInt(offset, dict.encode(f));
+        else
+            super.writeField(b, offset, i, f);
+    }
+
+    @Override
+    HeapPage newPage(byte[] data) throws IOException {
+        return new DictHeapPage(pid, data);
+    }
+
+    @Override
+    public DictHeapPage getBeforeImage() {
+        return (DictHeapPage) super.getBeforeImage();
+    }
+}
@@ -0,0 +1,62 @@
+package simpledb;
+
+/**
+ * A StringField read from a dictionary-encoded page: the string of a code
+ * of a {@link StringDictionary}, which holds one instance per code. Fields
+ * of the same dictionary are compared for equality by their codes; any
+ * other comparison, and comparisons with other StringFields, use the
+ * string, which is decoded once, when the code is added or loaded.
+ */
+final class DictStringField extends StringField {
+
+    private static final long serialVersionUID = 1L;
+
+    private final transient StringDictionary dict;
+    private final int code;
+
+    DictStringField(String s, StringDictionary dict, int code) {
+        super(s, Type.STRING_LEN);
+        this.dict = dict;
+        this.code = code;
+    }
+
+    StringDictionary getDictionary() {
+        return dict;
+    }
+
+    int getCode() {
+        return code;
+    }
+
+    private boolean sameDictionary(Object field) {
+        return field instanceof DictStringField && ((DictStringField) field).dict == dict;
+    }
+
+    @Override
+    public boolean equals(Object field) {
+        if (sameDictionary(field))
+            return ((DictStringField) field).code == code;
+        return super.equals(field);
+    }
+
+    @Override
+    public int hashCode() {
+        return super.hashCode();
+    }
+
+    @Override
+    public boolean compare(Predicate.Op op, Field val) {
+        if (sameDictionary(val)) {
+            if (op == Predicate.Op.EQUALS)
+                return ((DictStringField) val).code == code;
+            if (op == Predicate.Op.NOT_EQUALS)
+                return ((DictStringField) val).code != code;
+        }
+        return super.compare(op, val);
+    }
+
+    /** The dictionary does not travel; the copy is a plain StringField. */
+    private Object writeReplace() {
+        return new StringField(getValue(), Type.STRING_LEN);
+    }
+}
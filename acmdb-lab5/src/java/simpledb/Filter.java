@@ -68,6 +68,21 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Narrows the selection of the child's batches with the predicate,
+     * skipping batches in which no row passes.
+     *
+     * @see Predicate#filter(TupleBatch)
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        for (TupleBatch b = child.nextBatch(); b != null; b = child.nextBatch()) {
+            p.filter(b);
+            if (b.numSelected() > 0)
+                return b;
+        }
+        return null;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] {child};
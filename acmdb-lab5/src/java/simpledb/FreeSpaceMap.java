@@ -0,0 +1,184 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.BitSet;
+
+/**
+ * FreeSpaceMap remembers which pages of a HeapFile may have room for a
+ * tuple (see {@link HeapFilePage#hasRoom}), one bit per page, so that an
+ * insert goes straight to such a page instead of reading the table from
+ * its first page.
+ * <p>
+ * The map is a hint. A set bit means the page may have room and the
+ * inserter checks it under its lock; a page found full is cleared then.
+ * Deletes set the bit of their page, even before they commit, so a page
+ * with room is never marked full for long. A page an insert filled keeps
+ * its bit until the next insert finds it full, so an abort of that insert
+ * cannot leave free space behind a cleared bit. Pages appended to the file
+ * behind the map's back are treated as having room.
+ * <p>
+ * The map is kept in a file next to the heap file, named after it with an
+ * ".fsm" suffix: the number of pages it covers, then the bits. Every bit
+ * that changes is written through, without forcing. A missing map, or one
+ * that covers no pages, is rebuilt from the pages on disk on first use;
+ * recovery invalidates the maps so that they are rebuilt.
+ *
+ * @see HeapFile#insertTuple
+ */
+public class FreeSpaceMap {
+
+    /** Bytes before the bitmap: the number of pages the map covers. */
+    private static final int HEADER_SIZE = 4;
+
+    private final PageFile io;
+    private final HeapFile table;
+
+    // null until loaded; covered is the number of pages it knows about
+    private BitSet free;
+    private int covered;
+    // no page below lowest has its bit set
+    private int lowest;
+
+    /**
+     * @param file the file the map is stored in
+     * @param table the heap file it describes
+     */
+    public FreeSpaceMap(File file, HeapFile table) {
+        this.io = new PageFile(file);
+        this.table = table;
+    }
+
+    /**
+     * Finds a page that may have room.
+     *
+     * @param from the first page number to consider
+     * @return the lowest page number at or after from whose bit is set, or
+     *         -1 if every page of the table from there on is full
+     */
+    public synchronized int find(int from) {
+        load();
+        int n = table.numPages();
+        if (n > covered) {
+            free.set(covered, n);
+            covered = n;
+            save();
+        }
+        int p = free.nextSetBit(Math.max(from, lowest));
+        if (from <= lowest)
+            lowest = p < 0 ? covered : p;
+        return p < 0 || p >= n ? -1 : p;
+    }
+
+    /**
+     * Records whether a page has room, writing the change through
+     * to the map's file.
+     */
+    public synchronized void update(int pageNo, boolean hasRoom) {
+        load();
+        if (pageNo >= covered) {
+            free.set(covered, pageNo, true);
+            covered = pageNo + 1;
+            free.set(pageNo, hasRoom);
+            save();
+        } else if (free.get(pageNo) != hasRoom) {
+            free.set(pageNo, hasRoom);
+            write(pageNo);
+        }
+        if (hasRoom)
+            lowest = Math.min(lowest, pageNo);
+    }
+
+    /** Reads every page of the table from disk and saves a fresh map. */
+    public synchronized void rebuild() {
+        int n = table.numPages();
+        free = new BitSet(n);
+        for (int start = 0; start < n; start += BufferPool.DEFAULT_IO_PAGES) {
+            PageId[] run = new PageId[Math.min(BufferPool.DEFAULT_IO_PAGES, n - start)];
+            for (int i = 0; i < run.length; i++)
+                run[i] = new HeapPageId(table.getId(), start + i);
+            Page[] pages = table.readPages(run, null);
+            for (int i = 0; i < run.length; i++)
+                // a page that cannot be read is left to the inserter to check
+                free.set(start + i, pages[i] == null || ((HeapFilePage) pages[i]).hasRoom());
+        }
+        covered = n;
+        lowest = 0;
+        save();
+    }
+
+    /**
+     * Forgets the map, on disk too, so that it is rebuilt from the pages on
+     * disk when it is next used.
+     */
+    public synchronized void invalidate() {
+        free = null;
+        try {
+            io.write(new byte[HEADER_SIZE], 0);
+        } catch (IOException e) {
+            // a map that cannot be written is not read back either
+        }
+    }
+
+    /**
+     * Closes the map's file. The map stays loaded, and the next change to
+     * it opens the file again.
+     */
+    public synchronized void close() {
+        io.close();
+    }
+
+    /** Reads the map from its file, or rebuilds it if there is none. */
+    private void load() {
+        if (free != null)
+            return;
+        if (io.length() >= HEADER_SIZE) {
+            try {
+                byte[] header = new byte[HEADER_SIZE];
+                io.read(header, 0);
+                int pages = ByteBuffer.wrap(header).getInt();
+                if (pages > 0) {
+                    byte[] bits = new byte[(pages + 7) / 8];
+                    io.read(bits, HEADER_SIZE);
+                    free = BitSet.valueOf(bits);
+                    free.clear(pages, bits.length * 8);
+                    covered = pages;
+                    lowest = 0;
+                    return;
+                }
+            } catch (IOException e) {
+                // rebuilt below
+            }
+        }
+        rebuild();
+    }
+
+    /** Writes the whole map. */
+    private void save() {
+        byte[] data = new byte[HEADER_SIZE + (covered + 7) / 8];
+        ByteBuffer.wrap(data).putInt(covered);
+        byte[] bits = free.toByteArray();
+        System.arraycopy(bits, 0, data, HEADER_SIZE, Math.min(bits.length, data.length - HEADER_SIZE));
+        try {
+            io.write(data, 0);
+        } catch (IOException e) {
+            // the map is only a hint: one that cannot be saved is rebuilt
+            // by the next HeapFile opened on the table
+        }
+    }
+
+    /** Writes the byte holding the bit of a page. */
+    private void write(int pageNo) {
+        int first = pageNo & ~7;
+        byte b = 0;
+        for (int i = 0; i < 8; i++)
+            if (free.get(first + i))
+                b |= 1 << i;
+        try {
+            io.write(new byte[] { b }, HEADER_SIZE + pageNo / 8);
+        } catch (IOException e) {
+            // see save()
+        }
+    }
+}
@@ -1,19 +1,51 @@
 package simpledb;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The join builds a hash table of child1 and probes it with child2. When
+ * child1 is larger than the join's memory budget, it becomes a hybrid hash
+ * join: both inputs are split into {@value #FANOUT} partitions by a hash of
+ * the join field, as many partitions of child1 as fit in the budget are
+ * kept in memory and joined as before, and the rest are written to spill
+ * files along with the rows of child2 that fall in them. Once child2 is
+ * exhausted each spilled partition is joined by a HashEquiJoin over its
+ * two files, which partitions again, by another hash, if the partition is
+ * itself over the budget. The spill files are kept in a temporary directory
+ * that is removed when the join is closed or fails.
  */
 public class HashEquiJoin extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** The memory budget of a join unless set with {@link #setMemoryBudget}. */
+    public static final long DEFAULT_MEMORY_BUDGET = 64L << 20;
+
+    // the number of partitions an input is split into, a power of two
+    static final int FANOUT = 16;
+    // the depth of nested joins after which a partition is joined in memory
+    // whatever its size, as one that holds a single key can't be split
+    static final int MAX_LEVEL = 4;
+
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;
-    private HashMap<Field, ArrayList<Tuple>> map;    
+    private HashMap<Field, ArrayList<Tuple>> map;
+    // the table of child1's rows when the join field is an int, used
+    // instead of map
+    private transient IntJoinTable table;
+    // the merged schema of the children, made once rather than per tuple
+    private transient TupleDesc td;
 
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private File spillDirectory = null;
+    // how many joins of spilled partitions this one is nested in
+    private int level = 0;
     /**
      * Constructor. Accepts to children to join and the predicate to join them
      * on
@@ -32,12 +64,37 @@ public class HashEquiJoin extends Operator {
         this.map = new HashMap<>();
     }
 
+    /**
+     * Sets how much of child1 the join may hold in memory, in bytes of rows
+     * as given by {@link TupleDesc#getSize}; past that it spills. Takes
+     * effect the next time the join is opened.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes <= 0)
+            throw new IllegalArgumentException("memory budget must be positive");
+        this.memoryBudget = bytes;
+    }
+
+    public long getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    /**
+     * Sets the directory the join makes its temporary directory of spill
+     * files in; by default, the system's temporary directory.
+     */
+    public void setSpillDirectory(File dir) {
+        this.spillDirectory = dir;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return p;
     }
 
     public TupleDesc getTupleDesc() {
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
     }
     
     public String getJoinField1Name()
@@ -50,29 +107,263 @@ public class HashEquiJoin extends Operator {
         return this.child2.getTupleDesc().getFieldName(p.getField2());
     }
 
+    /** One of the partitions of the inputs of a join that spills. */
+    private static final class Partition {
+        // the rows of child1 while the partition is held in memory
+        ArrayList<TupleBatch> rows = new ArrayList<TupleBatch>();
+        long size;
+        // the rows of child1 and child2 once the partition is spilled
+        SpillFile build;
+        SpillFile probe;
+    }
+
+    // the partitions of the inputs if child1 did not fit in the budget, or
+    // null; a partition is spilled if its build file is set
+    private transient Partition[] partitions;
+    // the number of rows of child1 held in memory
+    private transient long resident;
+    // the join's directory of spill files, made with the first of them
+    private transient File dir;
+    // the join of the spilled partition being read, and the next partition
+    private transient HashEquiJoin nested;
+    private transient int nextPartition;
+
+    /** @return the partition of a join field whose hash is hash */
+    private int partitionOf(int hash) {
+        int h = (hash ^ level * 0x9E3779B9) * 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h >>> (32 - Integer.numberOfTrailingZeros(FANOUT));
+    }
+
+    private static int hash(TupleBatch b, int field, int row) {
+        return b.ints(field) != null ? b.getInt(field, row) : b.getField(field, row).hashCode();
+    }
+
+    private static int hash(Tuple t, int field) {
+        return t.getTupleDesc().getFieldType(field) == Type.INT_TYPE ? t.getInt(field) : t.getField(field).hashCode();
+    }
+
+    private File dir() throws DbException {
+        if (dir == null) {
+            try {
+                dir = spillDirectory == null ? Files.createTempDirectory("hashjoin").toFile()
+                        : Files.createTempDirectory(spillDirectory.toPath(), "hashjoin").toFile();
+            } catch (IOException e) {
+                throw new DbException("cannot create a spill directory: " + e.getMessage());
+            }
+        }
+        return dir;
+    }
+
     private void loadMap() throws DbException, NoSuchElementException,
         TransactionAbortedException {
         map.clear();
+        table = null;
+        resident = 0;
+
+        TupleDesc td1 = child1.getTupleDesc();
+        if (td1.getFieldType(p.getField1()) == Type.INT_TYPE)
+            table = new IntJoinTable(td1, p.getField1());
+        long limit = level >= MAX_LEVEL ? Long.MAX_VALUE : Math.max(1, memoryBudget / td1.getSize());
+
+        for (TupleBatch b = child1.nextBatch(); b != null; b = child1.nextBatch()) {
+            if (partitions == null) {
+                add(b);
+                resident += b.numSelected();
+                if (resident > limit)
+                    partition();
+            } else {
+                for (int k = 0; k < b.numSelected(); k++) {
+                    int r = b.row(k);
+                    Partition part = partitions[partitionOf(hash(b, p.getField1(), r))];
+                    if (part.build != null) {
+                        part.build.add(b, r);
+                        continue;
+                    }
+                    chunk(part).add(b, r);
+                    resident++;
+                }
+            }
+            while (resident > limit)
+                spillLargest();
+        }
+
+        if (partitions != null) {
+            // join the partitions left in memory as if they were all of child1
+            for (Partition part : partitions) {
+                if (part.build != null)
+                    continue;
+                for (int i = 0; i < part.rows.size(); i++) {
+                    add(part.rows.get(i));
+                    part.rows.set(i, null);
+                }
+                part.rows = null;
+            }
+        }
+    }
 
-        while (child1.hasNext()) {
-            Tuple tuple = child1.next();
+    /** Adds the selected rows of b to the hash table. */
+    private void add(TupleBatch b) {
+        if (table != null) {
+            table.add(b);
+            return;
+        }
+        for (int k = 0; k < b.numSelected(); k++) {
+            Tuple tuple = b.tuple(b.row(k));
             Field field = tuple.getField(p.getField1());
-            if (map.containsKey(field))
-                map.get(field).add(tuple);
-            else
-                map.put(field, new ArrayList<Tuple>(Arrays.asList(tuple)));
+            ArrayList<Tuple> list = map.get(field);
+            if (list == null)
+                map.put(field, list = new ArrayList<Tuple>(1));
+            list.add(tuple);
         }
     }
-    
+
+    /** Moves the rows of the hash table into partitions held in memory. */
+    private void partition() {
+        partitions = new Partition[FANOUT];
+        for (int i = 0; i < FANOUT; i++)
+            partitions[i] = new Partition();
+        if (table != null) {
+            for (int row = 0; row < table.size(); row++) {
+                TupleBatch b = table.batch(row);
+                int r = IntJoinTable.offset(row);
+                chunk(partitions[partitionOf(hash(b, p.getField1(), r))]).add(b, r);
+            }
+            table.clear();
+        } else {
+            for (ArrayList<Tuple> list : map.values())
+                for (Tuple t : list)
+                    chunk(partitions[partitionOf(hash(t, p.getField1()))]).add(t);
+            map.clear();
+        }
+    }
+
+    /**
+     * @return the batch of part, held in memory, to add its next row to;
+     *         counts that row
+     */
+    private TupleBatch chunk(Partition part) {
+        if (part.size++ % TupleBatch.DEFAULT_SIZE == 0)
+            part.rows.add(new TupleBatch(child1.getTupleDesc(), TupleBatch.DEFAULT_SIZE));
+        return part.rows.get(part.rows.size() - 1);
+    }
+
+    /** Writes the largest partition held in memory to a spill file. */
+    private void spillLargest() throws DbException {
+        Partition largest = null;
+        for (Partition part : partitions)
+            if (part.build == null && (largest == null || part.size > largest.size))
+                largest = part;
+        largest.build = new SpillFile(dir(), child1.getTupleDesc());
+        for (TupleBatch b : largest.rows)
+            for (int k = 0; k < b.numSelected(); k++)
+                largest.build.add(b, b.row(k));
+        largest.rows = null;
+        resident -= largest.size;
+    }
+
+    /**
+     * Writes a row of child2 to the spill file of its partition if that
+     * partition is spilled.
+     *
+     * @return whether the row was spilled
+     */
+    private boolean spill(Tuple t) throws DbException {
+        if (partitions == null)
+            return false;
+        Partition part = partitions[partitionOf(hash(t, p.getField2()))];
+        if (part.build == null)
+            return false;
+        if (part.probe == null)
+            part.probe = new SpillFile(dir(), child2.getTupleDesc());
+        part.probe.add(t);
+        return true;
+    }
+
+    /** As {@link #spill(Tuple)}, for row r of b. */
+    private boolean spill(TupleBatch b, int r) throws DbException {
+        if (partitions == null)
+            return false;
+        Partition part = partitions[partitionOf(hash(b, p.getField2(), r))];
+        if (part.build == null)
+            return false;
+        if (part.probe == null)
+            part.probe = new SpillFile(dir(), child2.getTupleDesc());
+        part.probe.add(b, r);
+        return true;
+    }
+
+    /**
+     * Closes the join of the spilled partition being read, if any, and opens
+     * that of the next spilled partition with rows on both sides.
+     *
+     * @return false if there are no more
+     */
+    private boolean nextPartition() throws DbException, TransactionAbortedException {
+        if (nested != null) {
+            nested.close();
+            nested = null;
+            Partition part = partitions[nextPartition - 1];
+            part.build.delete();
+            part.probe.delete();
+            part.build = part.probe = null;
+        }
+        while (partitions != null && nextPartition < FANOUT) {
+            Partition part = partitions[nextPartition++];
+            if (part.build == null || part.probe == null)
+                continue;
+            nested = new HashEquiJoin(p, part.build.reader(), part.probe.reader());
+            nested.memoryBudget = memoryBudget;
+            nested.spillDirectory = dir;
+            nested.level = level + 1;
+            nested.open();
+            return true;
+        }
+        return false;
+    }
+
+    /** Removes the join's spill files and their directory. */
+    private void deleteSpills() {
+        if (nested != null)
+            nested.close();
+        nested = null;
+        nextPartition = 0;
+        if (partitions != null) {
+            for (Partition part : partitions) {
+                if (part.build != null)
+                    part.build.delete();
+                if (part.probe != null)
+                    part.probe.delete();
+            }
+        }
+        partitions = null;
+        if (dir != null)
+            dir.delete();
+        dir = null;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         super.open();
         child1.open();
         child2.open();
-        loadMap();
+        try {
+            loadMap();
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            deleteSpills();
+            throw e;
+        }
     }
 
     public void close() {
+        listIt = null;
+        joined = null;
+        match = -1;
+        probe = null;
+        matches = null;
+        deleteSpills();
         child1.close();
         child2.close();
         super.close();
@@ -85,6 +376,9 @@ public class HashEquiJoin extends Operator {
 
     transient Iterator<Tuple> listIt = null;
     transient private Tuple joined = null;
+    // with an IntJoinTable, the next row of the table that matches the row
+    // of child2 being probed with, or -1
+    transient private int match = -1;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -105,9 +399,45 @@ public class HashEquiJoin extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        try {
+            Tuple t = fetchJoined();
+            while (t == null && (nested != null || partitions != null)) {
+                if (nested != null && nested.hasNext())
+                    return nested.next();
+                if (!nextPartition())
+                    return null;
+            }
+            return t;
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            deleteSpills();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next tuple of the join of child2 with the rows of child1
+     *         in memory, or null
+     */
+    private Tuple fetchJoined() throws TransactionAbortedException, DbException {
+        if (table != null) {
+            while (match == -1) {
+                if (!child2.hasNext())
+                    return null;
+                joined = child2.next();
+                if (spill(joined))
+                    continue;
+                match = table.first(joined.getInt(p.getField2()));
+            }
+            int row = match;
+            match = table.next(row);
+            return CompactTuple.concat(getTupleDesc(), table.batch(row), IntJoinTable.offset(row), joined);
+        }
+
         while ((listIt == null || !listIt.hasNext()) 
                 && child2.hasNext()) {
             joined = child2.next();
+            if (spill(joined))
+                continue;
 
             Field f = joined.getField(p.getField2());
             if (map.containsKey(f))
@@ -116,17 +446,75 @@ public class HashEquiJoin extends Operator {
 
         if (listIt == null || !listIt.hasNext() || joined == null) return null;
 
-        Tuple tuple = listIt.next();
-        Tuple result = new Tuple (getTupleDesc());        
+        return CompactTuple.concat(getTupleDesc(), listIt.next(), joined);
+    }
 
-        int size1 = child1.getTupleDesc().numFields();
-        int size2 = child2.getTupleDesc().numFields();
-        for (int i = 0; i < size1; i++)
-            result.setField(i, tuple.getField(i));                    
-        for (int i = 0; i < size2; i++)
-            result.setField(i + size1, joined.getField(i));
+    // nextBatch's output batch, the batch of child2 it is probing with and
+    // the position in it, and the matches of the row before that position
+    transient private TupleBatch out = null;
+    transient private TupleBatch probe = null;
+    transient private int probeAt;
+    transient private ArrayList<Tuple> matches = null;
+    transient private int matchAt;
 
-        return result;
+    /**
+     * Probes the hash table with the rows of child2's batches and writes
+     * the joined rows straight into the columns of an output batch. The
+     * table is built from child1's batches in open, in either mode; on an
+     * int join field it is an {@link IntJoinTable}. The batches of the joins
+     * of spilled partitions are passed on as they are.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        try {
+            TupleBatch b = joinBatch();
+            while (b == null && (nested != null || partitions != null)) {
+                if (nested != null && (b = nested.nextBatch()) != null)
+                    return b;
+                if (!nextPartition())
+                    return null;
+            }
+            return b;
+        } catch (DbException | TransactionAbortedException | RuntimeException e) {
+            deleteSpills();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the next batch of the join of child2 with the rows of child1
+     *         in memory, or null
+     */
+    private TupleBatch joinBatch() throws TransactionAbortedException, DbException {
+        if (out == null)
+            out = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        out.clear();
+        while (!out.isFull()) {
+            if (match != -1) {
+                out.addJoined(table.batch(match), IntJoinTable.offset(match), probe, probe.row(probeAt - 1));
+                match = table.next(match);
+                continue;
+            }
+            if (matches != null && matchAt < matches.size()) {
+                out.addJoined(matches.get(matchAt++), probe, probe.row(probeAt - 1));
+                continue;
+            }
+            if (probe == null || probeAt == probe.numSelected()) {
+                probe = child2.nextBatch();
+                probeAt = 0;
+                if (probe == null)
+                    break;
+            }
+            int row = probe.row(probeAt++);
+            if (spill(probe, row))
+                continue;
+            if (table != null) {
+                match = table.first(probe.getInt(p.getField2(), row));
+            } else {
+                matches = map.get(probe.getField(p.getField2(), row));
+                matchAt = 0;
+            }
+        }
+        return out.size() == 0 ? null : out;
     }
 
     @Override
@@ -138,6 +526,8 @@ public class HashEquiJoin extends Operator {
     public void setChildren(DbIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.td = null;
+        this.out = null;
     }
     
 }
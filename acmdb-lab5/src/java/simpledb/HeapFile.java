@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -8,15 +9,21 @@ import java.util.*;
  * in no particular order. Tuples are stored on pages, each of which is a fixed
  * size, and the file is simply a collection of those pages. HeapFile works
  * closely with HeapPage. The format of HeapPages is described in the HeapPage
- * constructor.
+ * constructor. Subclasses may store their tuples in another page format by
+ * overriding the newPage methods.
  * 
  * @see simpledb.HeapPage#HeapPage
+ * @see SlottedHeapFile
  * @author Sam Madden
  */
 public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc td;
+    private final PageFile io;
+    // subclasses that override readPage(PageId) see every page read
+    private final boolean readsOwnPages;
+    private final FreeSpaceMap freeSpace;
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -28,6 +35,17 @@ public class HeapFile implements DbFile {
     public HeapFile(File f, TupleDesc td) {
         this.file = f;
         this.td = td;
+        this.io = new PageFile(f);
+        this.readsOwnPages = overridesReadPage(getClass());
+        this.freeSpace = new FreeSpaceMap(new File(f.getPath() + ".fsm"), this);
+    }
+
+    private static boolean overridesReadPage(Class<?> c) {
+        try {
+            return c.getMethod("readPage", PageId.class).getDeclaringClass() != HeapFile.class;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
     }
 
     /**
@@ -61,54 +79,189 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /** @return true if pages are read from a memory mapping of the file */
+    public boolean isMapped() {
+        return io.isMapped();
+    }
+
+    /**
+     * Switches memory-mapped reads on or off. A mapped HeapFile reads its
+     * pages as views of the mapping, without copying them; a view is
+     * copied when its page is first changed. Meant for tables that are
+     * loaded once and then mostly read. Writes still go through the
+     * BufferPool and the log as usual.
+     */
+    public void setMapped(boolean mapped) {
+        io.setMapped(mapped);
+    }
+
+    /**
+     * Creates a page of this file from data read from disk. An array of
+     * zeros must give an empty page.
+     */
+    protected HeapFilePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
+    /**
+     * Creates a page of this file that reads its tuples from frame, which
+     * holds the page as stored on disk.
+     */
+    protected HeapFilePage newPage(HeapPageId pid, ByteBuffer frame) {
+        return new HeapPage(pid, frame);
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
-        Page page = null;
         byte[] buf = new byte[BufferPool.getPageSize()];
+        try {
+            ByteBuffer view = io.view(offset(pid), buf.length);
+            if (view != null)
+                return newPage((HeapPageId) pid, view);
+            io.read(buf, offset(pid));
+            return newPage((HeapPageId) pid, buf);
+        } catch (IOException e) {
+            return null;
+        }
+    }
 
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid, ByteBuffer frame) {
         try {
-            RandomAccessFile f = new RandomAccessFile(getFile(), "r");
-                
-            f.seek(pid.pageNumber() * BufferPool.getPageSize());
-            f.read(buf, 0, buf.length);
-            page = new HeapPage((HeapPageId) pid, buf);
-            f.close();
-        } catch (IOException e) { /* EMPTY */ } 
-        
-        return page;
+            ByteBuffer view = io.view(offset(pid), frame.capacity());
+            if (view != null)
+                return newPage((HeapPageId) pid, view);
+            io.read(frame, offset(pid));
+            return newPage((HeapPageId) pid, frame);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Reads a run of adjacent pages with a single scattering read, into the
+     * frames if there are any. Mapped pages are views of the mapping and
+     * cost no read, so they are read one by one, as are the pages of a
+     * subclass that overrides {@link #readPage(PageId)}.
+     */
+    public Page[] readPages(PageId[] pids, ByteBuffer[] frames) {
+        if (io.isMapped() || readsOwnPages)
+            return DbFile.super.readPages(pids, frames);
+        ByteBuffer[] bufs = frames;
+        if (bufs == null) {
+            bufs = new ByteBuffer[pids.length];
+            for (int i = 0; i < bufs.length; i++)
+                bufs[i] = ByteBuffer.wrap(new byte[BufferPool.getPageSize()]);
+        }
+        try {
+            io.read(bufs, offset(pids[0]));
+            Page[] pages = new Page[pids.length];
+            for (int i = 0; i < pids.length; i++)
+                pages[i] = frames != null ? newPage((HeapPageId) pids[i], frames[i])
+                    : newPage((HeapPageId) pids[i], bufs[i].array());
+            return pages;
+        } catch (IOException e) {
+            return new Page[pids.length];
+        }
     }
 
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {        
-        RandomAccessFile fp = new RandomAccessFile(file, "rw");
-        fp.seek(page.getId().pageNumber() * BufferPool.getPageSize());        
-        fp.write(page.getPageData());
-        fp.close();
+        io.write(page, offset(page.getId()));
+    }
+
+    // see DbFile.java for javadocs
+    public void writePages(List<Page> pages) throws IOException {
+        if (pages.size() == 1) {
+            writePage(pages.get(0));
+            return;
+        }
+        io.write(pages, offset(pages.get(0).getId()));
+    }
+
+    // see DbFile.java for javadocs
+    public void force() throws IOException {
+        io.force();
+    }
+
+    /**
+     * Cuts the file down to its first numPages pages, e.g. to empty a table
+     * whose bulk load was rolled back. The BufferPool must not cache any
+     * page that is cut off. The free-space map is rebuilt on next use.
+     */
+    public void truncate(int numPages) throws IOException {
+        io.truncate((long) numPages * BufferPool.getPageSize());
+        freeSpace.invalidate();
+    }
+
+    /** Closes the file and its free-space map; see {@link PageFile#close}. */
+    @Override
+    public void close() {
+        io.close();
+        freeSpace.close();
+    }
+
+    private static long offset(PageId pid) {
+        return (long) pid.pageNumber() * BufferPool.getPageSize();
+    }
+
+    /**
+     * Returns the map of the pages of this file that may have room for a tuple.
+     * It is stored next to the file, in a file with an ".fsm" suffix.
+     */
+    public FreeSpaceMap getFreeSpaceMap() {
+        return freeSpace;
+    }
+
+    /**
+     * Creates an empty file for a table that lives only as long as the JVM.
+     * The file is deleted on exit, and so is the free-space map a HeapFile
+     * opened on it keeps next to it.
+     *
+     * @param prefix the prefix of the file name, at least three characters
+     */
+    public static File createTempFile(String prefix) throws IOException {
+        File f = File.createTempFile(prefix, ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ".fsm").deleteOnExit();
+        return f;
     }
 
     /**
      * Returns the number of pages in this HeapFile.
      */
     public int numPages() {
-        return (int) (file.length() / BufferPool.getPageSize());
+        return (int) (io.length() / BufferPool.getPageSize());
     }
 
     // see DbFile.java for javadocs
     public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         
-        HeapPage insertPage = null;        
-        for (int i = 0; i < numPages(); i++) {
-            HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY);
-            if (page.getNumEmptySlots() > 0) {
-                insertPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+        BufferPool pool = Database.getBufferPool();
+        pool.lockTable(tid, getId(), Permissions.READ_ONLY);
+        HeapFilePage insertPage = null;
+        // only the pages the free-space map points at are visited
+        for (int i = freeSpace.find(0); i >= 0; i = freeSpace.find(i + 1)) {
+            HeapPageId pid = new HeapPageId(getId(), i);
+            boolean held = pool.holdsLock(tid, pid);
+            HeapFilePage page = (HeapFilePage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (page.hasRoomFor(t)) {
+                insertPage = (HeapFilePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
                 break;
             }
+            // a page this transaction filled may get its room back on abort
+            if (!held) {
+                if (!page.hasRoom())
+                    freeSpace.update(i, false);
+                pool.releasePage(tid, pid);
+            }
         }
         
         if (insertPage == null) {
-            insertPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), numPages()), Permissions.READ_WRITE);
+            insertPage = (HeapFilePage) pool.getPage(tid, new HeapPageId(getId(), numPages()), Permissions.READ_WRITE);
             writePage(insertPage);
+            freeSpace.update(insertPage.getId().pageNumber(), true);
         }
         
         insertPage.insertTuple(t);
@@ -117,33 +270,196 @@ public class HeapFile implements DbFile {
         return new ArrayList<>(Arrays.asList(insertPage));
     }
 
+    /**
+     * Appends a batch of tuples under the table's write lock. The last
+     * page is topped up through the BufferPool first; the rest of the
+     * tuples fill fresh pages in memory, which are appended to the file in
+     * extents of up to maxIoPages pages. If the table held no tuples when
+     * the load started, the appended pages are not logged (see
+     * {@link BufferPool#bulkLoad}): an extent goes to disk with a single
+     * gathering write and never enters the BufferPool, and the empty pages
+     * the table had are left alone. Otherwise each fresh page is locked
+     * and handed back as a dirty page to be logged at commit, and the file
+     * is extended with one write of empty pages per extent.
+     */
+    public ArrayList<Page> insertTuples(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool pool = Database.getBufferPool();
+        pool.lockTable(tid, getId(), Permissions.READ_WRITE);
+        int start = pool.bulkLoadStart(tid, getId());
+        if (start < 0 && isEmpty(tid)) {
+            start = numPages();
+            pool.bulkLoad(tid, this, start);
+        }
+        boolean unlogged = start >= 0;
+        ArrayList<Page> modified = new ArrayList<>();
+
+        // the tuple that did not fit on the last page filled
+        Tuple next = tuples.hasNext() ? tuples.next() : null;
+        int n = numPages();
+        if (n > 0 && next != null && n - 1 >= start) {
+            HeapPageId pid = new HeapPageId(getId(), n - 1);
+            HeapFilePage last = (HeapFilePage) pool.getPage(tid, pid, Permissions.READ_ONLY);
+            if (last.hasRoomFor(next)) {
+                last = (HeapFilePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+                next = fill(last, next, tuples);
+                last.markDirty(true, tid);
+                modified.add(last);
+                freeSpace.update(n - 1, last.hasRoom());
+            }
+        }
+
+        int extent = pool.getMaxIoPages();
+        ArrayList<Page> run = new ArrayList<>(extent);
+        while (next != null) {
+            HeapPageId pid = new HeapPageId(getId(), n + run.size());
+            HeapFilePage page;
+            if (unlogged) {
+                // a page of a failed earlier load may still be cached
+                pool.discardPage(pid);
+                page = newPage(pid, HeapPage.createEmptyPageData());
+            } else {
+                // past the end of the file, so read as an empty page
+                page = (HeapFilePage) pool.getPage(tid, pid, Permissions.READ_WRITE);
+                page.markDirty(true, tid);
+                modified.add(page);
+            }
+            if (!page.hasRoomFor(next))
+                throw new DbException("tuple does not fit on an empty page");
+            next = fill(page, next, tuples);
+            run.add(page);
+            if (run.size() == extent || next == null) {
+                if (unlogged)
+                    writePages(run);
+                else
+                    extend(offset(run.get(0).getId()) + (long) run.size() * BufferPool.getPageSize());
+                for (Page p : run)
+                    freeSpace.update(p.getId().pageNumber(), ((HeapFilePage) p).hasRoom());
+                n += run.size();
+                run.clear();
+            }
+        }
+        return modified;
+    }
+
+    /** @return true if no page of this file holds a tuple */
+    private boolean isEmpty(TransactionId tid) throws DbException, TransactionAbortedException {
+        for (int i = 0; i < numPages(); i++) {
+            HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid,
+                    new HeapPageId(getId(), i), Permissions.READ_ONLY);
+            if (!page.isEmpty())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Extends the file with empty pages up to length bytes. Pages the
+     * BufferPool stole meanwhile are already written, so only the part
+     * past the current end of the file is written.
+     */
+    private void extend(long length) throws IOException {
+        long from = io.length();
+        if (from < length)
+            io.write(new byte[(int) (length - from)], from);
+    }
+
+    /**
+     * Inserts t and the tuples after it into page until one does not fit.
+     *
+     * @return the tuple that did not fit, or null if all of them did
+     */
+    private static Tuple fill(HeapFilePage page, Tuple t, Iterator<Tuple> tuples) throws DbException {
+        while (t != null && page.hasRoomFor(t)) {
+            page.insertTuple(t);
+            t = tuples.hasNext() ? tuples.next() : null;
+        }
+        return t;
+    }
+
     // see DbFile.java for javadocs
     public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException,
             TransactionAbortedException {
         
-        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+        Database.getBufferPool().lockTable(tid, getId(), Permissions.READ_ONLY);
+        HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
         page.deleteTuple(t);
         page.markDirty(true, tid);
+        freeSpace.update(page.getId().pageNumber(), true);
+
+        return new ArrayList<>(Arrays.asList(page));
+    }
+
+    /**
+     * Overwrites the tuple stored under t's RecordId with the values of t,
+     * in place: the tuple keeps its RecordId. Indexes on the table are not
+     * told about the change.
+     *
+     * @return the modified page
+     * @throws DbException if t is not stored in this file, or its new
+     *         values do not fit on its page
+     */
+    public ArrayList<Page> updateTuple(TransactionId tid, Tuple t) throws DbException,
+            TransactionAbortedException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || rid.getPageId().getTableId() != getId())
+            throw new DbException("tuple is not in this file");
+        Database.getBufferPool().lockTable(tid, getId(), Permissions.READ_ONLY);
+        HeapFilePage page = (HeapFilePage) Database.getBufferPool().getPage(tid, rid.getPageId(), Permissions.READ_WRITE);
+        page.updateTuple(t);
+        page.markDirty(true, tid);
+        freeSpace.update(page.getId().pageNumber(), page.hasRoom());
 
         return new ArrayList<>(Arrays.asList(page));
     }
 
     // see DbFile.java for javadocs
-    public DbFileIterator iterator(TransactionId _tid) {
+    public DbFileIterator iterator(TransactionId tid) {
+        return iterator(tid, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file with only the given
+     * fields, in the given order (see {@link HeapFilePage#iterator(int[])}).
+     *
+     * @param fields the indexes of the fields to read, or null for all
+     */
+    public DbFileIterator iterator(TransactionId _tid, int[] fields) {
         DbFileIterator iterator = new DbFileIterator() {
             private int i;
             private TransactionId tid = _tid;
             private Iterator<Tuple> iterTuple;
+            private ScanRing ring;
+            private ReadAhead readAhead;
+            private HeapPageId pinned;
 
+            // the page being read stays pinned until the scan moves on
             private Iterator<Tuple> getTupleIterator() throws DbException, 
                 TransactionAbortedException {
-                return ((HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY)).iterator();
+                unpin();
+                readAhead.access(i);
+                HeapPageId pid = new HeapPageId(getId(), i);
+                HeapFilePage page = (HeapFilePage) Database.getBufferPool().pinPage(tid, pid, Permissions.READ_ONLY, ring);
+                pinned = pid;
+                return page.iterator(fields);
+            }
+
+            private void unpin() {
+                if (pinned != null) {
+                    Database.getBufferPool().unpinPage(tid, pinned);
+                    pinned = null;
+                }
             }
 
             @Override
             public void open() throws DbException, 
                 TransactionAbortedException {
+                Database.getBufferPool().lockTable(tid, getId(), Permissions.READ_ONLY);
                 i = 0;
+                // a table that cannot stay cached anyway is scanned through
+                // a small ring so that it doesn't flush everything else
+                ring = numPages() > Database.getBufferPool().getMaxPages() ? new ScanRing() : null;
+                readAhead = new ReadAhead(n -> new HeapPageId(getId(), n), numPages(), ring);
                 iterTuple = getTupleIterator();
             }
             
@@ -152,14 +468,16 @@ public class HeapFile implements DbFile {
                 TransactionAbortedException {
                 if (iterTuple == null)
                     return false;
-                if (iterTuple.hasNext())
-                    return true;
-                if (i + 1 >= numPages())
-                    return false;
-
-                i++;
-                iterTuple = getTupleIterator();
-                return iterTuple.hasNext();
+                // pages left empty by deletes are skipped, however many
+                while (!iterTuple.hasNext()) {
+                    if (i + 1 >= numPages()) {
+                        unpin();
+                        return false;
+                    }
+                    i++;
+                    iterTuple = getTupleIterator();
+                }
+                return true;
             }
 
             @Override
@@ -171,6 +489,18 @@ public class HeapFile implements DbFile {
                 throw new NoSuchElementException();
             }
 
+            /** HeapPages decode their tuples into b without making views. */
+            @Override
+            public void fill(TupleBatch b, int[] columns) throws DbException,
+                TransactionAbortedException {
+                while (!b.isFull() && hasNext()) {
+                    if (columns == null && iterTuple instanceof HeapPage.SlotIterator)
+                        ((HeapPage.SlotIterator) iterTuple).fill(b);
+                    else
+                        b.add(iterTuple.next(), columns);
+                }
+            }
+
             @Override
             public void rewind() throws DbException, 
                 TransactionAbortedException {
@@ -179,7 +509,10 @@ public class HeapFile implements DbFile {
 
             @Override
             public void close() {
+                unpin();
                 iterTuple = null;
+                ring = null;
+                readAhead = null;
             }
         };
         return iterator;
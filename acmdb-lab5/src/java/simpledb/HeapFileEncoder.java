@@ -1,7 +1,16 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,6 +22,9 @@ import java.util.ArrayList;
 
 public class HeapFileEncoder {
 
+  /** Bytes of input text handed to a worker at a time. */
+  public static final int CHUNK_BYTES = 4 << 20;
+
   /** Convert the specified tuple list (with only integer fields) into a binary
    * page file. <br>
    *
@@ -66,17 +78,36 @@ public class HeapFileEncoder {
       convert(inFile,outFile,npagebytes,numFields,typeAr,',');
   }
 
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator,
+              Runtime.getRuntime().availableProcessors());
+  }
+
    /** Convert the specified input text file into a binary
     * page file. <br>
-    * Assume format of the input file is (note that only integer fields are
-    * supported):<br>
-    * int,...,int\n<br>
-    * int,...,int\n<br>
+    * Assume format of the input file is:<br>
+    * field,...,field\n<br>
+    * field,...,field\n<br>
     * ...<br>
-    * where each row represents a tuple.<br>
+    * where each row represents a tuple, and each field is an int or a
+    * string as typeAr says. Blank lines are skipped, carriage returns are
+    * ignored and fields are trimmed; strings longer than
+    * {@link Type#STRING_LEN} are cut short. An int field that does not
+    * parse is reported on standard output and stored as 0.<br>
     * <p>
     * The format of the output file will be as specified in HeapPage and
     * HeapFile.
+    * <p>
+    * The input is read in chunks of {@link #CHUNK_BYTES} bytes, cut at a
+    * line end. Each chunk is encoded by one of threads workers straight
+    * into the pages its records go to: the reader counts the records of a
+    * chunk as it cuts it, which places the chunk's first record. The pages
+    * are written in page order with gathering FileChannel writes, the page
+    * two chunks share being merged first. At most two chunks per worker
+    * are in memory at a time, so the input can be much larger than the
+    * heap. An input that fits into one chunk is encoded by the caller.
     *
     * @see HeapPage
     * @see HeapFile
@@ -84,143 +115,312 @@ public class HeapFileEncoder {
     * @param outFile The output file to write data to
     * @param npagebytes The number of bytes per page in the output file
     * @param numFields the number of fields in each input line/output tuple
+    * @param threads the number of workers encoding chunks
     * @throws IOException if the input/output file can't be opened or a
-    *   malformed input line is encountered
+    *   line with the wrong number of fields is encountered
     */
   public static void convert(File inFile, File outFile, int npagebytes,
-                 int numFields, Type[] typeAr, char fieldSeparator)
+                 int numFields, Type[] typeAr, char fieldSeparator, int threads)
+      throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, threads, CHUNK_BYTES);
+  }
+
+  /** Converts like the above, in chunks of about chunkBytes bytes. */
+  static void convert(File inFile, File outFile, int npagebytes, int numFields,
+                 Type[] typeAr, char fieldSeparator, int threads, int chunkBytes)
       throws IOException {
+      Layout layout = new Layout(npagebytes, Arrays.copyOf(typeAr, numFields), (byte) fieldSeparator);
+      int window = 2 * Math.max(1, threads);
+      ExecutorService workers = null;
+      ArrayDeque<Future<Encoded>> inFlight = new ArrayDeque<Future<Encoded>>();
+
+      try (FileChannel in = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+           FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.WRITE,
+                   StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+          PageWriter writer = new PageWriter(out, npagebytes);
+          byte[] buf = new byte[chunkBytes];
+          int len = 0;
+          long records = 0;
+          boolean eof = false;
+          while (!eof) {
+              ByteBuffer dst = ByteBuffer.wrap(buf, len, buf.length - len);
+              while (dst.hasRemaining() && !eof)
+                  eof = in.read(dst) < 0;
+              len = dst.position();
+              int end = eof ? len : lastLineEnd(buf, len);
+              if (end == 0 && !eof) {
+                  // a line longer than a chunk
+                  buf = Arrays.copyOf(buf, buf.length * 2);
+                  continue;
+              }
+
+              Chunk chunk = new Chunk(buf, end, records, countRecords(buf, end), layout);
+              records += chunk.records;
+              byte[] next = new byte[Math.max(chunkBytes, len - end)];
+              System.arraycopy(buf, end, next, 0, len - end);
+              len -= end;
+              buf = next;
+
+              if (threads <= 1 || eof && inFlight.isEmpty()) {
+                  writer.write(chunk.call());
+                  continue;
+              }
+              if (workers == null)
+                  workers = Executors.newFixedThreadPool(threads, r -> {
+                      Thread t = new Thread(r, "HeapFileEncoder worker");
+                      t.setDaemon(true);
+                      return t;
+                  });
+              inFlight.add(workers.submit(chunk));
+              if (inFlight.size() >= window)
+                  writer.write(await(inFlight.poll()));
+          }
+          while (!inFlight.isEmpty())
+              writer.write(await(inFlight.poll()));
+          writer.finish();
+      } finally {
+          if (workers != null)
+              workers.shutdownNow();
+      }
+  }
+
+  private static Encoded await(Future<Encoded> f) throws IOException {
+      try {
+          return f.get();
+      } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          throw new InterruptedIOException("conversion interrupted");
+      } catch (ExecutionException e) {
+          if (e.getCause() instanceof IOException)
+              throw (IOException) e.getCause();
+          if (e.getCause() instanceof RuntimeException)
+              throw (RuntimeException) e.getCause();
+          throw new IOException(e.getCause());
+      }
+  }
+
+  /** @return the offset just past the last line end in buf[0, len), or 0 */
+  private static int lastLineEnd(byte[] buf, int len) {
+      for (int i = len - 1; i >= 0; i--)
+          if (buf[i] == '\n')
+              return i + 1;
+      return 0;
+  }
+
+  /** @return the offset of the end of the line starting at from */
+  private static int lineEnd(byte[] buf, int from, int len) {
+      while (from < len && buf[from] != '\n')
+          from++;
+      return from;
+  }
+
+  /** @return true if the line holds nothing but carriage returns */
+  private static boolean isBlank(byte[] buf, int from, int to) {
+      for (int i = from; i < to; i++)
+          if (buf[i] != '\r')
+              return false;
+      return true;
+  }
+
+  /** @return the number of lines in buf[0, len) that are not blank */
+  private static int countRecords(byte[] buf, int len) {
+      int n = 0;
+      for (int pos = 0; pos < len; ) {
+          int eol = lineEnd(buf, pos, len);
+          if (!isBlank(buf, pos, eol))
+              n++;
+          pos = eol + 1;
+      }
+      return n;
+  }
+
+  /** Where the records and header bits go on a page. */
+  private static class Layout {
+      final int pageBytes;
+      final Type[] types;
+      final byte separator;
+      final int recordBytes;
+      final int recordsPerPage;
+      final int headerBytes;
+
+      Layout(int pageBytes, Type[] types, byte separator) {
+          this.pageBytes = pageBytes;
+          this.types = types;
+          this.separator = separator;
+          int bytes = 0;
+          for (Type t : types)
+              bytes += t.getLen();
+          recordBytes = bytes;
+          recordsPerPage = (pageBytes * 8) / (recordBytes * 8 + 1);
+          headerBytes = (recordsPerPage + 7) / 8;
+      }
+  }
 
-      int nrecbytes = 0;
-      for (int i = 0; i < numFields ; i++) {
-          nrecbytes += typeAr[i].getLen();
-      }
-      int nrecords = (npagebytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
-      
-    //  per record, we need one bit; there are nrecords per page, so we need
-    // nrecords bits, i.e., ((nrecords/32)+1) integers.
-    int nheaderbytes = (nrecords / 8);
-    if (nheaderbytes * 8 < nrecords)
-        nheaderbytes++;  //ceiling
-    int nheaderbits = nheaderbytes * 8;
-
-    BufferedReader br = new BufferedReader(new FileReader(inFile));
-    FileOutputStream os = new FileOutputStream(outFile);
-
-    // our numbers probably won't be much larger than 1024 digits
-    char buf[] = new char[1024];
-
-    int curpos = 0;
-    int recordcount = 0;
-    int npages = 0;
-    int fieldNo = 0;
-
-    ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-    DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-    ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-    DataOutputStream pageStream = new DataOutputStream(pageBAOS);
-
-    boolean done = false;
-    boolean first = true;
-    while (!done) {
-        int c = br.read();
-        
-        // Ignore Windows/Notepad special line endings
-        if (c == '\r')
-            continue;
-
-        if (c == '\n') {
-            if (first)
-                continue;
-            recordcount++;
-            first = true;
-        } else
-            first = false;
-        if (c == fieldSeparator || c == '\n' || c == '\r') {
-            String s = new String(buf, 0, curpos);
-            if (typeAr[fieldNo] == Type.INT_TYPE) {
-                try {
-                    pageStream.writeInt(Integer.parseInt(s.trim()));
-                } catch (NumberFormatException e) {
-                    System.out.println ("BAD LINE : " + s);
-                }
-            }
-            else   if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                s = s.trim();
-                int overflow = Type.STRING_LEN - s.length();
-                if (overflow < 0) {
-                    String news = s.substring(0,Type.STRING_LEN);
-                    s  = news;
-                }
-                pageStream.writeInt(s.length());
-                pageStream.writeBytes(s);
-                while (overflow-- > 0)
-                    pageStream.write((byte)0);
-            }
-            curpos = 0;
-            if (c == '\n')
-                fieldNo = 0;
-            else
-                fieldNo++;
-            
-        } else if (c == -1) {
-            done = true;
-            
-        } else {
-            buf[curpos++] = (char)c;
-            continue;
-        }
-        
-        // if we wrote a full page of records, or if we're done altogether,
-        // write out the header of the page.
-        //
-        // in the header, write a 1 for bits that correspond to records we've
-        // written and 0 for empty slots.
-        //
-        // when we're done, also flush the page to disk, but only if it has
-        // records on it.  however, if this file is empty, do flush an empty
-        // page to disk.
-        if (recordcount >= nrecords
-            || done && recordcount > 0
-            || done && npages == 0) {
-            int i = 0;
-            byte headerbyte = 0;
-            
-            for (i=0; i<nheaderbits; i++) {
-                if (i < recordcount)
-                    headerbyte |= (1 << (i % 8));
-                
-                if (((i+1) % 8) == 0) {
-                    headerStream.writeByte(headerbyte);
-                    headerbyte = 0;
-                }
-            }
-            
-            if (i % 8 > 0)
-                headerStream.writeByte(headerbyte);
-            
-            // pad the rest of the page with zeroes
-            
-            for (i=0; i<(npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                pageStream.writeByte(0);
-            
-            // write header and body to file
-            headerStream.flush();
-            headerBAOS.writeTo(os);
-            pageStream.flush();
-            pageBAOS.writeTo(os);
-            
-            // reset header and body for next page
-            headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-            headerStream = new DataOutputStream(headerBAOS);
-            pageBAOS = new ByteArrayOutputStream(npagebytes);
-            pageStream = new DataOutputStream(pageBAOS);
-            
-            recordcount = 0;
-            npages++;
-        }
-    }
-    br.close();
-    os.close();
+  /** The pages a chunk wrote records to; the first and last may be shared. */
+  private static class Encoded {
+      final int firstPage;
+      final ByteBuffer[] pages;
+
+      Encoded(int firstPage, ByteBuffer[] pages) {
+          this.firstPage = firstPage;
+          this.pages = pages;
+      }
+  }
+
+  /** Whole input lines, and the number of the first record among them. */
+  private static class Chunk implements java.util.concurrent.Callable<Encoded> {
+      final byte[] data;
+      final int len;
+      final long firstRecord;
+      final int records;
+      final Layout layout;
+
+      Chunk(byte[] data, int len, long firstRecord, int records, Layout layout) {
+          this.data = data;
+          this.len = len;
+          this.firstRecord = firstRecord;
+          this.records = records;
+          this.layout = layout;
+      }
+
+      public Encoded call() throws IOException {
+          int perPage = layout.recordsPerPage;
+          int firstPage = (int) (firstRecord / perPage);
+          int numPages = records == 0 ? 0
+              : (int) ((firstRecord + records - 1) / perPage) - firstPage + 1;
+          ByteBuffer[] pages = new ByteBuffer[numPages];
+          for (int i = 0; i < numPages; i++)
+              pages[i] = ByteBuffer.allocate(layout.pageBytes);
+
+          long record = firstRecord;
+          for (int pos = 0; pos < len; ) {
+              int eol = lineEnd(data, pos, len);
+              if (!isBlank(data, pos, eol)) {
+                  int slot = (int) (record % perPage);
+                  encode(pages[(int) (record / perPage) - firstPage], slot, pos, eol, record);
+                  record++;
+              }
+              pos = eol + 1;
+          }
+          return new Encoded(firstPage, pages);
+      }
+
+      /** Encodes the line data[from, to) into a slot of page. */
+      private void encode(ByteBuffer page, int slot, int from, int to, long record)
+          throws IOException {
+          page.put(slot / 8, (byte) (page.get(slot / 8) | (1 << (slot % 8))));
+          int offset = layout.headerBytes + slot * layout.recordBytes;
+          Type[] types = layout.types;
+          int field = 0;
+          for (int start = from; ; field++) {
+              int end = start;
+              while (end < to && data[end] != layout.separator)
+                  end++;
+              if (field >= types.length)
+                  throw new IOException("record " + record + " has more than "
+                          + types.length + " fields");
+              offset = encodeField(page, offset, types[field], start, end);
+              if (end >= to)
+                  break;
+              start = end + 1;
+          }
+          if (field + 1 < types.length)
+              throw new IOException("record " + record + " has " + (field + 1)
+                      + " fields instead of " + types.length);
+      }
+
+      /** @return the offset just past the encoded field */
+      private int encodeField(ByteBuffer page, int offset, Type type, int from, int to) {
+          while (from < to && (data[from] & 0xff) <= ' ')
+              from++;
+          while (to > from && (data[to - 1] & 0xff) <= ' ')
+              to--;
+          if (type == Type.INT_TYPE) {
+              page.putInt(offset, parseInt(from, to));
+              return offset + type.getLen();
+          }
+          int n = Math.min(to - from, Type.STRING_LEN);
+          page.putInt(offset, n);
+          for (int i = 0; i < n; i++)
+              page.put(offset + 4 + i, data[from + i]);
+          return offset + type.getLen();
+      }
+
+      private int parseInt(int from, int to) {
+          boolean negative = from < to && data[from] == '-';
+          long v = 0;
+          int i = negative ? from + 1 : from;
+          for (; i < to && i - from < 11; i++) {
+              int d = data[i] - '0';
+              if (d < 0 || d > 9)
+                  break;
+              v = v * 10 + d;
+          }
+          if (i == to && i > (negative ? from + 1 : from)) {
+              v = negative ? -v : v;
+              if (v >= Integer.MIN_VALUE && v <= Integer.MAX_VALUE)
+                  return (int) v;
+          }
+          // anything unusual goes the slow way
+          String s = new String(data, from, to - from, java.nio.charset.StandardCharsets.ISO_8859_1);
+          try {
+              return Integer.parseInt(s);
+          } catch (NumberFormatException e) {
+              System.out.println("BAD LINE : " + s);
+              return 0;
+          }
+      }
+  }
+
+  /**
+   * Writes the pages of encoded chunks, taken in input order, in page
+   * order. The last page of each chunk is held back, since the next chunk
+   * may put records on it too; the slots two chunks fill are disjoint, so
+   * merging their copies of a page is a bitwise or.
+   */
+  private static class PageWriter {
+      private final FileChannel out;
+      private final int pageBytes;
+      private ByteBuffer pending;
+      private int pendingNo = -1;
+
+      PageWriter(FileChannel out, int pageBytes) {
+          this.out = out;
+          this.pageBytes = pageBytes;
+      }
+
+      void write(Encoded chunk) throws IOException {
+          ByteBuffer[] pages = chunk.pages;
+          int i = 0;
+          if (pages.length > 0 && chunk.firstPage == pendingNo) {
+              byte[] a = pending.array(), b = pages[0].array();
+              for (int j = 0; j < a.length; j++)
+                  a[j] |= b[j];
+              i = 1;
+          }
+          if (i == pages.length)
+              return;
+          ArrayList<ByteBuffer> run = new ArrayList<ByteBuffer>(pages.length);
+          if (pending != null)
+              run.add(pending);
+          run.addAll(Arrays.asList(pages).subList(i, pages.length - 1));
+          writeAll(run.toArray(new ByteBuffer[run.size()]));
+          pending = pages[pages.length - 1];
+          pendingNo = chunk.firstPage + pages.length - 1;
+      }
+
+      /** Writes the last page; a file without records gets one empty page. */
+      void finish() throws IOException {
+          writeAll(new ByteBuffer[] { pending != null ? pending : ByteBuffer.allocate(pageBytes) });
+          pending = null;
+      }
+
+      private void writeAll(ByteBuffer[] bufs) throws IOException {
+          long total = 0;
+          for (ByteBuffer b : bufs)
+              total += b.remaining();
+          for (long written = 0; written < total; )
+              written += out.write(bufs);
+      }
   }
 }
@@ -0,0 +1,82 @@
+package simpledb;
+
+import java.util.Iterator;
+
+/**
+ * A page of a HeapFile: an unordered set of tuples, each in a numbered
+ * slot that stays its RecordId for as long as the tuple is on the page.
+ * HeapFile works through this interface only, so that a table can choose
+ * how its pages lay the tuples out.
+ *
+ * @see HeapPage
+ * @see SlottedHeapPage
+ * @see HeapFile#newPage
+ */
+public interface HeapFilePage extends Page {
+
+    HeapPageId getId();
+
+    /**
+     * Adds t to the page and sets its RecordId.
+     *
+     * @throws DbException if t does not fit on the page
+     */
+    void insertTuple(Tuple t) throws DbException;
+
+    /**
+     * Deletes t from the page; the slot it had is free to be reused.
+     *
+     * @throws DbException if t is not on this page
+     */
+    void deleteTuple(Tuple t) throws DbException;
+
+    /**
+     * Overwrites the tuple stored in the slot of t's RecordId with the
+     * values of t. The tuple keeps its slot.
+     *
+     * @throws DbException if that slot is empty, or the new values do not
+     *         fit on the page
+     */
+    void updateTuple(Tuple t) throws DbException;
+
+    /** @return true if t can be inserted into this page */
+    boolean hasRoomFor(Tuple t);
+
+    /**
+     * @return true if some tuple of the table can still be inserted into
+     *         this page, i.e. it is worth keeping in the free-space map
+     */
+    boolean hasRoom();
+
+    /** @return true if the page holds no tuple */
+    boolean isEmpty();
+
+    /**
+     * @return an iterator over the tuples of the page, which does not
+     *         support remove
+     */
+    Iterator<Tuple> iterator();
+
+    /**
+     * Like {@link #iterator()}, but the tuples only have the given fields,
+     * in the given order. Pages that store each field apart read only
+     * those; by default the tuples of iterator() are projected.
+     *
+     * @param fields the indexes of the fields to read, or null for all
+     */
+    default Iterator<Tuple> iterator(int[] fields) {
+        if (fields == null)
+            return iterator();
+        Iterator<Tuple> it = iterator();
+        TupleDesc td = Database.getCatalog().getTupleDesc(getId().getTableId()).project(fields);
+        return new Iterator<Tuple>() {
+            public boolean hasNext() {
+                return it.hasNext();
+            }
+
+            public Tuple next() {
+                return it.next().project(td, fields);
+            }
+        };
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.util.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
@@ -11,14 +12,23 @@ import java.io.*;
  * @see BufferPool
  *
  */
-public class HeapPage implements Page {    
+public class HeapPage implements ArenaPage, HeapFilePage {
 
     final HeapPageId pid;
     final TupleDesc td;
     final byte header[];
-    final Tuple tuples[];
     final int numSlots;
 
+    /*
+     * The page is kept as it is stored: tuples are decoded from buf on
+     * access, one field at a time, and written back to it on insert. buf is
+     * a PageArena frame, a view of a mapped file or a read-only wrapper of
+     * the array the page was read into; the latter two are copied before
+     * the first change. When a frame page leaves the pool buf is swapped for
+     * a heap copy of the frame.
+     */
+    private volatile ByteBuffer buf;
+
     byte[] oldData;
     private final Byte oldDataLock=new Byte((byte)0);
     private TransactionId dirtyId;
@@ -40,34 +50,44 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data).asReadOnlyBuffer());
+        // data is never written, so it is the before-image until a commit
+        oldData = data;
+    }
+
+    /**
+     * Create a HeapPage that reads its tuples directly from frame, which
+     * holds the page in the same format as the byte array constructor
+     * takes. The before-image is only copied out of the frame when the page
+     * is first modified. A read-only frame, i.e. a view of a mapped file, is
+     * copied to the heap at that point too.
+     *
+     * @see PageArena
+     * @see PageFile#view
+     */
+    public HeapPage(HeapPageId id, ByteBuffer frame) {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
-
-        // allocate and read the header slots of this page
-        header = new byte[getHeaderSize()];
+        this.header = new byte[getHeaderSize()];
         for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
-        }
-        dis.close();
-
-        setBeforeImage();
+            header[i] = frame.get(i);
+        this.buf = frame;
     }
 
     /** Retrieve the number of tuples on this page.
         @return the number of tuples on this page
     */
     private int getNumTuples() {        
-        return BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+        return BufferPool.getPageSize() * 8 / (slotSize() * 8 + 1);
+    }
+
+    /**
+     * @return the number of bytes a tuple takes on this page; called from
+     *         the constructor, so it may only depend on td
+     */
+    int slotSize() {
+        return td.getSize();
     }
 
     /**
@@ -78,6 +98,37 @@ public class HeapPage implements Page {
         return (getNumTuples() + 7) / 8;                 
     }
     
+    /**
+     * @return the offset in the page of field i of the tuple in slot; the
+     *         fields of a slot are stored one after the other
+     */
+    int fieldOffset(int slot, int i) {
+        return header.length + slot * td.getSize() + td.getOffset(i);
+    }
+
+    /** @return the number of bytes field i takes on this page */
+    int fieldLength(int i) {
+        return td.getFieldType(i).getLen();
+    }
+
+    /** @return field i of a tuple, decoded from offset of b */
+    Field parseField(ByteBuffer b, int offset, int i) {
+        return td.getFieldType(i).parse(b, offset);
+    }
+
+    /**
+     * Compares field i of a tuple, stored at offset of b, to value; see
+     * {@link Type#compare}.
+     */
+    boolean compareField(ByteBuffer b, int offset, int i, Predicate.Op op, Field value) {
+        return td.getFieldType(i).compare(b, offset, op, value);
+    }
+
+    /** Encodes f as field i of a tuple into b, the page's buffer, at offset. */
+    void writeField(ByteBuffer b, int offset, int i, Field f) {
+        f.serialize(b, offset);
+    }
+
     /** Return a view of this page before it was modified
         -- used by recovery */
     public HeapPage getBeforeImage(){
@@ -87,7 +138,10 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            // a page that has not changed is its own before-image
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return newPage(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -96,52 +150,50 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /** @return a page of the same format as this one, read from data */
+    HeapPage newPage(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     public void setBeforeImage() {
         synchronized(oldDataLock)
         {
-            oldData = getPageData().clone();
+            oldData = null;
         }
     }
 
     /**
-     * @return the PageId associated with this page.
+     * Captures the before-image of the page ahead of its first change, and
+     * moves a page whose buffer is read-only to the heap, where it can be
+     * changed.
      */
-    public HeapPageId getId() {
-        return pid;    
+    private void beforeChange() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+        if (buf.isReadOnly())
+            buf = ByteBuffer.wrap(PageArena.copy(buf));
     }
 
-    /**
-     * Suck up tuples from the source file.
-     */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    public ByteBuffer getFrame() {
+        ByteBuffer b = buf;
+        return b != null && b.isDirect() ? b : null;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
-        }
+    public synchronized ByteBuffer detachFrame() {
+        ByteBuffer frame = getFrame();
+        if (frame != null)
+            buf = ByteBuffer.wrap(PageArena.copy(frame));
+        return frame;
+    }
 
-        return t;
+    /**
+     * @return the PageId associated with this page.
+     */
+    public HeapPageId getId() {
+        return pid;    
     }
 
     /**
@@ -156,64 +208,13 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (int i=0; i<header.length; i++) {
-            try {
-                dos.writeByte(header[i]);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
-                continue;
-            }
-
-            // non-empty slot
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
-                try {
-                    f.serialize(dos);
-                
-                } catch (IOException e) {
-                    e.printStackTrace();
-                }
-            }
-        }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+        return PageArena.copy(buf);
+    }
 
-        return baos.toByteArray();
+    public void getPageData(ByteBuffer dst) {
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        dst.put(src);
     }
 
     /**
@@ -237,12 +238,17 @@ public class HeapPage implements Page {
      *         already empty.
      * @param t The tuple to delete
      */
-    public void deleteTuple(Tuple t) throws DbException {
+    public synchronized void deleteTuple(Tuple t) throws DbException {
         int index = t.getRecordId().tupleno();
         
         if (!pid.equals(t.getRecordId().getPageId()) || !isSlotUsed(index))
             throw new DbException("");
-        tuples[index] = null;
+        beforeChange();
+        // the caller's tuple keeps its values once the slot is cleared
+        if (t instanceof TupleView)
+            ((TupleView) t).decodeAll();
+        for (int j = 0; j < td.numFields(); j++)
+            PageArena.clear(buf, fieldOffset(index, j), fieldLength(j));
         markSlotUsed(index, false);
     }
 
@@ -253,10 +259,11 @@ public class HeapPage implements Page {
      *         is mismatch.
      * @param t The tuple to add.
      */
-    public void insertTuple(Tuple t) throws DbException {
-        for (int i = 0; i < getNumTuples(); i++) 
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        for (int i = 0; i < numSlots; i++) 
             if (!isSlotUsed(i)) {
-                tuples[i] = t;
+                beforeChange();
+                writeTuple(i, t);
                 markSlotUsed(i, true);
                 t.setRecordId(new RecordId(pid, i));                
                 return;
@@ -264,6 +271,36 @@ public class HeapPage implements Page {
         throw new DbException("");    
     }
 
+    /**
+     * Overwrites the slot of t's RecordId with the values of t.
+     * @throws DbException if the slot is not on this page or is empty
+     */
+    public synchronized void updateTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || rid.tupleno() < 0
+                || rid.tupleno() >= numSlots || !isSlotUsed(rid.tupleno()))
+            throw new DbException("tuple is not on this page");
+        beforeChange();
+        writeTuple(rid.tupleno(), t);
+    }
+
+    private void writeTuple(int slot, Tuple t) {
+        for (int j = 0; j < td.numFields(); j++)
+            writeField(buf, fieldOffset(slot, j), j, t.getField(j));
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return hasRoom();
+    }
+
+    public boolean hasRoom() {
+        return getNumEmptySlots() > 0;
+    }
+
+    public boolean isEmpty() {
+        return getNumEmptySlots() == numSlots;
+    }
+
     /**
      * Marks this page as dirty/not dirty and record that transaction
      * that did the dirtying
@@ -287,7 +324,7 @@ public class HeapPage implements Page {
      */
     public int getNumEmptySlots() {
         int res = 0;
-        for (int i = 0; i < getNumTuples(); ++i) 
+        for (int i = 0; i < numSlots; ++i) 
             res += 1 ^ ((header[i / 8] >> (i & 7)) & 1);
         
         return res;
@@ -311,28 +348,183 @@ public class HeapPage implements Page {
 			header[headerbyte] |= 1 << headerbit;
 		else
 			header[headerbyte] &= (0xFF ^ (1 << headerbit));
+		buf.put(headerbyte, header[headerbyte]);
     }
 
     /**
      * @return an iterator over all tuples on this page (calling remove on this iterator throws an UnsupportedOperationException)
      * (note that this iterator shouldn't return tuples in empty slots!)
+     * <p>
+     * The tuples are views of their slots, which decode a field when it is
+     * first read; see {@link Tuple#materialize}.
      */
     public Iterator<Tuple> iterator() {
-        Iterator<Tuple> iterator = new Iterator<Tuple>() {
-            private int i = 0;            
- 
-            @Override
-            public boolean hasNext() {
-                for (; i < getNumTuples() && !isSlotUsed(i); i++);
-                return i < getNumTuples();
+        return iterator(null);
+    }
+
+    /**
+     * @return an iterator over the tuples of this page as views of the
+     *         given fields only, or of all fields if fields is null
+     */
+    public Iterator<Tuple> iterator(int[] fields) {
+        return new SlotIterator(fields);
+    }
+
+    /**
+     * The iterator of {@link #iterator(int[])}, which can also copy the
+     * following tuples straight into a batch.
+     */
+    class SlotIterator implements Iterator<Tuple> {
+        private final int[] fields;
+        private final TupleDesc desc;
+        private int i = 0;
+
+        SlotIterator(int[] fields) {
+            this.fields = fields;
+            this.desc = fields == null ? td : td.project(fields);
+        }
+
+        @Override
+        public boolean hasNext() {
+            for (; i < numSlots && !isSlotUsed(i); i++);
+            return i < numSlots;
+        }
+
+        @Override
+        public Tuple next() {
+            return new TupleView(i++, desc, fields);
+        }
+
+        /**
+         * Decodes the following tuples of the page into rows of b, until b
+         * is full or the page has no more tuples, without making views. The
+         * page must stay in its frame meanwhile, e.g. by being pinned.
+         */
+        void fill(TupleBatch b) {
+            ByteBuffer data = buf;
+            for (; i < numSlots && !b.isFull(); i++) {
+                if (!isSlotUsed(i))
+                    continue;
+                int row = b.addRow();
+                for (int j = 0; j < desc.numFields(); j++) {
+                    int c = fields == null ? j : fields[j];
+                    int offset = fieldOffset(i, c);
+                    int[] ints = b.ints(j);
+                    if (ints != null)
+                        ints[row] = data.getInt(offset);
+                    else
+                        b.fields(j)[row] = parseField(data, offset, c);
+                }
             }
- 
-            @Override
-            public Tuple next() {                
-                return tuples[i++];
+        }
+    }
+
+    /**
+     * A tuple that reads its fields from a slot of this page, so a scan only
+     * pays for the fields it looks at. A field is decoded once, when it is
+     * first read; getInt and a comparison through compareField read the
+     * stored bytes. The view follows buf when the page leaves its frame. A
+     * view of some of the fields maps its field i to field columns[i] of
+     * the page.
+     */
+    private class TupleView extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int slot;
+        private final TupleDesc desc;
+        private final int[] columns;
+        private Field[] fields;
+        private boolean hasRecordId;
+
+        TupleView(int slot, TupleDesc desc, int[] columns) {
+            super(desc, null);
+            this.slot = slot;
+            this.desc = desc;
+            this.columns = columns;
+        }
+
+        /** @return the field of the page that field i of the view is */
+        private int column(int i) {
+            return columns == null ? i : columns[i];
+        }
+
+        @Override
+        public RecordId getRecordId() {
+            if (!hasRecordId)
+                setRecordId(new RecordId(pid, slot));
+            return super.getRecordId();
+        }
+
+        @Override
+        public void setRecordId(RecordId rid) {
+            hasRecordId = true;
+            super.setRecordId(rid);
+        }
+
+        @Override
+        public Field getField(int i) {
+            if (fields == null)
+                fields = new Field[desc.numFields()];
+            Field f = fields[i];
+            if (f == null) {
+                ByteBuffer b;
+                do {
+                    b = buf;
+                    f = parseField(b, fieldOffset(slot, column(i)), column(i));
+                } while (b != buf); // detached while decoding, read the heap copy
+                fields[i] = f;
             }
-        };
-        return iterator;
+            return f;
+        }
+
+        @Override
+        public void setField(int i, Field f) {
+            if (fields == null)
+                fields = new Field[desc.numFields()];
+            fields[i] = f;
+        }
+
+        @Override
+        public int getInt(int i) {
+            if (fields != null && fields[i] != null)
+                return ((IntField) fields[i]).getValue();
+            ByteBuffer b;
+            int result;
+            do {
+                b = buf;
+                result = b.getInt(fieldOffset(slot, column(i)));
+            } while (b != buf);
+            return result;
+        }
+
+        @Override
+        public boolean compareField(int i, Predicate.Op op, Field value) {
+            if (fields != null && fields[i] != null)
+                return fields[i].compare(op, value);
+            ByteBuffer b;
+            boolean result;
+            do {
+                b = buf;
+                result = HeapPage.this.compareField(b, fieldOffset(slot, column(i)), column(i), op, value);
+            } while (b != buf);
+            return result;
+        }
+
+        /** Decodes the fields that have not been read yet. */
+        void decodeAll() {
+            for (int j = 0; j < desc.numFields(); j++)
+                getField(j);
+        }
+
+        @Override
+        public Tuple materialize() {
+            return CompactTuple.copyOf(this);
+        }
+
+        private Object writeReplace() {
+            return materialize();
+        }
     }
 
 }
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.IOException;
+import java.util.ArrayList;
 
 /**
  * Inserts tuples read from the child operator into the tableId specified in the
@@ -10,6 +11,12 @@ public class Insert extends Operator {
 
     private static final long serialVersionUID = 1L;
 
+    /** Inserts of at least this many tuples go through BufferPool.insertTuples. */
+    public static final int BULK_THRESHOLD = 1000;
+
+    /** Tuples buffered per BufferPool.insertTuples call. */
+    public static final int BULK_BATCH = 8192;
+
     private TransactionId t;
     private DbIterator child;
     private int tableId;
@@ -62,6 +69,11 @@ public class Insert extends Operator {
      * instances of BufferPool is available via Database.getBufferPool(). Note
      * that insert DOES NOT need check to see if a particular tuple is a
      * duplicate before inserting it.
+     * <p>
+     * Tuples are buffered; once there are {@link #BULK_THRESHOLD} of them,
+     * e.g. for an INSERT ... SELECT, they are added in batches with
+     * {@link BufferPool#insertTuples}, which appends whole pages under a
+     * table lock. Fewer tuples are inserted one by one.
      *
      * @return A 1-field tuple containing the number of inserted records, or
      *         null if called more than once.
@@ -75,16 +87,37 @@ public class Insert extends Operator {
         Tuple tuple = new Tuple (getTupleDesc());
 
         int count = 0;
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        boolean bulk = false;
         while (child.hasNext()) {
-            try { Database.getBufferPool().insertTuple(t, tableId, child.next()); }
-            catch (IOException e) {}            
+            batch.add(child.next());
             count++;
+            if (batch.size() == BULK_BATCH) {
+                bulk = true;
+                insert(batch, true);
+                batch.clear();
+            }
         }
+        insert(batch, bulk || batch.size() >= BULK_THRESHOLD);
         
         tuple.setField(0, new IntField(count));
         return tuple;
     }
 
+    private void insert(ArrayList<Tuple> tuples, boolean bulk)
+            throws TransactionAbortedException, DbException {
+        try {
+            if (bulk) {
+                Database.getBufferPool().insertTuples(t, tableId, tuples.iterator());
+                return;
+            }
+            for (Tuple tuple : tuples)
+                Database.getBufferPool().insertTuple(t, tableId, tuple);
+        } catch (IOException e) {
+            throw new DbException("insert failed: " + e.getMessage());
+        }
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { child };
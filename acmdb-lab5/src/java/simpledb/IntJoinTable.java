@@ -0,0 +1,140 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * The hash table HashEquiJoin builds on an int join field. The build
+ * side's rows are copied into TupleBatches of TupleBatch.DEFAULT_SIZE rows,
+ * so a row is a few array entries rather than a tuple and its fields, and
+ * is named by its index: row r is row r % DEFAULT_SIZE of batch
+ * r / DEFAULT_SIZE.
+ * <p>
+ * The index is an open-addressing table over int[] keys, probed linearly,
+ * with no object per key: a slot holds a key and the first and last rows
+ * with that key, and the rows with the same key are chained, in the order
+ * they were added, through an int[] indexed by row.
+ */
+final class IntJoinTable {
+
+    private static final int EMPTY = -1;
+    private static final int SHIFT = Integer.numberOfTrailingZeros(TupleBatch.DEFAULT_SIZE);
+
+    private final TupleDesc td;
+    private final int field;
+    private final ArrayList<TupleBatch> batches = new ArrayList<TupleBatch>();
+    private int rows;
+    // next[r] is the row added after r with the same key, or EMPTY
+    private int[] next = new int[TupleBatch.DEFAULT_SIZE];
+
+    // per slot: the key, and its first and last rows; first is EMPTY for a free slot
+    private int[] keys;
+    private int[] first;
+    private int[] last;
+    private int keyCount;
+
+    /**
+     * @param td the schema of the rows
+     * @param field the int field the rows are looked up by
+     */
+    IntJoinTable(TupleDesc td, int field) {
+        this.td = td;
+        this.field = field;
+        allocate(64);
+    }
+
+    private void allocate(int slots) {
+        keys = new int[slots];
+        first = new int[slots];
+        last = new int[slots];
+        Arrays.fill(first, EMPTY);
+    }
+
+    /** @return the number of rows in the table */
+    int size() {
+        return rows;
+    }
+
+    /** Removes every row. */
+    void clear() {
+        batches.clear();
+        rows = 0;
+        keyCount = 0;
+        allocate(64);
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (keys.length - 1);
+    }
+
+    /** @return the slot holding key, or the free slot it would go in */
+    private int find(int key) {
+        int s = slot(key);
+        while (first[s] != EMPTY && keys[s] != key)
+            s = (s + 1) & (keys.length - 1);
+        return s;
+    }
+
+    /** Copies the selected rows of b into the table. */
+    void add(TupleBatch b) {
+        for (int k = 0; k < b.numSelected(); k++) {
+            int r = b.row(k);
+            int row = rows++;
+            if ((row & (TupleBatch.DEFAULT_SIZE - 1)) == 0)
+                batches.add(new TupleBatch(td, TupleBatch.DEFAULT_SIZE));
+            batches.get(row >>> SHIFT).add(b, r);
+            if (row == next.length)
+                next = Arrays.copyOf(next, row * 2);
+            next[row] = EMPTY;
+            index(b.getInt(field, r), row);
+        }
+    }
+
+    private void index(int key, int row) {
+        int s = find(key);
+        if (first[s] != EMPTY) {
+            next[last[s]] = row;
+            last[s] = row;
+            return;
+        }
+        keys[s] = key;
+        first[s] = row;
+        last[s] = row;
+        if (++keyCount * 2 > keys.length)
+            grow();
+    }
+
+    private void grow() {
+        int[] oldKeys = keys, oldFirst = first, oldLast = last;
+        allocate(keys.length * 2);
+        for (int s = 0; s < oldKeys.length; s++) {
+            if (oldFirst[s] == EMPTY)
+                continue;
+            int t = find(oldKeys[s]);
+            keys[t] = oldKeys[s];
+            first[t] = oldFirst[s];
+            last[t] = oldLast[s];
+        }
+    }
+
+    /** @return the first row with key, or -1 if there is none */
+    int first(int key) {
+        return first[find(key)];
+    }
+
+    /** @return the next row with the key of row, or -1 if there is none */
+    int next(int row) {
+        return next[row];
+    }
+
+    /** @return the batch holding row */
+    TupleBatch batch(int row) {
+        return batches.get(row >>> SHIFT);
+    }
+
+    /** @return the index of row in its batch */
+    static int offset(int row) {
+        return row & (TupleBatch.DEFAULT_SIZE - 1);
+    }
+}
@@ -78,11 +78,37 @@ public class IntegerAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         Field field = gbfieldtype == null ? null: tup.getField(gbfield);
-        
-        if (!group.containsKey(field))
-            group.put(field, new Info());
 
-        group.get(field).add(((IntField) tup.getField(afield)).getValue());
+        Info info = group.get(field);
+        if (info == null)
+            group.put(field, info = new Info());
+
+        info.add(tup.getInt(afield));
+    }
+
+    /**
+     * Merges the selected rows of a batch, reading the aggregate field
+     * straight from its column.
+     */
+    public void mergeBatchIntoGroup(TupleBatch b) {
+        int[] values = b.ints(afield);
+        int n = b.numSelected();
+        if (gbfieldtype == null) {
+            Info info = group.get(null);
+            if (info == null)
+                group.put(null, info = new Info());
+            for (int k = 0; k < n; k++)
+                info.add(values[b.row(k)]);
+            return;
+        }
+        for (int k = 0; k < n; k++) {
+            int row = b.row(k);
+            Field field = b.getField(gbfield, row);
+            Info info = group.get(field);
+            if (info == null)
+                group.put(field, info = new Info());
+            info.add(values[row]);
+        }
     }
 
     /**
@@ -4,15 +4,43 @@ import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * It is a block nested loops join: it reads child1 a block of tuples at a
+ * time, as many as fill {@link #setBlockPages} heap pages, and compares
+ * every tuple of child2 with the whole block, so child2 is scanned once per
+ * block rather than once per tuple of child1. If child1 takes more than one
+ * block and child2 fits in the join's memory budget, the first scan of
+ * child2 keeps its tuples and the later blocks are joined with those, so
+ * child2 is read only once.
  */
 public class Join extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /** The block size of a join unless set with {@link #setBlockPages}. */
+    public static final int DEFAULT_BLOCK_PAGES = 16;
+    /** The memory budget of a join unless set with {@link #setMemoryBudget}. */
+    public static final long DEFAULT_MEMORY_BUDGET = HashEquiJoin.DEFAULT_MEMORY_BUDGET;
+
     private JoinPredicate p;
     private DbIterator child1;
     private DbIterator child2;    
-
-    private Tuple tuple = null;
+    private int blockPages = DEFAULT_BLOCK_PAGES;
+    private long memoryBudget = DEFAULT_MEMORY_BUDGET;
+
+    // the merged schema of the children, made once rather than per tuple
+    private transient TupleDesc td;
+    // the tuples of child1 being joined with a pass over child2
+    private transient ArrayList<Tuple> block;
+    // the tuples of child2, kept during the first pass while they fit the
+    // budget, or null; once the pass is over, passes read them from here
+    private transient ArrayList<Tuple> cache;
+    private transient boolean cached;
+    private transient int cacheAt;
+    // the tuple of child2 being compared with the block, and the next tuple
+    // of the block to compare it with
+    private transient Tuple inner;
+    private transient int blockAt;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -31,6 +59,28 @@ public class Join extends Operator {
         this.child2 = child2;        
     }
 
+    /**
+     * Sets how many heap pages' worth of child1's tuples the join compares
+     * with each pass over child2. Takes effect the next time the join is
+     * opened.
+     */
+    public void setBlockPages(int pages) {
+        if (pages <= 0)
+            throw new IllegalArgumentException("block must be at least one page");
+        this.blockPages = pages;
+    }
+
+    /**
+     * Sets how much of child2 the join may keep in memory, in bytes of
+     * tuples as given by {@link TupleDesc#getSize}; 0 never keeps it. Takes
+     * effect the next time the join is opened.
+     */
+    public void setMemoryBudget(long bytes) {
+        if (bytes < 0)
+            throw new IllegalArgumentException("memory budget can't be negative");
+        this.memoryBudget = bytes;
+    }
+
     public JoinPredicate getJoinPredicate() {
         return p;
     }
@@ -58,7 +108,9 @@ public class Join extends Operator {
      *      implementation logic.
      */
     public TupleDesc getTupleDesc() {
-        return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
     }
 
     public void open() throws DbException, NoSuchElementException,
@@ -67,11 +119,18 @@ public class Join extends Operator {
         child1.open();
         child2.open();
 
-        if (child1.hasNext())
-            tuple = child1.next();
+        block = new ArrayList<Tuple>();
+        readBlock();
+        // a second pass needs a second block
+        cache = child1.hasNext() && memoryBudget > 0 ? new ArrayList<Tuple>() : null;
+        cached = false;
+        inner = null;
     }
 
     public void close() {        
+        block = null;
+        cache = null;
+        inner = null;
         child1.close();
         child2.close();
         super.close();
@@ -101,31 +160,68 @@ public class Join extends Operator {
      * @see JoinPredicate#filter
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {    
-        for (Tuple joined = null; tuple != null; tuple = child1.next()) {
-            while (child2.hasNext()) {
-                joined = child2.next();
-                if (p.filter(tuple, joined)) {
-                    Tuple result = new Tuple (getTupleDesc());
-
-                    int size1 = child1.getTupleDesc().numFields();
-                    int size2 = child2.getTupleDesc().numFields();
-                    for (int i = 0; i < size1; i++)
-                        result.setField(i, tuple.getField(i));                    
-                    for (int i = 0; i < size2; i++)
-                        result.setField(i + size1, joined.getField(i));
-
-                    return result;
-                }
+        while (!block.isEmpty()) {
+            while (inner != null && blockAt < block.size()) {
+                Tuple outer = block.get(blockAt++);
+                if (p.filter(outer, inner))
+                    return CompactTuple.concat(getTupleDesc(), outer, inner);
             }
+            blockAt = 0;
+            if ((inner = nextInner()) != null)
+                continue;
 
-            if (!child1.hasNext())
+            // the pass is over; start the next one with the next block
+            if (!readBlock())
                 break;
-            child2.rewind();            
+            if (cached)
+                cacheAt = 0;
+            else
+                child2.rewind();
         }
 
         return null;
     }
 
+    /**
+     * Replaces the block with the next tuples of child1.
+     *
+     * @return false if there are none
+     */
+    private boolean readBlock() throws TransactionAbortedException, DbException {
+        long size = blockTuples(child1.getTupleDesc().getSize(), blockPages);
+        block.clear();
+        while (block.size() < size && child1.hasNext())
+            block.add(child1.next().materialize());
+        return !block.isEmpty();
+    }
+
+    /**
+     * @return the number of tuples of tupleSize bytes in a block of pages
+     *         heap pages
+     */
+    static long blockTuples(int tupleSize, int pages) {
+        return (long) pages * Math.max(1, BufferPool.getPageSize() * 8 / (tupleSize * 8 + 1));
+    }
+
+    /** @return the next tuple of child2 in this pass, or null at its end */
+    private Tuple nextInner() throws TransactionAbortedException, DbException {
+        if (cached)
+            return cacheAt < cache.size() ? cache.get(cacheAt++) : null;
+        if (!child2.hasNext()) {
+            cached = cache != null;
+            return null;
+        }
+        Tuple t = child2.next();
+        if (cache != null) {
+            t = t.materialize();
+            if ((cache.size() + 1L) * child2.getTupleDesc().getSize() > memoryBudget)
+                cache = null;
+            else
+                cache.add(t);
+        }
+        return t;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] {child1, child2};
@@ -135,6 +231,7 @@ public class Join extends Operator {
     public void setChildren(DbIterator[] children) {
         this.child1 = children[0];
         this.child2 = children[1];
+        this.td = null;
     }
 
 }
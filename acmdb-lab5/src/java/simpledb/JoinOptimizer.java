@@ -69,6 +69,7 @@ public class JoinOptimizer {
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
         if (p.getOperator().equals(Predicate.Op.EQUALS)) j = new HashEquiJoin(p,plan1,plan2);
+        else if (lj.sortMerge) j = new SortMergeJoin(p,plan1,plan2);
         else j = new Join(p,plan1,plan2);
 
         return j;
@@ -115,10 +116,99 @@ public class JoinOptimizer {
             if (j.p.equals(Predicate.Op.EQUALS))
                 return cost1 + card1 * cost2 + card1 + card2;
             else
-                return cost1 + card1 * cost2 + card1 * card2;
+                return estimateJoinCost(j, card1, card2, cost1, cost2,
+                        tupleSize(j.t1Alias), tupleSize(j.t2Alias));
         }
     }
 
+    /**
+     * Estimates the cost of a join as {@link #estimateJoinCost(LogicalJoinNode,
+     * int, int, double, double)} does, for sides whose tuples are size1 and
+     * size2 bytes. A side that is the result of other joins has the tuples
+     * of all of their tables; see {@link #tupleSize(Collection)}.
+     */
+    double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
+            double cost1, double cost2, int size1, int size2) {
+        if (j instanceof LogicalSubplanJoinNode || j.p.equals(Predicate.Op.EQUALS))
+            return estimateJoinCost(j, card1, card2, cost1, cost2);
+        return Math.min(nestedLoopCost(card1, card2, cost1, cost2, size1, size2),
+                sortMergeCost(j, card1, card2, cost1, cost2));
+    }
+
+    /**
+     * @return the cost of a block nested loops join ({@link Join}) with its
+     *         default block size and memory budget, whose sides' tuples are
+     *         size1 and size2 bytes: it scans the right-hand side once per
+     *         block of the left, or just once if the right-hand side fits in
+     *         the budget, and compares every pair of tuples
+     */
+    static double nestedLoopCost(int card1, int card2, double cost1, double cost2,
+            int size1, int size2) {
+        double passes = Math.max(1, Math.ceil(card1 / (double) Join.blockTuples(size1, Join.DEFAULT_BLOCK_PAGES)));
+        if ((double) card2 * size2 <= Join.DEFAULT_MEMORY_BUDGET)
+            passes = 1;
+        return cost1 + passes * cost2 + (double) card1 * card2;
+    }
+
+    /**
+     * @return the size of a tuple of the table alias names in the plan
+     * @throws IllegalArgumentException if the plan has no such table
+     */
+    private int tupleSize(String alias) {
+        Integer id = p == null || alias == null ? null : p.getTableId(alias);
+        if (id == null)
+            throw new IllegalArgumentException("Unknown table " + alias);
+        return Database.getCatalog().getTupleDesc(id).getSize();
+    }
+
+    /**
+     * @return the size of a tuple of the result of joins: the sum of the
+     *         sizes of the tuples of the tables they join, each counted
+     *         once. The columns of a subquery are not counted.
+     */
+    int tupleSize(Collection<LogicalJoinNode> joins) {
+        HashSet<String> aliases = new HashSet<String>();
+        int size = 0;
+        for (LogicalJoinNode j : joins) {
+            if (aliases.add(j.t1Alias))
+                size += tupleSize(j.t1Alias);
+            if (j.t2Alias != null && aliases.add(j.t2Alias))
+                size += tupleSize(j.t2Alias);
+        }
+        return size;
+    }
+
+    /**
+     * @return the cost of a {@link SortMergeJoin}, which scans each side
+     *         once, sorts both, and merges them: it compares each tuple of
+     *         either side with the first of the other side it does not join
+     *         with, and each pair it outputs, as many as the estimated
+     *         cardinality of the join; infinite if it can't join on j's
+     *         operator
+     */
+    static double sortMergeCost(LogicalJoinNode j, int card1, int card2, double cost1, double cost2) {
+        if (!SortMergeJoin.supports(j.p))
+            return Double.POSITIVE_INFINITY;
+        // whether a side is keyed only matters to an equi-join's estimate
+        int output = estimateTableJoinCardinality(j.p, j.t1Alias, j.t2Alias, j.f1PureName,
+                j.f2PureName, card1, card2, false, false, null, null);
+        return cost1 + cost2 + sortCost(card1) + sortCost(card2) + card1 + card2 + output;
+    }
+
+    /**
+     * @return whether j costs less as a SortMergeJoin than as a Join, for
+     *         sides whose tuples are size1 and size2 bytes
+     */
+    static boolean sortMergeIsCheaper(LogicalJoinNode j, int card1, int card2, double cost1, double cost2,
+            int size1, int size2) {
+        return sortMergeCost(j, card1, card2, cost1, cost2)
+                < nestedLoopCost(card1, card2, cost1, cost2, size1, size2);
+    }
+
+    private static double sortCost(int card) {
+        return card <= 1 ? 0 : card * (Math.log(card) / Math.log(2));
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -167,7 +257,7 @@ public class JoinOptimizer {
             return card1;
         }
         
-        return card1 * card2;        
+        return (int) Math.min((long) card1 * card2, Integer.MAX_VALUE);
     }
 
     /**
@@ -371,11 +461,19 @@ public class JoinOptimizer {
             }
         }
 
+        // the tuples of a side that is prevBest have the fields of all of
+        // its tables
+        int t1size = 0, t2size = 0;
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            t1size = doesJoin(prevBest, j.t1Alias) ? tupleSize(prevBest) : tupleSize(j.t1Alias);
+            t2size = doesJoin(prevBest, j.t2Alias) ? tupleSize(prevBest) : tupleSize(j.t2Alias);
+        }
+
         // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost, t1size, t2size);
 
         LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
+        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost, t2size, t1size);
         if (cost2 < cost1) {
             boolean tmp;
             j = j2;
@@ -387,6 +485,16 @@ public class JoinOptimizer {
         if (cost1 >= bestCostSoFar)
             return null;
 
+        if (!(j instanceof LogicalSubplanJoinNode) && !j.p.equals(Predicate.Op.EQUALS)) {
+            // the join is in other plans too; this one gets its own copy,
+            // marked with the algorithm its cost is for
+            boolean swapped = j != joinToRemove;
+            if (!swapped)
+                j = new LogicalJoinNode(j.t1Alias, j.t2Alias, j.f1PureName, j.f2PureName, j.p);
+            j.sortMerge = swapped ? sortMergeIsCheaper(j, t2card, t1card, t2cost, t1cost, t2size, t1size)
+                    : sortMergeIsCheaper(j, t1card, t2card, t1cost, t2cost, t1size, t2size);
+        }
+
         CostCard cc = new CostCard();
 
         cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
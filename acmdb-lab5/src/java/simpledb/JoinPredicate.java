@@ -35,12 +35,17 @@ public class JoinPredicate implements Serializable {
 
     /**
      * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * made through Field's compare method; int fields are compared as ints,
+     * read with {@link Tuple#getInt}.
      * 
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
-        return t1 != null && t2 != null && t1.getField(field1).compare(op, t2.getField(field2));
+        if (t1 == null || t2 == null)
+            return false;
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE)
+            return IntField.compare(t1.getInt(field1), op, t2.getInt(field2));
+        return t1.getField(field1).compare(op, t2.getField(field2));
     }
     
     public int getField1()
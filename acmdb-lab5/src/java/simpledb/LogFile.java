@@ -2,6 +2,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 import java.lang.reflect.*;
 
@@ -51,8 +52,8 @@ transaction id.
 <li> Each log record ends with a long integer file offset representing
 the position in the log file where the record began.
 
-<li> There are five record types: ABORT, COMMIT, UPDATE, BEGIN, and
-CHECKPOINT
+<li> There are six record types: ABORT, COMMIT, UPDATE, BEGIN,
+CHECKPOINT and BULK_LOAD
 
 <li> ABORT, COMMIT, and BEGIN records contain no additional data
 
@@ -67,6 +68,11 @@ of the record is an integer count of the number of transactions, as well
 as a long integer transaction id and a long integer first record offset
 for each active transaction.
 
+<li> BULK_LOAD records consist of the integer id of a table that held no
+tuples when the transaction started loading it, and the integer number of
+pages it had then. The pages the transaction appends to that table are not
+logged; rolling it back cuts the table back to its former pages.
+
 </ul>
 
 */
@@ -82,17 +88,24 @@ public class LogFile {
     static final int UPDATE_RECORD = 3;
     static final int BEGIN_RECORD = 4;
     static final int CHECKPOINT_RECORD = 5;
+    static final int BULK_LOAD_RECORD = 6;
     static final long NO_CHECKPOINT_ID = -1;
 
     final static int INT_SIZE = 4;
     final static int LONG_SIZE = 8;
 
     long currentOffset = -1;//protected by this
+    long durableOffset = 0; // log before this offset is forced; protected by this
 //    int pageSize;
     int totalRecords = 0; // for PatchTest //protected by this
 
     HashMap<Long,Long> tidToFirstLogRecord = new HashMap<Long,Long>();
 
+    long checkpoints = 0; // protected by this
+    long checkpointNanos = 0; // protected by this
+    long checkpointStallNanos = 0; // protected by this
+    private ByteBuffer pageBuf = ByteBuffer.allocate(0); // page images are encoded into this; protected by this
+
     /** Constructor.
         Initialize and back the log file with the specified file.
         We're not sure yet whether the caller is creating a brand new DB,
@@ -191,14 +204,26 @@ public class LogFile {
         @param tid The transaction performing the write
         @param before The before image of the page
         @param after The after image of the page
+        @return the offset of the record, i.e. its LSN; pass it to
+        {@link #force(long)} before writing the page to disk
 
         @see simpledb.Page#getBeforeImage
     */
-    public  synchronized void logWrite(TransactionId tid, Page before,
+    public  synchronized long logWrite(TransactionId tid, Page before,
                                        Page after)
         throws IOException  {
         Debug.log("WRITE, offset = " + raf.getFilePointer());
         preAppend();
+        long lsn = currentOffset;
+        // transactions that never logged a BEGIN (e.g. ones driven through
+        // BufferPool directly) start with their first update
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), lsn);
+        appendUpdate(tid.getId(), before, after);
+        return lsn;
+    }
+
+    private void appendUpdate(long tid, Page before, Page after) throws IOException {
         /* update record conists of
 
            record type
@@ -208,7 +233,7 @@ public class LogFile {
            start offset
         */
         raf.writeInt(UPDATE_RECORD);
-        raf.writeLong(tid.getId());
+        raf.writeLong(tid);
 
         writePageData(raf,before);
         writePageData(raf,after);
@@ -218,6 +243,39 @@ public class LogFile {
         Debug.log("WRITE OFFSET = " + currentOffset);
     }
 
+    /** Write a BULK_LOAD record for the specified tid and table, and
+        force the log. From here on the pages tid appends to the table,
+        from firstPage on, are not logged: the BufferPool forces the table
+        file before tid commits, and an abort or recovery cuts the table
+        back to firstPage pages. The table must hold no tuples when tid
+        locks it for the load.
+
+        @param tid The transaction loading the table
+        @param tableId The table being loaded
+        @param firstPage The number of pages of the table before the load
+        @return the offset of the record
+    */
+    public synchronized long logBulkLoad(TransactionId tid, int tableId, int firstPage)
+        throws IOException {
+        preAppend();
+        long lsn = currentOffset;
+        if (!tidToFirstLogRecord.containsKey(tid.getId()))
+            tidToFirstLogRecord.put(tid.getId(), lsn);
+        raf.writeInt(BULK_LOAD_RECORD);
+        raf.writeLong(tid.getId());
+        raf.writeInt(tableId);
+        raf.writeInt(firstPage);
+        raf.writeLong(currentOffset);
+        currentOffset = raf.getFilePointer();
+        force();
+        return lsn;
+    }
+
+    /** @return true if tid has log records but no COMMIT or ABORT yet */
+    public synchronized boolean isActive(TransactionId tid) {
+        return tidToFirstLogRecord.containsKey(tid.getId());
+    }
+
     void writePageData(RandomAccessFile raf, Page p) throws IOException{
         PageId pid = p.getId();
         int pageInfo[] = pid.serialize();
@@ -240,9 +298,12 @@ public class LogFile {
         for (int i = 0; i < pageInfo.length; i++) {
             raf.writeInt(pageInfo[i]);
         }
-        byte[] pageData = p.getPageData();
-        raf.writeInt(pageData.length);
-        raf.write(pageData);
+        if (pageBuf.capacity() < BufferPool.getPageSize())
+            pageBuf = ByteBuffer.allocate(BufferPool.getPageSize());
+        pageBuf.clear();
+        p.getPageData(pageBuf);
+        raf.writeInt(pageBuf.position());
+        raf.write(pageBuf.array(), 0, pageBuf.position());
         //        Debug.log ("WROTE PAGE DATA, CLASS = " + pageClassName + ", table = " +  pid.getTableId() + ", page = " + pid.pageno());
     }
 
@@ -257,25 +318,30 @@ public class LogFile {
             Class<?> idClass = Class.forName(idClassName);
             Class<?> pageClass = Class.forName(pageClassName);
 
-            Constructor<?>[] idConsts = idClass.getDeclaredConstructors();
             int numIdArgs = raf.readInt();
+            Class<?> idTypes[] = new Class<?>[numIdArgs];
             Object idArgs[] = new Object[numIdArgs];
             for (int i = 0; i<numIdArgs;i++) {
+                idTypes[i] = int.class;
                 idArgs[i] = new Integer(raf.readInt());
             }
-            pid = (PageId)idConsts[0].newInstance(idArgs);
+            pid = (PageId)idClass.getDeclaredConstructor(idTypes).newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
-            raf.read(pageData); //read before image
-
-            Object[] pageArgs = new Object[2];
-            pageArgs[0] = pid;
-            pageArgs[1] = pageData;
-
-            newPage = (Page)pageConsts[0].newInstance(pageArgs);
+            raf.readFully(pageData); //read before image
+
+            // B+ tree leaf and internal pages also need the key field
+            DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+            if (file instanceof BTreeFile && (pageClass == BTreeLeafPage.class
+                    || pageClass == BTreeInternalPage.class)) {
+                newPage = (Page)pageClass.getDeclaredConstructor(idClass, byte[].class, int.class)
+                    .newInstance(pid, pageData, ((BTreeFile) file).keyField());
+            } else {
+                newPage = (Page)pageClass.getDeclaredConstructor(idClass, byte[].class)
+                    .newInstance(pid, pageData);
+            }
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
         } catch (ClassNotFoundException e){
@@ -290,6 +356,9 @@ public class LogFile {
         } catch (InvocationTargetException e) {
             e.printStackTrace();
             throw new IOException();
+        } catch (NoSuchMethodException e) {
+            e.printStackTrace();
+            throw new IOException();
         }
         return newPage;
 
@@ -316,18 +385,30 @@ public class LogFile {
         Debug.log("BEGIN OFFSET = " + currentOffset);
     }
 
-    /** Checkpoint the log and write a checkpoint record. */
+    /** Checkpoint the log and write a checkpoint record.
+        <p>
+        Pages with committed changes are written back first, like the
+        BufferPool's page cleaner does it, while other transactions keep
+        running. Only then are the BufferPool and the log locked, to write
+        the pages committed in the meantime and the checkpoint record.
+        Uncommitted changes are not written: they are either logged at
+        commit, after the checkpoint, or dropped by an abort.
+    */
     public void logCheckpoint() throws IOException {
+        long start = System.nanoTime();
+        Database.getBufferPool().cleanPages();
+        long stall;
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
+                stall = System.nanoTime();
                 //Debug.log("CHECKPOINT, offset = " + raf.getFilePointer());
                 preAppend();
                 long startCpOffset, endCpOffset;
+                force();
+                Database.getBufferPool().flushCommittedPages();
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
-                force();
-                Database.getBufferPool().flushAllPages();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -350,11 +431,34 @@ public class LogFile {
                 raf.seek(endCpOffset);
                 raf.writeLong(currentOffset);
                 currentOffset = raf.getFilePointer();
+                force();
                 //Debug.log("CP OFFSET = " + currentOffset);
+                stall = System.nanoTime() - stall;
             }
         }
 
         logTruncate();
+        synchronized (this) {
+            checkpoints++;
+            checkpointNanos += System.nanoTime() - start;
+            checkpointStallNanos += stall;
+        }
+    }
+
+    /** @return the number of checkpoints taken */
+    public synchronized long getCheckpointCount() {
+        return checkpoints;
+    }
+
+    /** @return the total time spent in {@link #logCheckpoint}, in nanoseconds */
+    public synchronized long getCheckpointNanos() {
+        return checkpointNanos;
+    }
+
+    /** @return the part of the checkpoint time during which the BufferPool
+        was locked, in nanoseconds */
+    public synchronized long getCheckpointStallNanos() {
+        return checkpointStallNanos;
     }
 
     /** Truncate any unneeded portion of the log to reduce its space
@@ -399,6 +503,7 @@ public class LogFile {
         //have to rewrite log records since offsets are different after truncation
         while (true) {
             try {
+                long oldStart = raf.getFilePointer();
                 int type = raf.readInt();
                 long record_tid = raf.readLong();
                 long newStart = logNew.getFilePointer();
@@ -429,6 +534,12 @@ public class LogFile {
                 case BEGIN_RECORD:
                     tidToFirstLogRecord.put(record_tid,newStart);
                     break;
+                case BULK_LOAD_RECORD:
+                    logNew.writeInt(raf.readInt());
+                    logNew.writeInt(raf.readInt());
+                    if (Long.valueOf(oldStart).equals(tidToFirstLogRecord.get(record_tid)))
+                        tidToFirstLogRecord.put(record_tid, newStart);
+                    break;
                 }
 
                 //all xactions finish with a pointer
@@ -450,6 +561,9 @@ public class LogFile {
         newFile.delete();
 
         currentOffset = raf.getFilePointer();
+        // offsets handed out before the rewrite are stale; they can only be
+        // larger than the new ones, so forcing on any of them stays safe
+        durableOffset = 0;
         //print();
     }
 
@@ -466,11 +580,154 @@ public class LogFile {
         synchronized (Database.getBufferPool()) {
             synchronized(this) {
                 preAppend();
-                // some code goes here
+                Long first = tidToFirstLogRecord.get(tid.getId());
+                if (first == null)
+                    throw new NoSuchElementException("no log records for transaction " + tid.getId());
+                Set<Long> tids = Collections.singleton(tid.getId());
+                undo(firstUpdates(first, tids).values());
+                truncate(bulkLoads(first, tids));
             }
         }
     }
 
+    /** A log record as read back by {@link #readRecord()}. */
+    private static class LogRecord {
+        int type;
+        long tid;
+        long offset;
+        Page before;                // UPDATE records only
+        Page after;                 // UPDATE records only
+        HashMap<Long,Long> active;  // CHECKPOINT records only
+        int tableId;                // BULK_LOAD records only
+        int firstPage;              // BULK_LOAD records only
+
+        public String toString() {
+            String s = offset + ": ";
+            switch (type) {
+            case ABORT_RECORD: return s + "ABORT " + tid;
+            case COMMIT_RECORD: return s + "COMMIT " + tid;
+            case BEGIN_RECORD: return s + "BEGIN " + tid;
+            case UPDATE_RECORD: return s + "UPDATE " + tid + " " + before.getId();
+            case BULK_LOAD_RECORD: return s + "BULK_LOAD " + tid + " " + tableId + " from page " + firstPage;
+            default: return s + "CHECKPOINT " + active;
+            }
+        }
+    }
+
+    /** Reads the record at the current position of the log.
+        @return the record, or null at the end of the log, which includes
+        a last record that a crash cut short
+    */
+    private LogRecord readRecord() throws IOException {
+        LogRecord r = new LogRecord();
+        r.offset = raf.getFilePointer();
+        try {
+            r.type = raf.readInt();
+            r.tid = raf.readLong();
+            switch (r.type) {
+            case UPDATE_RECORD:
+                r.before = readPageData(raf);
+                r.after = readPageData(raf);
+                break;
+            case CHECKPOINT_RECORD:
+                r.active = new HashMap<Long,Long>();
+                int numXactions = raf.readInt();
+                while (numXactions-- > 0) {
+                    long xid = raf.readLong();
+                    r.active.put(xid, raf.readLong());
+                }
+                break;
+            case BULK_LOAD_RECORD:
+                r.tableId = raf.readInt();
+                r.firstPage = raf.readInt();
+                break;
+            case ABORT_RECORD:
+            case COMMIT_RECORD:
+            case BEGIN_RECORD:
+                break;
+            default:
+                return null;
+            }
+            if (raf.readLong() != r.offset)
+                return null;
+        } catch (EOFException e) {
+            return null;
+        }
+        return r;
+    }
+
+    /** Scans the log from offset from to its end for the first update of
+        each page by one of the given transactions. The before-image of
+        that update is the page as it was before any of them touched it.
+    */
+    private LinkedHashMap<PageId, LogRecord> firstUpdates(long from, Set<Long> tids)
+        throws IOException {
+        LinkedHashMap<PageId, LogRecord> updates = new LinkedHashMap<PageId, LogRecord>();
+        raf.seek(from);
+        while (raf.getFilePointer() < currentOffset) {
+            LogRecord r = readRecord();
+            if (r == null)
+                break;
+            if (r.type == UPDATE_RECORD && tids.contains(r.tid)
+                    && !updates.containsKey(r.before.getId())) {
+                r.after = null;
+                updates.put(r.before.getId(), r);
+            }
+        }
+        raf.seek(currentOffset);
+        return updates;
+    }
+
+    /** Scans the log from offset from to its end for the tables that one
+        of the given transactions bulk loaded without logging.
+
+        @return the number of pages of each table before the load
+    */
+    private HashMap<Integer, Integer> bulkLoads(long from, Set<Long> tids) throws IOException {
+        HashMap<Integer, Integer> tables = new HashMap<Integer, Integer>();
+        raf.seek(from);
+        while (raf.getFilePointer() < currentOffset) {
+            LogRecord r = readRecord();
+            if (r == null)
+                break;
+            if (r.type == BULK_LOAD_RECORD && tids.contains(r.tid))
+                tables.merge(r.tableId, r.firstPage, Math::min);
+        }
+        raf.seek(currentOffset);
+        return tables;
+    }
+
+    /** Cuts the given tables back to the pages they had before a bulk
+        load that is rolled back, and drops their cached pages. The pages
+        cut off only ever held the load's tuples. Cutting a table that is
+        already short enough does nothing, so this can be repeated if the
+        system crashes again.
+    */
+    private void truncate(Map<Integer, Integer> tables) throws IOException {
+        for (Map.Entry<Integer, Integer> e : tables.entrySet()) {
+            Database.getBufferPool().discardPages(e.getKey(), e.getValue());
+            DbFile f = Database.getCatalog().getDatabaseFile(e.getKey());
+            if (f instanceof HeapFile && ((HeapFile) f).numPages() > e.getValue())
+                ((HeapFile) f).truncate(e.getValue());
+        }
+    }
+
+    /** Puts the before-images of the given updates back on disk and drops
+        any cached copy of those pages. Each restore is logged first as an
+        update whose before- and after-images are both the restored page,
+        so that redo after a later crash repeats the undo as well.
+    */
+    private void undo(Collection<LogRecord> updates) throws IOException {
+        for (LogRecord r : updates)
+            appendUpdate(r.tid, r.before, r.before);
+        force();
+        for (LogRecord r : updates) {
+            PageId pid = r.before.getId();
+            Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(r.before);
+            Database.getBufferPool().discardPage(pid);
+        }
+    }
+
     /** Shutdown the logging system, writing out whatever state
         is necessary so that start up can happen quickly (without
         extensive recovery.)
@@ -488,23 +745,127 @@ public class LogFile {
     /** Recover the database system by ensuring that the updates of
         committed transactions are installed and that the
         updates of uncommitted transactions are not installed.
+        <p>
+        Update records hold whole page images, so both passes below only
+        write images back and can be repeated any number of times if the
+        system crashes again during recovery:
+        <ul>
+        <li> analysis reads the log from the last checkpoint on and finds
+        the transactions without a COMMIT or ABORT record, the losers;
+        <li> redo writes the after-image of every update from the
+        checkpoint on, in log order, bringing every page up to the last
+        logged state;
+        <li> undo writes back, for each page a loser updated, the before-image
+        of its first update, cuts off the pages a loser bulk loaded, and
+        logs an ABORT record for every loser.
+        </ul>
     */
     public void recover() throws IOException {
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
                 recoveryUndecided = false;
-                // some code goes here
+                tidToFirstLogRecord.clear();
+                if (raf.length() < LONG_SIZE) {
+                    // nothing was ever logged
+                    raf.setLength(0);
+                    raf.writeLong(NO_CHECKPOINT_ID);
+                    currentOffset = raf.getFilePointer();
+                    return;
+                }
+
+                // analysis
+                raf.seek(0);
+                long cpLoc = raf.readLong();
+                long redoStart = LONG_SIZE;
+                HashMap<Long,Long> losers = new HashMap<Long,Long>();
+                if (cpLoc != NO_CHECKPOINT_ID) {
+                    raf.seek(cpLoc);
+                    LogRecord cp = readRecord();
+                    if (cp == null || cp.type != CHECKPOINT_RECORD)
+                        throw new IOException("checkpoint pointer does not point to checkpoint record");
+                    losers.putAll(cp.active);
+                    redoStart = cpLoc;
+                }
+                raf.seek(redoStart);
+                long end = redoStart;
+                LogRecord r;
+                while ((r = readRecord()) != null) {
+                    if (r.type == BEGIN_RECORD
+                            || ((r.type == UPDATE_RECORD || r.type == BULK_LOAD_RECORD)
+                                && !losers.containsKey(r.tid)))
+                        losers.put(r.tid, r.offset);
+                    else if (r.type == COMMIT_RECORD || r.type == ABORT_RECORD)
+                        losers.remove(r.tid);
+                    end = raf.getFilePointer();
+                }
+                // drop whatever the crash left of a last record
+                raf.setLength(end);
+                currentOffset = end;
+
+                // redo
+                raf.seek(redoStart);
+                while (raf.getFilePointer() < end) {
+                    r = readRecord();
+                    if (r.type == UPDATE_RECORD) {
+                        PageId pid = r.after.getId();
+                        Database.getCatalog().getDatabaseFile(pid.getTableId()).writePage(r.after);
+                        Database.getBufferPool().discardPage(pid);
+                    }
+                }
+
+                // undo
+                long undoStart = redoStart;
+                for (long first : losers.values())
+                    undoStart = Math.min(undoStart, first);
+                undo(firstUpdates(undoStart, losers.keySet()).values());
+                truncate(bulkLoads(undoStart, losers.keySet()));
+                // the free-space maps may not match the recovered pages
+                Iterator<Integer> tables = Database.getCatalog().tableIdIterator();
+                while (tables.hasNext()) {
+                    DbFile f = Database.getCatalog().getDatabaseFile(tables.next());
+                    if (f instanceof HeapFile)
+                        ((HeapFile) f).getFreeSpaceMap().invalidate();
+                }
+                for (long tid : losers.keySet()) {
+                    raf.writeInt(ABORT_RECORD);
+                    raf.writeLong(tid);
+                    raf.writeLong(currentOffset);
+                    currentOffset = raf.getFilePointer();
+                }
+                force();
             }
          }
     }
 
     /** Print out a human readable represenation of the log */
     public void print() throws IOException {
-        // some code goes here
+        synchronized (this) {
+            long pos = raf.getFilePointer();
+            raf.seek(0);
+            if (raf.length() >= LONG_SIZE)
+                System.out.println("last checkpoint at " + raf.readLong());
+            LogRecord r;
+            while ((r = readRecord()) != null)
+                System.out.println(r);
+            raf.seek(pos);
+        }
     }
 
     public  synchronized void force() throws IOException {
         raf.getChannel().force(true);
+        durableOffset = currentOffset;
+    }
+
+    /** Forces the log through the record that starts at offset lsn, unless
+        an earlier force already made it durable. This is what write-ahead
+        logging asks for before a page whose last update is that record
+        goes to disk.
+
+        @param lsn the offset returned by {@link #logWrite}
+    */
+    public synchronized void force(long lsn) throws IOException {
+        if (lsn >= durableOffset)
+            force();
     }
 
 }
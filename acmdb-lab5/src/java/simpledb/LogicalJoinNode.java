@@ -23,6 +23,10 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** Whether the optimizer costed this join as a SortMergeJoin rather
+     * than nested loops; only set for joins that are not on equality */
+    public boolean sortMerge;
+
     public LogicalJoinNode() {
     }
 
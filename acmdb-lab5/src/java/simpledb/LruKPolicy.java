@@ -0,0 +1,104 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * LruKPolicy implements the LRU-K replacement algorithm (O'Neil, O'Neil and
+ * Weikum). Each page remembers the logical times of its last K accesses and
+ * the victim is the page whose K-th most recent access is the oldest.
+ * Pages seen fewer than K times count as infinitely old and are evicted
+ * first, least recently used among them, so a page a scan read once never
+ * displaces one that was looked up twice.
+ * <p>
+ * The access history of evicted pages is retained for up to numFrames
+ * pages, so a page that comes back soon after eviction is not mistaken for
+ * a one-off access.
+ */
+public class LruKPolicy implements ReplacementPolicy {
+
+    /** K used by the single argument constructor, i.e. LRU-2. */
+    public static final int DEFAULT_K = 2;
+
+    private final int k;
+    private final HashMap<PageId, long[]> resident;
+    private final LinkedHashMap<PageId, long[]> retained;
+    private long clock;
+
+    /**
+     * Creates an LRU-K policy for a pool of numFrames pages.
+     *
+     * @param numFrames the capacity of the BufferPool
+     * @param k the number of past accesses tracked per page
+     */
+    public LruKPolicy(final int numFrames, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.resident = new HashMap<>();
+        this.retained = new LinkedHashMap<PageId, long[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<PageId, long[]> eldest) {
+                return size() > numFrames;
+            }
+        };
+        this.clock = 0;
+    }
+
+    public LruKPolicy(int numFrames) {
+        this(numFrames, DEFAULT_K);
+    }
+
+    /** Shifts a new access time into history; history[0] is the latest. */
+    private void touch(long[] history) {
+        System.arraycopy(history, 0, history, 1, k - 1);
+        history[0] = ++clock;
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history != null)
+            touch(history);
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        long[] history = resident.get(pid);
+        if (history == null) {
+            history = retained.remove(pid);
+            if (history == null)
+                history = new long[k];
+            resident.put(pid, history);
+        }
+        touch(history);
+    }
+
+    public synchronized void recordRemove(PageId pid) {
+        long[] history = resident.remove(pid);
+        if (history != null)
+            retained.put(pid, history);
+    }
+
+    /**
+     * Picks the evictable page with the largest backward K-distance, i.e.
+     * the oldest K-th most recent access, breaking ties by the oldest most
+     * recent access. A page without K accesses has a K-th access time of 0.
+     */
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        PageId victim = null;
+        long victimKth = Long.MAX_VALUE, victimLast = Long.MAX_VALUE;
+        for (Map.Entry<PageId, long[]> e : resident.entrySet()) {
+            long[] history = e.getValue();
+            long kth = history[k - 1], last = history[0];
+            if (kth > victimKth || (kth == victimKth && last >= victimLast))
+                continue;
+            if (canEvict.test(e.getKey())) {
+                victim = e.getKey();
+                victimKth = kth;
+                victimLast = last;
+            }
+        }
+        return victim;
+    }
+}
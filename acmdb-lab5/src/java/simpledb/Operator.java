@@ -33,6 +33,18 @@ public abstract class Operator implements DbIterator {
         return result;
     }
 
+    /**
+     * Fills a batch through hasNext and next, reusing the batch from one
+     * call to the next. Operators that work a batch at a time override this.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!this.open)
+            throw new IllegalStateException("Operator not yet open");
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        return batch.fill(this);
+    }
+
     /**
      * Returns the next Tuple in the iterator, or null if the iteration is
      * finished. Operator uses this method to implement both <code>next</code>
@@ -51,10 +63,12 @@ public abstract class Operator implements DbIterator {
     public void close() {
         // Ensures that a future call to next() will fail
         next = null;
+        batch = null;
         this.open = false;
     }
 
     private Tuple next = null;
+    private transient TupleBatch batch = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
 
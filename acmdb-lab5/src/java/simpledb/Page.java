@@ -1,5 +1,7 @@
 package simpledb;
 
+import java.nio.ByteBuffer;
+
 /**
  * Page is the interface used to represent pages that are resident in the
  * BufferPool.  Typically, DbFiles will read and write pages from disk.
@@ -46,6 +48,18 @@ public interface Page {
 
     public byte[] getPageData();
 
+    /**
+     * Writes the bytes {@link #getPageData()} returns into buf, starting at
+     * its position, and advances the position past them. Pages that keep
+     * their data in a buffer or can encode themselves in place override
+     * this, so that writing them out allocates nothing.
+     *
+     * @param buf The buffer to write to; it must have room for the page.
+     */
+    public default void getPageData(ByteBuffer buf) {
+        buf.put(getPageData());
+    }
+
     /** Provide a representation of this page before any modifications were made
         to it.  Used by recovery.
     */
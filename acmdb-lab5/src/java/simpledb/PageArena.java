@@ -0,0 +1,115 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * PageArena is a fixed set of page frames allocated once, outside the Java
+ * heap, as direct ByteBuffers. A BufferPool created with an arena reads
+ * HeapPage and BTreeLeafPage pages straight into a frame and those pages
+ * decode their tuples from the frame on access, so a large pool costs little
+ * heap and adds almost nothing for the garbage collector to trace.
+ * <p>
+ * Frames are handed out and returned by the BufferPool; a page that leaves
+ * the pool is first detached, i.e. moved to a heap copy, so that references
+ * an operator still holds stay valid after its frame is reused.
+ *
+ * @see BufferPool#BufferPool(PageArena)
+ * @see ArenaPage
+ */
+public class PageArena {
+
+    /** Largest direct buffer allocated at once; frames never span two. */
+    private static final int CHUNK_BYTES = 1 << 30;
+
+    private final int frameSize;
+    private final int numFrames;
+    private final ArrayDeque<ByteBuffer> free;
+
+    /**
+     * Allocates as many frames of BufferPool.getPageSize() bytes as fit in
+     * the given number of bytes.
+     *
+     * @param bytes the size of the arena, e.g. 4L << 30 for 4GB
+     * @throws IllegalArgumentException if not even one frame fits
+     */
+    public PageArena(long bytes) {
+        frameSize = BufferPool.getPageSize();
+        long frames = bytes / frameSize;
+        if (frames < 1 || frames > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("cannot make an arena of " + bytes + " bytes");
+        numFrames = (int) frames;
+        free = new ArrayDeque<>(numFrames);
+
+        int perChunk = CHUNK_BYTES / frameSize;
+        for (int base = 0; base < numFrames; base += perChunk) {
+            int n = Math.min(perChunk, numFrames - base);
+            ByteBuffer chunk = ByteBuffer.allocateDirect(n * frameSize);
+            for (int i = 0; i < n; i++) {
+                chunk.limit((i + 1) * frameSize);
+                chunk.position(i * frameSize);
+                free.add(chunk.slice());
+            }
+        }
+    }
+
+    /** @return the total number of frames in this arena */
+    public int numFrames() {
+        return numFrames;
+    }
+
+    /** @return the number of frames not currently holding a page */
+    public synchronized int numFreeFrames() {
+        return free.size();
+    }
+
+    /** @return a free frame, or null if every frame is in use */
+    synchronized ByteBuffer allocate() {
+        return free.poll();
+    }
+
+    /** Returns a frame obtained from {@link #allocate()} to the arena. */
+    synchronized void release(ByteBuffer frame) {
+        free.push(frame);
+    }
+
+    /** Zeroes len bytes of buf starting at offset. */
+    static void clear(ByteBuffer buf, int offset, int len) {
+        for (int i = 0; i < len; i++)
+            buf.put(offset + i, (byte) 0);
+    }
+
+    /** @return a heap copy of all the bytes of buf */
+    static byte[] copy(ByteBuffer buf) {
+        byte[] data = new byte[buf.capacity()];
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        src.get(data);
+        return data;
+    }
+
+    /**
+     * Decodes the tuple stored at offset of buf.
+     *
+     * @param rid the record id to give the tuple
+     */
+    static Tuple readTuple(ByteBuffer buf, int offset, TupleDesc td, RecordId rid) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(rid);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            t.setField(j, type.parse(buf, offset));
+            offset += type.getLen();
+        }
+        return t;
+    }
+
+    /** Encodes the fields of t into buf, starting at offset. */
+    static void writeTuple(ByteBuffer buf, int offset, Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        for (int j = 0; j < td.numFields(); j++) {
+            t.getField(j).serialize(buf, offset);
+            offset += td.getFieldType(j).getLen();
+        }
+    }
+}
@@ -0,0 +1,358 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * PageFile does the disk I/O of one DbFile. It opens the file once, on
+ * first use, and keeps its FileChannel open until {@link #close}, so
+ * reading or writing a page is a single positional read or write. Positional I/O does not move a
+ * shared file pointer, so concurrent readers and writers need no locking.
+ * <p>
+ * The length of the file is read once when the channel is opened and then
+ * kept up to date by the writes made through this PageFile, so asking for
+ * the page count costs no system call. The file must therefore not be
+ * written by other means while it is open.
+ * <p>
+ * A PageFile can also map the file into memory, read only, so that pages
+ * are served as views of the mapping without being copied. The mapping is
+ * split into segments of at most a gigabyte, since a single buffer cannot
+ * exceed 2GB. Consecutive segments overlap by a page, so that a page never
+ * straddles two of them even when pages do not start at a multiple of the
+ * page size. Writes still go through the channel; the mapping is shared
+ * with the OS page cache, so it sees them at once, and it is extended
+ * when a read asks for a page that was appended after it was made.
+ * <p>
+ * Runs of adjacent pages can be read and written with one scattering or
+ * gathering call. FileChannel has no positional form of those, so they
+ * seek the channel and are serialized among themselves; the single-page
+ * calls never use the channel's position and are not affected.
+ * <p>
+ * Pages are written by encoding them into a direct buffer that each thread
+ * keeps and reuses, with {@link Page#getPageData(ByteBuffer)}, so writing
+ * a page allocates neither a byte array nor the temporary direct buffer
+ * the channel would copy a heap buffer into.
+ *
+ * @see HeapFile
+ * @see BTreeFile
+ */
+public class PageFile {
+
+    /** Default size of a mapped segment. */
+    private static final long SEGMENT_BYTES = 1L << 30;
+
+    /** The buffer each thread encodes the pages it writes into. */
+    private static final ThreadLocal<ByteBuffer> scratch = new ThreadLocal<ByteBuffer>();
+
+    private final File file;
+    private volatile FileChannel channel;
+    private final AtomicLong length;
+    // serializes the vectored calls, which move the channel's position
+    private final Object positionLock = new Object();
+
+    private final long segmentBytes;
+    private volatile boolean mapped;
+    private volatile MappedByteBuffer[] segments;
+    // the overlap the segments were mapped with, and the bytes they cover
+    private volatile int overlap;
+    private volatile long mappedLength;
+
+    public PageFile(File file) {
+        this(file, SEGMENT_BYTES);
+    }
+
+    /** Creates a PageFile that maps the file in segments of the given size. */
+    PageFile(File file, long segmentBytes) {
+        this.file = file;
+        this.length = new AtomicLong();
+        this.segmentBytes = segmentBytes;
+        this.segments = new MappedByteBuffer[0];
+    }
+
+    /** @return the file this PageFile reads and writes */
+    public File getFile() {
+        return file;
+    }
+
+    private FileChannel channel() throws IOException {
+        FileChannel ch = channel;
+        if (ch == null) {
+            synchronized (this) {
+                ch = channel;
+                if (ch == null) {
+                    RandomAccessFile raf;
+                    try {
+                        raf = new RandomAccessFile(file, "rw");
+                    } catch (FileNotFoundException e) {
+                        // e.g. a read-only table; writes will fail
+                        raf = new RandomAccessFile(file, "r");
+                    }
+                    ch = raf.getChannel();
+                    length.set(ch.size());
+                    channel = ch;
+                }
+            }
+        }
+        return ch;
+    }
+
+    /**
+     * @return the length of the file in bytes, or 0 if it cannot be opened
+     */
+    public long length() {
+        try {
+            channel();
+            return length.get();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    /** @return true if reads are served from a memory mapping of the file */
+    public boolean isMapped() {
+        return mapped;
+    }
+
+    /**
+     * Switches memory-mapped reads on or off. The file is mapped on the
+     * first read that needs it; turning the mode off drops the mapping.
+     */
+    public synchronized void setMapped(boolean mapped) {
+        this.mapped = mapped;
+        segments = new MappedByteBuffer[0];
+        mappedLength = 0;
+    }
+
+    /**
+     * Returns a read-only view of len bytes of the mapped file, without
+     * copying them.
+     *
+     * @return the view, or null if the file is not mapped or has no len
+     *         bytes at offset
+     */
+    public ByteBuffer view(long offset, int len) throws IOException {
+        if (!mapped)
+            return null;
+        if (offset + len > mappedLength || len > overlap) {
+            if (offset + len > length())
+                return null;
+            remap(len);
+        }
+        MappedByteBuffer[] segs = segments;
+        int i = (int) (offset / segmentBytes);
+        if (i >= segs.length)
+            return null;
+        ByteBuffer b = segs[i].duplicate();
+        int pos = (int) (offset - i * segmentBytes);
+        b.limit(pos + len);
+        b.position(pos);
+        return b.slice();
+    }
+
+    /**
+     * Maps the whole file again, keeping the segments that were already
+     * mapped in full, so that pages of up to len bytes fit in a segment.
+     */
+    private synchronized void remap(int len) throws IOException {
+        if (!mapped)
+            return;
+        FileChannel ch = channel();
+        long total = length.get();
+        int over = Math.max(len, BufferPool.getPageSize());
+        if (total <= mappedLength && over <= overlap)
+            return;
+        MappedByteBuffer[] old = over == overlap ? segments : new MappedByteBuffer[0];
+        int n = (int) ((total + segmentBytes - 1) / segmentBytes);
+        MappedByteBuffer[] segs = new MappedByteBuffer[n];
+        for (int i = 0; i < n; i++) {
+            long start = i * segmentBytes;
+            long size = Math.min(segmentBytes + over, total - start);
+            segs[i] = i < old.length && old[i].capacity() == size
+                ? old[i] : ch.map(FileChannel.MapMode.READ_ONLY, start, size);
+        }
+        segments = segs;
+        overlap = over;
+        mappedLength = total;
+    }
+
+    /**
+     * Fills buf with the bytes at the given file offset. Bytes past the end
+     * of the file are zeroed, as they would be in a freshly allocated page.
+     *
+     * @return the number of bytes read from the file
+     */
+    public int read(ByteBuffer buf, long offset) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer dst = buf.duplicate();
+        dst.clear();
+        while (dst.hasRemaining() && ch.read(dst, offset + dst.position()) >= 0)
+            ;
+        int read = dst.position();
+        PageArena.clear(buf, read, dst.remaining());
+        return read;
+    }
+
+    /**
+     * Fills buf with the bytes at the given file offset, like
+     * {@link #read(ByteBuffer, long)}.
+     *
+     * @return the number of bytes read from the file
+     */
+    public int read(byte[] buf, long offset) throws IOException {
+        return read(ByteBuffer.wrap(buf), offset);
+    }
+
+    /**
+     * Fills the buffers, one after the other, with the bytes starting at
+     * the given file offset, using a single scattering read where the OS
+     * allows. Bytes past the end of the file are zeroed.
+     *
+     * @return the number of bytes read from the file
+     */
+    public long read(ByteBuffer[] bufs, long offset) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer[] dsts = new ByteBuffer[bufs.length];
+        long wanted = 0;
+        for (int i = 0; i < bufs.length; i++) {
+            dsts[i] = bufs[i].duplicate();
+            dsts[i].clear();
+            wanted += dsts[i].remaining();
+        }
+        long read = 0;
+        synchronized (positionLock) {
+            ch.position(offset);
+            while (read < wanted) {
+                long n = ch.read(dsts);
+                if (n < 0)
+                    break;
+                read += n;
+            }
+        }
+        for (int i = 0; i < bufs.length; i++)
+            PageArena.clear(bufs[i], dsts[i].position(), dsts[i].remaining());
+        return read;
+    }
+
+    /**
+     * Writes the contents of the buffers, one after the other, starting at
+     * the given file offset, using a single gathering write where the OS
+     * allows. The file is extended if needed.
+     */
+    public void write(ByteBuffer[] srcs, long offset) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer[] bufs = new ByteBuffer[srcs.length];
+        long total = 0;
+        for (int i = 0; i < srcs.length; i++) {
+            bufs[i] = srcs[i].duplicate();
+            total += bufs[i].remaining();
+        }
+        synchronized (positionLock) {
+            ch.position(offset);
+            for (long written = 0; written < total; )
+                written += ch.write(bufs);
+        }
+        length.accumulateAndGet(offset + total, Math::max);
+    }
+
+    /** Writes data at the given file offset, extending the file if needed. */
+    public void write(byte[] data, long offset) throws IOException {
+        FileChannel ch = channel();
+        ByteBuffer src = ByteBuffer.wrap(data);
+        while (src.hasRemaining())
+            ch.write(src, offset + src.position());
+        length.accumulateAndGet(offset + data.length, Math::max);
+    }
+
+    /**
+     * Writes page at the given file offset, extending the file if needed.
+     */
+    public void write(Page page, long offset) throws IOException {
+        ByteBuffer buf = scratch(BufferPool.getPageSize());
+        page.getPageData(buf);
+        buf.flip();
+        write(buf, offset);
+    }
+
+    /**
+     * Writes the pages, one after the other, starting at the given file
+     * offset, with a single write. The file is extended if needed.
+     */
+    public void write(List<? extends Page> pages, long offset) throws IOException {
+        ByteBuffer buf = scratch(pages.size() * BufferPool.getPageSize());
+        for (Page page : pages)
+            page.getPageData(buf);
+        buf.flip();
+        write(buf, offset);
+    }
+
+    private void write(ByteBuffer src, long offset) throws IOException {
+        FileChannel ch = channel();
+        int len = src.remaining();
+        for (int written = 0; written < len; )
+            written += ch.write(src, offset + written);
+        length.accumulateAndGet(offset + len, Math::max);
+    }
+
+    /** @return this thread's scratch buffer, cleared, with room for len bytes */
+    private static ByteBuffer scratch(int len) {
+        ByteBuffer buf = scratch.get();
+        if (buf == null || buf.capacity() < len) {
+            buf = ByteBuffer.allocateDirect(len);
+            scratch.set(buf);
+        }
+        buf.clear();
+        return buf;
+    }
+
+    /** Forces the writes made so far to the storage device. */
+    public void force() throws IOException {
+        channel().force(false);
+    }
+
+    /**
+     * Cuts the file down to size bytes. A mapping of the file is dropped,
+     * and made again by the next read that needs it.
+     */
+    public synchronized void truncate(long size) throws IOException {
+        channel().truncate(size);
+        length.set(Math.min(length.get(), size));
+        if (mapped)
+            setMapped(true);
+    }
+
+    /**
+     * Closes the file, releasing its descriptor, and drops a mapping of it.
+     * The PageFile may still be used; the next read or write opens the file
+     * again. It must not be closed while a read or write is under way.
+     */
+    public synchronized void close() {
+        FileChannel ch = channel;
+        channel = null;
+        setMapped(mapped);
+        if (ch == null)
+            return;
+        try {
+            ch.close();
+        } catch (IOException e) {
+            // writes go straight to the channel, so none are lost
+        }
+    }
+
+    /**
+     * Writes data at the end of the file.
+     *
+     * @return the offset data was written at
+     */
+    public synchronized long append(byte[] data) throws IOException {
+        long offset = length();
+        write(data, offset);
+        return offset;
+    }
+}
@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapFile whose pages are PaxHeapPages, which store each field of the
+ * page's tuples contiguously. It is meant for tables that are mostly
+ * scanned for a few of their fields, through
+ * {@link SeqScan#SeqScan(TransactionId, int, String, int[])}; inserts,
+ * deletes, locking and the BufferPool work as for any HeapFile.
+ * <p>
+ * The file cannot be read as a HeapFile nor the other way round; a table
+ * chooses its format in the catalog (see {@link Catalog#loadSchema}). An
+ * existing table is converted by inserting its tuples into an empty
+ * PaxHeapFile with {@link #insertTuples}.
+ *
+ * @see PaxHeapPage
+ */
+public class PaxHeapFile extends HeapFile {
+
+    public PaxHeapFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapFilePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+
+    @Override
+    protected HeapFilePage newPage(HeapPageId pid, ByteBuffer frame) {
+        return new PaxHeapPage(pid, frame);
+    }
+}
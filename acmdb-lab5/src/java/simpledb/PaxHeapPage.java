@@ -0,0 +1,53 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A page of a PaxHeapFile, which stores its tuples column by column
+ * ("Partition Attributes Across"). The page has as many slots and the same
+ * header bitmap as a HeapPage of the table, but after the header each field
+ * has a minipage of its own: the values of field i of all slots, one after
+ * the other, starting at
+ * <pre>
+ *     header size + slots * TupleDesc.getOffset(i)
+ * </pre>
+ * A scan that reads a few fields of every tuple, e.g. an aggregate, reads
+ * each of them from one contiguous run of bytes and skips the rest of the
+ * page, instead of striding over whole tuples.
+ * <p>
+ * Everything else, views, frames and before-images, works as for
+ * HeapPage; only where a field is stored differs.
+ *
+ * @see PaxHeapFile
+ */
+public class PaxHeapPage extends HeapPage {
+
+    /**
+     * Create a PaxHeapPage from a set of bytes of data read from disk, in
+     * the format described above.
+     */
+    public PaxHeapPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+    }
+
+    /** Create a PaxHeapPage that reads its tuples directly from frame. */
+    public PaxHeapPage(HeapPageId id, ByteBuffer frame) {
+        super(id, frame);
+    }
+
+    @Override
+    int fieldOffset(int slot, int i) {
+        return header.length + numSlots * td.getOffset(i) + slot * td.getFieldType(i).getLen();
+    }
+
+    @Override
+    HeapPage newPage(byte[] data) throws IOException {
+        return new PaxHeapPage(pid, data);
+    }
+
+    @Override
+    public PaxHeapPage getBeforeImage() {
+        return (PaxHeapPage) super.getBeforeImage();
+    }
+}
@@ -92,14 +92,47 @@ public class Predicate implements Serializable {
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
      * the constructor. The comparison can be made through Field's compare
-     * method.
+     * method; an int operand is compared to the field read with
+     * {@link Tuple#getInt}, which allocates nothing.
      * 
      * @param t
      *            The tuple to compare against
      * @return true if the comparison is true, false otherwise.
      */
     public boolean filter(Tuple t) {
-        return t != null && t.getField(field).compare(op, operand);
+        if (t == null)
+            return false;
+        if (operand instanceof IntField)
+            return IntField.compare(t.getInt(field), op, ((IntField) operand).getValue());
+        return t.compareField(field, op, operand);
+    }
+
+    /**
+     * Applies the predicate to the selected rows of b, narrowing its
+     * selection to those that pass. Reads an int field straight from its
+     * column.
+     *
+     * @param b
+     *            The batch to filter
+     */
+    public void filter(TupleBatch b) {
+        int[] sel = b.selection();
+        int count = b.numSelected(), n = 0;
+        if (operand instanceof IntField) {
+            int[] column = b.ints(field);
+            int value = ((IntField) operand).getValue();
+            for (int k = 0; k < count; k++) {
+                if (IntField.compare(column[sel[k]], op, value))
+                    sel[n++] = sel[k];
+            }
+        } else {
+            Field[] column = b.fields(field);
+            for (int k = 0; k < count; k++) {
+                if (column[sel[k]].compare(op, operand))
+                    sel[n++] = sel[k];
+            }
+        }
+        b.setSelected(n);
     }
 
     /**
@@ -11,6 +11,9 @@ public class Project extends Operator {
     private DbIterator child;
     private TupleDesc td;
     private ArrayList<Integer> outFieldIds;
+    // the output of nextBatch, a view of the child's batch
+    private transient TupleBatch batch;
+    private transient int[] columns;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -80,6 +83,24 @@ public class Project extends Operator {
         return null;
     }
 
+    /**
+     * Returns the child's batch with only the projected columns, without
+     * copying them.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch b = child.nextBatch();
+        if (b == null)
+            return null;
+        if (batch == null) {
+            columns = new int[outFieldIds.size()];
+            for (int i = 0; i < columns.length; i++)
+                columns[i] = outFieldIds.get(i);
+            batch = new TupleBatch(td);
+        }
+        batch.project(b, columns);
+        return batch;
+    }
+
     @Override
     public DbIterator[] getChildren() {
         return new DbIterator[] { this.child };
@@ -0,0 +1,100 @@
+package simpledb;
+
+import java.util.function.IntFunction;
+
+/**
+ * ReadAhead follows the pages a sequential scan asks for and keeps the
+ * next few pages loading in the background, through
+ * {@link BufferPool#prefetch(PageId, ScanRing)}, so that the scan finds
+ * them cached instead of waiting for each read in turn.
+ * <p>
+ * The scan reports every page number it is about to read. While the
+ * numbers keep increasing by one the window doubles, from MIN_WINDOW up to
+ * the pool's read-ahead limit; any other jump is treated as random access
+ * and shrinks the window back to MIN_WINDOW. A scan that uses a ScanRing
+ * prefetches at most half the ring, so prefetched pages do not push each
+ * other out before they are read.
+ * <p>
+ * Pages are requested in runs of up to the pool's I/O limit
+ * ({@link BufferPool#getMaxIoPages}), each read with a single call. When
+ * the page the scan is about to read is not cached at all, the run that
+ * starts with it is read right away, in the scan's thread, rather than
+ * one page now and the rest in the background.
+ * <p>
+ * Prefetching is only a hint: a prefetched page is read without locks and
+ * may be evicted again, in which case the scan simply reads it itself. A
+ * ReadAhead belongs to a single iterator and is not thread safe.
+ */
+public class ReadAhead {
+
+    /** Pages prefetched after the first page or after a random jump. */
+    public static final int MIN_WINDOW = 2;
+
+    private final IntFunction<PageId> pageAt;
+    private final int numPages;
+    private final ScanRing ring;
+
+    private int window;
+    private int last;
+    private int next;
+
+    /**
+     * @param pageAt maps a page number of the scanned file to its PageId
+     * @param numPages the number of pages in the file
+     * @param ring the scan's ScanRing, or null
+     */
+    public ReadAhead(IntFunction<PageId> pageAt, int numPages, ScanRing ring) {
+        this.pageAt = pageAt;
+        this.numPages = numPages;
+        this.ring = ring;
+        this.window = MIN_WINDOW;
+        this.last = -2;
+        this.next = 0;
+    }
+
+    /**
+     * Records that the scan is about to read page pageNo and prefetches the
+     * pages of the window that follows it.
+     */
+    public void access(int pageNo) {
+        BufferPool pool = Database.getBufferPool();
+        int limit = pool.getMaxReadAhead();
+        if (ring != null)
+            limit = Math.min(limit, ring.capacity() / 2);
+        else
+            limit = Math.min(limit, pool.getMaxPages() / 2);
+
+        if (pageNo == last + 1) {
+            window = Math.min(window * 2, limit);
+            next = Math.max(next, pageNo + 1);
+        } else {
+            window = Math.min(MIN_WINDOW, limit);
+            next = pageNo + 1;
+        }
+        last = pageNo;
+
+        int extent = Math.min(pool.getMaxIoPages(), limit);
+        if (extent > 1 && pageNo < numPages && !pool.isCached(pageAt.apply(pageNo))) {
+            PageId[] run = run(pageNo, extent);
+            try {
+                pool.loadExtent(run, ring);
+            } catch (DbException | RuntimeException e) {
+                // the scan reads the page itself
+            }
+            next = Math.max(next, pageNo + run.length);
+        }
+        while (next <= pageNo + window && next < numPages) {
+            PageId[] run = run(next, Math.min(Math.max(extent, 1), pageNo + window + 1 - next));
+            pool.prefetch(run, ring);
+            next += run.length;
+        }
+    }
+
+    /** @return the IDs of up to n pages starting at page first, within the file */
+    private PageId[] run(int first, int n) {
+        PageId[] run = new PageId[Math.min(n, numPages - first)];
+        for (int i = 0; i < run.length; i++)
+            run[i] = pageAt.apply(first + i);
+        return run;
+    }
+}
@@ -0,0 +1,39 @@
+package simpledb;
+
+import java.util.function.Predicate;
+
+/**
+ * A ReplacementPolicy decides which cached page the BufferPool evicts when
+ * it needs room for another one. The BufferPool reports every event that
+ * changes the set of cached pages or their popularity, and asks for a
+ * victim when it is full.
+ * <p>
+ * recordAccess is called on cache hits without holding the BufferPool
+ * monitor, so implementations must tolerate it racing with the other
+ * methods. Every other method is called with the BufferPool monitor held.
+ *
+ * @see ClockPolicy
+ * @see LruKPolicy
+ * @see TwoQueuePolicy
+ */
+public interface ReplacementPolicy {
+
+    /** Notes that a cached page was requested again. */
+    public void recordAccess(PageId pid);
+
+    /** Notes that a page was added to the pool. */
+    public void recordInsert(PageId pid);
+
+    /** Notes that a page left the pool, either evicted or discarded. */
+    public void recordRemove(PageId pid);
+
+    /**
+     * Picks the page to evict next. The page stays cached until the
+     * BufferPool calls recordRemove for it.
+     *
+     * @param canEvict tells whether the BufferPool is allowed to drop a page
+     *        (e.g. it is not dirty)
+     * @return the page to evict, or null if no page can be evicted
+     */
+    public PageId chooseVictim(Predicate<PageId> canEvict);
+}
@@ -0,0 +1,54 @@
+package simpledb;
+
+import java.util.ArrayDeque;
+
+/**
+ * ScanRing is a "use-once" access hint for BufferPool.getPage. A sequential
+ * scan passes the same ring for every page it reads; pages the scan has to
+ * load are remembered in the ring, and once the ring is full the scan evicts
+ * its own oldest page to make room instead of asking the pool's
+ * ReplacementPolicy for a victim. Pages that were already cached are
+ * returned without counting as a new access. A large scan therefore
+ * occupies only a few frames and leaves the working set of other queries in
+ * place.
+ * <p>
+ * A ring belongs to a single iterator. It is not thread safe: only the
+ * BufferPool reads and updates it, while holding its own monitor.
+ *
+ * @see BufferPool#getPage(TransactionId, PageId, Permissions, ScanRing)
+ */
+public class ScanRing {
+
+    /** Number of frames a scan recycles unless told otherwise. */
+    public static final int DEFAULT_FRAMES = 8;
+
+    private final int capacity;
+    private final ArrayDeque<PageId> pages;
+
+    public ScanRing(int capacity) {
+        this.capacity = Math.max(1, capacity);
+        this.pages = new ArrayDeque<>(this.capacity);
+    }
+
+    public ScanRing() {
+        this(DEFAULT_FRAMES);
+    }
+
+    /** @return the number of frames this ring recycles */
+    int capacity() {
+        return capacity;
+    }
+
+    boolean isFull() {
+        return pages.size() >= capacity;
+    }
+
+    void add(PageId pid) {
+        pages.add(pid);
+    }
+
+    /** @return the oldest page loaded through this ring, or null */
+    PageId poll() {
+        return pages.poll();
+    }
+}
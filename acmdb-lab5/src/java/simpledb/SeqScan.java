@@ -15,6 +15,12 @@ public class SeqScan implements DbIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator iterator;
+    // the fields scanned, or null for all of them
+    private final int[] fields;
+    // set if the file's iterator returns all fields and next() projects them
+    private TupleDesc projected;
+    // the batch nextBatch fills, made on first use
+    private transient TupleBatch batch;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -33,10 +39,30 @@ public class SeqScan implements DbIterator {
      *            tableAlias.null, or null.null).
      */
     public SeqScan(TransactionId tid, int tableid, String tableAlias) {
+        this(tid, tableid, tableAlias, null);
+    }
+
+    /**
+     * Creates a sequential scan that returns only the given fields of the
+     * table, in the given order. A HeapFile reads only those fields, which
+     * for a {@link PaxHeapFile} means only their columns.
+     *
+     * @param fields
+     *            the indexes of the fields to return, or null for all
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int[] fields) {
         this.tid = tid;
         this.tableId = tableid;
         this.tableAlias = tableAlias;
-        this.iterator = Database.getCatalog().getDatabaseFile(tableid).iterator(tid);
+        this.fields = fields;
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (fields != null && file instanceof HeapFile) {
+            this.iterator = ((HeapFile) file).iterator(tid, fields);
+        } else {
+            this.iterator = file.iterator(tid);
+            if (fields != null)
+                this.projected = file.getTupleDesc().project(fields);
+        }
     }
 
     /**
@@ -70,6 +96,7 @@ public class SeqScan implements DbIterator {
     public void reset(int tableid, String tableAlias) {
         this.tableId = tableid;
         this.tableAlias = tableAlias;
+        this.batch = null;
     }
 
     public SeqScan(TransactionId tid, int tableid) {
@@ -92,6 +119,8 @@ public class SeqScan implements DbIterator {
      */
     public TupleDesc getTupleDesc() {
         TupleDesc td = Database.getCatalog().getTupleDesc(tableId);
+        if (fields != null)
+            td = td.project(fields);
 
         Type[] types = new Type [td.numFields()];
         String[] names = new String [td.numFields()];
@@ -110,7 +139,24 @@ public class SeqScan implements DbIterator {
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
-        return iterator.next();
+        Tuple t = iterator.next();
+        return projected == null ? t : t.project(projected, fields);
+    }
+
+    /**
+     * Has the file's iterator copy the next tuples straight into the
+     * columns of a batch, which a HeapFile decodes from its pages without
+     * making a tuple per row, and reuses the batch from one call to the
+     * next.
+     *
+     * @see DbFileIterator#fill
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (batch == null)
+            batch = new TupleBatch(getTupleDesc(), TupleBatch.DEFAULT_SIZE);
+        batch.clear();
+        iterator.fill(batch, projected == null ? null : fields);
+        return batch.size() == 0 ? null : batch;
     }
 
     public void close() {
@@ -0,0 +1,35 @@
+package simpledb;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A HeapFile whose pages are SlottedHeapPages, which store strings with
+ * their own length instead of Type.STRING_LEN bytes. A table of short
+ * strings takes several times fewer pages, and so fewer reads to scan.
+ * <p>
+ * The file cannot be read as a HeapFile nor the other way round; a table
+ * chooses its format in the catalog (see {@link Catalog#loadSchema}). An
+ * existing table is converted by inserting its tuples into an empty
+ * SlottedHeapFile with {@link #insertTuples}.
+ *
+ * @see SlottedHeapPage
+ */
+public class SlottedHeapFile extends HeapFile {
+
+    public SlottedHeapFile(File f, TupleDesc td) {
+        super(f, td);
+        if (BufferPool.getPageSize() > 1 << 16)
+            throw new IllegalStateException("slotted pages are at most 64KB");
+    }
+
+    @Override
+    protected HeapFilePage newPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedHeapPage(pid, data);
+    }
+
+    @Override
+    protected HeapFilePage newPage(HeapPageId pid, ByteBuffer frame) {
+        return new SlottedHeapPage(pid, frame);
+    }
+}
@@ -0,0 +1,489 @@
+package simpledb;
+
+import java.util.*;
+import java.io.*;
+import java.nio.ByteBuffer;
+
+/**
+ * A page of a SlottedHeapFile. Unlike HeapPage, which gives every tuple a
+ * slot of TupleDesc.getSize() bytes, it stores each string with only as
+ * many bytes as it has, so a page of short strings holds several times as
+ * many tuples.
+ * <p>
+ * The page starts with a header of two unsigned shorts, the number of
+ * entries in the slot directory and the offset of the first record byte (0
+ * for the end of the page), followed by the slot directory, one unsigned
+ * short per slot with the offset of its record, or 0 if the slot is empty.
+ * Records are packed at the end of the page and grow towards the
+ * directory; the free space is the gap between the two. A record holds its
+ * fields in order, an int as 4 bytes and a string as its length in 4 bytes
+ * and then its characters, the same encoding as HeapPage without the
+ * padding. A page of zeros is an empty page. Offsets are unsigned shorts,
+ * so pages may be at most 64KB.
+ * <p>
+ * Records are kept packed: a delete, or an update that changes the size of
+ * a record, moves the records below it so that the free space stays in one
+ * piece. Slot numbers, and so RecordIds, never change; empty slots are
+ * reused by later inserts and empty slots at the end of the directory are
+ * dropped.
+ * <p>
+ * The page is kept as it is stored, as HeapPage is, and its tuples are
+ * views that decode a field when it is first read.
+ *
+ * @see SlottedHeapFile
+ * @see HeapPage
+ */
+public class SlottedHeapPage implements ArenaPage, HeapFilePage {
+
+    static final int HEADER_SIZE = 4;
+    static final int SLOT_SIZE = 2;
+
+    final HeapPageId pid;
+    final TupleDesc td;
+    // the size of a record whose strings are all empty
+    private final int minRecordSize;
+
+    private volatile ByteBuffer buf;
+
+    byte[] oldData;
+    private final Object oldDataLock = new Object();
+    private TransactionId dirtyId;
+
+    /**
+     * Create a SlottedHeapPage from a set of bytes of data read from disk,
+     * in the format described above. data is never written.
+     */
+    public SlottedHeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data).asReadOnlyBuffer());
+        // data is never written, so it is the before-image until a commit
+        oldData = data;
+    }
+
+    /**
+     * Create a SlottedHeapPage that reads its tuples directly from frame,
+     * as {@link HeapPage#HeapPage(HeapPageId, ByteBuffer)} does.
+     */
+    public SlottedHeapPage(HeapPageId id, ByteBuffer frame) {
+        this.pid = id;
+        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.minRecordSize = recordSize(td);
+        this.buf = frame;
+    }
+
+    /** @return the size of a record of td whose strings are all empty */
+    static int recordSize(TupleDesc td) {
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++)
+            size += td.getFieldType(i) == Type.STRING_TYPE ? 4 : td.getFieldType(i).getLen();
+        return size;
+    }
+
+    /** @return the number of bytes t takes as a record */
+    static int recordSize(Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        int size = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.STRING_TYPE)
+                size += 4 + stringLength(t.getField(i));
+            else
+                size += td.getFieldType(i).getLen();
+        }
+        return size;
+    }
+
+    private static int stringLength(Field f) {
+        return Math.min(((StringField) f).getValue().length(), Type.STRING_LEN);
+    }
+
+    /** Encodes t as a record into buf, starting at offset. */
+    static void writeRecord(ByteBuffer buf, int offset, Tuple t) {
+        TupleDesc td = t.getTupleDesc();
+        for (int i = 0; i < td.numFields(); i++) {
+            Field f = t.getField(i);
+            if (td.getFieldType(i) == Type.STRING_TYPE) {
+                String s = ((StringField) f).getValue();
+                int len = stringLength(f);
+                buf.putInt(offset, len);
+                offset += 4;
+                for (int j = 0; j < len; j++)
+                    buf.put(offset + j, (byte) s.charAt(j));
+                offset += len;
+            } else {
+                f.serialize(buf, offset);
+                offset += td.getFieldType(i).getLen();
+            }
+        }
+    }
+
+    /** @return the offset of field i of the record at offset of b */
+    private int fieldOffset(ByteBuffer b, int offset, int i) {
+        for (int j = 0; j < i; j++)
+            offset += td.getFieldType(j) == Type.STRING_TYPE ? 4 + b.getInt(offset)
+                : td.getFieldType(j).getLen();
+        return offset;
+    }
+
+    /** @return the size of the record at offset of buf */
+    private int recordSizeAt(int offset) {
+        return fieldOffset(buf, offset, td.numFields()) - offset;
+    }
+
+    /** @return the number of entries in the slot directory */
+    int getNumSlots() {
+        return buf.getShort(0) & 0xFFFF;
+    }
+
+    /** @return the offset of the first record byte */
+    private int dataStart() {
+        int start = buf.getShort(2) & 0xFFFF;
+        return start == 0 ? buf.capacity() : start;
+    }
+
+    private void setHeader(int numSlots, int dataStart) {
+        buf.putShort(0, (short) numSlots);
+        buf.putShort(2, (short) (dataStart == buf.capacity() ? 0 : dataStart));
+    }
+
+    /** @return the offset of the record in slot i, or 0 if it is empty */
+    private int slotOffset(ByteBuffer b, int i) {
+        return b.getShort(HEADER_SIZE + i * SLOT_SIZE) & 0xFFFF;
+    }
+
+    private void setSlotOffset(int i, int offset) {
+        buf.putShort(HEADER_SIZE + i * SLOT_SIZE, (short) offset);
+    }
+
+    /** @return the number of bytes between the slot directory and the records */
+    public int getFreeSpace() {
+        return dataStart() - HEADER_SIZE - getNumSlots() * SLOT_SIZE;
+    }
+
+    /**
+     * Returns true if associated slot on this page is filled.
+     */
+    public boolean isSlotUsed(int i) {
+        return i >= 0 && i < getNumSlots() && slotOffset(buf, i) != 0;
+    }
+
+    /** @return the first empty slot, or the directory size if there is none */
+    private int freeSlot() {
+        int n = getNumSlots();
+        for (int i = 0; i < n; i++)
+            if (slotOffset(buf, i) == 0)
+                return i;
+        return n;
+    }
+
+    /** Return a view of this page before it was modified
+        -- used by recovery */
+    public SlottedHeapPage getBeforeImage(){
+        try {
+            byte[] oldDataRef = null;
+            synchronized(oldDataLock)
+            {
+                oldDataRef = oldData;
+            }
+            // a page that has not changed is its own before-image
+            if (oldDataRef == null)
+                oldDataRef = getPageData();
+            return new SlottedHeapPage(pid,oldDataRef);
+        } catch (IOException e) {
+            e.printStackTrace();
+            //should never happen -- we parsed it OK before!
+            System.exit(1);
+        }
+        return null;
+    }
+
+    public void setBeforeImage() {
+        synchronized(oldDataLock)
+        {
+            oldData = null;
+        }
+    }
+
+    /** As HeapPage.beforeChange. */
+    private void beforeChange() {
+        synchronized(oldDataLock)
+        {
+            if (oldData == null)
+                oldData = getPageData();
+        }
+        if (buf.isReadOnly())
+            buf = ByteBuffer.wrap(PageArena.copy(buf));
+    }
+
+    public ByteBuffer getFrame() {
+        ByteBuffer b = buf;
+        return b != null && b.isDirect() ? b : null;
+    }
+
+    public synchronized ByteBuffer detachFrame() {
+        ByteBuffer frame = getFrame();
+        if (frame != null)
+            buf = ByteBuffer.wrap(PageArena.copy(frame));
+        return frame;
+    }
+
+    public HeapPageId getId() {
+        return pid;
+    }
+
+    /**
+     * Generates a byte array representing the contents of this page, which
+     * the byte array constructor takes back.
+     */
+    public byte[] getPageData() {
+        return PageArena.copy(buf);
+    }
+
+    public void getPageData(ByteBuffer dst) {
+        ByteBuffer src = buf.duplicate();
+        src.clear();
+        dst.put(src);
+    }
+
+    public void markDirty(boolean dirty, TransactionId tid) {
+        if (dirty)
+            this.dirtyId = tid;
+        else
+            this.dirtyId = null;
+    }
+
+    public TransactionId isDirty() {
+        return dirtyId;
+    }
+
+    public boolean hasRoomFor(Tuple t) {
+        return fits(recordSize(t));
+    }
+
+    public boolean hasRoom() {
+        return fits(minRecordSize);
+    }
+
+    private boolean fits(int size) {
+        return size + (freeSlot() == getNumSlots() ? SLOT_SIZE : 0) <= getFreeSpace();
+    }
+
+    public boolean isEmpty() {
+        return getNumSlots() == 0;
+    }
+
+    /**
+     * Adds t to the page, in the first empty slot.
+     * @throws DbException if t does not fit in the free space
+     */
+    public synchronized void insertTuple(Tuple t) throws DbException {
+        if (!t.getTupleDesc().equals(td))
+            throw new DbException("tuple desc mismatch");
+        int size = recordSize(t);
+        if (!fits(size))
+            throw new DbException("page is full");
+        beforeChange();
+        int n = getNumSlots();
+        int slot = freeSlot();
+        int offset = dataStart() - size;
+        writeRecord(buf, offset, t);
+        setSlotOffset(slot, offset);
+        setHeader(Math.max(n, slot + 1), offset);
+        t.setRecordId(new RecordId(pid, slot));
+    }
+
+    /**
+     * Deletes t and closes the gap its record leaves.
+     * @throws DbException if t is not on this page
+     */
+    public synchronized void deleteTuple(Tuple t) throws DbException {
+        int slot = slotOf(t);
+        beforeChange();
+        // the caller's tuple keeps its values once the record is gone
+        if (t instanceof TupleView)
+            ((TupleView) t).decodeAll();
+        int offset = slotOffset(buf, slot);
+        resize(offset, recordSizeAt(offset), 0);
+        setSlotOffset(slot, 0);
+        int n = getNumSlots();
+        while (n > 0 && slotOffset(buf, n - 1) == 0)
+            n--;
+        setHeader(n, dataStart());
+    }
+
+    /**
+     * Overwrites the record in the slot of t's RecordId with the values of
+     * t, moving the records below it if its size changes.
+     * @throws DbException if the slot is empty or the new record does not
+     *         fit
+     */
+    public synchronized void updateTuple(Tuple t) throws DbException {
+        int slot = slotOf(t);
+        // t may be a view of the record it replaces
+        Tuple values = t.materialize();
+        int offset = slotOffset(buf, slot);
+        int oldSize = recordSizeAt(offset), newSize = recordSize(values);
+        if (newSize - oldSize > getFreeSpace())
+            throw new DbException("page is full");
+        beforeChange();
+        offset = resize(offset, oldSize, newSize);
+        writeRecord(buf, offset, values);
+        setSlotOffset(slot, offset);
+    }
+
+    /** @return the slot of t, which must be in use on this page */
+    private int slotOf(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        if (rid == null || !pid.equals(rid.getPageId()) || !isSlotUsed(rid.tupleno()))
+            throw new DbException("tuple is not on this page");
+        return rid.tupleno();
+    }
+
+    /**
+     * Makes the record at offset newSize bytes long by moving the records
+     * below it, i.e. those stored before it, and their slots. The record
+     * keeps its end; bytes that fall out of the records are zeroed.
+     *
+     * @return the new offset of the record
+     */
+    private int resize(int offset, int oldSize, int newSize) {
+        int delta = oldSize - newSize;
+        if (delta == 0)
+            return offset;
+        int start = dataStart();
+        byte[] below = new byte[offset - start];
+        ByteBuffer b = buf.duplicate();
+        b.position(start);
+        b.get(below);
+        b.position(start + delta);
+        b.put(below);
+        if (delta > 0)
+            PageArena.clear(buf, start, delta);
+        for (int i = 0, n = getNumSlots(); i < n; i++) {
+            int o = slotOffset(buf, i);
+            if (o != 0 && o < offset)
+                setSlotOffset(i, o + delta);
+        }
+        setHeader(getNumSlots(), start + delta);
+        return offset + delta;
+    }
+
+    /**
+     * @return an iterator over the tuples of this page, which are views of
+     *         their records; see {@link Tuple#materialize}.
+     */
+    public Iterator<Tuple> iterator() {
+        return new Iterator<Tuple>() {
+            private int i = 0;
+
+            @Override
+            public boolean hasNext() {
+                int n = getNumSlots();
+                for (; i < n && slotOffset(buf, i) == 0; i++);
+                return i < n;
+            }
+
+            @Override
+            public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return new TupleView(i++);
+            }
+        };
+    }
+
+    /**
+     * A tuple that reads its fields from a record of this page, as
+     * HeapPage's views do. The record is looked up through its slot on
+     * every read, so the view stays valid when records move.
+     */
+    private class TupleView extends Tuple {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int slot;
+        private Field[] fields;
+        private boolean hasRecordId;
+
+        TupleView(int slot) {
+            super(td, null);
+            this.slot = slot;
+        }
+
+        @Override
+        public RecordId getRecordId() {
+            if (!hasRecordId)
+                setRecordId(new RecordId(pid, slot));
+            return super.getRecordId();
+        }
+
+        @Override
+        public void setRecordId(RecordId rid) {
+            hasRecordId = true;
+            super.setRecordId(rid);
+        }
+
+        @Override
+        public Field getField(int i) {
+            if (fields == null)
+                fields = new Field[td.numFields()];
+            Field f = fields[i];
+            if (f == null) {
+                ByteBuffer b;
+                do {
+                    b = buf;
+                    f = td.getFieldType(i).parse(b, fieldOffset(b, slotOffset(b, slot), i));
+                } while (b != buf); // detached while decoding, read the heap copy
+                fields[i] = f;
+            }
+            return f;
+        }
+
+        @Override
+        public void setField(int i, Field f) {
+            if (fields == null)
+                fields = new Field[td.numFields()];
+            fields[i] = f;
+        }
+
+        @Override
+        public int getInt(int i) {
+            if (fields != null && fields[i] != null)
+                return ((IntField) fields[i]).getValue();
+            ByteBuffer b;
+            int result;
+            do {
+                b = buf;
+                result = b.getInt(fieldOffset(b, slotOffset(b, slot), i));
+            } while (b != buf);
+            return result;
+        }
+
+        @Override
+        public boolean compareField(int i, Predicate.Op op, Field value) {
+            if (fields != null && fields[i] != null)
+                return fields[i].compare(op, value);
+            ByteBuffer b;
+            boolean result;
+            do {
+                b = buf;
+                result = td.getFieldType(i).compare(b, fieldOffset(b, slotOffset(b, slot), i), op, value);
+            } while (b != buf);
+            return result;
+        }
+
+        /** Decodes the fields that have not been read yet. */
+        void decodeAll() {
+            for (int j = 0; j < td.numFields(); j++)
+                getField(j);
+        }
+
+        @Override
+        public Tuple materialize() {
+            return CompactTuple.copyOf(this);
+        }
+
+        private Object writeReplace() {
+            return materialize();
+        }
+    }
+
+}
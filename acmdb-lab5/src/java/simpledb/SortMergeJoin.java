@@ -0,0 +1,227 @@
+package simpledb;
+
+import java.util.*;
+
+/**
+ * SortMergeJoin joins two inputs on a comparison of a field of each, for
+ * the equality and inequality operators (EQUALS, LESS_THAN,
+ * LESS_THAN_OR_EQ, GREATER_THAN and GREATER_THAN_OR_EQ), by reading both in
+ * ascending order of their join fields. An input that is already in that
+ * order, such as a BTreeScan on its key, is read as it is; any other is
+ * sorted with an OrderBy.
+ * <p>
+ * For each tuple of child1, in order, the tuples of child2 it joins with
+ * are a run of consecutive tuples of the sorted child2, and the run only
+ * moves forward as child1's field grows. The join keeps the tuples of
+ * child2 from the start of the current run to the last one read: for an
+ * equi-join, just the group of tuples with the current key, and for
+ * t1 &gt; t2 or t1 &lt; t2, every tuple of child2 below or above the
+ * current one. The output is in ascending order of child1's join field.
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private JoinPredicate p;
+    private DbIterator child1;
+    private DbIterator child2;
+    // whether a tuple of child2 must be no less, or no greater, than a tuple
+    // of child1 to join with it, so the run has a start, or an end
+    private final boolean lowerBound;
+    private final boolean upperBound;
+    private transient TupleDesc td;
+
+    // the children in order of their join fields: the children themselves
+    // or OrderBys over them
+    private transient DbIterator outer;
+    private transient DbIterator inner;
+    // the tuples of child2 read and kept, of which lo to hi - 1 are the run
+    // of the current tuple of child1; at is the next of them to join it with
+    private transient ArrayList<Tuple> buffer;
+    private transient int lo, hi, at;
+    private transient Tuple current;
+
+    /**
+     * @param p
+     *            The predicate to join on; its operator may not be
+     *            NOT_EQUALS or LIKE
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, DbIterator child1, DbIterator child2) {
+        if (!supports(p.getOperator()))
+            throw new IllegalArgumentException("sort-merge join can't join on " + p.getOperator());
+        this.p = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        Predicate.Op op = p.getOperator();
+        this.lowerBound = op == Predicate.Op.EQUALS || op == Predicate.Op.LESS_THAN
+                || op == Predicate.Op.LESS_THAN_OR_EQ;
+        this.upperBound = op == Predicate.Op.EQUALS || op == Predicate.Op.GREATER_THAN
+                || op == Predicate.Op.GREATER_THAN_OR_EQ;
+    }
+
+    /** @return whether a SortMergeJoin can join on op */
+    public static boolean supports(Predicate.Op op) {
+        return op != Predicate.Op.NOT_EQUALS && op != Predicate.Op.LIKE;
+    }
+
+    /**
+     * @return whether it is known to return its tuples in ascending order of
+     *         field: it is a BTreeScan with field as its key, an ascending
+     *         OrderBy on field, a SortMergeJoin with field as its first join
+     *         field, or a Filter over one of those
+     */
+    public static boolean isSorted(DbIterator it, int field) {
+        if (it instanceof BTreeScan)
+            return ((BTreeScan) it).getKeyField() == field;
+        if (it instanceof OrderBy)
+            return ((OrderBy) it).isASC() && ((OrderBy) it).getOrderByField() == field;
+        if (it instanceof SortMergeJoin)
+            return ((SortMergeJoin) it).p.getField1() == field;
+        if (it instanceof Filter)
+            return isSorted(((Filter) it).getChildren()[0], field);
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return p;
+    }
+
+    public String getJoinField1Name() {
+        return child1.getTupleDesc().getFieldName(p.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return child2.getTupleDesc().getFieldName(p.getField2());
+    }
+
+    public TupleDesc getTupleDesc() {
+        if (td == null)
+            td = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        outer = isSorted(child1, p.getField1()) ? child1 : new OrderBy(p.getField1(), true, child1);
+        inner = isSorted(child2, p.getField2()) ? child2 : new OrderBy(p.getField2(), true, child2);
+        outer.open();
+        inner.open();
+        buffer = new ArrayList<Tuple>();
+        lo = hi = at = 0;
+        current = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (outer != null)
+            outer.close();
+        if (inner != null)
+            inner.close();
+        child1.close();
+        child2.close();
+        outer = inner = null;
+        buffer = null;
+        current = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        close();
+        open();
+    }
+
+    /**
+     * @return the comparison of the join fields of t1, of child1, and t2, of
+     *         child2, as by Comparator.compare
+     */
+    private int compare(Tuple t1, Tuple t2) {
+        int f1 = p.getField1(), f2 = p.getField2();
+        if (t1.getTupleDesc().getFieldType(f1) == Type.INT_TYPE)
+            return Integer.compare(t1.getInt(f1), t2.getInt(f2));
+        Field a = t1.getField(f1), b = t2.getField(f2);
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    /** @return whether t2 of child2 is not below the run of t1 */
+    private boolean aboveStart(Tuple t1, Tuple t2) {
+        int c = compare(t1, t2);
+        return p.getOperator() == Predicate.Op.LESS_THAN ? c < 0 : c <= 0;
+    }
+
+    /** @return whether t2 of child2 is not above the run of t1 */
+    private boolean belowEnd(Tuple t1, Tuple t2) {
+        int c = compare(t1, t2);
+        return p.getOperator() == Predicate.Op.GREATER_THAN ? c > 0 : c >= 0;
+    }
+
+    /** Reads the next tuple of child2 into the buffer, if there is one. */
+    private boolean read() throws DbException, TransactionAbortedException {
+        if (!inner.hasNext())
+            return false;
+        buffer.add(inner.next().materialize());
+        return true;
+    }
+
+    /** Moves the run to that of t, the next tuple of child1. */
+    private void advance(Tuple t) throws DbException, TransactionAbortedException {
+        if (lowerBound) {
+            while (true) {
+                if (lo == buffer.size()) {
+                    // everything kept is below the run
+                    buffer.clear();
+                    lo = hi = 0;
+                    if (!read())
+                        break;
+                }
+                if (aboveStart(t, buffer.get(lo)))
+                    break;
+                lo++;
+            }
+            if (lo > buffer.size() / 2) {
+                buffer.subList(0, lo).clear();
+                hi = Math.max(hi - lo, 0);
+                lo = 0;
+            }
+            hi = Math.max(hi, lo);
+        }
+        while (hi < buffer.size() || read()) {
+            if (upperBound && !belowEnd(t, buffer.get(hi)))
+                break;
+            hi++;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples: the concatenation of a tuple of child1 and one of child2
+     * that satisfy the join predicate, as by {@link Join}.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (current == null || at == hi) {
+            if (!outer.hasNext())
+                return null;
+            current = outer.next();
+            advance(current);
+            at = lo;
+        }
+        return CompactTuple.concat(getTupleDesc(), current, buffer.get(at++));
+    }
+
+    @Override
+    public DbIterator[] getChildren() {
+        return new DbIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(DbIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        this.td = null;
+    }
+}
@@ -0,0 +1,156 @@
+package simpledb;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.NoSuchElementException;
+
+/**
+ * A temporary file of tuples of one schema, which an operator writes rows
+ * to when they do not fit in its memory budget and reads back later, as
+ * HashEquiJoin does with the partitions it spills. Rows are written one
+ * after the other with Field.serialize and are read back, in the same
+ * order, through {@link #reader}.
+ */
+final class SpillFile {
+
+    private final File file;
+    private final TupleDesc td;
+    private DataOutputStream out;
+    private long rows;
+
+    /** Creates an empty spill file in dir. */
+    SpillFile(File dir, TupleDesc td) throws DbException {
+        this.td = td;
+        try {
+            this.file = File.createTempFile("spill", ".dat", dir);
+            this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+        } catch (IOException e) {
+            throw new DbException("cannot create a spill file in " + dir + ": " + e.getMessage());
+        }
+    }
+
+    /** @return the number of rows written */
+    long size() {
+        return rows;
+    }
+
+    /** Appends t as a row. */
+    void add(Tuple t) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    out.writeInt(t.getInt(i));
+                else
+                    t.getField(i).serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file " + file + ": " + e.getMessage());
+        }
+        rows++;
+    }
+
+    /** Appends row r of b as a row. */
+    void add(TupleBatch b, int r) throws DbException {
+        try {
+            for (int i = 0; i < td.numFields(); i++) {
+                int[] column = b.ints(i);
+                if (column != null)
+                    out.writeInt(column[r]);
+                else
+                    b.fields(i)[r].serialize(out);
+            }
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file " + file + ": " + e.getMessage());
+        }
+        rows++;
+    }
+
+    /**
+     * Finishes writing the file; no more rows can be added.
+     *
+     * @return an iterator over the rows of the file, in the order they were
+     *         added
+     */
+    DbIterator reader() throws DbException {
+        try {
+            if (out != null)
+                out.close();
+            out = null;
+        } catch (IOException e) {
+            throw new DbException("cannot write spill file " + file + ": " + e.getMessage());
+        }
+        return new Reader();
+    }
+
+    /** Closes and removes the file. */
+    void delete() {
+        try {
+            if (out != null)
+                out.close();
+        } catch (IOException e) {
+            // the file goes away anyway
+        }
+        out = null;
+        file.delete();
+    }
+
+    private class Reader implements DbIterator {
+
+        private static final long serialVersionUID = 1L;
+
+        private transient DataInputStream in;
+        private long read;
+
+        public void open() throws DbException {
+            try {
+                in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            } catch (IOException e) {
+                throw new DbException("cannot read spill file " + file + ": " + e.getMessage());
+            }
+            read = 0;
+        }
+
+        public boolean hasNext() {
+            if (in == null)
+                throw new IllegalStateException("spill file reader not open");
+            return read < rows;
+        }
+
+        public Tuple next() throws DbException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            CompactTuple t = new CompactTuple(td);
+            try {
+                for (int i = 0; i < td.numFields(); i++) {
+                    if (td.getFieldType(i) == Type.INT_TYPE)
+                        t.setInt(i, in.readInt());
+                    else
+                        t.setField(i, td.getFieldType(i).parse(in));
+                }
+            } catch (IOException | ParseException e) {
+                throw new DbException("cannot read spill file " + file + ": " + e.getMessage());
+            }
+            read++;
+            return t;
+        }
+
+        public void rewind() throws DbException {
+            close();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        public void close() {
+            try {
+                if (in != null)
+                    in.close();
+            } catch (IOException e) {
+                // nothing was written through it
+            }
+            in = null;
+        }
+    }
+}
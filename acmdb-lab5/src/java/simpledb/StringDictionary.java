@@ -0,0 +1,175 @@
+package simpledb;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * StringDictionary maps the strings of a table to small integer codes, so
+ * that its pages can store a 4-byte code instead of Type.STRING_LEN + 4
+ * bytes per string. Codes are handed out in the order strings are first
+ * seen and never change or go away.
+ * <p>
+ * Each code has one {@link DictStringField}, built when the code is, which
+ * pages hand out for it: reading an encoded string allocates nothing, and
+ * two fields of the same dictionary are equal exactly when their codes are.
+ * <p>
+ * The dictionary is kept in a file of its own, next to the table, as the
+ * strings in code order, each written with DataOutput.writeUTF. New strings
+ * are appended as they are encoded and made durable by {@link #force}.
+ *
+ * @see DictHeapFile
+ */
+public class StringDictionary {
+
+    private final File file;
+    private final HashMap<String, Integer> codes = new HashMap<String, Integer>();
+    // fields[code] for every code; only ever grows, and is replaced when it does
+    private volatile DictStringField[] fields = new DictStringField[16];
+    private int size;
+    private DataOutputStream out;
+    private FileOutputStream stream;
+    private boolean unforced;
+
+    /**
+     * Opens the dictionary stored in f, which need not exist yet. An entry
+     * that was cut short by a crash is dropped.
+     */
+    public StringDictionary(File f) {
+        this.file = f;
+        long valid = 0;
+        if (f.exists()) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(f)))) {
+                while (true) {
+                    String s = in.readUTF();
+                    add(s);
+                    valid += 2 + utfLength(s);
+                }
+            } catch (EOFException e) {
+                // the end of the dictionary, or a torn last entry
+            } catch (IOException e) {
+                throw new RuntimeException("cannot read dictionary " + f, e);
+            }
+        }
+        try {
+            if (f.exists() && f.length() > valid) {
+                try (RandomAccessFile raf = new RandomAccessFile(f, "rw")) {
+                    raf.setLength(valid);
+                }
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("cannot repair dictionary " + f, e);
+        }
+    }
+
+    /** @return the number of bytes writeUTF takes for the characters of s */
+    private static int utfLength(String s) {
+        int len = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            len += c >= 0x0001 && c <= 0x007F ? 1 : c > 0x07FF ? 3 : 2;
+        }
+        return len;
+    }
+
+    private int add(String s) {
+        int code = size++;
+        DictStringField[] f = fields;
+        if (code == f.length)
+            f = Arrays.copyOf(f, code * 2);
+        f[code] = new DictStringField(s, this, code);
+        fields = f;
+        codes.put(s, code);
+        return code;
+    }
+
+    /** @return the number of strings in the dictionary */
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * @return the code of s, cut to Type.STRING_LEN characters as a
+     *         StringField would be, adding it to the dictionary if it is new
+     */
+    public synchronized int encode(String s) {
+        if (s.length() > Type.STRING_LEN)
+            s = s.substring(0, Type.STRING_LEN);
+        Integer code = codes.get(s);
+        if (code != null)
+            return code;
+        try {
+            if (out == null) {
+                stream = new FileOutputStream(file, true);
+                out = new DataOutputStream(new BufferedOutputStream(stream));
+            }
+            out.writeUTF(s);
+            unforced = true;
+        } catch (IOException e) {
+            throw new RuntimeException("cannot write dictionary " + file, e);
+        }
+        return add(s);
+    }
+
+    /** @return the code of field f, adding its string if it is new */
+    public int encode(Field f) {
+        if (f instanceof DictStringField && ((DictStringField) f).getDictionary() == this)
+            return ((DictStringField) f).getCode();
+        return encode(((StringField) f).getValue());
+    }
+
+    /** @return the code of s, or -1 if s is not in the dictionary */
+    public synchronized int lookup(String s) {
+        Integer code = codes.get(s);
+        return code == null ? -1 : code;
+    }
+
+    /**
+     * @return the field of a code this dictionary handed out
+     * @throws IllegalArgumentException if there is no such code
+     */
+    public StringField field(int code) {
+        DictStringField[] f = fields;
+        if (code < 0 || code >= f.length || f[code] == null)
+            throw new IllegalArgumentException("no string with code " + code + " in " + file);
+        return f[code];
+    }
+
+    /**
+     * Writes the strings added since the last call to the storage device.
+     * A table forces its dictionary before the pages that use a new code
+     * can be committed.
+     */
+    public synchronized void force() throws IOException {
+        if (!unforced)
+            return;
+        if (out != null) {
+            out.flush();
+            stream.getChannel().force(false);
+        } else {
+            // closed since the strings were written
+            try (FileOutputStream s = new FileOutputStream(file, true)) {
+                s.getChannel().force(false);
+            }
+        }
+        unforced = false;
+    }
+
+    /**
+     * Hands the strings added so far to the OS and closes the file,
+     * releasing its descriptor. The next new string opens it again, and
+     * {@link #force} still forces the strings written before.
+     */
+    public synchronized void close() {
+        if (out == null)
+            return;
+        try {
+            out.close();
+        } catch (IOException e) {
+            throw new RuntimeException("cannot write dictionary " + file, e);
+        } finally {
+            out = null;
+            stream = null;
+        }
+    }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Instance of Field that stores a single String of a fixed length.
@@ -66,6 +67,20 @@ public class StringField implements Field {
 			dos.write((byte) 0);
 	}
 
+	/**
+	 * Write this string into buf at offset, in the same format as
+	 * {@link #serialize(DataOutputStream)}.
+	 */
+	public void serialize(ByteBuffer buf, int offset) {
+		int len = Math.min(value.length(), maxSize);
+		buf.putInt(offset, len);
+		offset += 4;
+		for (int i = 0; i < len; i++)
+			buf.put(offset + i, (byte) value.charAt(i));
+		for (int i = len; i < maxSize; i++)
+			buf.put(offset + i, (byte) 0);
+	}
+
 	/**
 	 * Compare the specified field to the value of this Field. Return semantics
 	 * are as specified by Field.compare
@@ -105,6 +120,42 @@ public class StringField implements Field {
 		return false;
 	}
 
+	/**
+	 * Compares the string stored at offset of buf, in the format written by
+	 * {@link #serialize(ByteBuffer, int)}, to val, with the same result as
+	 * decoding it and calling {@link #compare}. ASCII strings are compared
+	 * byte by byte; others are decoded.
+	 */
+	static boolean compare(ByteBuffer buf, int offset, Predicate.Op op, StringField val) {
+		int len = Math.max(0, Math.min(buf.getInt(offset), Type.STRING_LEN));
+		int start = offset + 4;
+		for (int i = 0; i < len; i++)
+			if (buf.get(start + i) < 0)
+				return Type.STRING_TYPE.parse(buf, offset).compare(op, val);
+
+		String s = val.value;
+		if (op == Predicate.Op.LIKE) {
+			search: for (int i = 0; i + s.length() <= len; i++) {
+				for (int j = 0; j < s.length(); j++)
+					if (buf.get(start + i + j) != s.charAt(j))
+						continue search;
+				return true;
+			}
+			return false;
+		}
+
+		// as String.compareTo
+		int cmpVal = len - s.length();
+		for (int i = 0, n = Math.min(len, s.length()); i < n; i++) {
+			int d = buf.get(start + i) - s.charAt(i);
+			if (d != 0) {
+				cmpVal = d;
+				break;
+			}
+		}
+		return IntField.compare(cmpVal, op, 0);
+	}
+
 	/**
 	 * @return the Type for this Field
 	 */
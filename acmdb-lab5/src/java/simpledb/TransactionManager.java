@@ -1,6 +1,7 @@
 package simpledb;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class TransactionManager
 {
@@ -8,11 +9,13 @@ public class TransactionManager
         private final PageId pageid;
         private final Set<TransactionId> readLocks;
         private final Set<TransactionId> writeLocks;
-        public Lock(PageId pageid) 
+        private boolean retired;
+        public Lock(PageId pageid)
         {
             this.pageid = pageid;
             readLocks = new HashSet<TransactionId>();
-            writeLocks = new HashSet<TransactionId>();        
+            writeLocks = new HashSet<TransactionId>();
+            retired = false;
         }
 
         public PageId getPageId() { return pageid; }
@@ -26,7 +29,7 @@ public class TransactionManager
             }
             return false;
         }
-        
+
         public synchronized boolean acquireWriteLock(TransactionId tid) {
             if (readLocks.size() > 1) return false;
             if (writeLocks.contains(tid)) return true;
@@ -35,93 +38,149 @@ public class TransactionManager
                 writeLocks.add(tid);
                 return true;
             }
-            return false;            
+            return false;
+        }
+
+        public synchronized boolean isFree() {
+            return readLocks.isEmpty() && writeLocks.isEmpty();
         }
     }
 
-    private final HashMap<PageId, Lock> lockMap;
-    private final HashMap<TransactionId, HashSet<Lock>> tMap;    
+    /*
+     * Both maps are concurrent so that acquiring a lock only synchronizes on
+     * the Lock object of the requested page. A Lock is removed from lockMap
+     * once nobody holds it; it is marked retired first so that a thread which
+     * looked it up concurrently retries with the fresh instance.
+     */
+    private final ConcurrentHashMap<PageId, Lock> lockMap;
+    private final ConcurrentHashMap<TransactionId, Set<Lock>> tMap;
     public static final Random Rng = new Random();
 
     public TransactionManager()
     {
-        tMap = new HashMap<>();
-        lockMap = new HashMap<>();
+        tMap = new ConcurrentHashMap<>();
+        lockMap = new ConcurrentHashMap<>();
     }
 
-    public synchronized void acquire(TransactionId tid, PageId pid, Permissions perm)
+    public void acquire(TransactionId tid, PageId pid, Permissions perm)
         throws TransactionAbortedException
     {
-        if (!lockMap.containsKey(pid))
-            lockMap.put(pid, new Lock(pid));
-        if (!tMap.containsKey(tid))
-            tMap.put(tid, new HashSet<Lock>());
+        Set<Lock> held = tMap.get(tid);
+        if (held == null)
+            held = tMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet());
 
-        Lock lock = lockMap.get(pid);
-        tMap.get(tid).add(lock);
-        
         long start = System.currentTimeMillis();
-        if (perm == Permissions.READ_ONLY) 
-            while (!lock.acquireReadLock(tid)) timeCheck(start);
-        else 
-            while (!lock.acquireWriteLock(tid)) timeCheck(start);
+        long limit = 1000 + Rng.nextInt(1000);
+        while (true) {
+            Lock lock = lockMap.get(pid);
+            if (lock == null)
+                lock = lockMap.computeIfAbsent(pid, k -> new Lock(k));
+
+            synchronized (lock) {
+                while (!lock.retired) {
+                    boolean acquired = perm == Permissions.READ_ONLY
+                        ? lock.acquireReadLock(tid) : lock.acquireWriteLock(tid);
+                    if (acquired) {
+                        held.add(lock);
+                        return;
+                    }
+                    timeCheck(lock, start, limit);
+                }
+            }
+        }
+    }
 
-        lockMap.put(pid, lock);
+    /**
+     * Takes the lock only if that is possible right away.
+     *
+     * @return true if tid now holds the lock
+     */
+    public boolean tryAcquire(TransactionId tid, PageId pid, Permissions perm)
+    {
+        Set<Lock> held = tMap.computeIfAbsent(tid, k -> ConcurrentHashMap.newKeySet());
+        Lock lock = lockMap.computeIfAbsent(pid, k -> new Lock(k));
+        synchronized (lock) {
+            if (lock.retired)
+                return false;
+            boolean acquired = perm == Permissions.READ_ONLY
+                ? lock.acquireReadLock(tid) : lock.acquireWriteLock(tid);
+            if (acquired)
+                held.add(lock);
+            return acquired;
+        }
     }
 
-    private void timeCheck(long start) throws TransactionAbortedException {
-        long limit = 1000 + Rng.nextInt(1000);
-        if (System.currentTimeMillis() - start > limit) 
-            throw new TransactionAbortedException();                
-        try { wait(50); }
+    private void timeCheck(Lock lock, long start, long limit) throws TransactionAbortedException {
+        if (System.currentTimeMillis() - start > limit)
+            throw new TransactionAbortedException();
+        try { lock.wait(50); }
         catch (Exception e) { throw new TransactionAbortedException(); }
     }
 
-    public synchronized void release(TransactionId tid, PageId pid)
+    public void release(TransactionId tid, PageId pid)
     {
-        if (tMap.containsKey(tid) && lockMap.containsKey(pid)) {
-            Lock lock = lockMap.get(pid);
-            if (lock.getWriteLocks().contains(tid)) {
-                lock.getWriteLocks().remove(tid);
-                lock.getReadLocks().remove(tid);
-                tMap.get(tid).remove(lock);
-                lockMap.remove(pid);
-            } else if (lock.getReadLocks().contains(tid)) {
-                lock.getReadLocks().remove(tid);
-                if (lock.getReadLocks().isEmpty()) {
-                    lockMap.remove(pid);
-                    tMap.get(tid).remove(lock);
-                }
+        Set<Lock> held = tMap.get(tid);
+        Lock lock = lockMap.get(pid);
+        if (held == null || lock == null)
+            return;
+
+        synchronized (lock) {
+            lock.getWriteLocks().remove(tid);
+            lock.getReadLocks().remove(tid);
+            held.remove(lock);
+            if (lock.isFree()) {
+                lock.retired = true;
+                lockMap.remove(pid, lock);
             }
+            lock.notifyAll();
         }
-        notifyAll();
     }
 
-    public synchronized void release(TransactionId tid)
+    public void release(TransactionId tid)
     {
-        if (tMap.containsKey(tid)) {
-            Set<PageId> pageIds = new HashSet<PageId>();
-            for (Lock lock : tMap.get(tid))
-                pageIds.add(lock.getPageId());
-            for (PageId pid : pageIds)
-                release(tid, pid);            
+        Set<Lock> held = tMap.get(tid);
+        if (held != null) {
+            for (Lock lock : new ArrayList<Lock>(held))
+                release(tid, lock.getPageId());
             tMap.remove(tid);
         }
-        notifyAll();
     }
 
-    public synchronized Set<PageId> getDirtyPages(TransactionId tid)
+    public Set<PageId> getDirtyPages(TransactionId tid)
     {
         Set<PageId> pageIds = new HashSet<PageId>();
-        if (tMap.containsKey(tid))
-            for (Lock lock : tMap.get(tid))
-                if (lock.getWriteLocks().contains(tid))
-                    pageIds.add(lock.getPageId()); 
+        Set<Lock> held = tMap.get(tid);
+        if (held != null)
+            for (Lock lock : held)
+                synchronized (lock) {
+                    if (lock.getWriteLocks().contains(tid))
+                        pageIds.add(lock.getPageId());
+                }
         return pageIds;
     }
 
-    public synchronized boolean holdsLock(TransactionId tid)
+    public boolean isWriteLocked(PageId pid)
+    {
+        Lock lock = lockMap.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return !lock.getWriteLocks().isEmpty();
+        }
+    }
+
+    public boolean holdsLock(TransactionId tid)
     {
         return tMap.containsKey(tid);
     }
+
+    public boolean holdsLock(TransactionId tid, PageId pid)
+    {
+        Lock lock = lockMap.get(pid);
+        if (lock == null)
+            return false;
+        synchronized (lock) {
+            return lock.getReadLocks().contains(tid) || lock.getWriteLocks().contains(tid);
+        }
+    }
 }
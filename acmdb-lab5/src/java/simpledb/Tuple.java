@@ -29,6 +29,15 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Create a tuple without a field array, for subclasses that read their
+     * fields from somewhere else.
+     */
+    Tuple(TupleDesc td, RecordId rid) {
+        this.tupleDesc = td;
+        this.recordId = rid;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -76,6 +85,56 @@ public class Tuple implements Serializable {
         return fields[i];
     }
 
+    /**
+     * Returns the value of the ith field, which must be of Type.INT_TYPE and
+     * set. Tuples that keep their ints unboxed, and views of a page, return
+     * it without allocating an IntField; operators that know a field is an
+     * int should read it through this method.
+     *
+     * @param i
+     *            index of an int field. Must be a valid index.
+     */
+    public int getInt(int i) {
+        return ((IntField) getField(i)).getValue();
+    }
+
+    /**
+     * Compares the ith field of this tuple to value, with the same result as
+     * getField(i).compare(op, value). A tuple that is a view of a page
+     * compares the stored bytes without decoding the field.
+     *
+     * @see Field#compare
+     */
+    public boolean compareField(int i, Predicate.Op op, Field value) {
+        return getField(i).compare(op, value);
+    }
+
+    /**
+     * Tuples handed out by a page iterator may be views that read their
+     * fields from the page, and so keep the page in memory and see later
+     * changes to its slot. A caller that keeps tuples past the scan that
+     * produced them should keep the result of this method instead.
+     *
+     * @return a tuple with the schema, record id and fields of this one that
+     *         does not depend on any page; this tuple if it is not a view
+     */
+    public Tuple materialize() {
+        return this;
+    }
+
+    /**
+     * @param td the schema of the result, {@code getTupleDesc().project(fields)}
+     * @return a tuple with field fields[i] of this one as its field i, and
+     *         the record id of this one
+     */
+    Tuple project(TupleDesc td, int[] fields) {
+        Tuple t = new Tuple(td);
+        t.setRecordId(getRecordId());
+        for (int i = 0; i < fields.length; i++)
+            t.setField(i, getField(fields[i]));
+        return t;
+    }
+
     /**
      * Returns the contents of this Tuple as a string. Note that to pass the
      * system tests, the format needs to be as follows:
@@ -86,10 +145,11 @@ public class Tuple implements Serializable {
      */
     public String toString() {
         StringBuffer str = new StringBuffer();
-        for (int i = 0; i < fields.length - 1; i++) 
-            str.append(fields[i].toString() + "\t");
+        int n = tupleDesc.numFields();
+        for (int i = 0; i < n - 1; i++) 
+            str.append(getField(i).toString() + "\t");
         
-        str.append(fields[fields.length - 1].toString() + "\n");
+        str.append(getField(n - 1).toString() + "\n");
         return str.toString();
     }
 
@@ -104,12 +164,12 @@ public class Tuple implements Serializable {
  
             @Override
             public boolean hasNext() {
-                return fields.length > i;
+                return tupleDesc.numFields() > i;
             }
  
             @Override
             public Field next() {
-                return fields[i++];
+                return getField(i++);
             }
         };
 
@@ -0,0 +1,261 @@
+package simpledb;
+
+/**
+ * TupleBatch holds up to {@link #capacity} rows of a schema column by
+ * column, for operators that run a batch at a time through
+ * {@link DbIterator#nextBatch}. An int column is an int[]; a column of any
+ * other type is a Field[]. A batch has no record ids.
+ * <p>
+ * Only the rows in the batch's selection are part of it: an operator such
+ * as Filter drops rows by narrowing the selection rather than by copying
+ * the rows that remain. The selection lists row indexes in increasing
+ * order; {@link #row} maps the kth selected row to its index in the
+ * columns. Until a selection is set, every row is selected.
+ * <p>
+ * A batch returned by nextBatch belongs to the operator that returned it,
+ * which refills it on its next call. The consumer may narrow its
+ * selection but must not otherwise change it, and must copy out (e.g. with
+ * {@link #tuple}) any row it keeps past that call.
+ */
+public class TupleBatch {
+
+    /** The number of rows operators put in a batch; a power of two. */
+    public static final int DEFAULT_SIZE = 2048;
+
+    private final TupleDesc td;
+    private final int capacity;
+    // ints[i] holds int column i, fields[i] any other column i
+    private final int[][] ints;
+    private final Field[][] fields;
+    private int size;
+    // the selected rows, or null if every row is
+    private int[] sel;
+    private int selected;
+
+    /**
+     * Creates an empty batch with room for capacity rows of td.
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this(td, capacity, true);
+    }
+
+    /**
+     * Creates a batch without columns of its own, to be pointed at those of
+     * another batch with {@link #project}.
+     */
+    TupleBatch(TupleDesc td) {
+        this(td, 0, false);
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, boolean allocate) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = new int[td.numFields()][];
+        this.fields = new Field[td.numFields()][];
+        if (allocate) {
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    ints[i] = new int[capacity];
+                else
+                    fields[i] = new Field[capacity];
+            }
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /** @return the number of rows the batch has room for */
+    public int capacity() {
+        return capacity;
+    }
+
+    /** @return the number of rows in the columns, selected or not */
+    public int size() {
+        return size;
+    }
+
+    public boolean isFull() {
+        return size == capacity;
+    }
+
+    /** @return the number of selected rows */
+    public int numSelected() {
+        return sel == null ? size : selected;
+    }
+
+    /** @return the index in the columns of the kth selected row */
+    public int row(int k) {
+        return sel == null ? k : sel[k];
+    }
+
+    /** Removes every row and resets the selection. */
+    public void clear() {
+        size = 0;
+        sel = null;
+    }
+
+    /**
+     * @return the selection, for an operator to narrow it in place: entries
+     *         0 to numSelected() - 1 are the selected rows. Followed by
+     *         {@link #setSelected}.
+     */
+    int[] selection() {
+        if (sel == null) {
+            sel = new int[Math.max(capacity, size)];
+            for (int k = 0; k < size; k++)
+                sel[k] = k;
+            selected = size;
+        }
+        return sel;
+    }
+
+    /** Selects the first n rows listed in {@link #selection}. */
+    void setSelected(int n) {
+        selected = n;
+    }
+
+    /** @return int column i, indexed by row */
+    int[] ints(int i) {
+        return ints[i];
+    }
+
+    /** @return column i, of a type other than int, indexed by row */
+    Field[] fields(int i) {
+        return fields[i];
+    }
+
+    /** @return field i of row, which must be an int field */
+    public int getInt(int i, int row) {
+        return ints[i][row];
+    }
+
+    /** @return field i of row; a new IntField for an int field */
+    public Field getField(int i, int row) {
+        return ints[i] != null ? new IntField(ints[i][row]) : fields[i][row];
+    }
+
+    /** @return a tuple with the fields of row */
+    public Tuple tuple(int row) {
+        CompactTuple t = new CompactTuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                t.setInt(i, ints[i][row]);
+            else
+                t.setField(i, fields[i][row]);
+        }
+        return t;
+    }
+
+    /**
+     * Appends a row for the caller to fill in through the columns. The
+     * batch must not be full.
+     *
+     * @return the index of the row
+     */
+    int addRow() {
+        return size++;
+    }
+
+    /**
+     * Appends the fields of t as a row. The batch must not be full.
+     */
+    public void add(Tuple t) {
+        add(t, null);
+    }
+
+    /**
+     * Appends fields columns[0], columns[1], ... of t as a row, or all of
+     * its fields if columns is null. The batch must not be full.
+     */
+    void add(Tuple t, int[] columns) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++) {
+            int c = columns == null ? i : columns[i];
+            if (ints[i] != null)
+                ints[i][row] = t.getInt(c);
+            else
+                fields[i][row] = t.getField(c);
+        }
+    }
+
+    /**
+     * Appends a copy of row r of b, which has the same schema, as a row.
+     */
+    void add(TupleBatch b, int r) {
+        int row = addRow();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][row] = b.ints[i][r];
+            else
+                fields[i][row] = b.fields[i][r];
+        }
+    }
+
+    /**
+     * Appends the concatenation of row ra of a and row rb of b as a row, as
+     * a join outputs.
+     */
+    void addJoined(TupleBatch a, int ra, TupleBatch b, int rb) {
+        int row = addRow();
+        int n = a.ints.length;
+        for (int i = 0; i < ints.length; i++) {
+            TupleBatch from = i < n ? a : b;
+            int c = i < n ? i : i - n, r = i < n ? ra : rb;
+            if (ints[i] != null)
+                ints[i][row] = from.ints[c][r];
+            else
+                fields[i][row] = from.fields[c][r];
+        }
+    }
+
+    /**
+     * Appends the concatenation of t and row r of batch b as a row, as a
+     * join outputs.
+     */
+    void addJoined(Tuple t, TupleBatch b, int r) {
+        int row = addRow();
+        int n = t.getTupleDesc().numFields();
+        for (int i = 0; i < n; i++) {
+            if (ints[i] != null)
+                ints[i][row] = t.getInt(i);
+            else
+                fields[i][row] = t.getField(i);
+        }
+        for (int i = n; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][row] = b.ints[i - n][r];
+            else
+                fields[i][row] = b.fields[i - n][r];
+        }
+    }
+
+    /**
+     * Points this batch at columns columns[0], columns[1], ... and at the
+     * rows and selection of b, without copying them. This batch is then
+     * valid for as long as b is.
+     */
+    void project(TupleBatch b, int[] columns) {
+        for (int i = 0; i < columns.length; i++) {
+            ints[i] = b.ints[columns[i]];
+            fields[i] = b.fields[columns[i]];
+        }
+        size = b.size;
+        sel = b.sel;
+        selected = b.selected;
+    }
+
+    /**
+     * Fills the batch with the next tuples of it, for iterators that do not
+     * produce batches themselves.
+     *
+     * @return this batch, or null if it had no more tuples
+     */
+    TupleBatch fill(DbIterator it) throws DbException, TransactionAbortedException {
+        clear();
+        while (!isFull() && it.hasNext())
+            add(it.next());
+        return size == 0 ? null : this;
+    }
+}
@@ -57,6 +57,8 @@ public class TupleDesc implements Serializable {
     }
 
     private TDItem[] TDItems;
+    /** offsets[i] is where field i starts in a stored tuple; the last entry is the size */
+    private int[] offsets;
 
     /**
      * @return
@@ -98,8 +100,12 @@ public class TupleDesc implements Serializable {
         int length = Math.min(typeAr.length, fieldAr.length);
         TDItems = new TDItem [length];
 
-        for (int i = 0; i < length; i++) 
+        offsets = new int [length + 1];
+
+        for (int i = 0; i < length; i++) {
             TDItems[i] = new TDItem (typeAr[i], fieldAr[i]);
+            offsets[i + 1] = offsets[i] + typeAr[i].getLen();
+        }
     }
 
     /**
@@ -179,10 +185,14 @@ public class TupleDesc implements Serializable {
      *         Note that tuples from a given TupleDesc are of a fixed size.
      */
     public int getSize() {
-        int size = 0;
-        for (TDItem tdItem : TDItems)
-            size += tdItem.fieldType.getLen();
-        return size;
+        return offsets[TDItems.length];
+    }
+
+    /**
+     * @return the offset of the ith field from the start of a stored tuple
+     */
+    int getOffset(int i) {
+        return offsets[i];
     }
 
     /**
@@ -214,6 +224,21 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(typeAr, fieldAr);
     }
 
+    /**
+     * @param fields
+     *            the indexes of the fields to keep, in the order to keep them
+     * @return a TupleDesc with the given fields of this one
+     */
+    public TupleDesc project(int[] fields) {
+        Type[] typeAr = new Type [fields.length];
+        String[] fieldAr = new String [fields.length];
+        for (int i = 0; i < fields.length; ++i) {
+            typeAr[i] = TDItems[fields[i]].fieldType;
+            fieldAr[i] = TDItems[fields[i]].fieldName;
+        }
+        return new TupleDesc(typeAr, fieldAr);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they are the same size and if the n-th
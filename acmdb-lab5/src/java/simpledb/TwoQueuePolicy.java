@@ -0,0 +1,96 @@
+package simpledb;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * TwoQueuePolicy implements the full 2Q replacement algorithm (Johnson and
+ * Shasha).
+ * <p>
+ * A page read for the first time enters A1in, a FIFO holding about a
+ * quarter of the pool. When it is evicted from there its id is remembered
+ * in A1out, a FIFO of ids of recently evicted pages. Only a page that is
+ * read again while in A1out is considered hot and enters Am, an LRU list
+ * for the rest of the pool. Hits on pages in A1in do not promote them, so a
+ * scan that touches every page once only ever cycles through A1in and
+ * cannot flush the hot pages kept in Am.
+ */
+public class TwoQueuePolicy implements ReplacementPolicy {
+
+    private final int kin;
+    private final int kout;
+
+    // iteration order is eviction order: oldest first
+    private final LinkedHashSet<PageId> a1in;
+    private final LinkedHashSet<PageId> a1out;
+    private final LinkedHashSet<PageId> am;
+
+    /**
+     * Creates a 2Q policy for a pool of numFrames pages, with A1in sized to
+     * 25% of the pool and A1out remembering 50% of the pool, as recommended
+     * by the paper.
+     *
+     * @param numFrames the capacity of the BufferPool
+     */
+    public TwoQueuePolicy(int numFrames) {
+        this.kin = Math.max(1, numFrames / 4);
+        this.kout = Math.max(1, numFrames / 2);
+        this.a1in = new LinkedHashSet<>();
+        this.a1out = new LinkedHashSet<>();
+        this.am = new LinkedHashSet<>();
+    }
+
+    public synchronized void recordAccess(PageId pid) {
+        if (am.remove(pid))
+            am.add(pid);
+    }
+
+    public synchronized void recordInsert(PageId pid) {
+        if (a1in.contains(pid))
+            return;
+        if (am.remove(pid) || a1out.remove(pid))
+            am.add(pid);
+        else
+            a1in.add(pid);
+    }
+
+    public synchronized void recordRemove(PageId pid) {
+        if (!a1in.remove(pid))
+            am.remove(pid);
+    }
+
+    /**
+     * Evicts from the head of A1in while it is over its share of the pool,
+     * otherwise from the LRU end of Am. If the preferred queue has no
+     * evictable page, the other one is tried.
+     */
+    public synchronized PageId chooseVictim(Predicate<PageId> canEvict) {
+        PageId victim = null;
+        if (a1in.size() > kin || am.isEmpty()) {
+            victim = first(a1in, canEvict);
+            if (victim == null)
+                victim = first(am, canEvict);
+        } else {
+            victim = first(am, canEvict);
+            if (victim == null)
+                victim = first(a1in, canEvict);
+        }
+
+        if (victim != null && a1in.contains(victim)) {
+            a1out.add(victim);
+            if (a1out.size() > kout) {
+                Iterator<PageId> it = a1out.iterator();
+                it.next();
+                it.remove();
+            }
+        }
+        return victim;
+    }
+
+    private static PageId first(Collection<PageId> queue, Predicate<PageId> canEvict) {
+        for (PageId pid : queue)
+            if (canEvict.test(pid))
+                return pid;
+        return null;
+    }
+}
@@ -2,6 +2,7 @@ package simpledb;
 
 import java.text.ParseException;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * Class representing a type in SimpleDB.
@@ -24,6 +25,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            return new IntField(buf.getInt(offset));
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field value) {
+            return IntField.compare(buf.getInt(offset), op, ((IntField) value).getValue());
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -42,6 +53,20 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf, int offset) {
+            int strLen = Math.max(0, Math.min(buf.getInt(offset), STRING_LEN));
+            byte bs[] = new byte[strLen];
+            for (int i = 0; i < strLen; i++)
+                bs[i] = buf.get(offset + 4 + i);
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field value) {
+            return StringField.compare(buf, offset, op, (StringField) value);
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -60,4 +85,21 @@ public enum Type implements Serializable {
    */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+  /**
+   * @return a Field object of the same type as this object that has contents
+   *   read from buf, starting at the given absolute offset. The position of
+   *   buf is not changed.
+   * @param buf The buffer to read from
+   * @param offset The index of the first byte of the field
+   */
+    public abstract Field parse(ByteBuffer buf, int offset);
+
+  /**
+   * Compares the field stored at offset of buf to value, with the same
+   * result as parse(buf, offset).compare(op, value), but without creating
+   * a Field where it can be avoided. The position of buf is not changed.
+   * @see Field#compare
+   */
+    public abstract boolean compare(ByteBuffer buf, int offset, Predicate.Op op, Field value);
+
 }
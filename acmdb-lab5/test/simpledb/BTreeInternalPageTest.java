@@ -8,11 +8,13 @@ import simpledb.systemtest.SystemTestUtil;
 
 //import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 import org.junit.Before;
 import org.junit.Test;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
@@ -313,6 +315,43 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage.getPageData(ByteBuffer), which encodes the page
+	 * in place, at the buffer's position
+	 */
+	@Test public void getPageDataIntoBuffer() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertArrayEquals(EXAMPLE_DATA, page.getPageData());
+		page.deleteKeyAndRightChild(page.iterator().next());
+
+		ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 10);
+		buf.position(10);
+		page.getPageData(buf);
+		assertEquals(buf.capacity(), buf.position());
+		byte[] data = new byte[BufferPool.getPageSize()];
+		buf.position(10);
+		buf.get(data);
+		assertArrayEquals(page.getPageData(), data);
+	}
+
+	/**
+	 * Unit test for BTreeInternalPage.getBeforeImage(): the before-image is the page
+	 * as it was read, or as it was when setBeforeImage() was last called
+	 */
+	@Test public void beforeImage() throws Exception {
+		BTreeInternalPage page = new BTreeInternalPage(pid, EXAMPLE_DATA, 0);
+		assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+		page.deleteKeyAndRightChild(page.iterator().next());
+		assertArrayEquals(EXAMPLE_DATA, page.getBeforeImage().getPageData());
+
+		page.setBeforeImage();
+		byte[] committed = page.getPageData();
+		assertArrayEquals(committed, page.getBeforeImage().getPageData());
+		page.deleteKeyAndRightChild(page.iterator().next());
+		assertArrayEquals(committed, page.getBeforeImage().getPageData());
+		assertFalse(Arrays.equals(committed, page.getPageData()));
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,160 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BufferPoolConcurrencyTest extends TestUtil.CreateHeapFile {
+
+    // class that counts and slows down page reads
+    class CountingHeapFile extends HeapFile {
+        final AtomicInteger reads = new AtomicInteger();
+
+        public CountingHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads.incrementAndGet();
+            try {
+                Thread.sleep(50);
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            return super.readPage(pid);
+        }
+    }
+
+    private CountingHeapFile counting;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1025; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        counting = new CountingHeapFile(empty.getFile(), empty.getTupleDesc());
+        Database.getCatalog().addTable(counting, "counting");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+    }
+
+    /**
+     * Many transactions missing on the same page at once should share a
+     * single readPage call and all see the same Page object.
+     */
+    @Test public void coalesceConcurrentMisses() throws Exception {
+        final int threads = 8;
+        final PageId pid = new HeapPageId(counting.getId(), 1);
+        final CyclicBarrier barrier = new CyclicBarrier(threads);
+        final Page[] seen = new Page[threads];
+        final Exception[] errors = new Exception[threads];
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+
+        for (int i = 0; i < threads; i++) {
+            final int id = i;
+            Thread t = new Thread() {
+                public void run() {
+                    try {
+                        barrier.await();
+                        seen[id] = Database.getBufferPool().getPage(new TransactionId(), pid, Permissions.READ_ONLY);
+                    } catch (Exception e) {
+                        errors[id] = e;
+                    }
+                }
+            };
+            t.start();
+            workers.add(t);
+        }
+        for (Thread t : workers)
+            t.join();
+
+        for (int i = 0; i < threads; i++) {
+            assertNull(errors[i]);
+            assertSame(seen[0], seen[i]);
+        }
+        assertEquals(1, counting.reads.get());
+    }
+
+    /**
+     * Once cached, a page is served without touching the file again, and
+     * different pages are loaded independently.
+     */
+    @Test public void hitsDoNotReadPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int round = 0; round < 3; round++)
+            for (int i = 0; i < counting.numPages(); i++)
+                Database.getBufferPool().getPage(tid, new HeapPageId(counting.getId(), i), Permissions.READ_ONLY);
+        assertEquals(counting.numPages(), counting.reads.get());
+        assertEquals(counting.numPages(), Database.getBufferPool().getMissCount());
+        assertEquals(2 * counting.numPages(), Database.getBufferPool().getHitCount());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * A sequential scan prefetches the pages ahead of it: it sees all tuples,
+     * misses on fewer pages than it reads, and no page is read twice.
+     */
+    @Test public void readAheadOnSequentialScan() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 10 * 504, null, tuples);
+        CountingHeapFile slow = new CountingHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(slow, "slow");
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool bp = Database.getBufferPool();
+
+        SystemTestUtil.matchTuples(slow, tuples);
+        assertEquals(slow.numPages(), slow.reads.get());
+        assertTrue(bp.getReadAheadCount() > 0);
+        assertTrue(bp.getMissCount() < slow.numPages());
+    }
+
+    @Test public void readAheadCanBeDisabled() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 4 * 504, null, tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        BufferPool bp = Database.getBufferPool();
+        bp.setMaxReadAhead(0);
+
+        SystemTestUtil.matchTuples(f, tuples);
+        assertEquals(0, bp.getReadAheadCount());
+        assertEquals(f.numPages(), bp.getMissCount());
+    }
+
+    /**
+     * Prefetching never replaces a cached page, in particular one that a
+     * transaction has locked and modified.
+     */
+    @Test public void prefetchKeepsCachedPage() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        PageId pid = new HeapPageId(counting.getId(), 0);
+        HeapPage page = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+        page.markDirty(true, tid);
+
+        assertFalse(bp.prefetch(pid, null));
+        assertSame(page, bp.getPage(tid, pid, Permissions.READ_WRITE));
+        bp.transactionComplete(tid, false);
+
+        // once discarded, the page can be prefetched again
+        assertTrue(bp.prefetch(pid, null));
+        for (int i = 0; i < 100 && bp.getReadAheadCount() == 0; i++)
+            Thread.sleep(10);
+        assertEquals(1, bp.getReadAheadCount());
+        assertEquals(2, counting.reads.get());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolConcurrencyTest.class);
+    }
+}
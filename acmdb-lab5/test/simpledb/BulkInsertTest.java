@@ -0,0 +1,163 @@
+package simpledb;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class BulkInsertTest extends SimpleDbTestBase {
+    private HeapFile empty;
+    private ArrayList<ArrayList<Integer>> tuples;
+    private int nextValue;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        tuples = new ArrayList<ArrayList<Integer>>();
+        // a single empty page
+        empty = createTable(0);
+        nextValue = 0;
+    }
+
+    private HeapFile createTable(int rows) throws Exception {
+        return SystemTestUtil.createRandomHeapFile(2, rows, null, tuples);
+    }
+
+    /** @return n new tuples, which are also added to tuples */
+    private ArrayList<Tuple> newTuples(int n) {
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int i = 0; i < n; i++, nextValue++) {
+            Tuple t = Utility.getHeapTuple(new int[] { nextValue, -nextValue });
+            batch.add(t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        return batch;
+    }
+
+    private int cachedPages(HeapFile f) {
+        int n = 0;
+        for (int p = 0; p < f.numPages(); p++)
+            if (Database.getBufferPool().isCached(new HeapPageId(f.getId(), p)))
+                n++;
+        return n;
+    }
+
+    /** A table without tuples is loaded straight to disk, with no page images logged. */
+    @Test public void emptyTableIsNotLogged() throws Exception {
+        int records = Database.getLogFile().getTotalRecords();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, empty.getId(), newTuples(3000).iterator());
+        // 504 tuples per page, after the empty page, which is left alone
+        assertEquals(7, empty.numPages());
+        assertEquals(1, cachedPages(empty));
+        Database.getBufferPool().transactionComplete(tid);
+        // BULK_LOAD and COMMIT
+        assertEquals(records + 2, Database.getLogFile().getTotalRecords());
+        SystemTestUtil.matchTuples(empty, tuples);
+    }
+
+    @Test public void nonEmptyTableIsLogged() throws Exception {
+        HeapFile table = createTable(700);
+        int records = Database.getLogFile().getTotalRecords();
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, table.getId(), newTuples(3000).iterator());
+        assertEquals(8, table.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        // one UPDATE per page but the first, then the COMMIT
+        assertEquals(records + 8, Database.getLogFile().getTotalRecords());
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    @Test public void batchesTopUpTheLastPage() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, empty.getId(), newTuples(300).iterator());
+        Database.getBufferPool().insertTuples(tid, empty.getId(), newTuples(300).iterator());
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(empty, tuples);
+        assertEquals(0, empty.getFreeSpaceMap().find(0));
+        assertEquals(2, empty.getFreeSpaceMap().find(1));
+    }
+
+    @Test public void abortCutsOffLoadedPages() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, empty.getId(), newTuples(300).iterator());
+        Database.getBufferPool().insertTuples(tid, empty.getId(), newTuples(3000).iterator());
+        Database.getBufferPool().transactionComplete(tid, false);
+        assertEquals(1, empty.numPages());
+        SystemTestUtil.matchTuples(empty, new ArrayList<ArrayList<Integer>>());
+
+        // the table can be loaded again
+        tuples.clear();
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, empty.getId(), newTuples(600).iterator());
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(empty, tuples);
+    }
+
+    /**
+     * A table whose tuples were all deleted is loaded after its empty
+     * pages, and a scan reads past all of them.
+     */
+    @Test public void loadAfterDeletingEverything() throws Exception {
+        HeapFile table = createTable(1000);
+        assertEquals(2, table.numPages());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        tuples.clear();
+        tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, table.getId(), newTuples(1000).iterator());
+        assertEquals(4, table.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(table, tuples);
+    }
+
+    /** A bulk load holds the table's write lock, so scans have to wait. */
+    @Test(expected = TransactionAbortedException.class)
+    public void bulkLoadLocksTable() throws Exception {
+        TransactionId loader = new TransactionId();
+        Database.getBufferPool().insertTuples(loader, empty.getId(), newTuples(10).iterator());
+        TransactionId reader = new TransactionId();
+        try {
+            empty.iterator(reader).open();
+        } finally {
+            Database.getBufferPool().transactionComplete(reader);
+            Database.getBufferPool().transactionComplete(loader);
+        }
+    }
+
+    /** Large inserts through the Insert operator take the bulk path. */
+    @Test public void insertOperatorLoadsInBulk() throws Exception {
+        ArrayList<ArrayList<Integer>> sourceTuples = tuples;
+        HeapFile source = createTable(2 * Insert.BULK_THRESHOLD);
+        tuples = new ArrayList<ArrayList<Integer>>();
+        int records = Database.getLogFile().getTotalRecords();
+
+        TransactionId tid = new TransactionId();
+        Insert insert = new Insert(tid, new SeqScan(tid, source.getId(), ""), empty.getId());
+        insert.open();
+        assertEquals(2 * Insert.BULK_THRESHOLD, ((IntField) insert.next().getField(0)).getValue());
+        insert.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        assertEquals(records + 2, Database.getLogFile().getTotalRecords());
+        SystemTestUtil.matchTuples(empty, sourceTuples);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BulkInsertTest.class);
+    }
+}
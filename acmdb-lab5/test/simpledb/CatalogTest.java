@@ -2,6 +2,9 @@ package simpledb;
 
 import static org.junit.Assert.assertEquals;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.nio.file.Files;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -93,6 +96,67 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /** A SkeletonFile that counts how many times it is closed. */
+    private static class ClosingFile extends SkeletonFile {
+        int closes;
+
+        ClosingFile(int tableid) {
+            super(tableid, Utility.getTupleDesc(2));
+        }
+
+        @Override public void close() {
+            closes++;
+        }
+    }
+
+    /**
+     * Check that a table's file is closed when another table replaces it
+     * or the catalog is cleared
+     */
+    @Test public void droppedTablesAreClosed() throws Exception {
+        String newName = SystemTestUtil.getUUID();
+        ClosingFile a = new ClosingFile(r.nextInt()), b = new ClosingFile(r.nextInt());
+        Database.getCatalog().addTable(a, newName);
+        // adding the same file again keeps it open
+        Database.getCatalog().addTable(a, newName);
+        assertEquals(0, a.closes);
+        Database.getCatalog().addTable(b, newName);
+        assertEquals(1, a.closes);
+        ClosingFile c = new ClosingFile(b.getId());
+        Database.getCatalog().addTable(c, SystemTestUtil.getUUID());
+        assertEquals(1, b.closes);
+        Database.getCatalog().clear();
+        assertEquals(1, c.closes);
+        assertEquals(1, a.closes);
+    }
+
+    /**
+     * Check that a schema line chooses the page format of its table
+     */
+    @Test public void loadSchemaFormats() throws Exception {
+        File dir = Files.createTempDirectory("catalog").toFile();
+        dir.deleteOnExit();
+        File schema = new File(dir, "test.schema");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("fixed (a int pk, b string)\n");
+            w.write("slotted (a int, b string) slotted\n");
+            w.write("columns (a int, b int) pax\n");
+            w.write("encoded (a int, b string) dict\n");
+        }
+        Database.getCatalog().loadSchema(schema.getPath());
+        DbFile fixed = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("fixed"));
+        DbFile slotted = Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId("slotted"));
+        assertEquals(HeapFile.class, fixed.getClass());
+        assertEquals(SlottedHeapFile.class, slotted.getClass());
+        assertEquals(PaxHeapFile.class, Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("columns")).getClass());
+        assertEquals(DictHeapFile.class, Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("encoded")).getClass());
+        assertEquals("a", Database.getCatalog().getPrimaryKey(fixed.getId()));
+        assertEquals(Type.STRING_TYPE, slotted.getTupleDesc().getFieldType(1));
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,62 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+
+public class ClockPolicyTest {
+    private HeapPageId[] pids;
+    private ClockPolicy policy;
+
+    @Before public void setUp() {
+        pids = new HeapPageId[4];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = new HeapPageId(1, i);
+        policy = new ClockPolicy(pids.length);
+        for (HeapPageId pid : pids)
+            policy.recordInsert(pid);
+    }
+
+    /**
+     * Once the hand has cleared every bit, a page that is referenced again
+     * gets a second chance and an untouched one is chosen instead.
+     */
+    @Test public void secondChance() {
+        assertEquals(pids[0], policy.chooseVictim(pid -> true));
+        policy.recordRemove(pids[0]);
+
+        policy.recordAccess(pids[1]);
+        assertEquals(pids[2], policy.chooseVictim(pid -> true));
+    }
+
+    @Test public void skipsPagesThatCannotBeEvicted() {
+        assertEquals(pids[3], policy.chooseVictim(pid -> pid.equals(pids[3])));
+        assertNull(policy.chooseVictim(pid -> false));
+    }
+
+    @Test public void reusesFreedFrames() {
+        policy.recordRemove(pids[2]);
+        HeapPageId fresh = new HeapPageId(1, 10);
+        policy.recordInsert(fresh);
+
+        // every page is evictable; the fresh one is found among them
+        boolean found = false;
+        for (int i = 0; i < pids.length; i++) {
+            PageId victim = policy.chooseVictim(pid -> true);
+            assertNotNull(victim);
+            found |= victim.equals(fresh);
+            policy.recordRemove(victim);
+        }
+        assertTrue(found);
+        assertNull(policy.chooseVictim(pid -> true));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ClockPolicyTest.class);
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class DictHeapFileTest extends SimpleDbTestBase {
+    private static final String[] NAMES = { "VLDB", "SIGMOD", "ICDE", "", "Universität" };
+
+    private TupleDesc td;
+    private File file;
+
+    @Before public void setUp() throws Exception {
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        file = HeapFile.createTempFile("dict");
+        new File(file.getPath() + ".dict").deleteOnExit();
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(NAMES[i % NAMES.length], Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    private DictHeapFile open() {
+        DictHeapFile f = new DictHeapFile(file, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static ArrayList<Tuple> scan(HeapFile f) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            result.add(it.next().materialize());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    /** Codes are handed out in order, kept on disk, and a torn last entry is dropped. */
+    @Test public void dictionaryIsPersistent() throws Exception {
+        File f = new File(file.getPath() + ".dict");
+        StringDictionary dict = new StringDictionary(f);
+        for (int i = 0; i < NAMES.length; i++)
+            assertEquals(i, dict.encode(NAMES[i]));
+        assertEquals(1, dict.encode(new StringField("SIGMOD", Type.STRING_LEN)));
+        assertEquals(NAMES.length, dict.size());
+        dict.force();
+
+        try (FileOutputStream out = new FileOutputStream(f, true)) {
+            out.write(new byte[] { 0, 10, 'x' });
+        }
+        dict = new StringDictionary(f);
+        assertEquals(NAMES.length, dict.size());
+        for (int i = 0; i < NAMES.length; i++) {
+            assertEquals(i, dict.lookup(NAMES[i]));
+            assertEquals(NAMES[i], dict.field(i).getValue());
+        }
+        assertEquals(-1, dict.lookup("PODS"));
+        assertEquals(NAMES.length, dict.encode("PODS"));
+    }
+
+    /** A closed dictionary opens its file again for new strings, which can still be forced. */
+    @Test public void closedDictionary() throws Exception {
+        File f = new File(file.getPath() + ".dict");
+        StringDictionary dict = new StringDictionary(f);
+        assertEquals(0, dict.encode(NAMES[0]));
+        dict.close();
+        dict.force();
+        assertEquals(1, dict.encode(NAMES[1]));
+        dict.close();
+        dict.close();
+        assertEquals(2, new StringDictionary(f).size());
+    }
+
+    /** Fields of a dictionary are shared, compared by code, and equal to plain StringFields. */
+    @Test public void fieldsCompareByCode() throws Exception {
+        StringDictionary dict = new StringDictionary(new File(file.getPath() + ".dict"));
+        StringField vldb = dict.field(dict.encode("VLDB"));
+        StringField icde = dict.field(dict.encode("ICDE"));
+        StringField plain = new StringField("VLDB", Type.STRING_LEN);
+        assertSame(vldb, dict.field(dict.encode(plain)));
+        assertEquals(plain, vldb);
+        assertEquals(vldb, plain);
+        assertEquals(plain.hashCode(), vldb.hashCode());
+        assertFalse(vldb.equals(icde));
+        assertTrue(vldb.compare(Predicate.Op.NOT_EQUALS, icde));
+        assertTrue(vldb.compare(Predicate.Op.GREATER_THAN, icde));
+        assertTrue(vldb.compare(Predicate.Op.EQUALS, plain));
+        assertTrue(vldb.compare(Predicate.Op.LIKE, new StringField("LD", Type.STRING_LEN)));
+    }
+
+    /** A page stores codes, so it has many more slots than a HeapPage. */
+    @Test public void pagesStoreCodes() throws Exception {
+        DictHeapFile f = open();
+        HeapPageId pid = new HeapPageId(f.getId(), 0);
+        DictHeapPage page = new DictHeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        assertEquals(BufferPool.getPageSize() * 8 / (12 * 8 + 1), slots);
+        for (int i = 0; i < slots; i++)
+            page.insertTuple(tuple(i));
+        assertEquals(NAMES.length, f.getDictionary().size());
+
+        page = new DictHeapPage(pid, page.getPageData());
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < slots; i++) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(tuple(i), t));
+            assertSame(f.getDictionary().field(i % NAMES.length), t.getField(1));
+            assertTrue(t.compareField(1, Predicate.Op.EQUALS, tuple(i).getField(1)));
+        }
+
+        page.deleteTuple(page.iterator().next());
+        assertEquals(1, page.getNumEmptySlots());
+        assertTrue(TestUtil.compareTuples(tuple(0), page.getBeforeImage().iterator().next()));
+    }
+
+    /** The table reads back the same after it is reopened, e.g. after a restart. */
+    @Test public void reopenedTable() throws Exception {
+        DictHeapFile f = open();
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++)
+            rows.add(tuple(i));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, f.getId(), rows.iterator());
+        Tuple extra = tuple(1000);
+        extra.setField(1, new StringField("PODS", Type.STRING_LEN));
+        Database.getBufferPool().insertTuple(tid, f.getId(), extra);
+        rows.add(extra);
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f = open();
+        assertEquals(NAMES.length + 1, f.getDictionary().size());
+        ArrayList<Tuple> read = scan(f);
+        assertEquals(rows.size(), read.size());
+        for (int i = 0; i < rows.size(); i++)
+            assertTrue(TestUtil.compareTuples(rows.get(i), read.get(i)));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(DictHeapFileTest.class);
+    }
+}
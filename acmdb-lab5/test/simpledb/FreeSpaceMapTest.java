@@ -0,0 +1,162 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class FreeSpaceMapTest extends SimpleDbTestBase {
+    private HeapFile f;
+    private File fsmFile;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // four full pages
+        f = SystemTestUtil.createRandomHeapFile(2, 4 * 504, null, null);
+        fsmFile = new File(f.getFile().getPath() + ".fsm");
+    }
+
+    private Tuple tupleOn(int pageNo, TransactionId tid) throws Exception {
+        HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid,
+                new HeapPageId(f.getId(), pageNo), Permissions.READ_ONLY);
+        return page.iterator().next();
+    }
+
+    private int insert(TransactionId tid) throws Exception {
+        Tuple t = Utility.getHeapTuple(new int[] { 1, 2 });
+        Database.getBufferPool().insertTuple(tid, f.getId(), t);
+        return t.getRecordId().getPageId().pageNumber();
+    }
+
+    @Test public void fullTableAppends() throws Exception {
+        FreeSpaceMap map = f.getFreeSpaceMap();
+        assertEquals(-1, map.find(0));
+        TransactionId tid = new TransactionId();
+        assertEquals(4, insert(tid));
+        assertEquals(4, map.find(0));
+        assertEquals(4, insert(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void insertGoesToFreedSlot() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, tupleOn(2, tid));
+        assertEquals(2, f.getFreeSpaceMap().find(0));
+        assertEquals(2, insert(tid));
+        // the page is full again, which the next insert finds out
+        assertEquals(2, f.getFreeSpaceMap().find(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(4, insert(tid));
+        assertEquals(4, f.getFreeSpaceMap().find(0));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Inserts do not lock the full pages they skip. */
+    @Test public void fullPagesAreNotLocked() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, tupleOn(3, tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(3, insert(tid));
+        for (int p = 0; p < 3; p++)
+            assertFalse(Database.getBufferPool().holdsLock(tid, new HeapPageId(f.getId(), p)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A page whose fill is rolled back keeps its bit. */
+    @Test public void abortedFillKeepsRoom() throws Exception {
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().deleteTuple(tid, tupleOn(1, tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1, insert(tid));
+        assertEquals(4, insert(tid));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(1, insert(tid));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void mapIsPersistent() throws Exception {
+        TransactionId tid = new TransactionId();
+        // not committed, so page 2 is still full on disk
+        Database.getBufferPool().deleteTuple(tid, tupleOn(2, tid));
+
+        HeapFile reopened = new HeapFile(f.getFile(), f.getTupleDesc());
+        assertEquals(2, reopened.getFreeSpaceMap().find(0));
+        // rebuilding reads the pages on disk
+        reopened.getFreeSpaceMap().invalidate();
+        assertEquals(-1, new HeapFile(f.getFile(), f.getTupleDesc()).getFreeSpaceMap().find(0));
+        Database.getBufferPool().transactionComplete(tid, false);
+    }
+
+    @Test public void pagesAppendedElsewhereMayHaveRoom() throws Exception {
+        assertEquals(-1, f.getFreeSpaceMap().find(0));
+        f.writePage(new HeapPage(new HeapPageId(f.getId(), 4), HeapPage.createEmptyPageData()));
+        assertEquals(4, f.getFreeSpaceMap().find(0));
+        assertEquals(-1, f.getFreeSpaceMap().find(5));
+    }
+
+    @Test public void manyInserts() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile empty = SystemTestUtil.createRandomHeapFile(2, 0, null, tuples);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 3 * 504; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, empty.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(3, empty.numPages());
+        SystemTestUtil.matchTuples(empty, tuples);
+    }
+
+    /** Inserts into a temporary table and exits, for noMapLeftBehind. */
+    public static class TempTable {
+        public static void main(String[] args) throws Exception {
+            HeapFile table = SystemTestUtil.createRandomHeapFile(2, 10, null, null);
+            TransactionId tid = new TransactionId();
+            Database.getBufferPool().insertTuple(tid, table.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+            Database.getBufferPool().transactionComplete(tid);
+            if (!new File(table.getFile().getPath() + ".fsm").exists())
+                System.exit(2);
+        }
+    }
+
+    /** The map of a temporary table is deleted with it when the JVM exits. */
+    @Test public void noMapLeftBehind() throws Exception {
+        File dir = java.nio.file.Files.createTempDirectory("fsmtest").toFile();
+        StringBuilder cp = new StringBuilder();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator))
+            cp.append(cp.length() > 0 ? File.pathSeparator : "").append(new File(entry).getAbsolutePath());
+        Process child = new ProcessBuilder(new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-Djava.io.tmpdir=" + dir.getPath(), "-cp", cp.toString(), TempTable.class.getName())
+                .directory(dir).inheritIO().start();
+        assertTrue(child.waitFor(60, TimeUnit.SECONDS));
+        assertEquals(0, child.exitValue());
+        for (File f : dir.listFiles()) {
+            assertFalse(f.getName(), f.getName().endsWith(".fsm"));
+            f.delete();
+        }
+        dir.delete();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+    }
+}
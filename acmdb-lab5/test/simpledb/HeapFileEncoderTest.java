@@ -0,0 +1,116 @@
+package simpledb;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    private static File tempFile(String suffix) throws IOException {
+        File f = File.createTempFile("encoder", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    private static File textFile(String text) throws IOException {
+        File f = tempFile(".txt");
+        try (FileWriter w = new FileWriter(f)) {
+            w.write(text);
+        }
+        return f;
+    }
+
+    /** @return the tuples of a converted file, as strings */
+    private static ArrayList<String> read(File dat) throws Exception {
+        HeapFile f = new HeapFile(dat, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        ArrayList<String> rows = new ArrayList<String>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            rows.add(it.next().toString().trim());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private static File convert(File txt, int threads, int chunkBytes) throws IOException {
+        File dat = tempFile(".dat");
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), TYPES.length, TYPES, ',',
+                threads, chunkBytes);
+        return dat;
+    }
+
+    /** Chunks of any size and any number of workers give the same file. */
+    @Test public void chunksAndWorkersDoNotChangeTheFile() throws Exception {
+        Random r = new Random(7);
+        StringBuilder text = new StringBuilder();
+        ArrayList<String> expected = new ArrayList<String>();
+        for (int i = 0; i < 1000; i++) {
+            int a = r.nextInt(), b = r.nextInt(100);
+            char[] s = new char[r.nextInt(20)];
+            Arrays.fill(s, (char) ('a' + r.nextInt(26)));
+            text.append(a).append(',').append(s).append(',').append(b).append('\n');
+            expected.add(a + "\t" + new String(s) + "\t" + b);
+        }
+        File txt = textFile(text.toString());
+
+        File serial = convert(txt, 1, HeapFileEncoder.CHUNK_BYTES);
+        assertEquals(expected, read(serial));
+        byte[] bytes = TestUtil.readFileBytes(serial.getAbsolutePath());
+        // 29 records of 4 + 132 + 4 bytes per page
+        assertEquals(35 * BufferPool.getPageSize(), bytes.length);
+        for (int chunk : new int[] { 8, 100, 4096, 50000 })
+            for (int threads : new int[] { 1, 4 })
+                assertArrayEquals("chunk " + chunk + ", " + threads + " threads", bytes,
+                        TestUtil.readFileBytes(convert(txt, threads, chunk).getAbsolutePath()));
+    }
+
+    @Test public void blankLinesAndCarriageReturns() throws Exception {
+        File txt = textFile("\n1, one ,2\r\n\r\n\n3,three,4");
+        assertEquals(Arrays.asList("1\tone\t2", "3\tthree\t4"), read(convert(txt, 4, 8)));
+    }
+
+    @Test public void emptyInputGivesOneEmptyPage() throws Exception {
+        File dat = convert(textFile("\n\n"), 4, 8);
+        assertEquals(BufferPool.getPageSize(), dat.length());
+        assertEquals(0, read(dat).size());
+    }
+
+    @Test public void longStringsAreCut() throws Exception {
+        char[] s = new char[Type.STRING_LEN + 10];
+        Arrays.fill(s, 'x');
+        File txt = textFile("1," + new String(s) + ",2\n");
+        assertEquals(Arrays.asList("1\t" + new String(s, 0, Type.STRING_LEN) + "\t2"),
+                read(convert(txt, 1, 8)));
+    }
+
+    @Test(expected = IOException.class)
+    public void missingFieldIsAnError() throws Exception {
+        convert(textFile("1,one,2\n3,three\n"), 4, 8);
+    }
+
+    @Test(expected = IOException.class)
+    public void extraFieldIsAnError() throws Exception {
+        convert(textFile("1,one,2,5\n"), 1, HeapFileEncoder.CHUNK_BYTES);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+    }
+}
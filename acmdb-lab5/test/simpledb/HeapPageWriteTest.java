@@ -1,9 +1,11 @@
 package simpledb;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 
@@ -126,6 +128,24 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getPageData(ByteBuffer), which copies the page
+     * to the buffer's position
+     */
+    @Test public void getPageDataIntoBuffer() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+
+        ByteBuffer buf = ByteBuffer.allocate(BufferPool.getPageSize() + 10);
+        buf.position(10);
+        page.getPageData(buf);
+        assertEquals(buf.capacity(), buf.position());
+        byte[] data = new byte[BufferPool.getPageSize()];
+        buf.position(10);
+        buf.get(data);
+        assertArrayEquals(page.getPageData(), data);
+    }
+
     /**
      * JUnit suite target
      */
@@ -0,0 +1,134 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class HybridHashJoinTest extends SimpleDbTestBase {
+
+    private File spills;
+
+    @Before public void createSpillDirectory() throws Exception {
+        spills = Files.createTempDirectory("spilltest").toFile();
+    }
+
+    @After public void deleteSpillDirectory() {
+        spills.delete();
+    }
+
+    /** @return the tuples of it as strings, sorted */
+    private static ArrayList<String> sorted(DbIterator it, boolean batches) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        if (batches) {
+            for (TupleBatch b = it.nextBatch(); b != null; b = it.nextBatch())
+                for (int k = 0; k < b.numSelected(); k++)
+                    result.add(b.tuple(b.row(k)).toString());
+        } else {
+            while (it.hasNext())
+                result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** @return a join of build and probe that may hold a tenth of build in memory */
+    private HashEquiJoin spilling(JoinPredicate p, DbIterator build, DbIterator probe, int buildRows) {
+        HashEquiJoin join = new HashEquiJoin(p, build, probe);
+        join.setMemoryBudget((long) buildRows * build.getTupleDesc().getSize() / 10);
+        join.setSpillDirectory(spills);
+        return join;
+    }
+
+    /** A build side of ten times the budget on an int key gives the rows an unlimited join does. */
+    @Test public void intKey() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 5000, 5000, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+        ArrayList<String> expected = sorted(new HashEquiJoin(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")), false);
+        assertTrue(expected.size() > 0);
+        for (int batches = 0; batches < 2; batches++) {
+            assertEquals(expected, sorted(spilling(p, new SeqScan(tid, f1.getId(), "a"),
+                    new SeqScan(tid, f2.getId(), "b"), 20000), batches == 1));
+            assertEquals(0, spills.list().length);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** As intKey, on a string key, which the join hashes into a HashMap. */
+    @Test public void stringKey() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        ArrayList<Tuple> build = new ArrayList<Tuple>(), probe = new ArrayList<Tuple>();
+        for (int i = 0; i < 3000; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new StringField("key" + i % 700, Type.STRING_LEN));
+            t.setField(1, new IntField(i));
+            (i < 2000 ? build : probe).add(t);
+        }
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        ArrayList<String> expected = sorted(new Join(p,
+                new TupleIterator(td, build), new TupleIterator(td, probe)), false);
+        assertTrue(expected.size() > 0);
+        for (int batches = 0; batches < 2; batches++) {
+            HashEquiJoin join = spilling(p, new TupleIterator(td, build), new TupleIterator(td, probe), 2000);
+            assertEquals(expected, sorted(join, batches == 1));
+            assertEquals(0, spills.list().length);
+        }
+    }
+
+    /**
+     * A build side that is one key can't be partitioned under the budget;
+     * the nested joins give up at HashEquiJoin.MAX_LEVEL and join it in
+     * memory.
+     */
+    @Test public void singleKey() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        ArrayList<Tuple> build = new ArrayList<Tuple>(), probe = new ArrayList<Tuple>();
+        for (int i = 0; i < 1000; i++)
+            build.add(Utility.getHeapTuple(new int[] { 7, i }));
+        for (int i = 0; i < 20; i++)
+            probe.add(Utility.getHeapTuple(new int[] { i % 2 == 0 ? 7 : 100 + i, i }));
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+        for (int batches = 0; batches < 2; batches++) {
+            HashEquiJoin join = spilling(p, new TupleIterator(td, build), new TupleIterator(td, probe), 1000);
+            assertEquals(1000 * 10, sorted(join, batches == 1).size());
+            assertEquals(0, spills.list().length);
+        }
+    }
+
+    /** The spill files are there while the join runs and are gone once it is closed early. */
+    @Test public void closeDeletesSpills() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 20000, 5000, null, null);
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = spilling(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f1.getId(), "b"), 20000);
+        join.open();
+        assertEquals(1, spills.list().length);
+        assertTrue(new File(spills, spills.list()[0]).list().length > 0);
+        for (int i = 0; i < 10; i++)
+            join.next();
+        join.close();
+        assertEquals(0, spills.list().length);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(HybridHashJoinTest.class);
+    }
+}
@@ -0,0 +1,85 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class IntJoinTableTest extends SimpleDbTestBase {
+
+    /** Rows with the same key come back in the order they were added, across batches and growth. */
+    @Test public void chains() throws Exception {
+        TupleDesc td = Utility.getTupleDesc(2);
+        IntJoinTable table = new IntJoinTable(td, 1);
+        int rows = 3 * TupleBatch.DEFAULT_SIZE + 5, keys = 1000;
+        TupleBatch b = new TupleBatch(td, 100);
+        for (int i = 0; i < rows; i++) {
+            if (b.isFull()) {
+                table.add(b);
+                b.clear();
+            }
+            b.add(Utility.getHeapTuple(new int[] { i, (i % keys) * 7919 - 5000 }));
+        }
+        table.add(b);
+        assertEquals(rows, table.size());
+
+        for (int k = 0; k < keys; k++) {
+            int expected = k;
+            for (int r = table.first(k * 7919 - 5000); r != -1; r = table.next(r)) {
+                assertEquals(expected, table.batch(r).getInt(0, IntJoinTable.offset(r)));
+                expected += keys;
+            }
+            assertTrue(expected >= rows);
+        }
+        assertEquals(-1, table.first(1));
+
+        table.clear();
+        assertEquals(0, table.size());
+        assertEquals(-1, table.first(-5000));
+    }
+
+    /** @return the tuples of it as strings, sorted */
+    private static ArrayList<String> sorted(DbIterator it, boolean batches) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        if (batches) {
+            for (TupleBatch b = it.nextBatch(); b != null; b = it.nextBatch())
+                for (int k = 0; k < b.numSelected(); k++)
+                    result.add(b.tuple(b.row(k)).toString());
+        } else {
+            while (it.hasNext())
+                result.add(it.next().toString());
+        }
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** HashEquiJoin on an int field gives the same rows as a nested loops join, in either mode. */
+    @Test public void joinMatchesNestedLoops() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(2, 3000, 500, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(3, 2000, 500, null, null);
+        TransactionId tid = new TransactionId();
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.EQUALS, 2);
+        ArrayList<String> expected = sorted(new Join(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")), false);
+        assertTrue(expected.size() > 0);
+        assertEquals(expected, sorted(new HashEquiJoin(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")), false));
+        assertEquals(expected, sorted(new HashEquiJoin(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")), true));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(IntJoinTableTest.class);
+    }
+}
@@ -36,8 +36,7 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
     public static HeapFile createDuplicateHeapFile(
             ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix)
             throws IOException {
-        File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        File temp = HeapFile.createTempFile("table");
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
     }
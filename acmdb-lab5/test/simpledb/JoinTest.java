@@ -3,6 +3,7 @@ package simpledb;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
+import java.util.ArrayList;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Before;
@@ -105,6 +106,59 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /** A TupleIterator that counts how many times it is rewound. */
+  static class CountingIterator extends TupleIterator {
+    private static final long serialVersionUID = 1L;
+    int rewinds = 0;
+
+    CountingIterator(TupleDesc td, Iterable<Tuple> tuples) {
+      super(td, tuples);
+    }
+
+    public void rewind() {
+      rewinds++;
+      super.rewind();
+    }
+  }
+
+  /**
+   * Join scans child2 once per block of child1, or only once when child2 is
+   * kept in memory, and gives the same tuples either way.
+   */
+  @Test public void blockPasses() throws Exception {
+    ArrayList<Tuple> outer = new ArrayList<Tuple>(), inner = new ArrayList<Tuple>();
+    for (int i = 0; i < 3000; i++)
+      outer.add(Utility.getHeapTuple(new int[] { i % 100, i }));
+    for (int i = 0; i < 50; i++)
+      inner.add(Utility.getHeapTuple(new int[] { i, i, i }));
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 1);
+    // 504 tuples of two int fields fit on a page, so 3000 take 6 blocks of one page
+    int[] rewinds = new int[2];
+    int[] results = new int[2];
+    for (int cache = 0; cache < 2; cache++) {
+      CountingIterator child2 = new CountingIterator(Utility.getTupleDesc(3), inner);
+      Join op = new Join(pred, new TupleIterator(Utility.getTupleDesc(2), outer), child2);
+      op.setBlockPages(1);
+      if (cache == 0)
+        op.setMemoryBudget(0);
+      op.open();
+      while (op.hasNext()) {
+        op.next();
+        results[cache]++;
+      }
+      op.close();
+      rewinds[cache] = child2.rewinds;
+    }
+    assertEquals(5, rewinds[0]);
+    assertEquals(0, rewinds[1]);
+    // each of the 100 values v of child1 appears 30 times and joins min(v, 50) tuples
+    int expected = 0;
+    for (int v = 0; v < 100; v++)
+      expected += 30 * Math.min(v, 50);
+    assertEquals(expected, results[0]);
+    assertEquals(expected, results[1]);
+  }
+
   /**
    * JUnit suite target
    */
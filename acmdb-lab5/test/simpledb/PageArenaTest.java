@@ -0,0 +1,124 @@
+package simpledb;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageArenaTest extends SimpleDbTestBase {
+
+    @Test public void allocateAndRelease() {
+        PageArena arena = new PageArena(3L * BufferPool.getPageSize() + 100);
+        assertEquals(3, arena.numFrames());
+
+        HashSet<ByteBuffer> frames = new HashSet<ByteBuffer>();
+        for (int i = 0; i < 3; i++) {
+            ByteBuffer frame = arena.allocate();
+            assertTrue(frame.isDirect());
+            assertEquals(BufferPool.getPageSize(), frame.capacity());
+            frames.add(frame);
+        }
+        assertNull(arena.allocate());
+        assertEquals(0, arena.numFreeFrames());
+
+        arena.release(frames.iterator().next());
+        assertEquals(1, arena.numFreeFrames());
+        assertNotNull(arena.allocate());
+    }
+
+    /**
+     * A HeapPage backed by a frame decodes the same tuples and, after the
+     * same updates, serializes to the same bytes as one read onto the heap.
+     * Its before-image is the frame as it was before the first update.
+     */
+    @Test public void heapPageMatchesHeapCopy() throws Exception {
+        HeapPageId pid = new HeapPageId(-1, -1);
+        Database.getCatalog().addTable(new SkeletonFile(-1, Utility.getTupleDesc(2)), SystemTestUtil.getUUID());
+
+        byte[] data = HeapPageReadTest.EXAMPLE_DATA;
+        ByteBuffer frame = ByteBuffer.allocateDirect(data.length);
+        frame.put(data);
+        HeapPage onFrame = new HeapPage(pid, frame);
+        HeapPage onHeap = new HeapPage(pid, data);
+        assertSame(frame, onFrame.getFrame());
+        assertNull(onHeap.getFrame());
+
+        Iterator<Tuple> expected = onHeap.iterator();
+        for (Iterator<Tuple> it = onFrame.iterator(); it.hasNext(); ) {
+            Tuple t = it.next();
+            assertTrue(TestUtil.compareTuples(expected.next(), t));
+            assertEquals(pid, t.getRecordId().getPageId());
+        }
+        assertFalse(expected.hasNext());
+
+        Tuple victim = onFrame.iterator().next();
+        onFrame.deleteTuple(victim);
+        onHeap.deleteTuple(onHeap.iterator().next());
+        onFrame.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        onHeap.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        assertArrayEquals(onHeap.getPageData(), onFrame.getPageData());
+        assertArrayEquals(data, onFrame.getBeforeImage().getPageData());
+
+        // a detached page keeps its contents after the frame is overwritten
+        assertSame(frame, onFrame.detachFrame());
+        assertNull(onFrame.getFrame());
+        PageArena.clear(frame, 0, frame.capacity());
+        assertArrayEquals(onHeap.getPageData(), onFrame.getPageData());
+    }
+
+    /**
+     * Scans and updates through a pool much smaller than the table, so that
+     * frames are recycled many times.
+     */
+    @Test public void heapFileThroughArenaPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, null, tuples);
+        PageArena arena = new PageArena(4L * BufferPool.getPageSize());
+        Database.resetBufferPool(new BufferPool(arena));
+        SystemTestUtil.matchTuples(f, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        SystemTestUtil.matchTuples(f, tuples);
+
+        Database.resetBufferPool(new BufferPool(new PageArena(4L * BufferPool.getPageSize())));
+        SystemTestUtil.matchTuples(f, tuples);
+    }
+
+    @Test public void btreeFileThroughArenaPool() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(2, 5000, null, tuples, 0);
+        Database.resetBufferPool(new BufferPool(new PageArena(8L * BufferPool.getPageSize())));
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 100; i++) {
+            Tuple t = BTreeUtility.getBTreeTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        Database.resetBufferPool(new BufferPool(new PageArena(8L * BufferPool.getPageSize())));
+        tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BTreeScan(tid, f.getId(), "", null), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageArenaTest.class);
+    }
+}
@@ -0,0 +1,142 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageCleanerTest extends SimpleDbTestBase {
+    private HeapFile f;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // three full pages and a partly full last one
+        f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        bp = Database.resetBufferPool(10);
+        bp.setCleanerRate(0);
+    }
+
+    /** Commits n new tuples, all of which land on the last page. */
+    private ArrayList<Integer> commitInserts(int n) throws Exception {
+        TransactionId tid = new TransactionId();
+        ArrayList<Integer> added = insert(tid, n);
+        bp.transactionComplete(tid);
+        return added;
+    }
+
+    private int value = 1;
+
+    private ArrayList<Integer> insert(TransactionId tid, int n) throws Exception {
+        ArrayList<Integer> added = new ArrayList<Integer>();
+        for (int i = 0; i < n; i++) {
+            bp.insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { -value, value }));
+            added.add(-value++);
+        }
+        return added;
+    }
+
+    /** @return true if the table file itself holds a tuple whose first field is v */
+    private boolean onDisk(int v) {
+        for (int p = 0; p < f.numPages(); p++) {
+            HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), p));
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+                if (((IntField) it.next().getField(0)).getValue() == v)
+                    return true;
+        }
+        return false;
+    }
+
+    private void awaitCleaned(long pages) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (bp.getPagesCleanedCount() < pages && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+    }
+
+    @Test public void cleanerWritesCommittedPages() throws Exception {
+        int v = commitInserts(5).get(0);
+        assertFalse(onDisk(v));
+
+        bp.setCleanerRate(BufferPool.DEFAULT_CLEANER_RATE);
+        awaitCleaned(1);
+        assertEquals(1, bp.getPagesCleanedCount());
+        assertTrue(onDisk(v));
+    }
+
+    @Test public void cleanerSkipsPagesBeingUpdated() throws Exception {
+        int v = commitInserts(5).get(0);
+        TransactionId writer = new TransactionId();
+        insert(writer, 1);
+
+        bp.setCleanerRate(BufferPool.DEFAULT_CLEANER_RATE);
+        Thread.sleep(100);
+        assertEquals(0, bp.getPagesCleanedCount());
+        assertFalse(onDisk(v));
+
+        bp.transactionComplete(writer);
+        awaitCleaned(1);
+        assertTrue(onDisk(v));
+        assertTrue(onDisk(v - 5));
+    }
+
+    @Test public void cleanedVictimsNeedNoForegroundWrite() throws Exception {
+        commitInserts(5);
+        bp.setCleanerRate(BufferPool.DEFAULT_CLEANER_RATE);
+        awaitCleaned(1);
+
+        // reading more pages than the pool holds evicts the cleaned page
+        readAll(SystemTestUtil.createRandomHeapFile(2, 10000, null, null));
+        assertEquals(0, bp.getForegroundWriteCount());
+        assertEquals(1, bp.getForegroundWritesAvoidedCount());
+    }
+
+    @Test public void evictionWritesUncleanedPages() throws Exception {
+        // eviction prefers clean pages, so leave it no other choice
+        bp = Database.resetBufferPool(1);
+        bp.setCleanerRate(0);
+        commitInserts(5);
+        // searching for free space with one page already stole pages
+        bp.resetStats();
+        readAll(SystemTestUtil.createRandomHeapFile(2, 10000, null, null));
+        assertEquals(1, bp.getForegroundWriteCount());
+        assertEquals(0, bp.getForegroundWritesAvoidedCount());
+    }
+
+    @Test public void checkpointWritesCommittedChangesOnly() throws Exception {
+        int committed = commitInserts(5).get(0);
+        TransactionId running = new TransactionId();
+        int uncommitted = insert(running, 5).get(0);
+
+        LogFile log = Database.getLogFile();
+        log.logCheckpoint();
+        assertTrue(onDisk(committed));
+        assertFalse(onDisk(uncommitted));
+        assertEquals(1, log.getCheckpointCount());
+        assertTrue(log.getCheckpointStallNanos() <= log.getCheckpointNanos());
+
+        bp.transactionComplete(running);
+        log.logCheckpoint();
+        assertTrue(onDisk(uncommitted));
+        assertEquals(2, log.getCheckpointCount());
+    }
+
+    /** Reads every page of the table, as normal accesses. */
+    private void readAll(HeapFile table) throws Exception {
+        TransactionId tid = new TransactionId();
+        for (int p = 0; p < table.numPages(); p++)
+            bp.getPage(tid, new HeapPageId(table.getId(), p), Permissions.READ_ONLY);
+        bp.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCleanerTest.class);
+    }
+}
@@ -0,0 +1,354 @@
+package simpledb;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Assume;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PageFileTest extends SimpleDbTestBase {
+    private File file;
+    private PageFile io;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        file = HeapFile.createTempFile("pagefile");
+        io = new PageFile(file);
+    }
+
+    private static byte[] filled(int n, int value) {
+        byte[] b = new byte[n];
+        Arrays.fill(b, (byte) value);
+        return b;
+    }
+
+    @Test public void writeExtendsTheFile() throws Exception {
+        assertEquals(0, io.length());
+        io.write(filled(100, 1), 0);
+        assertEquals(100, io.length());
+        io.write(filled(100, 2), 300);
+        assertEquals(400, io.length());
+        // rewriting inside the file does not change its length
+        io.write(filled(10, 3), 50);
+        assertEquals(400, io.length());
+        assertEquals(400, file.length());
+
+        assertEquals(400, io.append(filled(20, 4)));
+        assertEquals(420, io.length());
+        assertEquals(420, new PageFile(file).length());
+    }
+
+    /** @return the number of descriptors this process holds open on f */
+    private static int descriptors(File f) throws IOException {
+        int n = 0;
+        for (File fd : new File("/proc/self/fd").listFiles()) {
+            try {
+                if (Files.readSymbolicLink(fd.toPath()).equals(f.getCanonicalFile().toPath()))
+                    n++;
+            } catch (IOException e) {
+                // closed while the directory was listed
+            }
+        }
+        return n;
+    }
+
+    /** Closing releases the descriptor; the next read opens the file again. */
+    @Test public void closeReleasesTheFile() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/fd").isDirectory());
+        io.write(filled(100, 1), 0);
+        assertEquals(1, descriptors(file));
+        io.close();
+        assertEquals(0, descriptors(file));
+        byte[] b = new byte[100];
+        io.read(b, 0);
+        assertArrayEquals(filled(100, 1), b);
+        assertEquals(100, io.length());
+        io.close();
+    }
+
+    /** Clearing the catalog closes a HeapFile and its free-space map. */
+    @Test public void catalogClosesHeapFiles() throws Exception {
+        Assume.assumeTrue(new File("/proc/self/fd").isDirectory());
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, hf.getId(), Utility.getHeapTuple(new int[] { 1, 2 }));
+        Database.getBufferPool().transactionComplete(tid);
+        File fsm = new File(file.getPath() + ".fsm");
+        assertEquals(1, descriptors(file));
+        assertEquals(1, descriptors(fsm));
+        Database.getCatalog().clear();
+        assertEquals(0, descriptors(file));
+        assertEquals(0, descriptors(fsm));
+    }
+
+    @Test public void readPastTheEndIsZeroed() throws Exception {
+        io.write(filled(100, 7), 0);
+
+        byte[] buf = filled(64, 9);
+        assertEquals(36, io.read(buf, 64));
+        for (int i = 0; i < 36; i++)
+            assertEquals(7, buf[i]);
+        for (int i = 36; i < 64; i++)
+            assertEquals(0, buf[i]);
+
+        ByteBuffer frame = ByteBuffer.allocateDirect(64);
+        frame.put(filled(64, 9));
+        assertEquals(0, io.read(frame, 1000));
+        for (int i = 0; i < 64; i++)
+            assertEquals(0, frame.get(i));
+    }
+
+    @Test public void vectoredReadAndWrite() throws Exception {
+        io.write(new ByteBuffer[] { ByteBuffer.wrap(filled(100, 1)),
+                ByteBuffer.wrap(filled(50, 2)), ByteBuffer.wrap(filled(100, 3)) }, 100);
+        assertEquals(350, io.length());
+        assertEquals(350, file.length());
+
+        ByteBuffer[] bufs = { ByteBuffer.allocate(100), ByteBuffer.allocateDirect(100),
+                ByteBuffer.wrap(filled(200, 9)) };
+        assertEquals(250, io.read(bufs, 100));
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1, bufs[0].get(i));
+            assertEquals(i < 50 ? 2 : 3, bufs[1].get(i));
+        }
+        // the last 50 bytes of the file, then zeroes
+        for (int i = 0; i < 200; i++)
+            assertEquals(i < 50 ? 3 : 0, bufs[2].get(i));
+    }
+
+    @Test public void heapFilePagesGoThroughOneChannel() throws Exception {
+        HeapFile hf = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        assertEquals(0, hf.numPages());
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 2), HeapPage.createEmptyPageData());
+        page.insertTuple(Utility.getHeapTuple(new int[] { 1, 2 }));
+        hf.writePage(page);
+        assertEquals(3, hf.numPages());
+
+        HeapPage read = (HeapPage) hf.readPage(page.getId());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        // pages between the old end and the new one read as empty
+        HeapPage empty = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertEquals(page.getNumEmptySlots() + 1, empty.getNumEmptySlots());
+        assertFalse(empty.iterator().hasNext());
+    }
+
+    @Test public void mappedViewsSpanSegments() throws Exception {
+        byte[] data = new byte[5000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = (byte) (i * 31);
+        io.write(data, 0);
+
+        PageFile mapped = new PageFile(file, 1000);
+        assertNull(mapped.view(0, 100));
+        mapped.setMapped(true);
+        // pages that start just before, at and after segment boundaries
+        for (long offset : new long[] { 0, 990, 1000, 1999, 3500, 4900 }) {
+            ByteBuffer view = mapped.view(offset, 100);
+            assertTrue(view.isReadOnly());
+            assertEquals(100, view.remaining());
+            for (int i = 0; i < 100; i++)
+                assertEquals(data[(int) offset + i], view.get(i));
+        }
+        assertNull(mapped.view(4950, 100));
+    }
+
+    @Test public void mappingSeesWrites() throws Exception {
+        io.write(filled(100, 1), 0);
+        io.setMapped(true);
+        ByteBuffer view = io.view(0, 100);
+        assertEquals(1, view.get(50));
+
+        io.write(filled(10, 2), 50);
+        assertEquals(2, view.get(50));
+        // appended after the file was mapped
+        io.append(filled(100, 3));
+        assertEquals(3, io.view(100, 100).get(0));
+    }
+
+    @Test public void mappedHeapFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 2000, null, tuples);
+        hf.setMapped(true);
+        HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+        assertTrue(page.getFrame().isReadOnly());
+        SystemTestUtil.matchTuples(hf, tuples);
+
+        // updates copy the page off the mapping and reach the file as usual
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 10; i++) {
+            Tuple t = Utility.getHeapTuple(new int[] { -i, i });
+            Database.getBufferPool().insertTuple(tid, hf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Tuple victim = first(hf, tid);
+        Database.getBufferPool().deleteTuple(tid, victim);
+        tuples.remove(SystemTestUtil.tupleToList(victim));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(hf, tuples);
+    }
+
+    private static Tuple first(HeapFile hf, TransactionId tid) throws Exception {
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Tuple t = it.next();
+        it.close();
+        return t;
+    }
+
+    @Test public void mappedBTreeFile() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        BTreeFile bf = BTreeUtility.createRandomBTreeFile(2, 2000, null, tuples, 0);
+        bf.setMapped(true);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(bf, tuples);
+
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = BTreeUtility.getBTreeTuple(new int[] { i, -i });
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+            tuples.add(SystemTestUtil.tupleToList(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(bf, tuples);
+    }
+
+    /** A HeapFile that records the runs of pages it reads and writes. */
+    private static class RunHeapFile extends HeapFile {
+        final ArrayList<Integer> readRuns = new ArrayList<Integer>();
+        final ArrayList<Integer> writeRuns = new ArrayList<Integer>();
+
+        RunHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page[] readPages(PageId[] pids, ByteBuffer[] frames) {
+            readRuns.add(pids.length);
+            return super.readPages(pids, frames);
+        }
+
+        @Override
+        public void writePage(Page page) throws java.io.IOException {
+            writeRuns.add(1);
+            super.writePage(page);
+        }
+
+        @Override
+        public void writePages(java.util.List<Page> pages) throws java.io.IOException {
+            writeRuns.add(pages.size());
+            for (int i = 1; i < pages.size(); i++)
+                assertEquals(pages.get(i - 1).getId().pageNumber() + 1, pages.get(i).getId().pageNumber());
+            super.writePages(pages);
+        }
+    }
+
+    private RunHeapFile runHeapFile(ArrayList<ArrayList<Integer>> tuples) throws Exception {
+        // 20 pages
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, tuples);
+        RunHeapFile runs = new RunHeapFile(f.getFile(), f.getTupleDesc());
+        Database.getCatalog().addTable(runs, SystemTestUtil.getUUID());
+        return runs;
+    }
+
+    /**
+     * Flushing writes adjacent dirty pages with one call each run, split
+     * at gaps and at the pool's I/O limit.
+     */
+    @Test public void flushCoalescesAdjacentPages() throws Exception {
+        RunHeapFile f = runHeapFile(null);
+        BufferPool bp = Database.getBufferPool();
+        bp.setMaxIoPages(4);
+        TransactionId tid = new TransactionId();
+        // pages 0-5, 7 and 9-10, dirtied out of order
+        int[] dirty = { 9, 3, 0, 7, 5, 1, 10, 4, 2 };
+        for (int p : dirty) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), p), Permissions.READ_WRITE);
+            page.deleteTuple(page.iterator().next());
+            page.markDirty(true, tid);
+        }
+        bp.flushPages(tid);
+        assertEquals(Arrays.asList(4, 2, 1, 2), f.writeRuns);
+        bp.transactionComplete(tid);
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        for (int p : dirty) {
+            HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), p));
+            assertEquals(1, page.getNumEmptySlots());
+        }
+    }
+
+    /** Commit with FORCE writes the transaction's pages in runs too. */
+    @Test public void forceCommitCoalescesAdjacentPages() throws Exception {
+        RunHeapFile f = runHeapFile(null);
+        BufferPool bp = Database.getBufferPool();
+        bp.setForce(true);
+        TransactionId tid = new TransactionId();
+        for (int p = 8; p >= 0; p--) {
+            HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(f.getId(), p), Permissions.READ_WRITE);
+            page.deleteTuple(page.iterator().next());
+            page.markDirty(true, tid);
+        }
+        bp.transactionComplete(tid);
+        assertEquals(Arrays.asList(9), f.writeRuns);
+    }
+
+    /**
+     * A scan that misses reads the pages ahead of it in runs, and still
+     * sees every tuple.
+     */
+    @Test public void scanReadsExtents() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        RunHeapFile f = runHeapFile(tuples);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setMaxIoPages(8);
+        SystemTestUtil.matchTuples(f, tuples);
+        int pages = 0;
+        for (int run : f.readRuns) {
+            assertTrue(run <= 8);
+            pages += run;
+        }
+        assertTrue(f.readRuns.size() < pages);
+        assertTrue(pages <= f.numPages());
+
+        // one page at a time when runs are turned off
+        f.readRuns.clear();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setMaxIoPages(1);
+        SystemTestUtil.matchTuples(f, tuples);
+        assertTrue(f.readRuns.isEmpty());
+    }
+
+    /** An off-heap pool reads runs of pages straight into its frames. */
+    @Test public void scanReadsExtentsIntoArena() throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        RunHeapFile f = runHeapFile(tuples);
+        PageArena arena = new PageArena(40L * BufferPool.getPageSize());
+        Database.resetBufferPool(new BufferPool(arena));
+        SystemTestUtil.matchTuples(f, tuples);
+        assertFalse(f.readRuns.isEmpty());
+        assertEquals(40 - f.numPages(), arena.numFreeFrames());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageFileTest.class);
+    }
+}
@@ -0,0 +1,153 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PagePinningTest extends SimpleDbTestBase {
+    private HeapFile f;
+    private BufferPool bp;
+    private TransactionId tid;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // four pages
+        f = SystemTestUtil.createRandomHeapFile(2, 2000, null, null);
+        bp = Database.resetBufferPool(2);
+        tid = new TransactionId();
+    }
+
+    private HeapPageId pid(int pageNo) {
+        return new HeapPageId(f.getId(), pageNo);
+    }
+
+    @Test public void pinCounts() throws Exception {
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(2, bp.getPinCount(pid(0)));
+        bp.unpinPage(tid, pid(0));
+        assertEquals(1, bp.getPinCount(pid(0)));
+        bp.unpinPage(tid, pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+        bp.unpinPage(tid, pid(0));
+        assertEquals(0, bp.getPinCount(pid(0)));
+    }
+
+    @Test public void pinnedPageIsNotEvicted() throws Exception {
+        Page pinned = bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        for (int p = 1; p < f.numPages(); p++)
+            bp.getPage(tid, pid(p), Permissions.READ_ONLY);
+
+        bp.resetStats();
+        assertSame(pinned, bp.getPage(tid, pid(0), Permissions.READ_ONLY));
+        assertEquals(0, bp.getMissCount());
+
+        // once unpinned it is a victim like any other
+        bp.unpinPage(tid, pid(0));
+        for (int p = 1; p < f.numPages(); p++)
+            bp.getPage(tid, pid(p), Permissions.READ_ONLY);
+        bp.resetStats();
+        bp.getPage(tid, pid(0), Permissions.READ_ONLY);
+        assertEquals(1, bp.getMissCount());
+    }
+
+    @Test(expected = DbException.class)
+    public void evictionFailsWhenAllPagesArePinned() throws Exception {
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(1), Permissions.READ_ONLY);
+        bp.getPage(tid, pid(2), Permissions.READ_ONLY);
+    }
+
+    @Test public void transactionCompleteReleasesPins() throws Exception {
+        TransactionId other = new TransactionId();
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(tid, pid(0), Permissions.READ_ONLY);
+        bp.pinPage(other, pid(0), Permissions.READ_ONLY);
+        assertEquals(3, bp.getPinCount(pid(0)));
+
+        bp.transactionComplete(tid);
+        assertEquals(1, bp.getPinCount(pid(0)));
+        bp.transactionComplete(other);
+        assertEquals(0, bp.getPinCount(pid(0)));
+    }
+
+    @Test public void heapFileScanPinsItsCurrentPage() throws Exception {
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        assertEquals(1, bp.getPinCount(pid(0)));
+
+        // the tuples of the first page, and the first of the second
+        int n = 0;
+        while (bp.getPinCount(pid(0)) > 0) {
+            it.next();
+            n++;
+        }
+        assertTrue(n > 1);
+        assertEquals(1, bp.getPinCount(pid(1)));
+
+        while (it.hasNext())
+            it.next();
+        for (int p = 0; p < f.numPages(); p++)
+            assertEquals(0, bp.getPinCount(pid(p)));
+
+        it.rewind();
+        assertEquals(1, bp.getPinCount(pid(0)));
+        it.close();
+        assertEquals(0, bp.getPinCount(pid(0)));
+    }
+
+    @Test public void scanOfTableLargerThanPool() throws Exception {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, 10000, null, null);
+        bp = Database.resetBufferPool(4);
+        DbFileIterator it = big.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        assertEquals(10000, n);
+    }
+
+    @Test public void bTreeIteratorsPinTheirLeaf() throws Exception {
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 2000, null, null, 0);
+        bp = Database.resetBufferPool(50);
+
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        assertEquals(1, pinnedPages(index));
+        while (it.hasNext())
+            it.next();
+        assertEquals(0, pinnedPages(index));
+        it.close();
+
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0));
+        it = index.indexIterator(tid, ipred);
+        it.open();
+        it.next();
+        assertEquals(1, pinnedPages(index));
+        it.close();
+        assertEquals(0, pinnedPages(index));
+    }
+
+    /** @return the number of pinned pages of a B+ tree */
+    private int pinnedPages(BTreeFile index) {
+        int pinned = 0;
+        for (int p = 1; p <= index.numPages(); p++)
+            if (bp.getPinCount(new BTreePageId(index.getId(), p, BTreePageId.LEAF)) > 0)
+                pinned++;
+        return pinned;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PagePinningTest.class);
+    }
+}
@@ -0,0 +1,141 @@
+package simpledb;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class PaxHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before public void addTable() throws Exception {
+        pid = new HeapPageId(-4, 0);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE },
+                new String[] { "a", "b", "c" });
+        Database.getCatalog().addTable(new SkeletonFile(-4, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    /** Each field is stored in its own run of bytes, one value per slot. */
+    @Test public void columnLayout() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        int slots = page.getNumEmptySlots();
+        assertEquals(new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots(), slots);
+        for (int i = 0; i < slots; i++)
+            page.insertTuple(tuple(i));
+        assertFalse(page.hasRoom());
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        int header = (slots + 7) / 8;
+        int strings = header + slots * 4, last = header + slots * (4 + Type.STRING_TYPE.getLen());
+        for (int i = 0; i < slots; i++) {
+            assertEquals(i, data.getInt(header + i * 4));
+            assertEquals(new StringField("s" + i, Type.STRING_LEN),
+                    Type.STRING_TYPE.parse(data, strings + i * Type.STRING_TYPE.getLen()));
+            assertEquals(-i, data.getInt(last + i * 4));
+        }
+
+        // read back through a fresh page, also one field at a time
+        page = new PaxHeapPage(pid, page.getPageData());
+        Iterator<Tuple> all = page.iterator();
+        Iterator<Tuple> some = page.iterator(new int[] { 2, 0 });
+        for (int i = 0; i < slots; i++) {
+            Tuple t = all.next();
+            assertTrue(TestUtil.compareTuples(tuple(i), t));
+            Tuple u = some.next();
+            assertEquals(2, u.getTupleDesc().numFields());
+            assertEquals("c", u.getTupleDesc().getFieldName(0));
+            assertEquals(new IntField(-i), u.getField(0));
+            assertEquals(new IntField(i), u.getField(1));
+            assertEquals(t.getRecordId(), u.getRecordId());
+        }
+        assertFalse(some.hasNext());
+    }
+
+    @Test public void deleteAndUpdate() throws Exception {
+        PaxHeapPage page = new PaxHeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < 5; i++)
+            page.insertTuple(tuple(i));
+        byte[] before = page.getPageData();
+
+        Iterator<Tuple> it = page.iterator();
+        it.next();
+        Tuple deleted = it.next();
+        page.deleteTuple(deleted);
+        assertTrue(TestUtil.compareTuples(tuple(1), deleted));
+        Tuple updated = tuple(30);
+        updated.setRecordId(new RecordId(pid, 3));
+        page.updateTuple(updated);
+
+        ArrayList<Tuple> read = new ArrayList<Tuple>();
+        for (it = page.iterator(); it.hasNext(); )
+            read.add(it.next());
+        assertEquals(4, read.size());
+        assertTrue(TestUtil.compareTuples(tuple(0), read.get(0)));
+        assertTrue(TestUtil.compareTuples(tuple(2), read.get(1)));
+        assertTrue(TestUtil.compareTuples(tuple(30), read.get(2)));
+        assertTrue(TestUtil.compareTuples(tuple(4), read.get(3)));
+
+        // the before-image is a page of the same format
+        page = new PaxHeapPage(pid, before);
+        page.deleteTuple(page.iterator().next());
+        PaxHeapPage image = page.getBeforeImage();
+        assertArrayEquals(before, image.getPageData());
+        assertTrue(TestUtil.compareTuples(tuple(0), image.iterator().next()));
+    }
+
+    /** A PAX table and a HeapFile give the same results to full and field scans. */
+    @Test public void scanFields() throws Exception {
+        File f = HeapFile.createTempFile("pax");
+        PaxHeapFile pax = new PaxHeapFile(f, td);
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 200; i++)
+            rows.add(tuple(i));
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, pax.getId(), rows.iterator());
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        SeqScan full = new SeqScan(tid, pax.getId(), "t");
+        full.open();
+        for (Tuple expected : rows)
+            assertTrue(TestUtil.compareTuples(expected, full.next()));
+        assertFalse(full.hasNext());
+        full.close();
+
+        SeqScan some = new SeqScan(tid, pax.getId(), "t", new int[] { 2 });
+        assertEquals("t.c", some.getTupleDesc().getFieldName(0));
+        assertEquals(1, some.getTupleDesc().numFields());
+        some.open();
+        for (int i = 0; i < rows.size(); i++)
+            assertEquals(new IntField(-i), some.next().getField(0));
+        assertFalse(some.hasNext());
+        some.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxHeapPageTest.class);
+    }
+}
@@ -0,0 +1,95 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SystemTestUtil;
+
+public class ReplacementPolicyTest {
+    private HeapPageId[] pids;
+
+    @Before public void setUp() {
+        pids = new HeapPageId[8];
+        for (int i = 0; i < pids.length; i++)
+            pids[i] = new HeapPageId(1, i);
+    }
+
+    /**
+     * A page accessed twice outlives pages that were accessed once, even
+     * when those were accessed more recently.
+     */
+    @Test public void lruKPrefersSingleAccessPages() {
+        LruKPolicy policy = new LruKPolicy(4);
+        policy.recordInsert(pids[0]);
+        policy.recordAccess(pids[0]);
+        for (int i = 1; i < 4; i++)
+            policy.recordInsert(pids[i]);
+
+        assertEquals(pids[1], policy.chooseVictim(pid -> true));
+        assertEquals(pids[2], policy.chooseVictim(pid -> !pid.equals(pids[1])));
+        assertEquals(pids[0], policy.chooseVictim(pid -> pid.equals(pids[0])));
+    }
+
+    /**
+     * A page evicted from A1in and read again soon after is promoted to Am,
+     * and one-off pages are evicted before it while A1in is over its share.
+     */
+    @Test public void twoQueuePromotesFromA1out() {
+        TwoQueuePolicy policy = new TwoQueuePolicy(4);
+        policy.recordInsert(pids[0]);
+        assertEquals(pids[0], policy.chooseVictim(pid -> true));
+        policy.recordRemove(pids[0]);
+
+        // back while still remembered in A1out, so it goes to Am
+        policy.recordInsert(pids[0]);
+        for (int i = 1; i < 4; i++)
+            policy.recordInsert(pids[i]);
+
+        // A1in is over its quarter of the pool until one page is left
+        assertEquals(pids[1], policy.chooseVictim(pid -> true));
+        policy.recordRemove(pids[1]);
+        assertEquals(pids[2], policy.chooseVictim(pid -> true));
+        policy.recordRemove(pids[2]);
+        assertEquals(pids[0], policy.chooseVictim(pid -> true));
+    }
+
+    @Test public void twoQueueSkipsPagesThatCannotBeEvicted() {
+        TwoQueuePolicy policy = new TwoQueuePolicy(4);
+        for (int i = 0; i < 4; i++)
+            policy.recordInsert(pids[i]);
+        assertEquals(pids[2], policy.chooseVictim(pid -> pid.equals(pids[2])));
+        assertNull(policy.chooseVictim(pid -> false));
+    }
+
+    /**
+     * A scan that passes a ScanRing over a table larger than the pool only
+     * recycles the ring's frames and leaves the other cached pages alone.
+     */
+    @Test public void scanRingKeepsOtherPagesCached() throws Exception {
+        HeapFile table = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+        assertTrue(table.numPages() >= 20);
+
+        Database.resetBufferPool(10);
+        BufferPool bp = Database.getBufferPool();
+        TransactionId tid = new TransactionId();
+        PageId hot = new HeapPageId(table.getId(), 0);
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+
+        ScanRing ring = new ScanRing(4);
+        for (int i = 1; i < table.numPages(); i++)
+            bp.getPage(tid, new HeapPageId(table.getId(), i), Permissions.READ_ONLY, ring);
+
+        long misses = bp.getMissCount();
+        bp.getPage(tid, hot, Permissions.READ_ONLY);
+        assertEquals(misses, bp.getMissCount());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReplacementPolicyTest.class);
+    }
+}
@@ -0,0 +1,237 @@
+package simpledb;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SlottedHeapPageTest extends SimpleDbTestBase {
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before public void addTable() throws Exception {
+        pid = new HeapPageId(-3, 0);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-3, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    private static String name(int i) {
+        return "name" + i;
+    }
+
+    private SlottedHeapPage emptyPage() throws Exception {
+        return new SlottedHeapPage(pid, HeapPage.createEmptyPageData());
+    }
+
+    /** @return the tuples of page, materialized, in slot order */
+    private static ArrayList<Tuple> tuples(HeapFilePage page) {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+            result.add(it.next().materialize());
+        return result;
+    }
+
+    /** Short strings take only their own bytes, so many more tuples fit. */
+    @Test public void holdsMoreTuplesThanHeapPage() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        assertTrue(page.isEmpty());
+        int n = 0;
+        while (page.hasRoomFor(tuple(n, name(n))))
+            page.insertTuple(tuple(n, name(n++)));
+        assertFalse(page.isEmpty());
+        int fixed = new HeapPage(pid, HeapPage.createEmptyPageData()).getNumEmptySlots();
+        assertTrue(n + " tuples", n > 4 * fixed);
+
+        // the bytes decode to the same tuples, in slot order
+        SlottedHeapPage copy = new SlottedHeapPage(pid, page.getPageData());
+        ArrayList<Tuple> read = tuples(copy);
+        assertEquals(n, read.size());
+        for (int i = 0; i < n; i++) {
+            assertTrue(TestUtil.compareTuples(tuple(i, name(i)), read.get(i)));
+            assertEquals(new RecordId(pid, i), read.get(i).getRecordId());
+        }
+    }
+
+    @Test(expected = DbException.class)
+    public void fullPageRejectsInsert() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        while (page.hasRoom())
+            page.insertTuple(tuple(0, ""));
+        page.insertTuple(tuple(0, ""));
+    }
+
+    /** A delete gives back all of the record's bytes; the other tuples keep their slots. */
+    @Test public void deleteCompacts() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        for (int i = 0; i < 10; i++)
+            page.insertTuple(tuple(i, name(i)));
+        int free = page.getFreeSpace();
+
+        ArrayList<Tuple> before = tuples(page);
+        // a view, which keeps its values once its record is gone
+        Iterator<Tuple> it = page.iterator();
+        for (int i = 0; i < 3; i++)
+            it.next();
+        Tuple victim = it.next();
+        page.deleteTuple(victim);
+        assertTrue(TestUtil.compareTuples(tuple(3, name(3)), victim));
+        assertEquals(free + SlottedHeapPage.recordSize(tuple(3, name(3))), page.getFreeSpace());
+        assertFalse(page.isSlotUsed(3));
+        for (Tuple t : tuples(page)) {
+            Tuple expected = before.get(t.getRecordId().tupleno());
+            assertTrue(TestUtil.compareTuples(expected, t));
+        }
+
+        // the slot is reused
+        Tuple t = tuple(42, "a much longer name than the one before");
+        page.insertTuple(t);
+        assertEquals(new RecordId(pid, 3), t.getRecordId());
+
+        // deleting the last slots drops them from the directory
+        page.deleteTuple(tuples(page).get(9));
+        page.deleteTuple(tuples(page).get(8));
+        assertEquals(8, page.getNumSlots());
+        for (Tuple u : tuples(page))
+            page.deleteTuple(u);
+        assertTrue(page.isEmpty());
+        assertArrayEquals(HeapPage.createEmptyPageData(), page.getPageData());
+    }
+
+    /** Updates rewrite a record in place, growing or shrinking it. */
+    @Test public void updateInPlace() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        for (int i = 0; i < 5; i++)
+            page.insertTuple(tuple(i, name(i)));
+        int free = page.getFreeSpace();
+
+        for (String s : new String[] { "a longer name for tuple 2", "", "name2" }) {
+            Tuple t = tuple(7, s);
+            t.setRecordId(new RecordId(pid, 2));
+            page.updateTuple(t);
+            ArrayList<Tuple> read = tuples(page);
+            assertEquals(5, read.size());
+            for (Tuple u : read) {
+                int slot = u.getRecordId().tupleno();
+                assertTrue(TestUtil.compareTuples(slot == 2 ? t : tuple(slot, name(slot)), u));
+            }
+        }
+        assertEquals(free, page.getFreeSpace());
+
+        // a view of the record may be passed back with a changed field
+        Tuple view = page.iterator().next();
+        view.setField(1, new StringField("renamed", Type.STRING_LEN));
+        page.updateTuple(view);
+        assertEquals("renamed", ((StringField) tuples(page).get(0).getField(1)).getValue());
+    }
+
+    @Test public void updateThatDoesNotFit() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        while (page.hasRoom())
+            page.insertTuple(tuple(0, ""));
+        Tuple t = tuple(1, "too long");
+        t.setRecordId(new RecordId(pid, 0));
+        byte[] data = page.getPageData();
+        try {
+            page.updateTuple(t);
+            fail("expected DbException");
+        } catch (DbException e) {
+            // expected
+        }
+        assertArrayEquals(data, page.getPageData());
+    }
+
+    /** A page read from an array never writes to it, and it is the before-image. */
+    @Test public void beforeImage() throws Exception {
+        SlottedHeapPage page = emptyPage();
+        for (int i = 0; i < 5; i++)
+            page.insertTuple(tuple(i, name(i)));
+        byte[] data = page.getPageData();
+        byte[] copy = data.clone();
+        page = new SlottedHeapPage(pid, data);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(tuple(9, "x"));
+        assertArrayEquals(copy, data);
+        assertArrayEquals(copy, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(copy, page.getPageData()));
+    }
+
+    /** A slotted table takes fewer pages than a HeapFile and reads back the same tuples. */
+    @Test public void slottedFile() throws Exception {
+        File f = HeapFile.createTempFile("slotted");
+        SlottedHeapFile file = new SlottedHeapFile(f, td);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        ArrayList<Tuple> rows = new ArrayList<Tuple>();
+        for (int i = 0; i < 2000; i++)
+            rows.add(tuple(i, name(i)));
+
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuples(tid, file.getId(), rows.iterator());
+        Database.getBufferPool().transactionComplete(tid);
+        int heapPages = (rows.size() + 28) / 29;
+        assertTrue(file.numPages() + " pages", file.numPages() * 4 <= heapPages);
+
+        // single inserts, deletes and updates go through the same pages
+        ArrayList<Tuple> loaded = scan(file);
+        tid = new TransactionId();
+        Tuple extra = tuple(-1, "extra");
+        Database.getBufferPool().insertTuple(tid, file.getId(), extra);
+        Tuple renamed = tuple(5, "renamed");
+        renamed.setRecordId(loaded.get(5).getRecordId());
+        file.updateTuple(tid, renamed);
+        Database.getBufferPool().deleteTuple(tid, loaded.get(0));
+        Database.getBufferPool().transactionComplete(tid);
+
+        ArrayList<Tuple> read = scan(file);
+        assertEquals(rows.size(), read.size());
+        for (Tuple t : read) {
+            int i = ((IntField) t.getField(0)).getValue();
+            assertTrue(TestUtil.compareTuples(i == -1 ? extra : i == 5 ? renamed : rows.get(i), t));
+        }
+
+        // a scan of some fields projects the slotted tuples
+        tid = new TransactionId();
+        SeqScan names = new SeqScan(tid, file.getId(), "t", new int[] { 1 });
+        names.open();
+        for (Tuple t : read)
+            assertEquals(t.getField(1), names.next().getField(0));
+        assertFalse(names.hasNext());
+        names.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static ArrayList<Tuple> scan(HeapFile file) throws Exception {
+        ArrayList<Tuple> result = new ArrayList<Tuple>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            result.add(it.next().materialize());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedHeapPageTest.class);
+    }
+}
@@ -0,0 +1,161 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Vector;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ, Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ };
+
+    private HeapFile f1, f2;
+    private TransactionId tid;
+
+    @Before public void createFiles() throws Exception {
+        // few distinct values, so that both sides have long runs of duplicates
+        f1 = SystemTestUtil.createRandomHeapFile(2, 300, 40, null, null);
+        f2 = SystemTestUtil.createRandomHeapFile(3, 200, 40, null, null);
+        tid = new TransactionId();
+    }
+
+    /** @return the tuples of it as strings, sorted */
+    private static ArrayList<String> sorted(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next().toString());
+        it.close();
+        Collections.sort(result);
+        return result;
+    }
+
+    /** Every supported operator gives the rows a nested loops join does. */
+    @Test public void matchesNestedLoops() throws Exception {
+        for (Predicate.Op op : OPS) {
+            JoinPredicate p = new JoinPredicate(1, op, 2);
+            ArrayList<String> expected = sorted(new Join(p,
+                    new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b")));
+            assertTrue(expected.size() > 0);
+            assertEquals(op.toString(), expected, sorted(new SortMergeJoin(p,
+                    new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** The output is in order of the outer join field, and the join can be rewound. */
+    @Test public void orderedAndRewound() throws Exception {
+        JoinPredicate p = new JoinPredicate(1, Predicate.Op.GREATER_THAN, 2);
+        SortMergeJoin join = new SortMergeJoin(p,
+                new SeqScan(tid, f1.getId(), "a"), new SeqScan(tid, f2.getId(), "b"));
+        assertTrue(SortMergeJoin.isSorted(join, 1));
+        join.open();
+        int n = 0, last = Integer.MIN_VALUE;
+        while (join.hasNext()) {
+            int v = join.next().getInt(1);
+            assertTrue(v >= last);
+            last = v;
+            n++;
+        }
+        join.rewind();
+        int m = 0;
+        while (join.hasNext()) {
+            join.next();
+            m++;
+        }
+        join.close();
+        assertEquals(n, m);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** A BTreeScan on the join field is read as it is; the result is the same. */
+    @Test public void sortedInput() throws Exception {
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, 500, 40, null, null, 1);
+        assertTrue(SortMergeJoin.isSorted(new BTreeScan(tid, index.getId(), "a", null), 1));
+        assertFalse(SortMergeJoin.isSorted(new BTreeScan(tid, index.getId(), "a", null), 0));
+        assertFalse(SortMergeJoin.isSorted(new SeqScan(tid, f1.getId(), "a"), 1));
+        for (Predicate.Op op : new Predicate.Op[] { Predicate.Op.EQUALS, Predicate.Op.LESS_THAN }) {
+            JoinPredicate p = new JoinPredicate(1, op, 2);
+            ArrayList<String> expected = sorted(new Join(p,
+                    new SeqScan(tid, index.getId(), "a"), new SeqScan(tid, f2.getId(), "b")));
+            assertEquals(expected, sorted(new SortMergeJoin(p,
+                    new BTreeScan(tid, index.getId(), "a", null), new SeqScan(tid, f2.getId(), "b"))));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The optimizer costs an inequality join as a sort-merge join when the
+     * block nested loops join would scan an inner side too large to keep in
+     * memory many times, and instantiates it so.
+     */
+    @Test public void costModel() throws Exception {
+        // 136-byte tuples, 30 to a page
+        int size = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }).getSize();
+        LogicalJoinNode lt = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.LESS_THAN);
+        // the inner side fits in the budget, so nested loops scan it once and don't sort
+        assertFalse(JoinOptimizer.sortMergeIsCheaper(lt, 1000, 1000, 100.0, 100.0, size, size));
+        // 500000 inner tuples don't fit, and 4000 outer tuples take 9 blocks of 16 pages
+        assertTrue(JoinOptimizer.sortMergeIsCheaper(lt, 4000, 500000, 1e5, 1e7, size, size));
+        assertFalse(JoinOptimizer.sortMergeIsCheaper(lt, 400, 500000, 1e5, 1e7, size, size));
+        LogicalJoinNode ne = new LogicalJoinNode("a", "b", "a.x", "b.y", Predicate.Op.NOT_EQUALS);
+        assertFalse(JoinOptimizer.sortMergeIsCheaper(ne, 4000, 500000, 1e5, 1e7, size, size));
+
+        SeqScan a = new SeqScan(tid, f1.getId(), "a"), b = new SeqScan(tid, f2.getId(), "b");
+        LogicalJoinNode lj = new LogicalJoinNode("a", "b", a.getTupleDesc().getFieldName(1),
+                b.getTupleDesc().getFieldName(2), Predicate.Op.LESS_THAN);
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b) instanceof Join);
+        lj.sortMerge = true;
+        assertTrue(JoinOptimizer.instantiateJoin(lj, a, b) instanceof SortMergeJoin);
+    }
+
+    /**
+     * An outer side that is the result of a join has the tuples of both its
+     * tables, so it takes more blocks and the inner side more scans.
+     */
+    @Test public void joinedOuterSide() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE });
+        LogicalPlan plan = new LogicalPlan();
+        for (String alias : new String[] { "a", "b", "c" }) {
+            HeapFile table = new HeapFile(HeapFile.createTempFile("wide_" + alias), td);
+            Database.getCatalog().addTable(table, "wide_" + alias);
+            plan.addScan(table.getId(), alias);
+        }
+        JoinOptimizer jo = new JoinOptimizer(plan, new Vector<LogicalJoinNode>());
+        Vector<LogicalJoinNode> ab = new Vector<LogicalJoinNode>();
+        ab.add(new LogicalJoinNode("a", "b", "a.x", "b.x", Predicate.Op.EQUALS));
+        int size = td.getSize(), joined = jo.tupleSize(ab);
+        assertEquals(2 * size, joined);
+
+        // 700 outer tuples are 2 blocks of 480 tuples of a, but 3 of 240 of a and b
+        LogicalJoinNode lt = new LogicalJoinNode("a", "c", "a.x", "c.y", Predicate.Op.LESS_THAN);
+        assertFalse(JoinOptimizer.sortMergeIsCheaper(lt, 700, 500000, 1e5, 7.5e6, size, size));
+        assertTrue(JoinOptimizer.sortMergeIsCheaper(lt, 700, 500000, 1e5, 7.5e6, joined, size));
+        assertTrue(jo.estimateJoinCost(lt, 700, 500000, 1e5, 7.5e6, joined, size)
+                > jo.estimateJoinCost(lt, 700, 500000, 1e5, 7.5e6, size, size));
+
+        // a table the plan doesn't have has no size to cost it with
+        try {
+            jo.estimateJoinCost(new LogicalJoinNode("a", "d", "a.x", "d.y", Predicate.Op.LESS_THAN),
+                    700, 500000, 1e5, 7.5e6);
+            fail("expected IllegalArgumentException");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SortMergeJoinTest.class);
+    }
+}
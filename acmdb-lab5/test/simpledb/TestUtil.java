@@ -375,11 +375,10 @@ public class TestUtil {
     public static abstract class CreateHeapFile {
         protected CreateHeapFile() {
             try{
-                emptyFile = File.createTempFile("empty", ".dat");
+                emptyFile = HeapFile.createTempFile("empty");
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            emptyFile.deleteOnExit();
         }
 
         protected void setUp() throws Exception {
@@ -0,0 +1,135 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+    /** @return the tuples of it, read a tuple at a time */
+    private static ArrayList<String> tuples(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        while (it.hasNext())
+            result.add(it.next().toString());
+        it.close();
+        return result;
+    }
+
+    /** @return the selected rows of the batches of it */
+    private static ArrayList<String> batches(DbIterator it) throws Exception {
+        ArrayList<String> result = new ArrayList<String>();
+        it.open();
+        for (TupleBatch b = it.nextBatch(); b != null; b = it.nextBatch()) {
+            assertTrue(b.numSelected() > 0);
+            for (int k = 0; k < b.numSelected(); k++)
+                result.add(b.tuple(b.row(k)).toString());
+        }
+        it.close();
+        return result;
+    }
+
+    @Test public void rowsAndSelection() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleBatch b = new TupleBatch(td, 4);
+        for (int i = 0; i < 4; i++) {
+            Tuple t = new Tuple(td);
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+            b.add(t);
+        }
+        assertTrue(b.isFull());
+        assertEquals(4, b.numSelected());
+        assertEquals(2, b.getInt(0, 2));
+        assertEquals(new StringField("s3", Type.STRING_LEN), b.getField(1, 3));
+
+        new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(1)).filter(b);
+        new Predicate(1, Predicate.Op.NOT_EQUALS, new StringField("s2", Type.STRING_LEN)).filter(b);
+        assertEquals(2, b.numSelected());
+        assertEquals(0, b.row(0));
+        assertEquals(3, b.row(1));
+        assertEquals("3\ts3\n", b.tuple(b.row(1)).toString());
+
+        TupleBatch p = new TupleBatch(td.project(new int[] { 1 }));
+        p.project(b, new int[] { 1 });
+        assertEquals(2, p.numSelected());
+        assertEquals(new StringField("s3", Type.STRING_LEN), p.getField(0, p.row(1)));
+
+        b.clear();
+        assertEquals(0, b.numSelected());
+    }
+
+    /** An iterator without batches of its own feeds batch consumers through the default. */
+    @Test public void defaultAdapter() throws Exception {
+        int[] data = new int[5000];
+        for (int i = 0; i < data.length; i++)
+            data[i] = i;
+        assertEquals(tuples(TestUtil.createTupleList(1, data)), batches(TestUtil.createTupleList(1, data)));
+    }
+
+    /** Scan, filter, project and join give the same rows in either mode. */
+    @Test public void operatorsMatchTupleMode() throws Exception {
+        HeapFile f1 = SystemTestUtil.createRandomHeapFile(3, 5000, 100, null, null);
+        HeapFile f2 = SystemTestUtil.createRandomHeapFile(2, 3000, 100, null, null);
+        TransactionId tid = new TransactionId();
+        Predicate p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(40));
+        ArrayList<Integer> fields = new ArrayList<Integer>(Arrays.asList(2, 0));
+        Type[] types = { Type.INT_TYPE, Type.INT_TYPE };
+        JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        assertEquals(tuples(new SeqScan(tid, f1.getId(), "a")), batches(new SeqScan(tid, f1.getId(), "a")));
+        assertEquals(tuples(new SeqScan(tid, f1.getId(), "a", new int[] { 2 })),
+                batches(new SeqScan(tid, f1.getId(), "a", new int[] { 2 })));
+        assertEquals(tuples(new Filter(p, new SeqScan(tid, f1.getId(), "a"))),
+                batches(new Filter(p, new SeqScan(tid, f1.getId(), "a"))));
+        ArrayList<String> projected = tuples(new Project(fields, types, new Filter(p, new SeqScan(tid, f1.getId(), "a"))));
+        assertEquals(projected, batches(new Project(fields, types, new Filter(p, new SeqScan(tid, f1.getId(), "a")))));
+        ArrayList<String> joined = tuples(new HashEquiJoin(jp,
+                new SeqScan(tid, f2.getId(), "b"), new Filter(p, new SeqScan(tid, f1.getId(), "a"))));
+        assertTrue(joined.size() > TupleBatch.DEFAULT_SIZE);
+        assertEquals(joined, batches(new HashEquiJoin(jp,
+                new SeqScan(tid, f2.getId(), "b"), new Filter(p, new SeqScan(tid, f1.getId(), "a")))));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Aggregates read their input in batches. */
+    @Test public void aggregateBatches() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, 10, null, null);
+        TransactionId tid = new TransactionId();
+        Aggregator agg = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+        DbIterator scan = new SeqScan(tid, f.getId(), "a");
+        scan.open();
+        while (scan.hasNext())
+            agg.mergeTupleIntoGroup(scan.next());
+        scan.close();
+        ArrayList<String> expected = tuples(agg.iterator());
+        assertEquals(expected, tuples(new Aggregate(new SeqScan(tid, f.getId(), "a"), 1, 0, Aggregator.Op.SUM)));
+
+        // the default merges a tuple per row
+        Aggregator count = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT);
+        scan.open();
+        for (TupleBatch b = scan.nextBatch(); b != null; b = scan.nextBatch())
+            count.mergeBatchIntoGroup(b);
+        scan.close();
+        int total = 0;
+        DbIterator it = count.iterator();
+        it.open();
+        while (it.hasNext())
+            total += it.next().getInt(1);
+        assertEquals(5000, total);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleBatchTest.class);
+    }
+}
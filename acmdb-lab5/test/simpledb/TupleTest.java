@@ -1,6 +1,9 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -57,6 +60,39 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for Tuple.getInt() and CompactTuple, which keeps ints unboxed
+     */
+    @Test public void compactTuple() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Tuple t1 = new Tuple(td1);
+        t1.setField(0, new IntField(7));
+        StringField s = new StringField("abc", Type.STRING_LEN);
+        t1.setField(1, s);
+        assertEquals(7, t1.getInt(0));
+        Tuple t2 = Utility.getHeapTuple(new int[] { -3, 9 });
+
+        TupleDesc td = TupleDesc.merge(td1, t2.getTupleDesc());
+        CompactTuple c = CompactTuple.concat(td, t1, t2);
+        assertEquals(7, c.getInt(0));
+        assertSame(s, c.getField(1));
+        assertEquals(-3, c.getInt(2));
+        assertEquals(new IntField(9), c.getField(3));
+        assertSame(c.getField(3), c.getField(3));
+        assertTrue(c.compareField(2, Predicate.Op.LESS_THAN, new IntField(0)));
+        assertFalse(c.compareField(0, Predicate.Op.EQUALS, new IntField(8)));
+
+        c.setField(0, new IntField(8));
+        assertEquals(8, c.getInt(0));
+        c.setInt(3, 10);
+        assertEquals(new IntField(10), c.getField(3));
+
+        Tuple p = c.project(td.project(new int[] { 3, 1 }), new int[] { 3, 1 });
+        assertEquals(10, p.getInt(0));
+        assertSame(s, p.getField(1));
+        assertEquals("8\tabc\t-3\t10\n", c.toString());
+    }
+
     /**
      * JUnit suite target
      */
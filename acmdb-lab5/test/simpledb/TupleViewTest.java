@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.TestUtil.SkeletonFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+public class TupleViewTest extends SimpleDbTestBase {
+    private static final String[] STRINGS = { "", "a", "ab", "abc", "b", "ba", "zz", "café" };
+
+    private HeapPageId pid;
+    private TupleDesc td;
+
+    @Before public void addTable() throws Exception {
+        pid = new HeapPageId(-2, 0);
+        td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        Database.getCatalog().addTable(new SkeletonFile(-2, td), SystemTestUtil.getUUID());
+    }
+
+    private Tuple tuple(int i, String s) {
+        Tuple t = new Tuple(td);
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField(s, Type.STRING_LEN));
+        return t;
+    }
+
+    /** @return a page holding one tuple per string of STRINGS */
+    private HeapPage page() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPage.createEmptyPageData());
+        for (int i = 0; i < STRINGS.length; i++)
+            page.insertTuple(tuple(i - STRINGS.length / 2, STRINGS[i]));
+        return page;
+    }
+
+    /** Comparing stored bytes gives the same answer as comparing decoded fields. */
+    @Test public void compareFieldMatchesCompare() throws Exception {
+        HeapPage page = page();
+        ArrayList<Field> operands = new ArrayList<Field>();
+        for (int i = -2; i <= 2; i++)
+            operands.add(new IntField(i));
+        for (String s : STRINGS)
+            operands.add(new StringField(s, Type.STRING_LEN));
+        operands.add(new StringField("abcd", Type.STRING_LEN));
+
+        for (Predicate.Op op : Predicate.Op.values()) {
+            for (Field operand : operands) {
+                int j = operand.getType() == Type.INT_TYPE ? 0 : 1;
+                Iterator<Tuple> fresh = page.iterator();
+                for (Iterator<Tuple> it = page.iterator(); it.hasNext(); ) {
+                    Tuple view = it.next();
+                    boolean expected = view.materialize().getField(j).compare(op, operand);
+                    // a view that has not decoded the field
+                    assertEquals(view + " " + op + " " + operand, expected,
+                            fresh.next().compareField(j, op, operand));
+                    assertEquals(expected, view.compareField(j, op, operand));
+                }
+            }
+        }
+    }
+
+    /** A materialized tuple keeps its values when the slot is reused; a view does not. */
+    @Test public void materializedTupleOutlivesSlot() throws Exception {
+        HeapPage page = page();
+        Tuple view = page.iterator().next();
+        Tuple kept = view.materialize();
+        assertNotSame(view, kept);
+        assertSame(kept, kept.materialize());
+        assertEquals(view.getRecordId(), kept.getRecordId());
+
+        Tuple other = page.iterator().next();
+        page.deleteTuple(other);
+        page.insertTuple(tuple(99, "new"));
+        assertTrue(TestUtil.compareTuples(tuple(-4, ""), kept));
+        assertTrue(TestUtil.compareTuples(tuple(99, "new"), page.iterator().next()));
+    }
+
+    /** The tuple passed to deleteTuple keeps its values after its slot is cleared. */
+    @Test public void deletedViewKeepsValues() throws Exception {
+        HeapPage page = page();
+        int empty = page.getNumEmptySlots();
+        Tuple view = page.iterator().next();
+        page.deleteTuple(view);
+        assertTrue(TestUtil.compareTuples(tuple(-4, ""), view));
+        assertEquals(empty + 1, page.getNumEmptySlots());
+    }
+
+    /** A page read from an array never writes to it, and it is the before-image. */
+    @Test public void pageDataIsNotWritten() throws Exception {
+        byte[] data = page().getPageData();
+        byte[] copy = data.clone();
+        HeapPage page = new HeapPage(pid, data);
+        page.deleteTuple(page.iterator().next());
+        page.insertTuple(tuple(7, "x"));
+        assertArrayEquals(copy, data);
+        assertArrayEquals(copy, page.getBeforeImage().getPageData());
+        assertFalse(Arrays.equals(copy, page.getPageData()));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(TupleViewTest.class);
+    }
+}
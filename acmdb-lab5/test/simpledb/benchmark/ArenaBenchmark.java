@@ -0,0 +1,107 @@
+package simpledb.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import simpledb.*;
+
+/**
+ * Compares an on-heap BufferPool with one backed by a PageArena of the same
+ * size. A two int column table exactly as large as the pool is scanned a
+ * few times; after the first scan every page is cached. For each pool the
+ * benchmark reports the heap the cached pages occupy and the number and
+ * total duration of garbage collections during the scans.
+ * <p>
+ * Tunables: -Dbench.mb (pool and table size in MB, default 64) and
+ * -Dbench.scans (default 3). For a multi-GB comparison, give the JVM room
+ * for the on-heap pool, e.g.
+ * <code>ant runbench -Dbench=ArenaBenchmark -Dbench.mb=4096 -Dbench.heap=48g</code>.
+ */
+public class ArenaBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int mb = BenchmarkUtil.intProperty("mb", 64);
+        int scans = BenchmarkUtil.intProperty("scans", 3);
+        long bytes = (long) mb << 20;
+        int pages = (int) (bytes / BufferPool.getPageSize());
+
+        HeapFile table = createTable(pages);
+        System.out.println("table of " + pages + " pages, " + scans + " scans");
+
+        // the arena runs first so that it is not measured against the
+        // remains of a multi-GB on-heap pool
+        Database.resetBufferPool(new BufferPool(new PageArena(bytes)));
+        run("arena pool", table, scans);
+
+        Database.resetBufferPool(pages);
+        run("on-heap pool", table, scans);
+    }
+
+    /** Scans the table with the current pool, starting from an empty pool. */
+    private static void run(String label, HeapFile table, int scans) throws Exception {
+        long base = BenchmarkUtil.usedHeap();
+        long gcCount = gcCount(), gcTime = gcTime();
+        long tuples = 0;
+
+        long start = System.nanoTime();
+        for (int s = 0; s < scans; s++) {
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = table.iterator(tid);
+            it.open();
+            while (it.hasNext()) {
+                it.next();
+                tuples++;
+            }
+            it.close();
+            Database.getBufferPool().transactionComplete(tid);
+        }
+        long elapsed = System.nanoTime() - start;
+        gcCount = gcCount() - gcCount;
+        gcTime = gcTime() - gcTime;
+        long footprint = BenchmarkUtil.usedHeap() - base;
+
+        System.out.println(label);
+        BenchmarkUtil.report("  cached page heap footprint", footprint / (double) (1 << 20), "MB");
+        BenchmarkUtil.report("  collections during scans", gcCount, "");
+        BenchmarkUtil.report("  time in collections", gcTime, "ms");
+        BenchmarkUtil.report("  scan throughput", BenchmarkUtil.rate(tuples, elapsed), "tuples/s");
+    }
+
+    /** Writes a temporary table of full pages and registers it. */
+    private static HeapFile createTable(int pages) throws Exception {
+        File file = HeapFile.createTempFile("arena");
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "arena");
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            int value = 0;
+            for (int p = 0; p < pages; p++) {
+                HeapPage page = new HeapPage(new HeapPageId(table.getId(), p), HeapPage.createEmptyPageData());
+                while (page.getNumEmptySlots() > 0) {
+                    page.insertTuple(Utility.getHeapTuple(new int[] { value, -value }));
+                    value++;
+                }
+                out.write(page.getPageData());
+            }
+        }
+        return table;
+    }
+
+    private static long gcCount() {
+        long n = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            n += gc.getCollectionCount();
+        return n;
+    }
+
+    private static long gcTime() {
+        long ms = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans())
+            ms += gc.getCollectionTime();
+        return ms;
+    }
+}
@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Compares scan-filter-aggregate pipelines over paperauths (paperid int,
+ * authorid int, 260952 tuples) run a tuple at a time, through hasNext and
+ * next, and a batch at a time, through nextBatch:
+ * <ul>
+ * <li>SUM(paperid) WHERE authorid &gt; 100000;</li>
+ * <li>COUNT(paperid) WHERE paperid &lt; 500000 GROUP BY authorid.</li>
+ * </ul>
+ * Both modes feed the same IntegerAggregator, with mergeTupleIntoGroup or
+ * mergeBatchIntoGroup. Reports tuples scanned per second and bytes
+ * allocated per tuple scanned. Every query starts from an empty
+ * BufferPool; the file stays in the OS page cache.
+ * <p>
+ * Tunables: -Dbench.rounds (queries per setting, default 10).
+ */
+public class BatchBenchmark {
+
+    private static final String[] QUERIES = {
+        "SUM(paperid) WHERE authorid > 100000",
+        "COUNT(paperid) WHERE paperid < 500000 GROUP BY authorid",
+    };
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 10);
+        BenchmarkUtil.loadDblp();
+        int table = Database.getCatalog().getTableId("paperauths");
+        long rows = count(table);
+
+        // warm up the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++)
+            for (int q = 0; q < QUERIES.length; q++)
+                for (int batch = 0; batch < 2; batch++)
+                    run(table, q, batch == 1);
+
+        for (int q = 0; q < QUERIES.length; q++) {
+            System.out.println(QUERIES[q]);
+            for (int batch = 0; batch < 2; batch++) {
+                String mode = batch == 1 ? "  batch at a time" : "  tuple at a time";
+                long elapsed = 0, allocated = 0;
+                for (int r = 0; r < rounds; r++) {
+                    long bytes = BenchmarkUtil.allocatedBytes();
+                    long start = System.nanoTime();
+                    run(table, q, batch == 1);
+                    elapsed += System.nanoTime() - start;
+                    allocated += BenchmarkUtil.allocatedBytes() - bytes;
+                }
+                BenchmarkUtil.report(mode, BenchmarkUtil.rate(rows * rounds, elapsed), "tuples/s");
+                BenchmarkUtil.report(mode + ", allocated", (double) allocated / (rows * rounds), "bytes/tuple");
+            }
+        }
+    }
+
+    /** Runs query q over paperauths from an empty pool. */
+    private static void run(int table, int q, boolean batches) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Predicate p;
+        Aggregator agg;
+        if (q == 0) {
+            p = new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100000));
+            agg = new IntegerAggregator(Aggregator.NO_GROUPING, null, 0, Aggregator.Op.SUM);
+        } else {
+            p = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500000));
+            agg = new IntegerAggregator(1, Type.INT_TYPE, 0, Aggregator.Op.COUNT);
+        }
+        DbIterator plan = new Filter(p, new SeqScan(tid, table, "p"));
+        plan.open();
+        if (batches) {
+            for (TupleBatch b = plan.nextBatch(); b != null; b = plan.nextBatch())
+                agg.mergeBatchIntoGroup(b);
+        } else {
+            while (plan.hasNext())
+                agg.mergeTupleIntoGroup(plan.next());
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long count(int table) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(table).iterator(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
@@ -0,0 +1,106 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.Iterator;
+
+import simpledb.*;
+
+/**
+ * Small helpers shared by the benchmark drivers in this package. Benchmarks
+ * are plain programs with a main method; run them with
+ * <code>ant runbench -Dbench=ClassName</code>.
+ */
+public class BenchmarkUtil {
+
+    /**
+     * Reads an integer system property, falling back to a default. Lets the
+     * size of a benchmark be tuned with -Dbench.name=value on the command line.
+     */
+    public static int intProperty(String name, int def) {
+        String v = System.getProperty("bench." + name);
+        return v == null ? def : Integer.parseInt(v);
+    }
+
+    /**
+     * Registers the DBLP sample tables with the catalog. The dataset
+     * directory defaults to ./dataset and can be set with -Dbench.dataset.
+     */
+    public static void loadDblp() {
+        String dir = System.getProperty("bench.dataset", "dataset");
+        Database.getCatalog().loadSchema(new File(dir, "dblp_simpledb.schema").getPath());
+    }
+
+    /**
+     * Creates a temporary copy of a table in another file format, e.g. a
+     * {@link SlottedHeapFile}, registered with the catalog under name.
+     *
+     * @param format the HeapFile class of the copy, with a (File, TupleDesc) constructor
+     */
+    public static HeapFile copyTable(String table, Class<? extends HeapFile> format, String name)
+            throws Exception {
+        HeapFile from = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId(table));
+        File f = HeapFile.createTempFile(name);
+        HeapFile to = format.getConstructor(File.class, TupleDesc.class).newInstance(f, from.getTupleDesc());
+        Database.getCatalog().addTable(to, name);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = from.iterator(tid);
+        it.open();
+        Database.getBufferPool().insertTuples(tid, to.getId(), new Iterator<Tuple>() {
+            public boolean hasNext() {
+                try {
+                    return it.hasNext();
+                } catch (DbException | TransactionAbortedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+
+            public Tuple next() {
+                try {
+                    return it.next().materialize();
+                } catch (DbException | TransactionAbortedException e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        });
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return to;
+    }
+
+    /** @return ops per second given an op count and an elapsed time in ns */
+    public static double rate(long ops, long nanos) {
+        return ops * 1e9 / Math.max(1, nanos);
+    }
+
+    /** Prints one aligned result line: label, value and unit. */
+    public static void report(String label, double value, String unit) {
+        System.out.println(String.format("%-40s %14.1f %s", label, value, unit));
+    }
+
+    /** Runs the garbage collector until the heap stops shrinking. */
+    public static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        long after = runtime.totalMemory() - runtime.freeMemory();
+        long before = after + 1;
+        while (before != after) {
+            before = after;
+            System.gc();
+            after = runtime.totalMemory() - runtime.freeMemory();
+        }
+        return after;
+    }
+
+    /**
+     * @return the number of bytes the current thread has allocated so far,
+     *         or 0 if the JVM does not count them
+     */
+    public static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean))
+            return 0;
+        return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,199 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Measures Join on a non-equi predicate whose inner side is a Filter over a
+ * SeqScan:
+ * <pre>
+ * venues v JOIN (paperauths pa WHERE pa.authorid &lt; 1000) ON v.id &gt; pa.paperid
+ *   WHERE v.id &lt; outer
+ * </pre>
+ * reporting the passes made over the inner side (each a scan of all of
+ * paperauths and the filter of each of its tuples) and the time per query,
+ * for three joins:
+ * <ul>
+ * <li>tuple nested loops: the inner is rewound for every outer tuple, as
+ * Join did before it read its outer side in blocks;</li>
+ * <li>block nested loops: Join with its inner cache turned off, so one pass
+ * per block of {@link Join#DEFAULT_BLOCK_PAGES} pages of outer tuples;</li>
+ * <li>cached: Join as it is by default, with the filtered inner kept in
+ * memory after the first pass.</li>
+ * </ul>
+ * Every query starts from an empty BufferPool; the files stay in the OS page
+ * cache.
+ * <p>
+ * Tunables: -Dbench.rounds (queries per join, default 3), -Dbench.outer
+ * (the bound on v.id, default 2000).
+ */
+public class BlockJoinBenchmark {
+
+    /** Passes its child through, counting how many times it is read from the start. */
+    static class CountPasses extends Operator {
+        private static final long serialVersionUID = 1L;
+        private DbIterator child;
+        long passes;
+
+        CountPasses(DbIterator child) {
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            passes++;
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+            passes++;
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? child.next() : null;
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+
+    /** A nested loops join that rewinds child2 for every tuple of child1. */
+    static class TupleNestedLoops extends Operator {
+        private static final long serialVersionUID = 1L;
+        private final JoinPredicate p;
+        private DbIterator child1, child2;
+        private Tuple outer;
+
+        TupleNestedLoops(JoinPredicate p, DbIterator child1, DbIterator child2) {
+            this.p = p;
+            this.child1 = child1;
+            this.child2 = child2;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            super.open();
+            child1.open();
+            child2.open();
+            outer = child1.hasNext() ? child1.next() : null;
+        }
+
+        public void close() {
+            child1.close();
+            child2.close();
+            super.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            while (outer != null) {
+                while (child2.hasNext()) {
+                    Tuple t = child2.next();
+                    if (p.filter(outer, t)) {
+                        Tuple joined = new Tuple(getTupleDesc());
+                        int n = outer.getTupleDesc().numFields();
+                        for (int i = 0; i < n; i++)
+                            joined.setField(i, outer.getField(i));
+                        for (int i = 0; i < t.getTupleDesc().numFields(); i++)
+                            joined.setField(n + i, t.getField(i));
+                        return joined;
+                    }
+                }
+                if (!child1.hasNext())
+                    break;
+                outer = child1.next();
+                child2.rewind();
+            }
+            return null;
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child1, child2 };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child1 = children[0];
+            child2 = children[1];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 3);
+        int bound = BenchmarkUtil.intProperty("outer", 2000);
+        BenchmarkUtil.loadDblp();
+
+        String[] names = { "tuple nested loops", "block nested loops", "cached" };
+        for (int kind = 0; kind < names.length; kind++) {
+            run(kind, bound); // warm up
+            long nanos = 0, passes = 0, rows = 0;
+            for (int r = 0; r < rounds; r++) {
+                long[] result = run(kind, bound);
+                nanos += result[0];
+                passes += result[1];
+                rows = result[2];
+            }
+            if (kind == 0)
+                System.out.println("output rows per query: " + rows);
+            BenchmarkUtil.report(names[kind] + ", inner passes", (double) passes / rounds, "passes/query");
+            BenchmarkUtil.report(names[kind] + ", time", nanos / rounds / 1e6, "ms/query");
+        }
+    }
+
+    /**
+     * Runs the query from an empty pool.
+     *
+     * @return nanoseconds, passes over the inner side, and output rows
+     */
+    private static long[] run(int kind, int bound) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator venues = new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(bound)),
+                new SeqScan(tid, Database.getCatalog().getTableId("venues"), "v"));
+        CountPasses paperauths = new CountPasses(new Filter(
+                new Predicate(1, Predicate.Op.LESS_THAN, new IntField(1000)),
+                new SeqScan(tid, Database.getCatalog().getTableId("paperauths"), "pa")));
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+        DbIterator join;
+        if (kind == 0) {
+            join = new TupleNestedLoops(p, venues, paperauths);
+        } else {
+            Join j = new Join(p, venues, paperauths);
+            if (kind == 1)
+                j.setMemoryBudget(0);
+            join = j;
+        }
+
+        long start = System.nanoTime();
+        long n = 0;
+        join.open();
+        while (join.hasNext()) {
+            join.next();
+            n++;
+        }
+        join.close();
+        long end = System.nanoTime();
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { end - start, paperauths.passes, n };
+    }
+}
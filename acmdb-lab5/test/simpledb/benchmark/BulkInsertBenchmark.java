@@ -0,0 +1,90 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+
+import simpledb.*;
+
+/**
+ * Measures loading bench.rows two-column rows into a new table, three ways:
+ * <ul>
+ * <li>one BufferPool.insertTuple call per row, as Insert did before, in
+ * transactions of Insert.BULK_BATCH rows: in a single transaction every
+ * insert would visit each page the transaction filled, since the
+ * free-space map keeps their bits until it commits;</li>
+ * <li>BufferPool.insertTuples in batches of Insert.BULK_BATCH rows into an
+ * empty table, whose pages go straight to disk in extents and are not
+ * logged;</li>
+ * <li>the same batches into a table that already holds a row, so that
+ * every appended page is logged at commit.</li>
+ * </ul>
+ * The bulk loads run in one transaction. The time includes the commits,
+ * which log or force the pages. The pool holds a tenth of the table, so
+ * the per-row inserts and the logged load also pay for evicting pages
+ * they dirtied.
+ * <p>
+ * Tunables: -Dbench.rows (default 1000000).
+ */
+public class BulkInsertBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("rows", 1000000);
+        // two ints per row: 504 rows per page
+        int pool = Math.max(BufferPool.DEFAULT_PAGES, rows / 504 / 10);
+
+        // warm up the JIT
+        for (int mode = 0; mode < 3; mode++)
+            load(mode, Math.min(rows, 50000), pool);
+        String[] names = { "one insertTuple per row", "insertTuples, empty table (unlogged)",
+                           "insertTuples, non-empty table (logged)" };
+        for (int mode = 0; mode < 3; mode++) {
+            long elapsed = load(mode, rows, pool);
+            System.out.println(names[mode]);
+            BenchmarkUtil.report("  rows loaded", BenchmarkUtil.rate(rows, elapsed), "rows/s");
+        }
+        Database.getLogFile().logCheckpoint();
+    }
+
+    /** @return the time taken to load and commit rows rows, in ns */
+    private static long load(int mode, int rows, int pages) throws Exception {
+        HeapFile table = new HeapFile(emptyFile(), Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "bulk_" + table.getId());
+        BufferPool bp = Database.resetBufferPool(pages);
+        if (mode == 2) {
+            Transaction t = new Transaction();
+            t.start();
+            bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { -1, 1 }));
+            t.commit();
+        }
+
+        long start = System.nanoTime();
+        Transaction t = new Transaction();
+        t.start();
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        for (int value = 0; value < rows; value++) {
+            Tuple tup = Utility.getHeapTuple(new int[] { value, -value });
+            if (mode == 0) {
+                bp.insertTuple(t.getId(), table.getId(), tup);
+                if ((value + 1) % Insert.BULK_BATCH == 0) {
+                    t.commit();
+                    t = new Transaction();
+                    t.start();
+                }
+                continue;
+            }
+            batch.add(tup);
+            if (batch.size() == Insert.BULK_BATCH || value == rows - 1) {
+                bp.insertTuples(t.getId(), table.getId(), batch.iterator());
+                batch.clear();
+            }
+        }
+        t.commit();
+        return System.nanoTime() - start;
+    }
+
+    private static File emptyFile() throws IOException {
+        File f = HeapFile.createTempFile("bulk");
+        return f;
+    }
+}
@@ -0,0 +1,100 @@
+package simpledb.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.*;
+
+/**
+ * Runs update transactions against a table twice the size of the pool,
+ * first with the background page cleaner off and then on, and takes a
+ * checkpoint at the end of each run. Every transaction replaces one tuple
+ * on each of a few random pages and then waits for a while, like a client
+ * would; the cleaner uses that idle time.
+ * <p>
+ * Reported per run: transaction throughput, how many evictions had to
+ * write their victim, how many the cleaner spared that write, and how
+ * long the final checkpoint took in total and with the BufferPool locked.
+ * <p>
+ * Tunables: -Dbench.pool (pages, default 500), -Dbench.dirty (pages per
+ * transaction, default 4), -Dbench.txns (default 1000) and -Dbench.thinkus
+ * (wait between transactions, default 500).
+ */
+public class CleanerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pool = BenchmarkUtil.intProperty("pool", 500);
+        int dirty = BenchmarkUtil.intProperty("dirty", 4);
+        int txns = BenchmarkUtil.intProperty("txns", 1000);
+        int thinkUs = BenchmarkUtil.intProperty("thinkus", 500);
+
+        int pages = 2 * pool;
+        HeapFile table = createTable(pages);
+        System.out.println("table of " + pages + " pages, pool of " + pool + ", " + txns
+                + " transactions dirtying " + dirty + " pages each, " + thinkUs + "us between them");
+
+        for (int rate : new int[] { 0, BufferPool.DEFAULT_CLEANER_RATE }) {
+            BufferPool bp = Database.resetBufferPool(pool);
+            bp.setCleanerRate(rate);
+            LogFile log = Database.getLogFile();
+            long cps = log.getCheckpointNanos(), stalls = log.getCheckpointStallNanos();
+
+            long start = System.nanoTime();
+            run(table, pages, dirty, txns, thinkUs);
+            long elapsed = System.nanoTime() - start;
+            log.logCheckpoint();
+
+            System.out.println(rate == 0 ? "no page cleaner" : "page cleaner at " + rate + " pages/s");
+            BenchmarkUtil.report("  transactions", BenchmarkUtil.rate(txns, elapsed), "/s");
+            BenchmarkUtil.report("  evictions that wrote their victim", bp.getForegroundWriteCount(), "");
+            BenchmarkUtil.report("  evictions spared a write by the cleaner", bp.getForegroundWritesAvoidedCount(), "");
+            BenchmarkUtil.report("  pages cleaned", bp.getPagesCleanedCount(), "");
+            BenchmarkUtil.report("  checkpoint", (log.getCheckpointNanos() - cps) / 1e6, "ms");
+            BenchmarkUtil.report("  checkpoint with the pool locked", (log.getCheckpointStallNanos() - stalls) / 1e6, "ms");
+        }
+    }
+
+    private static void run(HeapFile table, int pages, int dirty, int txns, int thinkUs) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Random r = new Random(42);
+        int value = 0;
+
+        for (int i = 0; i < txns; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int d = 0; d < dirty; d++) {
+                HeapPageId pid = new HeapPageId(table.getId(), r.nextInt(pages));
+                HeapPage page = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+                // replace a tuple in place, so that the transaction
+                // touches exactly the pages it picked
+                page.deleteTuple(page.iterator().next());
+                page.insertTuple(Utility.getHeapTuple(new int[] { value, -value }));
+                page.markDirty(true, t.getId());
+                value++;
+            }
+            t.commit();
+            TimeUnit.MICROSECONDS.sleep(thinkUs);
+        }
+    }
+
+    /** Writes a temporary table of full pages and registers it. */
+    private static HeapFile createTable(int pages) throws Exception {
+        File file = HeapFile.createTempFile("cleaner");
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "cleaner");
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int p = 0; p < pages; p++) {
+                HeapPage page = new HeapPage(new HeapPageId(table.getId(), p), HeapPage.createEmptyPageData());
+                while (page.getNumEmptySlots() > 0)
+                    page.insertTuple(Utility.getHeapTuple(new int[] { p, -p }));
+                out.write(page.getPageData());
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures coalesced page I/O (BufferPool.setMaxIoPages) against one call
+ * per page, in two workloads:
+ * <ul>
+ * <li>write-heavy commits with FORCE: every transaction moves one tuple on
+ * each page of a run of adjacent pages, so the commit flushes the run
+ * either with one gathering write or page by page;</li>
+ * <li>cold scans of paperauths from an empty pool with read-ahead on: the
+ * scan's misses and prefetches either read runs of pages with one
+ * scattering read or one page per read.</li>
+ * </ul>
+ * Files stay in the OS page cache, so the numbers are the CPU and system
+ * call cost of the I/O path and not disk time.
+ * <p>
+ * Tunables: -Dbench.pages (commit table size, default 1000), -Dbench.dirty
+ * (adjacent pages per transaction, default 16), -Dbench.txns (transactions
+ * per mode, default 300), -Dbench.rounds (scans per mode, default 30) and
+ * -Dbench.io (pages per call when coalescing, default
+ * BufferPool.DEFAULT_IO_PAGES).
+ */
+public class CoalescedIoBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = BenchmarkUtil.intProperty("pages", 1000);
+        int dirty = BenchmarkUtil.intProperty("dirty", 16);
+        int txns = BenchmarkUtil.intProperty("txns", 300);
+        int rounds = BenchmarkUtil.intProperty("rounds", 30);
+        int io = BenchmarkUtil.intProperty("io", BufferPool.DEFAULT_IO_PAGES);
+
+        HeapFile table = createTable(pages);
+        System.out.println("commits: table of " + pages + " pages, " + dirty
+                + " adjacent pages dirtied by each of " + txns + " transactions, FORCE");
+        // warm up the JIT and the OS page cache
+        for (int ioPages : new int[] { 1, io })
+            commit(table, pages, dirty, txns / 2, ioPages);
+        for (int ioPages : new int[] { 1, io }) {
+            long elapsed = commit(table, pages, dirty, txns, ioPages);
+            System.out.println(ioPages == 1 ? "  one page per write" : "  up to " + ioPages + " pages per write");
+            BenchmarkUtil.report("    mean commit latency", elapsed / 1e3 / txns, "us");
+            BenchmarkUtil.report("    commits", BenchmarkUtil.rate(txns, elapsed), "/s");
+        }
+        Database.getLogFile().logCheckpoint();
+
+        BenchmarkUtil.loadDblp();
+        HeapFile paperauths = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("paperauths"));
+        System.out.println("cold scans: paperauths, " + paperauths.numPages() + " pages, "
+                + rounds + " scans per mode");
+        for (int r = 0; r < rounds / 2; r++)
+            for (int ioPages : new int[] { 1, io })
+                scan(paperauths, ioPages);
+        for (int ioPages : new int[] { 1, io }) {
+            long elapsed = 0, scanned = 0;
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                scan(paperauths, ioPages);
+                elapsed += System.nanoTime() - start;
+                scanned += paperauths.numPages();
+            }
+            System.out.println(ioPages == 1 ? "  one page per read" : "  up to " + ioPages + " pages per read");
+            BenchmarkUtil.report("    pages scanned", BenchmarkUtil.rate(scanned, elapsed), "pages/s");
+        }
+    }
+
+    /** @return the total time spent committing, in ns */
+    private static long commit(HeapFile table, int pages, int dirty, int txns, int ioPages)
+            throws Exception {
+        BufferPool bp = Database.resetBufferPool(pages + dirty);
+        bp.setForce(true);
+        bp.setMaxIoPages(ioPages);
+        Random r = new Random(42);
+        long elapsed = 0;
+        int value = 0;
+
+        for (int i = 0; i < txns; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            int first = r.nextInt(pages - dirty + 1);
+            for (int d = 0; d < dirty; d++) {
+                HeapPageId pid = new HeapPageId(table.getId(), first + d);
+                HeapPage page = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+                bp.deleteTuple(t.getId(), page.iterator().next());
+                // lands in the slot just freed, or another freed one
+                bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { value, -value }));
+                value++;
+            }
+            long start = System.nanoTime();
+            t.commit();
+            elapsed += System.nanoTime() - start;
+        }
+        return elapsed;
+    }
+
+    /** Scans the table from an empty pool. */
+    private static void scan(HeapFile table, int ioPages) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setMaxIoPages(ioPages);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Writes a temporary table of full pages and registers it. */
+    private static HeapFile createTable(int pages) throws Exception {
+        File file = HeapFile.createTempFile("coalesced");
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "coalesced");
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int p = 0; p < pages; p++) {
+                HeapPage page = new HeapPage(new HeapPageId(table.getId(), p), HeapPage.createEmptyPageData());
+                while (page.getNumEmptySlots() > 0)
+                    page.insertTuple(Utility.getHeapTuple(new int[] { p, -p }));
+                out.write(page.getPageData());
+            }
+        }
+        return table;
+    }
+}
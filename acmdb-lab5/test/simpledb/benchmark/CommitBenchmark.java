@@ -0,0 +1,95 @@
+package simpledb.benchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures commit latency with NO FORCE, the default, against FORCE
+ * (BufferPool.setForce(true)). Every transaction moves one tuple on each of
+ * a few random pages of a table that fits in the pool, so the pages it
+ * dirties are scattered over the file.
+ * <p>
+ * Both modes log the after-images and force the log at commit. FORCE also
+ * writes every dirtied page before the commit returns. NO FORCE leaves the
+ * pages in the pool until they are evicted or checkpointed.
+ * <p>
+ * Tunables: -Dbench.pages (table size, default 1000), -Dbench.dirty
+ * (pages per transaction, default 8) and -Dbench.txns (transactions per
+ * mode, default 300).
+ */
+public class CommitBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int pages = BenchmarkUtil.intProperty("pages", 1000);
+        int dirty = BenchmarkUtil.intProperty("dirty", 8);
+        int txns = BenchmarkUtil.intProperty("txns", 300);
+
+        HeapFile table = createTable(pages);
+        System.out.println("table of " + pages + " pages, " + dirty + " pages dirtied by each of "
+                + txns + " transactions");
+
+        for (boolean force : new boolean[] { true, false }) {
+            Database.resetBufferPool(pages + dirty);
+            Database.getBufferPool().setForce(force);
+            long[] latency = run(table, pages, dirty, txns);
+
+            long total = 0;
+            for (long l : latency)
+                total += l;
+            Arrays.sort(latency);
+            System.out.println(force ? "FORCE" : "NO FORCE");
+            BenchmarkUtil.report("  mean commit latency", total / 1e3 / txns, "us");
+            BenchmarkUtil.report("  99th percentile commit latency", latency[txns * 99 / 100] / 1e3, "us");
+            BenchmarkUtil.report("  commits", BenchmarkUtil.rate(txns, total), "/s");
+        }
+        Database.getLogFile().logCheckpoint();
+    }
+
+    /** @return the duration of each commit in ns */
+    private static long[] run(HeapFile table, int pages, int dirty, int txns) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        Random r = new Random(42);
+        long[] latency = new long[txns];
+        int value = 0;
+
+        for (int i = 0; i < txns; i++) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int d = 0; d < dirty; d++) {
+                HeapPageId pid = new HeapPageId(table.getId(), r.nextInt(pages));
+                HeapPage page = (HeapPage) bp.getPage(t.getId(), pid, Permissions.READ_WRITE);
+                bp.deleteTuple(t.getId(), page.iterator().next());
+                // lands in the slot just freed, or another freed one
+                bp.insertTuple(t.getId(), table.getId(), Utility.getHeapTuple(new int[] { value, -value }));
+                value++;
+            }
+            long start = System.nanoTime();
+            t.commit();
+            latency[i] = System.nanoTime() - start;
+        }
+        return latency;
+    }
+
+    /** Writes a temporary table of full pages and registers it. */
+    private static HeapFile createTable(int pages) throws Exception {
+        File file = HeapFile.createTempFile("commit");
+        HeapFile table = new HeapFile(file, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(table, "commit");
+
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+            for (int p = 0; p < pages; p++) {
+                HeapPage page = new HeapPage(new HeapPageId(table.getId(), p), HeapPage.createEmptyPageData());
+                while (page.getNumEmptySlots() > 0)
+                    page.insertTuple(Utility.getHeapTuple(new int[] { p, -p }));
+                out.write(page.getPageData());
+            }
+        }
+        return table;
+    }
+}
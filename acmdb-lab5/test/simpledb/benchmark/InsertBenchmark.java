@@ -0,0 +1,96 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import simpledb.*;
+
+/**
+ * Measures insert throughput as a table grows, with HeapFile's free-space
+ * map against the former insert, which read the table from its first page
+ * until it found one with an empty slot. Rows go into an initially empty
+ * two-column table, in transactions of bench.batch rows; the rate is
+ * reported for every bench.step rows, so a cost that grows with the table
+ * shows up as a falling rate.
+ * <p>
+ * The pool holds the whole table, so the numbers are the cost of finding
+ * a page and not of I/O. The former insert gets slower with every page,
+ * so it only runs for bench.legacy rows, reported in fifths.
+ * <p>
+ * Tunables: -Dbench.rows (default 1000000), -Dbench.legacy (default
+ * 100000), -Dbench.step (default 100000 or a tenth of the rows if less)
+ * and -Dbench.batch (default 1000).
+ */
+public class InsertBenchmark {
+
+    /** A HeapFile that inserts the way HeapFile used to. */
+    static class ScanningHeapFile extends HeapFile {
+        ScanningHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public ArrayList<Page> insertTuple(TransactionId tid, Tuple t)
+                throws DbException, IOException, TransactionAbortedException {
+            HeapPage insertPage = null;
+            for (int i = 0; i < numPages(); i++) {
+                HeapPage page = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_ONLY);
+                if (page.getNumEmptySlots() > 0) {
+                    insertPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), i), Permissions.READ_WRITE);
+                    break;
+                }
+            }
+            if (insertPage == null) {
+                insertPage = (HeapPage) Database.getBufferPool().getPage(tid, new HeapPageId(getId(), numPages()), Permissions.READ_WRITE);
+                writePage(insertPage);
+            }
+            insertPage.insertTuple(t);
+            insertPage.markDirty(true, tid);
+            return new ArrayList<>(Arrays.asList(insertPage));
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rows = BenchmarkUtil.intProperty("rows", 1000000);
+        int legacy = BenchmarkUtil.intProperty("legacy", 100000);
+        int step = BenchmarkUtil.intProperty("step", Math.min(100000, Math.max(1, rows / 10)));
+        int batch = BenchmarkUtil.intProperty("batch", 1000);
+
+        System.out.println("full scan for a free slot, first " + legacy + " rows");
+        run(new ScanningHeapFile(emptyFile(), Utility.getTupleDesc(2)), legacy,
+                Math.min(step, Math.max(1, legacy / 5)), batch);
+        System.out.println("free-space map, " + rows + " rows");
+        run(new HeapFile(emptyFile(), Utility.getTupleDesc(2)), rows, step, batch);
+    }
+
+    private static void run(HeapFile table, int rows, int step, int batch) throws Exception {
+        Database.getCatalog().addTable(table, "insert_" + table.getId());
+        // two ints per row: 504 rows per page
+        Database.resetBufferPool(rows / 504 + 100);
+        long start = System.nanoTime();
+        int value = 0;
+        while (value < rows) {
+            Transaction t = new Transaction();
+            t.start();
+            for (int i = 0; i < batch && value < rows; i++, value++) {
+                Database.getBufferPool().insertTuple(t.getId(), table.getId(),
+                        Utility.getHeapTuple(new int[] { value, -value }));
+                if ((value + 1) % step == 0) {
+                    long now = System.nanoTime();
+                    BenchmarkUtil.report("  rows " + (value + 1 - step) + "-" + (value + 1),
+                            BenchmarkUtil.rate(step, now - start), "rows/s");
+                    start = now;
+                }
+            }
+            t.commit();
+        }
+        Database.getLogFile().logCheckpoint();
+    }
+
+    private static File emptyFile() throws IOException {
+        File f = HeapFile.createTempFile("insert");
+        return f;
+    }
+}
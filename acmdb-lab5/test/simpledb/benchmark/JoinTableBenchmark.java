@@ -0,0 +1,109 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Measures the two phases of HashEquiJoin on an int key, paperauths a JOIN
+ * paperauths b ON a.paperid = b.paperid (260952 tuples on each side, about
+ * 960000 output rows), with a as the build side:
+ * <ul>
+ * <li>build: open(), which reads a into the join's hash table, in
+ * build rows per second and bytes allocated per build row;</li>
+ * <li>probe: reading the output a tuple at a time and a batch at a time,
+ * in probe rows (tuples of b) per second and bytes allocated per
+ * output row.</li>
+ * </ul>
+ * Every query starts from an empty BufferPool; the files stay in the OS
+ * page cache.
+ * <p>
+ * Tunables: -Dbench.rounds (queries per setting, default 10).
+ */
+public class JoinTableBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 10);
+        BenchmarkUtil.loadDblp();
+
+        // warm up the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++) {
+            run(false);
+            run(true);
+        }
+
+        long[] build = new long[3];
+        for (int batch = 0; batch < 2; batch++) {
+            long[] probe = new long[4];
+            for (int r = 0; r < rounds; r++) {
+                long[] result = run(batch == 1);
+                for (int i = 0; i < 3; i++)
+                    build[i] += result[i];
+                for (int i = 0; i < 4; i++)
+                    probe[i] += result[3 + i];
+            }
+            String mode = batch == 1 ? "batch at a time" : "tuple at a time";
+            if (batch == 0)
+                System.out.println("output rows per join: " + probe[3] / rounds);
+            BenchmarkUtil.report("probe, " + mode, BenchmarkUtil.rate(probe[0], probe[1]), "probe rows/s");
+            BenchmarkUtil.report("probe, " + mode + ", allocated", (double) probe[2] / probe[3], "bytes/output row");
+        }
+        BenchmarkUtil.report("build", BenchmarkUtil.rate(build[0], build[1]), "rows/s");
+        BenchmarkUtil.report("build, allocated", (double) build[2] / build[0], "bytes/row");
+    }
+
+    private static int table(String name) {
+        return Database.getCatalog().getTableId(name);
+    }
+
+    private static long count(int table) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = Database.getCatalog().getDatabaseFile(table).iterator(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+
+    private static long buildRows = -1, probeRows;
+
+    /**
+     * Runs the join from an empty pool.
+     *
+     * @return build rows, build nanoseconds, build bytes allocated, then the
+     *         same for the probe, and the number of output rows
+     */
+    private static long[] run(boolean batches) throws Exception {
+        if (buildRows < 0) {
+            buildRows = count(table("paperauths"));
+            probeRows = buildRows;
+        }
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new SeqScan(tid, table("paperauths"), "a"), new SeqScan(tid, table("paperauths"), "b"));
+
+        long bytes = BenchmarkUtil.allocatedBytes();
+        long start = System.nanoTime();
+        join.open();
+        long built = System.nanoTime(), builtBytes = BenchmarkUtil.allocatedBytes();
+        long n = 0;
+        if (batches) {
+            for (TupleBatch b = join.nextBatch(); b != null; b = join.nextBatch())
+                n += b.numSelected();
+        } else {
+            while (join.hasNext()) {
+                join.next();
+                n++;
+            }
+        }
+        long end = System.nanoTime(), endBytes = BenchmarkUtil.allocatedBytes();
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { buildRows, built - start, builtBytes - bytes,
+                probeRows, end - built, endBytes - builtBytes, n };
+    }
+}
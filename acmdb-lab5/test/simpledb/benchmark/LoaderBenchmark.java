@@ -0,0 +1,191 @@
+package simpledb.benchmark;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures HeapFileEncoder throughput, in MB of input text per second and
+ * per core, converting a generated bench.mb MB file of int,string,int rows
+ * (like paperauths with a name) with 1, 2, 4, ... workers up to the number
+ * of cores, and with the former single-threaded encoder for comparison.
+ * Every conversion must produce the same bytes as the former encoder.
+ * <p>
+ * The input and output stay in the OS page cache, so the numbers are the
+ * cost of parsing and encoding and not of the disk.
+ * <p>
+ * Tunables: -Dbench.mb (input size, default 256), -Dbench.rounds
+ * (conversions per setting, default 3) and -Dbench.threads (most workers,
+ * default the number of cores).
+ */
+public class LoaderBenchmark {
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE };
+
+    public static void main(String[] args) throws Exception {
+        int mb = BenchmarkUtil.intProperty("mb", 256);
+        int rounds = BenchmarkUtil.intProperty("rounds", 3);
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = BenchmarkUtil.intProperty("threads", cores);
+
+        File in = temp(".txt");
+        generate(in, (long) mb << 20);
+        File out = temp(".dat");
+        double inputMb = in.length() / 1048576.0;
+        System.out.println(String.format("input: %.1f MB of int,string,int rows, %d cores",
+                inputMb, cores));
+
+        File expected = temp(".dat");
+        long legacy = Long.MAX_VALUE;
+        for (int r = 0; r < rounds; r++) {
+            long start = System.nanoTime();
+            legacyConvert(in, expected, BufferPool.getPageSize(), TYPES, ',');
+            legacy = Math.min(legacy, System.nanoTime() - start);
+        }
+        System.out.println("former encoder (BufferedReader, DataOutputStream)");
+        BenchmarkUtil.report("  throughput", inputMb * 1e9 / legacy, "MB/s");
+
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            long best = Long.MAX_VALUE;
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), TYPES.length, TYPES, ',', threads);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            if (!sameContents(expected, out))
+                throw new IllegalStateException(threads + " workers wrote a different file");
+            double rate = inputMb * 1e9 / best;
+            System.out.println(threads + (threads == 1 ? " worker" : " workers"));
+            BenchmarkUtil.report("  throughput", rate, "MB/s");
+            BenchmarkUtil.report("  per core", rate / Math.min(threads, cores), "MB/s");
+            if (threads < maxThreads && threads * 2 > maxThreads)
+                threads = maxThreads / 2;
+        }
+    }
+
+    private static void generate(File f, long bytes) throws IOException {
+        Random r = new Random(42);
+        char[] name = new char[40];
+        try (Writer w = new BufferedWriter(new FileWriter(f), 1 << 16)) {
+            long written = 0;
+            while (written < bytes) {
+                int len = 5 + r.nextInt(name.length - 5);
+                for (int i = 0; i < len; i++)
+                    name[i] = (char) ('a' + r.nextInt(26));
+                String line = r.nextInt(1000000) + "," + new String(name, 0, len) + "," + r.nextInt(100000) + "\n";
+                w.write(line);
+                written += line.length();
+            }
+        }
+    }
+
+    private static boolean sameContents(File a, File b) throws IOException {
+        if (a.length() != b.length())
+            return false;
+        try (InputStream ia = new BufferedInputStream(new FileInputStream(a), 1 << 16);
+             InputStream ib = new BufferedInputStream(new FileInputStream(b), 1 << 16)) {
+            byte[] ba = new byte[1 << 16], bb = new byte[1 << 16];
+            int n;
+            while ((n = ia.read(ba)) > 0) {
+                int m = 0;
+                while (m < n)
+                    m += ib.read(bb, m, n - m);
+                if (!Arrays.equals(ba, bb))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    private static File temp(String suffix) throws IOException {
+        File f = File.createTempFile("loader", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * HeapFileEncoder.convert as it was: one character at a time through a
+     * BufferedReader, each page built with DataOutputStreams. Well-formed
+     * input only.
+     */
+    static void legacyConvert(File inFile, File outFile, int npagebytes, Type[] typeAr,
+            char fieldSeparator) throws IOException {
+        int nrecbytes = 0;
+        for (Type t : typeAr)
+            nrecbytes += t.getLen();
+        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);
+        int nheaderbytes = (nrecords + 7) / 8;
+        int nheaderbits = nheaderbytes * 8;
+
+        BufferedReader br = new BufferedReader(new FileReader(inFile));
+        FileOutputStream os = new FileOutputStream(outFile);
+        char buf[] = new char[1024];
+        int curpos = 0, recordcount = 0, npages = 0, fieldNo = 0;
+        ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
+        DataOutputStream headerStream = new DataOutputStream(headerBAOS);
+        ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
+        DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+
+        boolean done = false, first = true;
+        while (!done) {
+            int c = br.read();
+            if (c == '\r')
+                continue;
+            if (c == '\n') {
+                if (first)
+                    continue;
+                recordcount++;
+                first = true;
+            } else
+                first = false;
+            if (c == fieldSeparator || c == '\n') {
+                String s = new String(buf, 0, curpos).trim();
+                if (typeAr[fieldNo] == Type.INT_TYPE) {
+                    pageStream.writeInt(Integer.parseInt(s));
+                } else {
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    pageStream.writeInt(s.length());
+                    pageStream.writeBytes(s);
+                    for (int i = s.length(); i < Type.STRING_LEN; i++)
+                        pageStream.write((byte) 0);
+                }
+                curpos = 0;
+                fieldNo = c == '\n' ? 0 : fieldNo + 1;
+            } else if (c == -1) {
+                done = true;
+            } else {
+                buf[curpos++] = (char) c;
+                continue;
+            }
+
+            if (recordcount >= nrecords || done && recordcount > 0 || done && npages == 0) {
+                byte headerbyte = 0;
+                int i;
+                for (i = 0; i < nheaderbits; i++) {
+                    if (i < recordcount)
+                        headerbyte |= (1 << (i % 8));
+                    if (((i + 1) % 8) == 0) {
+                        headerStream.writeByte(headerbyte);
+                        headerbyte = 0;
+                    }
+                }
+                for (i = 0; i < (npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
+                    pageStream.writeByte(0);
+                headerStream.flush();
+                headerBAOS.writeTo(os);
+                pageStream.flush();
+                pageBAOS.writeTo(os);
+                headerBAOS = new ByteArrayOutputStream(nheaderbytes);
+                headerStream = new DataOutputStream(headerBAOS);
+                pageBAOS = new ByteArrayOutputStream(npagebytes);
+                pageStream = new DataOutputStream(pageBAOS);
+                recordcount = 0;
+                npages++;
+            }
+        }
+        br.close();
+        os.close();
+    }
+}
@@ -0,0 +1,66 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Compares scans of paperauths read through the FileChannel with scans of
+ * the same file memory-mapped (HeapFile.setMapped). Every scan starts from
+ * an empty BufferPool with read-ahead off, so each page is read exactly
+ * once per scan; the file itself stays in the OS page cache.
+ * <p>
+ * A FileChannel read copies the page onto the heap; a mapped page is a
+ * view of the mapping. Either way tuples are decoded from the page's bytes
+ * when the scan reaches them.
+ * <p>
+ * Tunables: -Dbench.rounds (scans per mode, default 30).
+ */
+public class MmapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 30);
+
+        BenchmarkUtil.loadDblp();
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("paperauths"));
+        System.out.println("paperauths: " + table.numPages() + " pages, " + rounds + " cold scans per mode");
+
+        // warm up both paths, the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++)
+            for (boolean mapped : new boolean[] { false, true }) {
+                table.setMapped(mapped);
+                scan(table);
+            }
+
+        for (boolean mapped : new boolean[] { false, true }) {
+            table.setMapped(mapped);
+            long pages = 0, tuples = 0, elapsed = 0;
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                tuples += scan(table);
+                elapsed += System.nanoTime() - start;
+                pages += table.numPages();
+            }
+
+            System.out.println(mapped ? "memory-mapped reads" : "FileChannel reads");
+            BenchmarkUtil.report("  pages scanned", BenchmarkUtil.rate(pages, elapsed), "pages/s");
+            BenchmarkUtil.report("  tuples scanned", BenchmarkUtil.rate(tuples, elapsed), "tuples/s");
+        }
+        table.setMapped(false);
+    }
+
+    /** @return the number of tuples scanned, starting from an empty pool */
+    private static long scan(HeapFile table) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setMaxReadAhead(0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        long tuples = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            tuples++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+}
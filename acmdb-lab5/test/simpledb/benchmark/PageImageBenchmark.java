@@ -0,0 +1,127 @@
+package simpledb.benchmark;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import simpledb.*;
+
+/**
+ * Profiles the allocation of page images, in bytes per page:
+ * <ul>
+ * <li>read-only scans of paperauths and of a B+ tree with bench.rows
+ * two-column rows, from an empty BufferPool so that every page is read
+ * once per scan. Pages no longer capture a before-image when they are
+ * read; for comparison the same scans also make the copy of each page
+ * that capturing it eagerly took, at the least;</li>
+ * <li>writing the pages of paperauths back to the file, one at a time and
+ * in runs of BufferPool.getMaxIoPages(), encoded into PageFile's reused
+ * buffer, and one at a time through a getPageData() array, as before.</li>
+ * </ul>
+ * Tunables: -Dbench.rounds (scans or writes per setting, default 20) and
+ * -Dbench.rows (B+ tree rows, default 200000).
+ */
+public class PageImageBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 20);
+        int rows = BenchmarkUtil.intProperty("rows", 200000);
+
+        BenchmarkUtil.loadDblp();
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("paperauths"));
+        BTreeFile index = BTreeUtility.createRandomBTreeFile(2, rows, null, null, 0);
+        DbFile[] files = { table, index };
+        String[] names = { "paperauths", "B+ tree, " + rows + " rows" };
+
+        // warm up the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++)
+            for (DbFile f : files)
+                for (boolean eager : new boolean[] { true, false })
+                    scan(f, eager);
+
+        for (int i = 0; i < files.length; i++) {
+            for (boolean eager : new boolean[] { true, false }) {
+                long pages = 0, elapsed = 0, allocated = 0;
+                for (int r = 0; r < rounds; r++) {
+                    long bytes = BenchmarkUtil.allocatedBytes();
+                    long start = System.nanoTime();
+                    pages += scan(files[i], eager);
+                    elapsed += System.nanoTime() - start;
+                    allocated += BenchmarkUtil.allocatedBytes() - bytes;
+                }
+                System.out.println("scan " + names[i] + (eager ? ", before-images copied on read" : ""));
+                BenchmarkUtil.report("  pages scanned", BenchmarkUtil.rate(pages, elapsed), "pages/s");
+                BenchmarkUtil.report("  allocated", (double) allocated / pages, "bytes/page");
+            }
+        }
+
+        List<Page> pages = readAll(table);
+        PageFile io = new PageFile(table.getFile());
+        String[] modes = { "write, through getPageData() arrays", "write, one page at a time",
+                           "write, runs of " + Database.getBufferPool().getMaxIoPages() + " pages" };
+        for (int mode = 0; mode < modes.length; mode++) {
+            for (int r = 0; r < rounds / 2; r++)
+                write(table, io, pages, mode);
+            long elapsed = 0, allocated = 0;
+            for (int r = 0; r < rounds; r++) {
+                long bytes = BenchmarkUtil.allocatedBytes();
+                long start = System.nanoTime();
+                write(table, io, pages, mode);
+                elapsed += System.nanoTime() - start;
+                allocated += BenchmarkUtil.allocatedBytes() - bytes;
+            }
+            System.out.println(modes[mode]);
+            BenchmarkUtil.report("  pages written", BenchmarkUtil.rate((long) rounds * pages.size(), elapsed), "pages/s");
+            BenchmarkUtil.report("  allocated", (double) allocated / rounds / pages.size(), "bytes/page");
+        }
+    }
+
+    /**
+     * Scans f from an empty pool. With eager set every page the scan reaches
+     * is copied once, as capturing its before-image on read did.
+     *
+     * @return the number of pages read
+     */
+    private static long scan(DbFile f, boolean eager) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        PageId last = null;
+        long pages = 0;
+        it.open();
+        while (it.hasNext()) {
+            PageId pid = it.next().getRecordId().getPageId();
+            if (pid.equals(last))
+                continue;
+            last = pid;
+            pages++;
+            if (eager)
+                Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY).getPageData();
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return pages;
+    }
+
+    private static List<Page> readAll(HeapFile table) {
+        List<Page> pages = new ArrayList<Page>();
+        for (int p = 0; p < table.numPages(); p++)
+            pages.add(table.readPage(new HeapPageId(table.getId(), p)));
+        return pages;
+    }
+
+    /** Writes pages back to where they came from, which leaves the file as it was. */
+    private static void write(HeapFile table, PageFile io, List<Page> pages, int mode) throws IOException {
+        int run = Database.getBufferPool().getMaxIoPages();
+        for (int p = 0; p < pages.size(); p += mode == 2 ? run : 1) {
+            Page page = pages.get(p);
+            if (mode == 0)
+                io.write(page.getPageData(), (long) p * BufferPool.getPageSize());
+            else if (mode == 1)
+                table.writePage(page);
+            else
+                table.writePages(pages.subList(p, Math.min(pages.size(), p + run)));
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures how many pages per second HeapFile reads with its PageFile,
+ * which keeps the file open, against the former implementation, which
+ * opened a RandomAccessFile for every page read and called File.length()
+ * for every page count. Both read paperauths from the OS page cache, so
+ * the numbers are the CPU cost of the I/O path and not disk time.
+ * <p>
+ * Each mode reads the pages in random order as raw bytes, which isolates
+ * the I/O path, and then scans the table through an empty BufferPool,
+ * where decoding the pages adds a cost that is the same for both.
+ * Tunables: -Dbench.rounds (default 30).
+ */
+public class PageIoBenchmark {
+
+    /** A HeapFile that opens the file for each page, as HeapFile used to. */
+    static class ReopeningHeapFile extends HeapFile {
+        ReopeningHeapFile(File f, TupleDesc td) {
+            super(f, td);
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            byte[] buf = new byte[BufferPool.getPageSize()];
+            try (RandomAccessFile f = new RandomAccessFile(getFile(), "r")) {
+                f.seek((long) pid.pageNumber() * BufferPool.getPageSize());
+                f.read(buf, 0, buf.length);
+                return new HeapPage((HeapPageId) pid, buf);
+            } catch (IOException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public int numPages() {
+            return (int) (getFile().length() / BufferPool.getPageSize());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 30);
+
+        BenchmarkUtil.loadDblp();
+        HeapFile paperauths = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("paperauths"));
+        File copy = HeapFile.createTempFile("paperauths");
+        Files.copy(paperauths.getFile().toPath(), copy.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        HeapFile reopening = new ReopeningHeapFile(copy, paperauths.getTupleDesc());
+        Database.getCatalog().addTable(reopening, "paperauths_reopening");
+        System.out.println("paperauths: " + paperauths.numPages() + " pages, " + rounds + " rounds per mode");
+
+        // warm up both paths, the JIT and the OS page cache
+        PageFile io = new PageFile(paperauths.getFile());
+        for (int r = 0; r < rounds / 2; r++) {
+            readRaw(null, reopening, r);
+            readRaw(io, paperauths, r);
+            scan(reopening);
+            scan(paperauths);
+        }
+
+        for (HeapFile table : new HeapFile[] { reopening, paperauths }) {
+            boolean reopen = table == reopening;
+            long pages = 0, scanNanos = 0, rawNanos = 0;
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                readRaw(reopen ? null : io, table, r);
+                rawNanos += System.nanoTime() - start;
+
+                start = System.nanoTime();
+                pages += scan(table);
+                scanNanos += System.nanoTime() - start;
+            }
+
+            System.out.println(reopen ? "file opened per page" : "file kept open (PageFile)");
+            BenchmarkUtil.report("  raw page reads, random order", BenchmarkUtil.rate(pages, rawNanos), "pages/s");
+            BenchmarkUtil.report("  scan", BenchmarkUtil.rate(pages, scanNanos), "pages/s");
+        }
+    }
+
+    /**
+     * Reads as many pages as the table has, in random order, without
+     * decoding them: through io, or by opening the file for each page if
+     * io is null.
+     */
+    private static void readRaw(PageFile io, HeapFile table, int seed) throws IOException {
+        Random rand = new Random(seed);
+        byte[] buf = new byte[BufferPool.getPageSize()];
+        int n = table.numPages();
+        for (int i = 0; i < n; i++) {
+            long offset = (long) rand.nextInt(n) * buf.length;
+            if (io != null) {
+                io.read(buf, offset);
+            } else {
+                try (RandomAccessFile f = new RandomAccessFile(table.getFile(), "r")) {
+                    f.seek(offset);
+                    f.read(buf, 0, buf.length);
+                }
+            }
+        }
+    }
+
+    /** @return the number of pages scanned, starting from an empty pool */
+    private static int scan(HeapFile table) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES).setMaxReadAhead(0);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = table.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return table.numPages();
+    }
+}
@@ -0,0 +1,77 @@
+package simpledb.benchmark;
+
+import java.util.ArrayList;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.atomic.AtomicLong;
+
+import simpledb.*;
+import simpledb.systemtest.SystemTestUtil;
+
+/**
+ * Measures BufferPool.getPage throughput when every request is a cache hit.
+ * A table smaller than the pool is loaded once, then 1, 2, 4, ... threads
+ * (up to -Dbench.threads, default twice the core count) repeatedly fetch its
+ * pages with READ_ONLY permission for -Dbench.millis milliseconds each.
+ */
+public class PageTableBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int cores = Runtime.getRuntime().availableProcessors();
+        int maxThreads = BenchmarkUtil.intProperty("threads", 2 * cores);
+        int millis = BenchmarkUtil.intProperty("millis", 2000);
+        int pages = BufferPool.DEFAULT_PAGES - 10;
+
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 504 * pages, null, null);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId warm = new TransactionId();
+        for (int i = 0; i < f.numPages(); i++)
+            Database.getBufferPool().getPage(warm, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+        Database.getBufferPool().transactionComplete(warm);
+
+        System.out.println("cores: " + cores + ", cached pages: " + f.numPages());
+        double single = 0;
+        for (int n = 1; n <= maxThreads; n *= 2) {
+            double r = run(f, n, millis);
+            if (n == 1)
+                single = r;
+            BenchmarkUtil.report(n + " thread(s)", r, String.format("hits/s (x%.2f)", r / single));
+        }
+    }
+
+    private static double run(final HeapFile f, int threads, final int millis) throws Exception {
+        final AtomicLong hits = new AtomicLong();
+        final CyclicBarrier barrier = new CyclicBarrier(threads + 1);
+        final int numPages = f.numPages();
+        ArrayList<Thread> workers = new ArrayList<Thread>();
+
+        for (int t = 0; t < threads; t++) {
+            Thread w = new Thread() {
+                public void run() {
+                    TransactionId tid = new TransactionId();
+                    long count = 0;
+                    try {
+                        barrier.await();
+                        long end = System.nanoTime() + millis * 1000000L;
+                        while (System.nanoTime() < end) {
+                            for (int i = 0; i < numPages; i++)
+                                Database.getBufferPool().getPage(tid, new HeapPageId(f.getId(), i), Permissions.READ_ONLY);
+                            count += numPages;
+                        }
+                        Database.getBufferPool().transactionComplete(tid);
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    }
+                    hits.addAndGet(count);
+                }
+            };
+            w.start();
+            workers.add(w);
+        }
+
+        barrier.await();
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.join();
+        return BenchmarkUtil.rate(hits.get(), System.nanoTime() - start);
+    }
+}
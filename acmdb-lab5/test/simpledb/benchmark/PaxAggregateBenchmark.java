@@ -0,0 +1,88 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Compares aggregates over paperauths (paperid int, authorid int) stored as
+ * a HeapFile and as a PaxHeapFile, which stores each field of a page
+ * contiguously. Each query runs over a scan of all fields and over a scan
+ * of only the fields it reads (SeqScan with fields), in tuples per second.
+ * The PAX copy is loaded from paperauths with HeapFile.insertTuples. Every
+ * query starts from an empty BufferPool; the files stay in the OS page
+ * cache.
+ * <p>
+ * Tunables: -Dbench.rounds (queries per setting, default 10).
+ */
+public class PaxAggregateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 10);
+
+        BenchmarkUtil.loadDblp();
+        HeapFile heap = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("paperauths"));
+        HeapFile pax = BenchmarkUtil.copyTable("paperauths", PaxHeapFile.class, "paperauths_pax");
+        long rows = count(heap);
+        System.out.println("paperauths: " + heap.numPages() + " pages, " + rows + " tuples; PAX copy: "
+                + pax.numPages() + " pages");
+
+        HeapFile[] files = { heap, pax };
+        String[] formats = { "HeapFile", "PaxHeapFile" };
+        // per query: the fields a narrow scan reads, and the aggregate and
+        // group-by fields over a scan of all fields and of those fields
+        String[] queries = { "MAX(authorid)", "COUNT(paperid) GROUP BY authorid" };
+        int[][] scanned = { { 1 }, { 0, 1 } };
+        int[][] aggregate = { { 1, Aggregator.NO_GROUPING }, { 0, 1 } };
+        int[][] narrowed = { { 0, Aggregator.NO_GROUPING }, { 0, 1 } };
+        Aggregator.Op[] ops = { Aggregator.Op.MAX, Aggregator.Op.COUNT };
+
+        // warm up the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++)
+            for (HeapFile f : files)
+                for (int q = 0; q < queries.length; q++)
+                    for (boolean narrow : new boolean[] { false, true })
+                        run(f, narrow ? scanned[q] : null, narrow ? narrowed[q] : aggregate[q], ops[q]);
+
+        for (int q = 0; q < queries.length; q++) {
+            System.out.println(queries[q]);
+            for (int i = 0; i < files.length; i++) {
+                for (boolean narrow : new boolean[] { false, true }) {
+                    long elapsed = 0;
+                    for (int r = 0; r < rounds; r++) {
+                        long start = System.nanoTime();
+                        run(files[i], narrow ? scanned[q] : null, narrow ? narrowed[q] : aggregate[q], ops[q]);
+                        elapsed += System.nanoTime() - start;
+                    }
+                    BenchmarkUtil.report("  " + formats[i] + (narrow ? ", fields scanned" : ", all fields"),
+                            BenchmarkUtil.rate(rows * rounds, elapsed), "tuples/s");
+                }
+            }
+        }
+    }
+
+    /** Runs one aggregate over a scan of the given fields of f, from an empty pool. */
+    private static void run(HeapFile f, int[] fields, int[] aggregate, Aggregator.Op op) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, f.getId(), "t", fields), aggregate[0], aggregate[1], op);
+        agg.open();
+        while (agg.hasNext())
+            agg.next();
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static long count(HeapFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        long n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return n;
+    }
+}
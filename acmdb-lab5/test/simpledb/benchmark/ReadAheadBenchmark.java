@@ -0,0 +1,87 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.concurrent.TimeUnit;
+
+import simpledb.*;
+
+/**
+ * Measures cold scan throughput of paperauths with and without BufferPool
+ * read-ahead. Every scan starts from a fresh, empty buffer pool.
+ * <p>
+ * The DBLP files are small enough to stay in the OS page cache, so reads
+ * rarely wait for the disk. -Dbench.latencyus adds a fixed delay to every
+ * page read to model a device with that access latency (default 0, i.e.
+ * real reads only). -Dbench.rounds sets the scans per mode (default 5).
+ */
+public class ReadAheadBenchmark {
+
+    /** A HeapFile whose page reads take at least latencyNanos. */
+    static class SlowHeapFile extends HeapFile {
+        private final long latencyNanos;
+
+        SlowHeapFile(File f, TupleDesc td, long latencyNanos) {
+            super(f, td);
+            this.latencyNanos = latencyNanos;
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            long end = System.nanoTime() + latencyNanos;
+            Page page = super.readPage(pid);
+            long left = end - System.nanoTime();
+            if (left > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(left);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return page;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 5);
+        int latencyUs = BenchmarkUtil.intProperty("latencyus", 0);
+
+        BenchmarkUtil.loadDblp();
+        HeapFile paperauths = (HeapFile) Database.getCatalog().getDatabaseFile(
+                Database.getCatalog().getTableId("paperauths"));
+        HeapFile table = paperauths;
+        if (latencyUs > 0) {
+            table = new SlowHeapFile(paperauths.getFile(), paperauths.getTupleDesc(), latencyUs * 1000L);
+            Database.getCatalog().addTable(table, "paperauths_slow");
+        }
+        System.out.println("paperauths: " + table.numPages() + " pages, "
+                + latencyUs + "us added per read, " + rounds + " cold scans per mode");
+
+        for (int readAhead : new int[] { 0, BufferPool.DEFAULT_READ_AHEAD }) {
+            long pages = 0, tuples = 0, elapsed = 0, misses = 0;
+            for (int r = 0; r < rounds; r++) {
+                Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+                BufferPool bp = Database.getBufferPool();
+                bp.setMaxReadAhead(readAhead);
+
+                TransactionId tid = new TransactionId();
+                DbFileIterator it = table.iterator(tid);
+                long start = System.nanoTime();
+                it.open();
+                while (it.hasNext()) {
+                    it.next();
+                    tuples++;
+                }
+                it.close();
+                elapsed += System.nanoTime() - start;
+                bp.transactionComplete(tid);
+                pages += table.numPages();
+                misses += bp.getMissCount();
+            }
+
+            System.out.println(readAhead == 0 ? "synchronous reads" : "read-ahead up to " + readAhead + " pages");
+            BenchmarkUtil.report("  pages scanned", BenchmarkUtil.rate(pages, elapsed), "pages/s");
+            BenchmarkUtil.report("  tuples scanned", BenchmarkUtil.rate(tuples, elapsed), "tuples/s");
+            BenchmarkUtil.report("  scan waited on a read", 100.0 * misses / pages, "% of pages");
+        }
+    }
+}
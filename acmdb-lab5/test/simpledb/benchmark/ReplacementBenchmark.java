@@ -0,0 +1,129 @@
+package simpledb.benchmark;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+import simpledb.*;
+
+/**
+ * Measures the BufferPool hit ratio on a mixed DBLP workload: full scans of
+ * venues interleaved with point lookups through a B+ tree built over
+ * paperauths(paperid). With a 50 page pool the scan alone does not fit, so
+ * the hit ratio shows whether the replacement policy keeps the index pages
+ * that the lookups keep coming back to.
+ * <p>
+ * Every replacement policy is run twice: once with the scan reading pages
+ * like any other access, and once with the scan passing a use-once
+ * ScanRing.
+ * <p>
+ * Tunables: -Dbench.rounds (venues scans, default 5) and -Dbench.every
+ * (scanned tuples per index probe, default 20).
+ */
+public class ReplacementBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 5);
+        int every = BenchmarkUtil.intProperty("every", 20);
+
+        BenchmarkUtil.loadDblp();
+        int venues = Database.getCatalog().getTableId("venues");
+        BTreeFile index = buildIndex(Database.getCatalog().getTableId("paperauths"));
+        int[] keys = sampleKeys(index, 1000);
+        int pages = BufferPool.DEFAULT_PAGES;
+
+        String[] names = { "CLOCK", "LRU-2", "2Q" };
+        for (String name : names) {
+            for (boolean useRing : new boolean[] { false, true }) {
+                ReplacementPolicy policy = name.equals("CLOCK") ? new ClockPolicy(pages)
+                        : name.equals("LRU-2") ? new LruKPolicy(pages, 2) : new TwoQueuePolicy(pages);
+                Database.resetBufferPool(new BufferPool(pages, policy));
+                run(name + (useRing ? " + scan ring" : ""), venues, index, keys, rounds, every, useRing);
+            }
+        }
+    }
+
+    private static void run(String label, int table, BTreeFile index, int[] keys,
+            int rounds, int every, boolean useRing) throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(table);
+        TransactionId tid = new TransactionId();
+        Random rand = new Random(42);
+        long probes = 0;
+
+        long start = System.nanoTime();
+        for (int r = 0; r < rounds; r++) {
+            ScanRing ring = useRing ? new ScanRing() : null;
+            int n = 0;
+            for (int i = 0; i < f.numPages(); i++) {
+                HeapPage page = (HeapPage) bp.getPage(tid, new HeapPageId(table, i), Permissions.READ_ONLY, ring);
+                Iterator<Tuple> it = page.iterator();
+                for (; it.hasNext(); n++) {
+                    it.next();
+                    if (n % every == 0) {
+                        probe(index, tid, keys[rand.nextInt(keys.length)]);
+                        probes++;
+                    }
+                }
+            }
+        }
+        long elapsed = System.nanoTime() - start;
+        bp.transactionComplete(tid);
+
+        long hits = bp.getHitCount(), misses = bp.getMissCount();
+        System.out.println(label + " (" + probes + " index probes)");
+        BenchmarkUtil.report("  page misses", misses, "");
+        BenchmarkUtil.report("  hit ratio", 100.0 * hits / (hits + misses), "%");
+        BenchmarkUtil.report("  elapsed", elapsed / 1e6, "ms");
+    }
+
+    private static void probe(BTreeFile index, TransactionId tid, int key) throws Exception {
+        IndexPredicate ipred = new IndexPredicate(Predicate.Op.EQUALS, new IntField(key));
+        DbFileIterator it = index.indexIterator(tid, ipred);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+    }
+
+    /** Copies a two int column table into a new B+ tree keyed on field 0. */
+    private static BTreeFile buildIndex(int tableId) throws Exception {
+        ArrayList<ArrayList<Integer>> tuples = new ArrayList<ArrayList<Integer>>();
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, tableId);
+        scan.open();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            tuples.add(new ArrayList<Integer>(Arrays.asList(
+                    ((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue())));
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        File hFile = HeapFile.createTempFile("paperauths");
+        File bFile = File.createTempFile("paperauths_index", ".dat");
+        bFile.deleteOnExit();
+        return BTreeFileEncoder.convert(tuples, hFile, bFile, BufferPool.getPageSize(),
+                2, new Type[] { Type.INT_TYPE, Type.INT_TYPE }, ',', 0);
+    }
+
+    private static int[] sampleKeys(BTreeFile index, int n) throws Exception {
+        int[] keys = new int[n];
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = index.iterator(tid);
+        it.open();
+        Random rand = new Random(7);
+        for (int i = 0; it.hasNext(); i++) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            if (i < n)
+                keys[i] = key;
+            else if (rand.nextInt(i + 1) < n)
+                keys[rand.nextInt(n)] = key;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return keys;
+    }
+}
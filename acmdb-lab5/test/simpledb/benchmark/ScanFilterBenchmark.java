@@ -0,0 +1,120 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Measures SeqScan + Filter over venues, with an int predicate (year) and
+ * a string predicate (name LIKE), in tuples per second and bytes allocated
+ * per tuple scanned. Every scan starts from an empty BufferPool, so each
+ * page is read and decoded once per scan; the file stays in the OS page
+ * cache.
+ * <p>
+ * HeapPage hands out views of its slots, and Filter compares the stored
+ * bytes of the one field it looks at. For comparison the same scans run
+ * with every tuple materialized before the filter, which is what decoding
+ * whole pages up front, as HeapPage did before, costs.
+ * <p>
+ * Tunables: -Dbench.rounds (scans per setting, default 30).
+ */
+public class ScanFilterBenchmark {
+
+    /** Materializes every tuple of its child, i.e. decodes all of its fields. */
+    static class Materialize extends Operator {
+        private static final long serialVersionUID = 1L;
+        private DbIterator child;
+
+        Materialize(DbIterator child) {
+            this.child = child;
+        }
+
+        public TupleDesc getTupleDesc() {
+            return child.getTupleDesc();
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            child.open();
+            super.open();
+        }
+
+        public void close() {
+            super.close();
+            child.close();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            child.rewind();
+        }
+
+        protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+            return child.hasNext() ? child.next().materialize() : null;
+        }
+
+        public DbIterator[] getChildren() {
+            return new DbIterator[] { child };
+        }
+
+        public void setChildren(DbIterator[] children) {
+            child = children[0];
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 30);
+
+        BenchmarkUtil.loadDblp();
+        int tableId = Database.getCatalog().getTableId("venues");
+        HeapFile table = (HeapFile) Database.getCatalog().getDatabaseFile(tableId);
+        long rows = scan(tableId, new Predicate(0, Predicate.Op.NOT_EQUALS, new IntField(Integer.MIN_VALUE)), false);
+        System.out.println("venues: " + table.numPages() + " pages, " + rows + " tuples, "
+                + rounds + " cold scans per setting");
+
+        Predicate[] predicates = {
+            new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(2005)),
+            new Predicate(1, Predicate.Op.LIKE, new StringField("Data", Type.STRING_LEN)),
+        };
+        String[] names = { "year >= 2005", "name LIKE 'Data'" };
+
+        // warm up the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++)
+            for (Predicate p : predicates)
+                for (boolean materialize : new boolean[] { false, true })
+                    scan(tableId, p, materialize);
+
+        for (int i = 0; i < predicates.length; i++) {
+            for (boolean materialize : new boolean[] { true, false }) {
+                long tuples = 0, matches = 0, elapsed = 0, allocated = 0;
+                for (int r = 0; r < rounds; r++) {
+                    long bytes = BenchmarkUtil.allocatedBytes();
+                    long start = System.nanoTime();
+                    matches += scan(tableId, predicates[i], materialize);
+                    elapsed += System.nanoTime() - start;
+                    allocated += BenchmarkUtil.allocatedBytes() - bytes;
+                    tuples += rows;
+                }
+                System.out.println(names[i] + (materialize ? ", every tuple decoded" : ", tuple views")
+                        + ": " + matches / rounds + " matches");
+                BenchmarkUtil.report("  tuples scanned", BenchmarkUtil.rate(tuples, elapsed), "tuples/s");
+                BenchmarkUtil.report("  allocated", (double) allocated / tuples, "bytes/tuple");
+            }
+        }
+    }
+
+    /** @return the number of tuples that pass p, starting from an empty pool */
+    private static long scan(int tableId, Predicate p, boolean materialize) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator scan = new SeqScan(tid, tableId, "");
+        if (materialize)
+            scan = new Materialize(scan);
+        Filter filter = new Filter(p, scan);
+        long matches = 0;
+        filter.open();
+        while (filter.hasNext()) {
+            filter.next();
+            matches++;
+        }
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return matches;
+    }
+}
@@ -0,0 +1,69 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Compares full scans of venues stored as a HeapFile, where every name
+ * takes Type.STRING_LEN bytes, and as a SlottedHeapFile, where it takes
+ * its own length: pages and bytes read per scan, and tuples per second with
+ * a string predicate (name LIKE). The slotted copy is loaded from venues
+ * with HeapFile.insertTuples. Every scan starts from an empty BufferPool;
+ * the files stay in the OS page cache, so the time is the cost of reading
+ * them through the pool, not the disk.
+ * <p>
+ * Tunables: -Dbench.rounds (scans per format, default 30).
+ */
+public class SlottedScanBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 30);
+
+        BenchmarkUtil.loadDblp();
+        int heapId = Database.getCatalog().getTableId("venues");
+        HeapFile heap = (HeapFile) Database.getCatalog().getDatabaseFile(heapId);
+        HeapFile slotted = BenchmarkUtil.copyTable("venues", SlottedHeapFile.class, "venues_slotted");
+
+        HeapFile[] files = { heap, slotted };
+        String[] names = { "HeapFile", "SlottedHeapFile" };
+        Predicate p = new Predicate(1, Predicate.Op.LIKE, new StringField("Data", Type.STRING_LEN));
+
+        // warm up the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++)
+            for (HeapFile file : files)
+                scan(file, p);
+
+        for (int i = 0; i < files.length; i++) {
+            long tuples = 0, elapsed = 0, matches = 0;
+            for (int r = 0; r < rounds; r++) {
+                long start = System.nanoTime();
+                long[] counts = scan(files[i], p);
+                elapsed += System.nanoTime() - start;
+                tuples += counts[0];
+                matches += counts[1];
+            }
+            System.out.println(names[i] + ": " + files[i].numPages() + " pages, "
+                    + tuples / rounds + " tuples, " + matches / rounds + " matches");
+            BenchmarkUtil.report("  read per scan",
+                    files[i].numPages() * (double) BufferPool.getPageSize() / 1024, "KB");
+            BenchmarkUtil.report("  tuples per page", (double) tuples / rounds / files[i].numPages(), "tuples");
+            BenchmarkUtil.report("  tuples scanned", BenchmarkUtil.rate(tuples, elapsed), "tuples/s");
+        }
+    }
+
+    /** @return the number of tuples scanned and the number that pass p, from an empty pool */
+    private static long[] scan(HeapFile file, Predicate p) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = file.iterator(tid);
+        long tuples = 0, matches = 0;
+        it.open();
+        while (it.hasNext()) {
+            if (p.filter(it.next()))
+                matches++;
+            tuples++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[] { tuples, matches };
+    }
+}
@@ -0,0 +1,98 @@
+package simpledb.benchmark;
+
+import simpledb.*;
+
+/**
+ * Measures end-to-end throughput and allocation of queries over the int
+ * fields of the DBLP tables, whose operators read ints through
+ * Tuple.getInt and build their results as tuples that keep ints unboxed:
+ * <ul>
+ * <li>SUM(paperid) over paperauths WHERE authorid &gt; 100000 (Filter,
+ * Predicate, IntegerAggregator);</li>
+ * <li>paperauths ORDER BY authorid (OrderBy's TupleComparator);</li>
+ * <li>paperauths JOIN paperauths ON paperid (HashEquiJoin);</li>
+ * <li>venues JOIN venues ON id, both sides WHERE id &lt; 500 (the nested
+ * loops Join, JoinPredicate).</li>
+ * </ul>
+ * Each reports queries per second, output tuples per second and bytes
+ * allocated per query. Every query starts from an empty BufferPool; the
+ * files stay in the OS page cache.
+ * <p>
+ * Tunables: -Dbench.rounds (queries per setting, default 10).
+ */
+public class TupleBenchmark {
+
+    private static final String[] QUERIES = {
+        "SUM(paperid) WHERE authorid > 100000",
+        "paperauths ORDER BY authorid",
+        "paperauths JOIN paperauths ON paperid",
+        "venues JOIN venues ON id WHERE id < 500",
+    };
+
+    public static void main(String[] args) throws Exception {
+        int rounds = BenchmarkUtil.intProperty("rounds", 10);
+        BenchmarkUtil.loadDblp();
+
+        // warm up the JIT and the OS page cache
+        for (int r = 0; r < rounds / 2; r++)
+            for (int q = 0; q < QUERIES.length; q++)
+                run(q);
+
+        for (int q = 0; q < QUERIES.length; q++) {
+            long tuples = 0, elapsed = 0, allocated = 0;
+            for (int r = 0; r < rounds; r++) {
+                long bytes = BenchmarkUtil.allocatedBytes();
+                long start = System.nanoTime();
+                tuples += run(q);
+                elapsed += System.nanoTime() - start;
+                allocated += BenchmarkUtil.allocatedBytes() - bytes;
+            }
+            System.out.println(QUERIES[q] + ": " + tuples / rounds + " output tuples");
+            BenchmarkUtil.report("  throughput", BenchmarkUtil.rate(rounds, elapsed), "queries/s");
+            BenchmarkUtil.report("  throughput", BenchmarkUtil.rate(tuples, elapsed), "output tuples/s");
+            BenchmarkUtil.report("  allocated", (double) allocated / rounds / (1 << 20), "MB/query");
+        }
+    }
+
+    private static int table(String name) {
+        return Database.getCatalog().getTableId(name);
+    }
+
+    /**
+     * Runs query q from an empty pool.
+     *
+     * @return the number of tuples the query returned
+     */
+    private static long run(int q) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        DbIterator plan;
+        switch (q) {
+        case 0:
+            plan = new Aggregate(new Filter(new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(100000)),
+                    new SeqScan(tid, table("paperauths"), "p")), 0, Aggregator.NO_GROUPING, Aggregator.Op.SUM);
+            break;
+        case 1:
+            plan = new OrderBy(1, true, new SeqScan(tid, table("paperauths"), "p"));
+            break;
+        case 2:
+            plan = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new SeqScan(tid, table("paperauths"), "a"), new SeqScan(tid, table("paperauths"), "b"));
+            break;
+        default:
+            Predicate small = new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500));
+            plan = new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                    new Filter(small, new SeqScan(tid, table("venues"), "a")),
+                    new Filter(small, new SeqScan(tid, table("venues"), "b")));
+        }
+        long tuples = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            tuples++;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return tuples;
+    }
+}
@@ -28,8 +28,7 @@ public class QueryTest {
 	 * @throws IOException if a temporary file can't be created to hand to HeapFile to open and read its data
 	 */
 	public static HeapFile createDuplicateHeapFile(ArrayList<ArrayList<Integer>> tuples, int columns, String colPrefix) throws IOException {
-        File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        File temp = HeapFile.createTempFile("table");
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return Utility.openHeapFile(columns, colPrefix, temp);
 	}
@@ -0,0 +1,268 @@
+package simpledb.systemtest;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * Crashes the database at interesting points and checks what recover()
+ * makes of the log. A crash is simulated with Database.reset(), which drops
+ * the buffer pool and the log's in-memory state without writing anything;
+ * the table files and the log file stay as they were. The page cleaner is
+ * off, so that only the code under test writes pages.
+ */
+public class RecoveryTest extends SimpleDbTestBase {
+    private static final File LOG = new File("log");
+
+    private File file;
+    private HeapFile table;
+    private BTreeFile index;
+    private ArrayList<ArrayList<Integer>> committed;
+    private int nextValue;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        committed = new ArrayList<ArrayList<Integer>>();
+        // four pages, the last one partly full
+        file = SystemTestUtil.createRandomHeapFileUnopened(2, 2000, 1 << 16, null, committed);
+        table = Utility.openHeapFile(2, file);
+        index = null;
+        nextValue = 1;
+        Database.getBufferPool().setCleanerRate(0);
+    }
+
+    private void resetBufferPool(int pages) {
+        Database.resetBufferPool(pages).setCleanerRate(0);
+    }
+
+    /** Inserts n new tuples on behalf of t, which are also added to tuples. */
+    private void insert(Transaction t, DbFile f, int n, ArrayList<ArrayList<Integer>> tuples)
+            throws Exception {
+        for (int i = 0; i < n; i++) {
+            int v = nextValue++;
+            Tuple tup = Utility.getHeapTuple(new int[] { -v, v });
+            Database.getBufferPool().insertTuple(t.getId(), f.getId(), tup);
+            if (tuples != null)
+                tuples.add(SystemTestUtil.tupleToList(tup));
+        }
+    }
+
+    private Transaction begin() {
+        Transaction t = new Transaction();
+        t.start();
+        return t;
+    }
+
+    /** Loses everything that is not on disk or in the log. */
+    private void crash() {
+        Database.reset();
+        Database.getBufferPool().setCleanerRate(0);
+        table = Utility.openHeapFile(2, file);
+        if (index != null)
+            index = BTreeUtility.openBTreeFile(2, index.getFile(), 0);
+    }
+
+    private void crashAndRecover() throws IOException {
+        crash();
+        Database.getLogFile().recover();
+    }
+
+    /** @return how many of the given tuples the table file itself holds */
+    private int countOnDisk(ArrayList<ArrayList<Integer>> tuples) {
+        ArrayList<ArrayList<Integer>> onDisk = new ArrayList<ArrayList<Integer>>();
+        for (int p = 0; p < table.numPages(); p++) {
+            HeapPage page = (HeapPage) table.readPage(new HeapPageId(table.getId(), p));
+            for (Iterator<Tuple> it = page.iterator(); it.hasNext(); )
+                onDisk.add(SystemTestUtil.tupleToList(it.next()));
+        }
+        int n = 0;
+        for (ArrayList<Integer> t : tuples)
+            if (onDisk.contains(t))
+                n++;
+        return n;
+    }
+
+    @Test public void committedChangesAreRedone() throws Exception {
+        ArrayList<ArrayList<Integer>> added = new ArrayList<ArrayList<Integer>>();
+        Transaction t = begin();
+        insert(t, table, 10, added);
+        t.commit();
+
+        // NO FORCE: the commit only reached the log
+        assertEquals(0, countOnDisk(added));
+
+        crashAndRecover();
+        committed.addAll(added);
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    @Test public void stolenPagesOfLosersAreUndone() throws Exception {
+        resetBufferPool(2);
+        ArrayList<ArrayList<Integer>> added = new ArrayList<ArrayList<Integer>>();
+        Transaction t = begin();
+        insert(t, table, 1200, added);
+
+        // STEAL: a pool of two pages had to write uncommitted pages
+        assertTrue(countOnDisk(added) > 0);
+
+        crashAndRecover();
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    @Test public void abortRollsBackStolenPages() throws Exception {
+        resetBufferPool(2);
+        Transaction t = begin();
+        insert(t, table, 1200, null);
+        t.abort();
+        SystemTestUtil.matchTuples(table, committed);
+
+        crashAndRecover();
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    @Test public void abortThenCommitOnSamePages() throws Exception {
+        resetBufferPool(2);
+        Transaction t1 = begin();
+        insert(t1, table, 1200, null);
+        t1.abort();
+
+        Transaction t2 = begin();
+        insert(t2, table, 600, committed);
+        t2.commit();
+
+        crashAndRecover();
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    @Test public void recoverFromCheckpoint() throws Exception {
+        ArrayList<ArrayList<Integer>> indexed = new ArrayList<ArrayList<Integer>>();
+        index = BTreeUtility.createRandomBTreeFile(2, 1000, null, indexed, 0);
+        resetBufferPool(20);
+
+        Transaction t1 = begin();
+        insert(t1, table, 10, committed);
+        t1.commit();
+
+        // t2 is still running at the checkpoint, so it has updates on both
+        // sides of it
+        Transaction t2 = begin();
+        insert(t2, table, 300, null);
+        Database.getLogFile().logCheckpoint();
+        insert(t2, table, 300, null);
+
+        Transaction t3 = begin();
+        insert(t3, index, 1000, indexed);
+        t3.commit();
+
+        crashAndRecover();
+        SystemTestUtil.matchTuples(table, committed);
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new BTreeScan(tid, index.getId(), "", null), indexed);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void recoveryCanBeRepeated() throws Exception {
+        resetBufferPool(2);
+        Transaction t1 = begin();
+        insert(t1, table, 10, committed);
+        t1.commit();
+        Transaction t2 = begin();
+        insert(t2, table, 1200, null);
+
+        crashAndRecover();
+        crashAndRecover();
+        SystemTestUtil.matchTuples(table, committed);
+
+        // the recovered database keeps working and recovering
+        Transaction t3 = begin();
+        insert(t3, table, 10, committed);
+        t3.commit();
+        crashAndRecover();
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    @Test public void tornCommitRecordIsRolledBack() throws Exception {
+        Transaction t1 = begin();
+        insert(t1, table, 10, committed);
+        t1.commit();
+        Transaction t2 = begin();
+        insert(t2, table, 10, null);
+        t2.commit();
+
+        // the crash cut the last record, t2's COMMIT, short
+        crash();
+        RandomAccessFile raf = new RandomAccessFile(LOG, "rw");
+        raf.setLength(raf.length() - 4);
+        raf.close();
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(table, committed);
+    }
+
+    /**
+     * The free-space map is a hint written without forcing; recovery
+     * rebuilds it from the recovered pages.
+     */
+    @Test public void freeSpaceMapIsRebuilt() throws Exception {
+        Transaction t = begin();
+        insert(t, table, 1, committed);
+        t.commit();
+        assertEquals(3, table.getFreeSpaceMap().find(0));
+        // as if the map had lost track of the free slots of the last page
+        table.getFreeSpaceMap().update(3, false);
+        assertEquals(-1, table.getFreeSpaceMap().find(0));
+
+        crashAndRecover();
+        assertEquals(3, table.getFreeSpaceMap().find(0));
+        t = begin();
+        insert(t, table, 1, committed);
+        t.commit();
+        assertEquals(4, table.numPages());
+    }
+
+    /**
+     * A bulk load into a table without tuples logs no pages: recovery cuts
+     * the pages off if the load did not commit, and keeps the pages the
+     * commit forced if it did.
+     */
+    @Test public void bulkLoadsIntoEmptyTables() throws Exception {
+        File emptyFile = SystemTestUtil.createRandomHeapFileUnopened(2, 0, 1 << 16, null, null);
+        HeapFile loaded = Utility.openHeapFile(2, emptyFile);
+        ArrayList<Tuple> batch = new ArrayList<Tuple>();
+        ArrayList<ArrayList<Integer>> added = new ArrayList<ArrayList<Integer>>();
+        for (int i = 0; i < 3000; i++) {
+            batch.add(Utility.getHeapTuple(new int[] { i, -i }));
+            added.add(SystemTestUtil.tupleToList(batch.get(i)));
+        }
+
+        Transaction t = begin();
+        Database.getBufferPool().insertTuples(t.getId(), loaded.getId(), batch.iterator());
+        // the file starts with an empty page
+        assertEquals(7, loaded.numPages());
+        crash();
+        loaded = Utility.openHeapFile(2, emptyFile);
+        Database.getLogFile().recover();
+        assertEquals(1, loaded.numPages());
+
+        t = begin();
+        Database.getBufferPool().insertTuples(t.getId(), loaded.getId(), batch.iterator());
+        t.commit();
+        crash();
+        loaded = Utility.openHeapFile(2, emptyFile);
+        Database.getLogFile().recover();
+        SystemTestUtil.matchTuples(loaded, added);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(RecoveryTest.class);
+    }
+}
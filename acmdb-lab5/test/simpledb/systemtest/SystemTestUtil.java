@@ -79,8 +79,7 @@ public class SystemTestUtil {
         }
 
         // Convert the tuples list to a heap file and open it
-        File temp = File.createTempFile("table", ".dat");
-        temp.deleteOnExit();
+        File temp = HeapFile.createTempFile("table");
         HeapFileEncoder.convert(tuples, temp, BufferPool.getPageSize(), columns);
         return temp;
     }